@@ -0,0 +1,111 @@
+package pizzastore.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.load.BulkLoader;
+import pizzastore.schema.Migrator;
+
+/**
+ * The database every benchmark in a JMH fork runs against.
+ *
+ * By default a throwaway postgres is started from the embedded binaries,
+ * the tables in sql/src are created, the sample CSVs in data/ are copied in
+ * and the migrations in sql/migrations are applied.  System properties change that:
+ *
+ * <pre>
+ *   -Dpizzastore.bench.url=jdbc:postgresql://localhost:5432/db   use an existing, loaded database
+ *   -Dpizzastore.bench.user=postgres                             its user (no password)
+ *   -Dpizzastore.bench.orders=500000                             generate this many orders instead of the CSVs
+ *   -Dpizzastore.bench.root=..                                   the project directory holding sql/ and data/
+ * </pre>
+ *
+ * JMH passes -D options to the forks with -jvmArgsAppend.
+ *
+ */
+final class BenchDatabase {
+
+   private static BenchDatabase shared;
+
+   private final EmbeddedPostgres embedded;
+   private final ConnectionPool pool;
+   private final Database db;
+
+   private BenchDatabase(EmbeddedPostgres embedded, String url, String user) throws SQLException {
+      this.embedded = embedded;
+      this.pool = new ConnectionPool(url, user, "", new ConnectionPool.Config().minSize(1).maxSize(4));
+      this.db = new Database(pool);
+   }
+
+   /**
+    * @return the database of this JVM, started and loaded on first use
+    */
+   static synchronized BenchDatabase get() throws SQLException, IOException {
+      if (shared != null) return shared;
+      String url = System.getProperty("pizzastore.bench.url");
+      if (url != null) {
+         shared = new BenchDatabase(null, url, System.getProperty("pizzastore.bench.user", "postgres"));
+      } else {
+         EmbeddedPostgres pg = EmbeddedPostgres.builder().start();
+         File root = new File(System.getProperty("pizzastore.bench.root", ".."));
+         url = pg.getJdbcUrl("postgres", "postgres");
+         try (Connection conn = DriverManager.getConnection(url, "postgres", "");
+              Statement stmt = conn.createStatement()) {
+            stmt.execute(read(new File(root, "sql/src/create_tables.sql")));
+         }
+         shared = new BenchDatabase(pg, url, "postgres");
+         shared.load(new File(root, "data"), Long.getLong("pizzastore.bench.orders", 0));
+         new Migrator(shared.pool, new File(root, "sql/migrations").toPath()).migrate();
+      }
+      BenchDatabase started = shared;
+      Runtime.getRuntime().addShutdownHook(new Thread(started::close, "bench-db-shutdown"));
+      return started;
+   }//end get
+
+   private void load(File dataDir, long orders) throws SQLException, IOException {
+      BulkLoader loader = new BulkLoader(pool, 4);
+      try {
+         if (orders > 0) {
+            loader.generate(dataDir, 166, Math.max(1000, orders / 50), Math.max(100, orders / 1000),
+               orders, 5, 365);
+         } else {
+            loader.loadCsv(dataDir);
+         }
+      } finally {
+         loader.shutdown();
+      }
+   }//end load
+
+   private static String read(File file) throws IOException {
+      return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+   }//end read
+
+   ConnectionPool pool() {
+      return pool;
+   }//end pool
+
+   Database db() {
+      return db;
+   }//end db
+
+   private void close() {
+      pool.close();
+      if (embedded == null) return;
+      try {
+         embedded.close();
+      } catch (IOException e) {
+         System.err.println("Could not stop the embedded database: " + e.getMessage());
+      }
+   }//end close
+
+}//end BenchDatabase
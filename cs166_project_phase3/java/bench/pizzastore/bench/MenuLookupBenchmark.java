@@ -0,0 +1,75 @@
+package pizzastore.bench;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pizzastore.db.Database;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.menu.MenuItem;
+import pizzastore.storage.postgres.PostgresItems;
+
+/**
+ * Looking an item up by name regardless of case, the way the order and
+ * menu-update screens do: in the cached menu snapshot against a
+ * LOWER(itemName) query.  Names are typed in mixed case and cycle through
+ * the whole menu plus a few that do not exist.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MenuLookupBenchmark {
+
+   private MenuCatalog.Snapshot menu;
+   private Database db;
+   private String[] names;
+   private int next;
+
+   @Setup
+   public void setUp() throws Exception {
+      BenchDatabase bench = BenchDatabase.get();
+      db = bench.db();
+      menu = new MenuCatalog(new PostgresItems(bench.db())).reload();
+      List<MenuItem> items = menu.all();
+      SplittableRandom random = new SplittableRandom(166);
+      names = new String[256];
+      for (int i = 0; i < names.length; i++) {
+         // one name in sixteen is not on the menu
+         String name = i % 16 == 15 ? "No Such Item " + i : items.get(i % items.size()).itemName().trim();
+         names[i] = random.nextBoolean() ? name.toUpperCase(Locale.ROOT) : " " + name.toLowerCase(Locale.ROOT);
+      }
+   }
+
+   @Benchmark
+   public MenuItem snapshot() {
+      return menu.find(nextName());
+   }//end snapshot
+
+   @Benchmark
+   public List<List<String>> query() throws SQLException {
+      return db.executeQueryAndReturnResult(
+         "SELECT * FROM Items WHERE LOWER(itemName) = LOWER(TRIM(?));", nextName());
+   }//end query
+
+   private String nextName() {
+      return names[next++ & (names.length - 1)];
+   }//end nextName
+
+}//end MenuLookupBenchmark
@@ -0,0 +1,83 @@
+package pizzastore.bench;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pizzastore.db.Database;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.menu.MenuItem;
+import pizzastore.order.OrderPlacer;
+import pizzastore.storage.postgres.PostgresItems;
+
+/**
+ * The order-total computation of placeOrder: resolving and pricing the
+ * lines in memory with {@link OrderPlacer#price} against one price query
+ * per line, which is how the total used to be computed.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderTotalBenchmark {
+
+   /**
+    * The number of distinct items in the order.
+    */
+   @Param({ "1", "4", "12" })
+   public int lines;
+
+   private MenuCatalog.Snapshot menu;
+   private Database db;
+   private Map<String, Integer> order;
+
+   @Setup
+   public void setUp() throws Exception {
+      BenchDatabase bench = BenchDatabase.get();
+      db = bench.db();
+      menu = new MenuCatalog(new PostgresItems(bench.db())).reload();
+      List<MenuItem> items = menu.all();
+      SplittableRandom random = new SplittableRandom(166);
+      order = new LinkedHashMap<>();
+      while (order.size() < Math.min(lines, items.size())) {
+         order.put(items.get(random.nextInt(items.size())).itemName().trim(), 1 + random.nextInt(3));
+      }
+   }
+
+   @Benchmark
+   public BigDecimal inMemory() {
+      return OrderPlacer.price(menu, order).total();
+   }//end inMemory
+
+   @Benchmark
+   public BigDecimal queryPerLine() throws SQLException {
+      BigDecimal total = BigDecimal.ZERO;
+      for (Map.Entry<String, Integer> line : order.entrySet()) {
+         BigDecimal price = db.queryOne("SELECT price FROM Items WHERE LOWER(itemName) = LOWER(?);",
+            rs -> rs.getBigDecimal(1), line.getKey());
+         if (price == null) continue;
+         total = total.add(price.multiply(BigDecimal.valueOf(line.getValue())));
+      }
+      return total;
+   }//end queryPerLine
+
+}//end OrderTotalBenchmark
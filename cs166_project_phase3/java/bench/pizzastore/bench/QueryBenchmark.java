@@ -0,0 +1,122 @@
+package pizzastore.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pizzastore.db.Database;
+import pizzastore.db.RowMapper;
+import pizzastore.menu.MenuItem;
+import pizzastore.order.OrderRow;
+import pizzastore.store.Store;
+
+/**
+ * Row materialization of executeQueryAndReturnResult into
+ * List&lt;List&lt;String&gt;&gt; against the tab-separated rendering of
+ * executeQueryAndPrintResult, over result sets of different shapes.  The
+ * printed rows go to a discarding stream, so the rendering and character
+ * encoding are measured but not the terminal.  The typed variants read the
+ * same rows into records with a {@link RowMapper}, and the scan reads the
+ * integral columns into reusable primitive batches.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+   /**
+    * stores: every Store row, the widest listing the client prints;
+    * menu: the whole Items table;
+    * recent: the newest 100 orders as the order listing shows them.
+    */
+   @Param({ "stores", "menu", "recent" })
+   public String result;
+
+   private Database db;
+   private String query;
+   private String typedQuery;
+   private RowMapper<?> mapper;
+   private String scanQuery;
+   private PrintStream sink;
+
+   @Setup
+   public void setUp() throws Exception {
+      db = BenchDatabase.get().db();
+      switch (result) {
+         case "stores":
+            query = "SELECT * FROM Store;";
+            typedQuery = "SELECT " + Store.COLUMNS + " FROM Store;";
+            mapper = Store::fromRow;
+            scanQuery = "SELECT storeID, (reviewScore * 10)::bigint FROM Store;";
+            break;
+         case "menu":
+            query = "SELECT * FROM Items;";
+            typedQuery = "SELECT itemName, ingredients, typeOfItem, price, description FROM Items;";
+            mapper = rs -> new MenuItem(rs.getString(1), rs.getString(2), rs.getString(3),
+               rs.getBigDecimal(4), rs.getString(5));
+            scanQuery = "SELECT (price * 100)::bigint FROM Items;";
+            break;
+         case "recent":
+            query = typedQuery = "SELECT " + OrderRow.COLUMNS + " FROM FoodOrder ORDER BY orderID DESC LIMIT 100;";
+            mapper = OrderRow::fromRow;
+            scanQuery = "SELECT orderID, storeID, (totalPrice * 100)::bigint FROM FoodOrder "
+               + "ORDER BY orderID DESC LIMIT 100;";
+            break;
+         default: throw new IllegalArgumentException("unknown result " + result);
+      }
+      sink = new PrintStream(OutputStream.nullOutputStream());
+   }
+
+   @Benchmark
+   public List<List<String>> returnResult() throws SQLException {
+      return db.executeQueryAndReturnResult(query);
+   }//end returnResult
+
+   @Benchmark
+   public int printResult() throws SQLException {
+      return db.executeQueryAndPrintResult(sink, query);
+   }//end printResult
+
+   @Benchmark
+   public List<?> typedRows() throws SQLException {
+      return db.query(typedQuery, mapper);
+   }//end typedRows
+
+   @Benchmark
+   public long scanColumns() throws SQLException {
+      long[] sum = new long[1];
+      db.scan(scanQuery, 1024, batch -> {
+         long[] last = batch.column(0);
+         for (int i = 0; i < batch.size(); i++) sum[0] += last[i];
+      });
+      return sum[0];
+   }//end scanColumns
+
+   /**
+    * The round trip without building any strings, as a floor for the two
+    * above.
+    */
+   @Benchmark
+   public int countRows() throws SQLException {
+      return db.executeQuery(query);
+   }//end countRows
+
+}//end QueryBenchmark
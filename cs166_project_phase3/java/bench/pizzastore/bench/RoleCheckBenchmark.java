@@ -0,0 +1,85 @@
+package pizzastore.bench;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pizzastore.db.Database;
+import pizzastore.service.PizzaService;
+import pizzastore.session.Role;
+import pizzastore.session.Session;
+import pizzastore.session.SessionRegistry;
+
+/**
+ * The permission check in front of every manager and driver operation:
+ * the session fast path of {@link PizzaService#refresh}, the refresh after
+ * the user's role was changed, and reading the role from Users on every
+ * call as the client did before sessions.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoleCheckBenchmark {
+
+   private PizzaService service;
+   private Database db;
+   private Session session;
+   private Session stale;
+   private String login;
+   private String storedRole;
+
+   @Setup
+   public void setUp() throws Exception {
+      BenchDatabase bench = BenchDatabase.get();
+      service = new PizzaService(bench.pool());
+      db = bench.db();
+      List<List<String>> manager = db.executeQueryAndReturnResult(
+         "SELECT login, password, role FROM Users WHERE TRIM(role) = 'manager' LIMIT 1;");
+      if (manager.isEmpty()) throw new IllegalStateException("the benchmark data has no manager");
+      login = manager.get(0).get(0).trim();
+      storedRole = manager.get(0).get(2);
+      session = service.logIn(login, manager.get(0).get(1).trim());
+      // a version the service's registry never hands out, as after a role change
+      stale = new SessionRegistry().open(login, Role.MANAGER, -1);
+   }
+
+   @Benchmark
+   public boolean session() throws SQLException {
+      return service.refresh(session).role().isManager();
+   }//end session
+
+   @Benchmark
+   public boolean staleSession() throws SQLException {
+      return service.refresh(stale).role().isManager();
+   }//end staleSession
+
+   @Benchmark
+   public boolean queryEveryCall() throws SQLException {
+      Role role = db.queryOne("SELECT role FROM Users WHERE login = ?;", rs -> Role.parse(rs.getString(1)), login);
+      return role != null && role.isManager();
+   }//end queryEveryCall
+
+   /**
+    * Parsing the blank-padded char(20) column alone.
+    */
+   @Benchmark
+   public Role parse() {
+      return Role.parse(storedRole);
+   }//end parse
+
+}//end RoleCheckBenchmark
@@ -0,0 +1,79 @@
+package pizzastore.bench;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pizzastore.db.Database;
+import pizzastore.service.PizzaService;
+import pizzastore.storage.postgres.PostgresStores;
+import pizzastore.store.Store;
+import pizzastore.store.StoreDirectory;
+
+/**
+ * "Open stores in this city and state, best reviewed first": in the store
+ * directory snapshot against the equivalent query.  The cities cycle
+ * through real ones, each searched by its first four letters.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreSearchBenchmark {
+
+   private StoreDirectory.Snapshot stores;
+   private Database db;
+   private String[][] searches;
+   private int next;
+
+   @Setup
+   public void setUp() throws Exception {
+      BenchDatabase bench = BenchDatabase.get();
+      db = bench.db();
+      stores = new StoreDirectory(new PostgresStores(bench.db())).reload();
+      List<Store> all = new ArrayList<>(stores.all());
+      SplittableRandom random = new SplittableRandom(166);
+      searches = new String[256][];
+      for (int i = 0; i < searches.length; i++) {
+         Store s = all.get(random.nextInt(all.size()));
+         String city = s.city().trim();
+         searches[i] = new String[] { s.state().trim(), city.substring(0, Math.min(4, city.length())) };
+      }
+   }
+
+   @Benchmark
+   public List<Store> snapshot() {
+      String[] search = nextSearch();
+      return stores.search(search[0], search[1], true, PizzaService.STORE_SEARCH_LIMIT);
+   }//end snapshot
+
+   @Benchmark
+   public List<Store> query() throws SQLException {
+      String[] search = nextSearch();
+      return db.query("SELECT " + Store.COLUMNS + " FROM Store WHERE LOWER(state) = LOWER(?) "
+         + "AND LOWER(city) LIKE LOWER(?) || '%' AND isOpen = 'yes' "
+         + "ORDER BY reviewScore DESC NULLS LAST, storeID LIMIT ?;", Store::fromRow,
+         search[0], search[1], PizzaService.STORE_SEARCH_LIMIT);
+   }//end query
+
+   private String[] nextSearch() {
+      return searches[next++ & (searches.length - 1)];
+   }//end nextSearch
+
+}//end StoreSearchBenchmark
@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# The HTTP API runs every request on a virtual thread on JDK 21 or newer;
+# older JDKs fall back to platform threads.
+
+# compile the java program
+javac -d $DIR/../classes -sourcepath $DIR/../src $DIR/../src/pizzastore/http/ApiServer.java
+
+#run the HTTP API
+#Use your database name, port number, login and the port to serve HTTP on (default 8080)
+#Pool sizing can be tuned via JAVA_OPTS, e.g. "-Dpizzastore.pool.max=16"
+#Reads can go to streaming replicas, e.g. "-Dpizzastore.replicas=jdbc:postgresql://localhost:5434/mydb"
+#Orders can be split by store over several databases (see shard.sh), e.g. "-Dpizzastore.shards=jdbc:postgresql://host1:5432/mydb,jdbc:postgresql://host2:5432/mydb"
+java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.http.ApiServer $USER"_project_phase_3_DB" $PGPORT $USER ${HTTP_PORT:-8080}
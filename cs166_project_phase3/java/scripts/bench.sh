@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# build the JMH benchmarks (needs Maven; downloads JMH and the embedded postgres binaries)
+(cd $DIR/.. && mvn -B -q -Pbench package -DskipTests) || exit 1
+
+#run the benchmarks against a throwaway embedded database loaded with ../data
+#Arguments are passed to JMH, e.g. "QueryBenchmark -f 1 -wi 2 -i 3"
+#To run against an existing database instead:
+#  -jvmArgsAppend "-Dpizzastore.bench.url=jdbc:postgresql://localhost:$PGPORT/<db> -Dpizzastore.bench.user=$USER"
+cd $DIR/.. && java -jar target/benchmarks.jar "$@"
@@ -3,9 +3,11 @@ DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 
 
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/PizzaStore.java
+javac -d $DIR/../classes -sourcepath $DIR/../src $DIR/../src/PizzaStore.java
 
 #run the java program
 #Use your database name, port number and login
-java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PizzaStore $USER"_project_phase_3_DB" $PGPORT $USER
+#Pool sizing can be tuned via JAVA_OPTS, e.g. "-Dpizzastore.pool.max=16"
+#Reads can go to streaming replicas, e.g. "-Dpizzastore.replicas=jdbc:postgresql://localhost:5434/mydb"
+java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar PizzaStore $USER"_project_phase_3_DB" $PGPORT $USER
 
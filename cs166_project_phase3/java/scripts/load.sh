@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes -cp $DIR/../lib/postgresql-42.7.4.jar -sourcepath $DIR/../src $DIR/../src/pizzastore/load/BulkLoader.java
+
+#run the bulk loader; pass "load" to copy the CSV files in data/, or "generate" for synthetic data, e.g.
+#  ./load.sh load
+#  ./load.sh generate --truncate --orders 10000000 --users 1000000 --stores 5000 --threads 8
+MODE=${1:-load}
+shift
+java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.load.BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER $MODE $DIR/../../data "$@"
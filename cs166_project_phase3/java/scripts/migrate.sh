@@ -0,0 +1,22 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes -sourcepath $DIR/../src $DIR/../src/pizzastore/schema/Migrator.java $DIR/../src/pizzastore/schema/PlanChecker.java $DIR/../src/pizzastore/schema/PartitionMaintainer.java
+
+#apply the pending migrations in sql/migrations ("migrate", the default) or list them ("status"), e.g.
+#  ./migrate.sh
+#  ./migrate.sh status
+#check the plans of the application's statements against a generated dataset:
+#  ./migrate.sh check [--ops N] [--min-rows N]
+#create the coming order months and archive old ones (migration V5):
+#  ./migrate.sh partitions [--ahead N] [--keep N]
+MODE=${1:-migrate}
+shift
+if [ "$MODE" = "check" ]; then
+  java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.schema.PlanChecker $USER"_project_phase_3_DB" $PGPORT $USER "$@"
+elif [ "$MODE" = "partitions" ]; then
+  java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.schema.PartitionMaintainer $USER"_project_phase_3_DB" $PGPORT $USER "$@"
+else
+  java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.schema.Migrator $USER"_project_phase_3_DB" $PGPORT $USER $MODE $DIR/../../sql/migrations
+fi
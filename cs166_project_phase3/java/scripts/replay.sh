@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes -sourcepath $DIR/../src $DIR/../src/pizzastore/workload/ReplayDriver.java $DIR/../src/pizzastore/workload/WorkloadGenerator.java
+
+#replay a workload file against the database and print throughput and latency percentiles, e.g.
+#  ./replay.sh ../workloads/sample.jsonl --concurrency 16 --loops 10
+#  ./replay.sh ../workloads/sample.jsonl --concurrency 32 --rate 2000 --duration 60 --warmup 10
+#a new workload can be drawn from the data in the database with
+#  java -cp ../classes:../lib/postgresql-42.7.4.jar pizzastore.workload.WorkloadGenerator <dbname> <port> <user> out.jsonl --ops 100000
+WORKLOAD=${1:-$DIR/../workloads/sample.jsonl}
+shift
+java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.workload.ReplayDriver $USER"_project_phase_3_DB" $PGPORT $USER $WORKLOAD "$@"
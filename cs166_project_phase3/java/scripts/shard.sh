@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes -cp $DIR/../lib/postgresql-42.7.4.jar -sourcepath $DIR/../src $DIR/../src/pizzastore/load/ShardSplitter.java
+
+#move the orders of each shard's stores off this database; the shards need the schema and migrations first, e.g.
+#  JAVA_OPTS="-Dpizzastore.shards=jdbc:postgresql://host1:5432/pizza,jdbc:postgresql://host2:5432/pizza" ./shard.sh
+#then start the application with the same -Dpizzastore.shards (and -Dpizzastore.shards.stores, if any)
+java $JAVA_OPTS -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar pizzastore.load.ShardSplitter $USER"_project_phase_3_DB" $PGPORT $USER
@@ -11,19 +11,50 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
 import java.lang.Math;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.db.PooledConnection;
+import pizzastore.events.OrderEvent;
+import pizzastore.events.Subscription;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.menu.MenuItem;
+import pizzastore.order.OrderDetails;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPager;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.StatusUpdate;
+import pizzastore.report.ItemSales;
+import pizzastore.report.SalesRow;
+import pizzastore.report.SalesTotal;
+import pizzastore.service.PizzaService;
+import pizzastore.service.ServiceException;
+import pizzastore.service.UserField;
+import pizzastore.service.UserProfile;
+import pizzastore.session.Session;
+import pizzastore.storage.Storage;
+import pizzastore.storage.embedded.EmbeddedStorage;
+import pizzastore.store.Store;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,8 +63,11 @@ import java.lang.Math;
  */
 public class PizzaStore {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // bounded pool of physical database connections shared by all callers.
+   private ConnectionPool _pool = null;
+
+   // every store operation; this class only does the console I/O around it.
+   private PizzaService _service = null;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -51,14 +85,29 @@ public class PizzaStore {
     */
    public PizzaStore(String dbname, String dbport, String user, String passwd) throws SQLException {
 
+      // -Dpizzastore.storage=embedded runs without a database server
+      Storage.Config storage = Storage.Config.fromSystemProperties();
+      if (storage.embedded()) {
+         System.out.print("Opening the embedded store in " + storage.dir() + "...");
+         try {
+            this._service = new PizzaService(EmbeddedStorage.open(storage));
+            System.out.println("Done");
+         } catch (Exception e) {
+            System.err.println("Error - Unable to open " + storage.dir() + ": " + e.getMessage());
+            System.exit(-1);
+         }
+         return;
+      }
+
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         String url = Database.url(dbname, dbport);
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the connection pool (sizes come from -Dpizzastore.pool.* properties)
+         this._pool = new ConnectionPool(url, user, passwd, ConnectionPool.Config.fromSystemProperties());
+         this._service = new PizzaService(this._pool);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -69,20 +118,16 @@ public class PizzaStore {
 
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.  Values are passed
+    * as ? placeholders and bound in order, so they never need quoting.
     *
     * @param sql the input SQL string
+    * @param params the values bound to the ? placeholders
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      return database().executeUpdate(sql, params);
    }//end executeUpdate
 
    /**
@@ -91,42 +136,13 @@ public class PizzaStore {
     * standard out.
     *
     * @param query the input query string
+    * @param params the values bound to the ? placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
-   }//end executeQuery
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      return database().executeQueryAndPrintResult(System.out, query, params);
+   }//end executeQueryAndPrintResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -134,35 +150,12 @@ public class PizzaStore {
     * a list of records. Each record in turn is a list of attribute values
     *
     * @param query the input query string
+    * @param params the values bound to the ? placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      return database().executeQueryAndReturnResult(query, params);
    }//end executeQueryAndReturnResult
 
    /**
@@ -170,55 +163,64 @@ public class PizzaStore {
     * method issues the query to the DBMS and returns the number of results
     *
     * @param query the input query string
+    * @param params the values bound to the ? placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
-       int rowCount = 0;
-
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+   public int executeQuery (String query, Object... params) throws SQLException {
+      return database().executeQuery(query, params);
+   }//end executeQuery
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.  currval is
+    * session-local, so with pooled connections this only works when the
+    * sequence was advanced on the connection that happens to be lent out;
+    * prefer INSERT ... RETURNING.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      try (PooledConnection conn = database().pool().borrow()) {
+         PreparedStatement stmt = conn.prepare ("Select currval(?)", sequence);
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+         try (ResultSet rs = stmt.executeQuery ()) {
+            if (rs.next())
+               return rs.getInt(1);
+            return -1;
+         }
+      }
    }
 
+   private Database database() throws SQLException {
+      Database db = this._service.database();
+      if (db == null) throw new SQLException("There is no database server: the store runs on the embedded engine.");
+      return db;
+   }//end database
+
    /**
-    * Method to close the physical connection if it is open.
+    * Method to access the service layer.  Every menu option below is a
+    * thin console front end over one of its operations.
+    *
+    * @return the pizza store service
+    */
+   public PizzaService getService() {
+      return this._service;
+   }//end getService
+
+   /**
+    * Method to close the pooled physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      if (this._service != null){
+         this._service.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -247,7 +249,7 @@ public class PizzaStore {
          String dbport = args[1];
          String user = args[2];
          esql = new PizzaStore (dbname, dbport, user, "");
-         String authorisedUser = null; // Move outside the loop to persist session
+         Session session = null; // Move outside the loop to persist session
 
          boolean keepon = true;
          while(keepon) {
@@ -260,19 +262,19 @@ public class PizzaStore {
             switch (readChoice()){
                case 1: CreateUser(esql); break;
                case 2:  
-                  if (authorisedUser == null) { // Only allow login if not already logged in
-                     authorisedUser = LogIn(esql);
-                     if (authorisedUser != null) {
-                        System.out.println("Welcome, " + authorisedUser + "!");
+                  if (session == null) { // Only allow login if not already logged in
+                     session = LogIn(esql);
+                     if (session != null) {
+                        System.out.println("Welcome, " + session.login() + "!");
                      }
                   } else {
-                     System.out.println("Already logged in as " + authorisedUser);
+                     System.out.println("Already logged in as " + session.login());
                   }
                   break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
+            if (session != null) {
               boolean usermenu = true;
               while(usermenu) {
                 System.out.println("MAIN MENU");
@@ -285,6 +287,8 @@ public class PizzaStore {
                 System.out.println("6. View Past 5 Order IDs");
                 System.out.println("7. View Order Information"); //user should specify orderID and then be able to see detailed information about the order
                 System.out.println("8. View Stores"); 
+                System.out.println("13. Watch Order Updates");
+                System.out.println("16. Reorder");
 
                 //**the following functionalities should only be able to be used by drivers & managers**
                 System.out.println("9. Update Order Status");
@@ -292,26 +296,42 @@ public class PizzaStore {
                 //**the following functionalities should ony be able to be used by managers**
                 System.out.println("10. Update Menu");
                 System.out.println("11. Update User");
+                System.out.println("12. View Connection Pool Stats");
+                System.out.println("14. Sales Reports");
+                System.out.println("15. View Database Call Stats");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewProfile(esql, authorisedUser); break;
-                   case 2: updateProfile(esql, authorisedUser); break;
+                int choice = readChoice();
+                // picks up a role change made since login; no query otherwise
+                session = esql.getService().refresh(session);
+                if (session == null) {
+                   System.out.println("Your account is no longer available. Logging out.");
+                   break;
+                }
+                String authorisedUser = session.login();
+                switch (choice){
+                   case 1: viewProfile(esql, session); break;
+                   case 2: updateProfile(esql, session); break;
                    case 3: viewMenu(esql); break;
-                   case 4: placeOrder(esql, authorisedUser); break;
-                   case 5: viewAllOrders(esql, authorisedUser); break;
-                   case 6: viewRecentOrders(esql, authorisedUser); break;
-                   case 7: viewOrderInfo(esql, authorisedUser); break;
+                   case 4: placeOrder(esql, session); break;
+                   case 5: viewAllOrders(esql, session); break;
+                   case 6: viewRecentOrders(esql, session); break;
+                   case 7: viewOrderInfo(esql, session); break;
                    case 8: viewStores(esql); break;
-                   case 9: updateOrderStatus(esql, authorisedUser); break;
-                   case 10: updateMenu(esql, authorisedUser); break;
-                   case 11: updateUser(esql, authorisedUser); break;
+                   case 9: updateOrderStatus(esql, session); break;
+                   case 10: updateMenu(esql, session); break;
+                   case 11: updateUser(esql, session); break;
+                   case 12: viewPoolStats(esql, session); break;
+                   case 13: watchOrders(esql, session); break;
+                   case 14: salesReports(esql, session); break;
+                   case 15: viewCallStats(esql, session); break;
+                   case 16: reorder(esql, session); break;
 
 
 
                    case 20: System.out.println("Logging out " + authorisedUser);
-                   authorisedUser = null; // Logout user
+                   session = null; // Logout user
                    usermenu = false; // Exit user menu
                    break;
                    default : 
@@ -378,116 +398,96 @@ public class PizzaStore {
          System.out.print("Enter phone number: ");
          String phone = in.readLine();
  
-         // Check if the username already exists
-         String checkUserQuery = String.format("SELECT * FROM Users WHERE login='%s';", login);
-         int userExists = esql.executeQuery(checkUserQuery);
-         
-         if (userExists > 0) {
-             System.out.println("Username already exists. Please choose a different one.");
-             return;
-         }
- 
-         // Insert the new user into the database
-         String insertQuery = String.format(
-             "INSERT INTO Users (login, password, phonenum, role, favoriteitems) VALUES ('%s', '%s', '%s', 'Customer', NULL);",
-             login, password, phone
-         );
- 
-         esql.executeUpdate(insertQuery);
+         esql.getService().createUser(login, password, phone);
          System.out.println("User registered successfully!");
  
-     } catch (Exception e) {
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
-     }
+      }
    }//end CreateUser
 
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return the user's Session or null is the user does not exist
     **/
-   public static String LogIn(PizzaStore esql){
-       try {
-        System.out.print("Enter login: ");
-        String login = in.readLine();
-
-        System.out.print("Enter password: ");
-        String password = in.readLine();
-
-        // Query to verify user credentials
-        String query = String.format(
-            "SELECT * FROM Users WHERE login='%s' AND password='%s';",
-            login, password
-        );
-
-        int userNum = esql.executeQuery(query);
-        if (userNum > 0) {
-            System.out.println("Login successful!");
-            return login; // Return the logged-in user's login
-        } else {
-            System.out.println("Invalid login or password.");
-            return null;
-        }
-    } catch (Exception e) {
-        System.err.println(e.getMessage());
-        return null;
+   public static Session LogIn(PizzaStore esql){
+      try {
+         System.out.print("Enter login: ");
+         String login = in.readLine();
+
+         System.out.print("Enter password: ");
+         String password = in.readLine();
+
+         // Verify user credentials and read the role in the same query
+         Session session = esql.getService().logIn(login, password);
+         System.out.println("Login successful!");
+         return session; // Return the logged-in user's session
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+         return null;
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+         return null;
       }
    }//end
 
 // Rest of the functions definition go in here
 
-   public static void viewProfile(PizzaStore esql, String authorisedUser) {
+   public static void viewProfile(PizzaStore esql, Session session) {
       try {
          System.out.println("Your Profile Information:");
-         String query = String.format("SELECT login, favoriteItems, phoneNum, role FROM Users WHERE login = '%s';", authorisedUser);
-         esql.executeQueryAndPrintResult(query);
-     } catch (Exception e) {
+         printProfile(esql.getService().profile(session));
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
-     }
+      }
    }
-   public static void updateProfile(PizzaStore esql, String authorisedUser) {
+
+   /*
+    * Prints a profile in the executeQueryAndPrintResult layout
+    **/
+   public static void printProfile(UserProfile profile) {
+      System.out.println("login\tfavoriteitems\tphonenum\trole\t");
+      System.out.println(profile.login() + "\t" + profile.favoriteItems() + "\t"
+         + profile.phoneNum() + "\t" + profile.role().dbValue() + "\t");
+   }//end printProfile
+
+   public static void updateProfile(PizzaStore esql, Session session) {
       try {
          boolean updating = true;
          while (updating) {
-             System.out.println("UPDATE PROFILE OPTIONS:");
-             System.out.println("1. Change Favorite Item");
-             System.out.println("2. Change Phone Number");
-             System.out.println("3. Change Password");
-             System.out.println("4. Go Back");
- 
-             switch (readChoice()) {
-                 case 1:
-                     System.out.print("Enter new favorite item: ");
-                     String newFav = in.readLine().trim();
-                     String updateFavQuery = String.format("UPDATE Users SET favoriteItems = E'%s' WHERE login = '%s';", newFav.replace("'", "''"), authorisedUser);
-                     esql.executeUpdate(updateFavQuery);
-                     System.out.println("Favorite item updated successfully!");
-                     break;
-                 case 2:
-                     System.out.print("Enter new phone number: ");
-                     String newPhone = in.readLine().trim();
-                     String updatePhoneQuery = String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s';", newPhone, authorisedUser);
-                     esql.executeUpdate(updatePhoneQuery);
-                     System.out.println("Phone number updated successfully!");
-                     break;
-                 case 3:
-                     System.out.print("Enter new password: ");
-                     String newPass = in.readLine().trim();
-                     String updatePassQuery = String.format("UPDATE Users SET password = '%s' WHERE login = '%s';", newPass, authorisedUser);
-                     esql.executeUpdate(updatePassQuery);
-                     System.out.println("Password updated successfully!");
-                     break;
-                 case 4:
-                     updating = false;
-                     break;
-                 default:
-                     System.out.println("Invalid choice. Try again.");
-                     break;
-             }
+            System.out.println("UPDATE PROFILE OPTIONS:");
+            System.out.println("1. Change Favorite Item");
+            System.out.println("2. Change Phone Number");
+            System.out.println("3. Change Password");
+            System.out.println("4. Go Back");
+
+            UserField field;
+            switch (readChoice()) {
+               case 1: field = UserField.FAVORITE_ITEMS; break;
+               case 2: field = UserField.PHONE; break;
+               case 3: field = UserField.PASSWORD; break;
+               case 4: updating = false; continue;
+               default:
+                  System.out.println("Invalid choice. Try again.");
+                  continue;
+            }
+            System.out.print("Enter new " + field.label().toLowerCase() + ": ");
+            String value = in.readLine().trim();
+            try {
+               esql.getService().updateProfile(session, field, value);
+               System.out.println(field.label() + " updated successfully!");
+            } catch (ServiceException e) {
+               System.out.println(e.getMessage());
+            }
          }
-     } catch (Exception e) {
+      } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
-     }
+      }
    }
    public static void viewMenu(PizzaStore esql) {
       try {
@@ -499,37 +499,45 @@ public class PizzaStore {
              System.out.println("3. Filter by Price Range");
              System.out.println("4. Sort by Price (Low to High)");
              System.out.println("5. Sort by Price (High to Low)");
-             System.out.println("6. Go Back");
+             System.out.println("6. Search by Ingredient");
+             System.out.println("7. Go Back");
  
+             // every option is answered from the in-memory menu snapshot
+             MenuCatalog.Snapshot menu = esql.getService().menu();
              switch (readChoice()) {
                 case 1:
-                    esql.executeQueryAndPrintResult("SELECT itemName, typeOfItem, price FROM Items ORDER BY typeOfItem, price;");
-
+                    printItems(menu.all(), true);
                     break;
                 case 2:
                     // Filter by type
                     System.out.print("Enter type (e.g., drinks, sides, entree): ");
                     String type = in.readLine().trim();
-                    String queryType = String.format("SELECT itemName, price FROM Items WHERE TRIM(typeOfItem) = '%s';", type);
-                    esql.executeQueryAndPrintResult(queryType);
-
+                    printItems(menu.ofType(type), false);
                     break;
                 case 3:
                     System.out.print("Enter minimum price: ");
-                    double minPrice = Double.parseDouble(in.readLine());
+                    BigDecimal minPrice = new BigDecimal(in.readLine().trim());
                     System.out.print("Enter maximum price: ");
-                    double maxPrice = Double.parseDouble(in.readLine());
-                    String queryPrice = String.format(
-                         "SELECT itemName, price FROM Items WHERE price BETWEEN %f AND %f;", minPrice, maxPrice);
-                    esql.executeQueryAndPrintResult(queryPrice);
+                    BigDecimal maxPrice = new BigDecimal(in.readLine().trim());
+                    printItems(menu.priceBetween(minPrice, maxPrice), false);
                     break;
                 case 4:
-                    esql.executeQueryAndPrintResult("SELECT itemName, price FROM Items ORDER BY price ASC;");
+                    printItems(menu.sortedByPrice(true), false);
                     break;
                 case 5:
-                    esql.executeQueryAndPrintResult("SELECT itemName, price FROM Items ORDER BY price DESC;");
+                    printItems(menu.sortedByPrice(false), false);
                     break;
-                 case 6:
+                case 6:
+                    System.out.println("Ingredients: " + String.join(", ", menu.ingredientWords()));
+                    System.out.print("Include (comma-separated, end a word with * to match its start): ");
+                    List<String> include = Arrays.asList(in.readLine().split(","));
+                    System.out.print("Exclude (comma-separated): ");
+                    List<String> exclude = Arrays.asList(in.readLine().split(","));
+                    List<MenuItem> found = menu.search(include, exclude);
+                    if (found.isEmpty()) System.out.println("No items match.");
+                    printItems(found, true);
+                    break;
+                 case 7:
                     browsing = false; // Exit the menu browsing loop
                     break;
                  default:
@@ -541,290 +549,366 @@ public class PizzaStore {
         System.err.println("Error: " + e.getMessage());
     }
    }
-   public static void placeOrder(PizzaStore esql, String authorisedUser) {
+
+   /*
+    * Prints menu items in the same tab-separated layout as
+    * executeQueryAndPrintResult
+    **/
+   public static void printItems(List<MenuItem> items, boolean withType) {
+      if (items.isEmpty()) return;
+      System.out.println(withType ? "itemname\ttypeofitem\tprice\t" : "itemname\tprice\t");
+      for (MenuItem item : items) {
+         if (withType)
+            System.out.println(item.itemName() + "\t" + item.typeOfItem() + "\t" + item.price() + "\t");
+         else
+            System.out.println(item.itemName() + "\t" + item.price() + "\t");
+      }
+   }//end printItems
+
+   public static void placeOrder(PizzaStore esql, Session session) {
       try {
-         System.out.println("Available Stores:");
-         esql.executeQueryAndPrintResult("SELECT storeID, address FROM Store;");
+         PizzaService service = esql.getService();
+         System.out.println("Find a store (press Enter to skip a question).");
+         searchStores(service);
          System.out.print("Enter Store ID to place your order: ");
          int storeID = Integer.parseInt(in.readLine().trim());
  
-         List<String> itemNames = new ArrayList<>();
-         List<Integer> quantities = new ArrayList<>();
-         boolean addingItems = true;
-         double totalPrice = 0.0;
- 
-         while (addingItems) {
+         // collect every line first; the order is written in one transaction at the end
+         Map<String, Integer> lines = new LinkedHashMap<>();
+         while (true) {
             System.out.print("Enter item name (or type 'done' to finish): ");
             String itemName = in.readLine().trim();
             if (itemName.equalsIgnoreCase("done")) break;
  
             System.out.print("Enter quantity: ");
             int quantity = Integer.parseInt(in.readLine().trim());
- 
-             // Fetch price of the item
-            String priceQuery = String.format("SELECT price FROM Items WHERE LOWER(itemName) = LOWER('%s');", itemName.replace("'", "''"));
-            List<List<String>> priceResult = esql.executeQueryAndReturnResult(priceQuery);
- 
-            if (priceResult.isEmpty()) {
-               System.out.println("Invalid item name. Please try again.");
+            if (quantity <= 0) {
+               System.out.println("Quantity must be positive. Please try again.");
                continue;
             }
- 
-            double price = Double.parseDouble(priceResult.get(0).get(0));
-            totalPrice += price * quantity;
- 
-            int index = itemNames.indexOf(itemName);
-            if (index != -1) {
-               // Item already exists in the list, update the quantity
-               quantities.set(index, quantities.get(index) + quantity);
-            } else {
-               // Item is new, add it to the list
-               itemNames.add(itemName);
-               quantities.add(quantity);
-            }
 
+            // checked against the in-memory menu, no round trip
+            if (service.menu().find(itemName) == null) {
+               System.out.println("Invalid item name. Please try again.");
+               continue;
+            }
+            lines.merge(itemName, quantity, Integer::sum);
          }
  
-         if (itemNames.isEmpty()) {
-             System.out.println("Order canceled. No items were added.");
-             return;
+         OrderReceipt receipt = service.placeOrder(session, storeID, lines);
+         for (String unknown : receipt.unknownItems()) {
+            System.out.println("Invalid item name '" + unknown + "' was skipped.");
          }
-         // Insert new order
-         String insertOrderQuery = String.format(
-         "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
-         "VALUES (NEXTVAL('foodorder_orderid_seq'), '%s', %d, %.2f, NOW(), 'Order Received') RETURNING orderID;", 
-         authorisedUser, storeID, totalPrice);
- 
-         List<List<String>> orderResult = esql.executeQueryAndReturnResult(insertOrderQuery);
-         int orderID = Integer.parseInt(orderResult.get(0).get(0));
- 
-         for (int i = 0; i < itemNames.size(); i++) {
-            // Fetch the correctly formatted item name from the Items table
-            String correctedItemNameQuery = String.format(
-               "SELECT itemName FROM Items WHERE LOWER(itemName) = LOWER('%s');",
-               itemNames.get(i).replace("'", "''"));
-
-            List<List<String>> correctedItemNameResult = esql.executeQueryAndReturnResult(correctedItemNameQuery);
-
-            if (correctedItemNameResult.isEmpty()) {
-               System.out.println("Error: Item '" + itemNames.get(i) + "' does not exist in the database.");
-               return; // Stop the order if an invalid item is found
-            }
-            // Add to itemsinorder.csv
-            String correctedItemName = correctedItemNameResult.get(0).get(0);
-            String insertItemQuery = String.format(
-                "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (%d, '%s', %d) " +
-                "ON CONFLICT (orderID, itemName) DO UPDATE " +
-                "SET quantity = ItemsInOrder.quantity + EXCLUDED.quantity;",
-                orderID, correctedItemName.replace("'", "''"), quantities.get(i));
-            esql.executeUpdate(insertItemQuery);
-        }
- 
-        System.out.println("Order placed successfully! Total price: $" + totalPrice);
-    } catch (Exception e) {
+         if (!receipt.placed()) {
+            System.out.println("Order canceled. No valid items were added.");
+            return;
+         }
+         System.out.println("Order placed successfully! Order ID: " + receipt.orderID()
+            + " Total price: $" + receipt.totalPrice());
+         System.out.println("Order latency: " + receipt.latencySummary());
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
-    }
+      }
    }
-   public static void viewAllOrders(PizzaStore esql, String authorisedUser) {
-    try {
-        String roleCheckQuery = String.format("SELECT role FROM Users WHERE login = '%s';", authorisedUser);
-        List<List<String>> result = esql.executeQueryAndReturnResult(roleCheckQuery);
- 
-        if (result.isEmpty()) {
-            System.out.println("Error retrieving user role.");
+   /*
+    * Places a past order or the user's favorite items again, priced and
+    * written by the database in one statement
+    **/
+   public static void reorder(PizzaStore esql, Session session) {
+      try {
+         PizzaService service = esql.getService();
+         System.out.println("1. Reorder a past order");
+         System.out.println("2. Order my favorite items");
+         OrderReceipt receipt;
+         switch (readChoice()) {
+            case 1: {
+               System.out.print("Enter the Order ID to reorder: ");
+               int orderID = Integer.parseInt(in.readLine().trim());
+               System.out.print("Enter Store ID (blank for the same store): ");
+               String store = in.readLine().trim();
+               receipt = service.reorder(session, orderID, store.isEmpty() ? null : Integer.valueOf(store));
+               break;
+            }
+            case 2: {
+               System.out.println("Find a store (press Enter to skip a question).");
+               searchStores(service);
+               System.out.print("Enter Store ID to place your order: ");
+               receipt = service.reorderFavorites(session, Integer.parseInt(in.readLine().trim()));
+               break;
+            }
+            default:
+               System.out.println("Unrecognized choice!");
+               return;
+         }
+         for (String unknown : receipt.unknownItems()) {
+            System.out.println("Favorite item '" + unknown + "' is not on the menu and was skipped.");
+         }
+         if (!receipt.placed()) {
+            System.out.println("Order canceled. None of the items is on the menu.");
             return;
-        }
- 
-        String userRole = result.get(0).get(0).trim().toLowerCase();
- 
-        String orderQuery;
-        if (userRole.equals("manager") || userRole.equals("driver")) {
-            // Managers and drivers can see all orders
-            System.out.println("Displaying all customer orders:");
-            orderQuery = "SELECT orderID, login, storeID, totalPrice, orderStatus FROM FoodOrder ORDER BY orderID DESC;";
+         }
+         System.out.println("Order placed successfully! Order ID: " + receipt.orderID()
+            + " Total price: $" + receipt.totalPrice());
+         System.out.println("Order latency: " + receipt.latencySummary());
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (Exception e) {
+         System.err.println("Error: " + e.getMessage());
+      }
+   }//end reorder
+
+   public static void viewAllOrders(PizzaStore esql, Session session) {
+    try {
+        OrderFilter filter;
+        boolean showLogin = session.role().handlesOrders();
+        if (showLogin) {
+            // Managers and drivers can see all orders, optionally filtered
+            filter = readOrderFilter();
+            System.out.println("Displaying customer orders (" + filter + "):");
         } else {
             // Customers can only see their own order history
+            filter = new OrderFilter();
             System.out.println("Displaying your order history:");
-            orderQuery = String.format(
-                "SELECT orderID, storeID, totalPrice, orderStatus FROM FoodOrder WHERE login = '%s' ORDER BY orderID DESC;",
-                authorisedUser);
         }
  
-        esql.executeQueryAndPrintResult(orderQuery);
+        OrderPager pager = esql.getService().orders(session, filter, OrderPager.DEFAULT_PAGE_SIZE, null);
+        do {
+            printOrderPage(pager, showLogin);
+        } while (pager.hasMore() && readMore("Press Enter for older orders or type 'q' to stop: "));
  
     } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
     }
    }
-   public static void viewRecentOrders(PizzaStore esql, String authorisedUser) {
+
+   /*
+    * Asks for the optional store, status and time range filters
+    * @return the filter, with blank answers left unset
+    **/
+   public static OrderFilter readOrderFilter() throws Exception {
+      OrderFilter filter = new OrderFilter();
+      System.out.print("Filter by store ID (blank for all): ");
+      String store = in.readLine().trim();
+      if (!store.isEmpty()) filter.storeID(Integer.parseInt(store));
+      System.out.print("Filter by status (blank for all): ");
+      String status = in.readLine().trim();
+      if (!status.isEmpty()) filter.status(status);
+      System.out.print("Placed on or after (yyyy-mm-dd [hh:mm:ss], blank for any): ");
+      String from = in.readLine().trim();
+      if (!from.isEmpty()) filter.from(parseTimestamp(from));
+      System.out.print("Placed before (yyyy-mm-dd [hh:mm:ss], blank for any): ");
+      String until = in.readLine().trim();
+      if (!until.isEmpty()) filter.until(parseTimestamp(until));
+      return filter;
+   }//end readOrderFilter
+
+   private static Timestamp parseTimestamp(String value) {
+      return Timestamp.valueOf(value.length() <= 10 ? value + " 00:00:00" : value);
+   }//end parseTimestamp
+
+   /*
+    * Prints the next page of a pager in the executeQueryAndPrintResult layout
+    * @return the number of orders printed
+    **/
+   public static int printOrderPage(OrderPager pager, boolean showLogin) throws SQLException {
+      System.out.println(showLogin ? "orderid\tlogin\tstoreid\ttotalprice\torderstatus\t"
+                                   : "orderid\tstoreid\ttotalprice\torderstatus\t");
+      int printed = pager.nextPage(row -> printOrderRow(row, showLogin));
+      if (printed == 0) System.out.println("No orders found.");
+      return printed;
+   }//end printOrderPage
+
+   private static void printOrderRow(OrderRow row, boolean showLogin) {
+      System.out.println(row.orderID() + "\t" + (showLogin ? row.login() + "\t" : "") + row.storeID() + "\t"
+         + row.totalPrice() + "\t" + row.orderStatus() + "\t");
+   }//end printOrderRow
+
+   private static boolean readMore(String prompt) throws Exception {
+      System.out.print(prompt);
+      return !in.readLine().trim().equalsIgnoreCase("q");
+   }//end readMore
+
+   public static void viewRecentOrders(PizzaStore esql, Session session) {
       try {
-        String roleCheckQuery = String.format("SELECT role FROM Users WHERE login = '%s';", authorisedUser);
-        List<List<String>> result = esql.executeQueryAndReturnResult(roleCheckQuery);
- 
-        if (result.isEmpty()) {
-            System.out.println("Error retrieving user role.");
-            return;
-        }
- 
-        String userRole = result.get(0).get(0).trim().toLowerCase();
- 
-        String orderQuery;
-        if (userRole.equals("manager") || userRole.equals("driver")) {
+        boolean showLogin = session.role().handlesOrders();
+        if (showLogin) {
             // Managers and drivers can see the 5 most recent orders from everyone
             System.out.println("Displaying the 5 most recent customer orders:");
-            orderQuery = "SELECT orderID, login, storeID, totalPrice, orderStatus FROM FoodOrder ORDER BY orderID DESC LIMIT 5;";
         } else {
             // Customers can only see their own 5 most recent orders
             System.out.println("Displaying your 5 most recent orders:");
-            orderQuery = String.format(
-                "SELECT orderID, storeID, totalPrice, orderStatus FROM FoodOrder WHERE login = '%s' ORDER BY orderID DESC LIMIT 5;",
-                authorisedUser);
         }
  
-        esql.executeQueryAndPrintResult(orderQuery);
+        List<OrderRow> orders = esql.getService().recentOrders(session);
+        if (orders.isEmpty()) return;
+        System.out.println(showLogin ? "orderid\tlogin\tstoreid\ttotalprice\torderstatus\t"
+                                     : "orderid\tstoreid\ttotalprice\torderstatus\t");
+        for (OrderRow row : orders) printOrderRow(row, showLogin);
  
     } catch (Exception e) {
         System.err.println("Error: " + e.getMessage());
     }
    }
-   public static void viewOrderInfo(PizzaStore esql, String authorisedUser) {
+   public static void viewOrderInfo(PizzaStore esql, Session session) {
       try {
-        String roleCheckQuery = String.format("SELECT role FROM Users WHERE login = '%s';", authorisedUser);
-        List<List<String>> result = esql.executeQueryAndReturnResult(roleCheckQuery);
- 
-        if (result.isEmpty()) {
-            System.out.println("Error retrieving user role.");
-            return;
-        }
- 
-        String userRole = result.get(0).get(0).trim().toLowerCase();
-
         System.out.print("Enter the Order ID to view details: ");
         int orderID = Integer.parseInt(in.readLine().trim());
 
-        // Check if user can access order info
-        String orderCheckQuery = String.format(
-            "SELECT orderID, login, orderTimestamp, totalPrice, orderStatus FROM FoodOrder WHERE orderID = %d;",
-            orderID);
-        List<List<String>> orderResult = esql.executeQueryAndReturnResult(orderCheckQuery);
- 
-        if (orderResult.isEmpty()) {
-            System.out.println("Order not found.");
-            return;
-        }
- 
-        String orderOwner = orderResult.get(0).get(1).trim();
-
-        if (!userRole.equals("manager") && !userRole.equals("driver") && !orderOwner.equals(authorisedUser)) {
-            System.out.println("Permission denied. You can only view your own orders.");
-            return;
-        }
+        // the service checks that customers only read their own orders
+        OrderDetails details = esql.getService().orderDetails(session, orderID);
+        OrderRow order = details.order();
 
         System.out.println("Order Details:");
-        System.out.println("Order ID: " + orderResult.get(0).get(0));
-        System.out.println("Customer: " + orderOwner);
-        System.out.println("Timestamp: " + orderResult.get(0).get(2));
-        System.out.println("Total Price: $" + orderResult.get(0).get(3));
-        System.out.println("Status: " + orderResult.get(0).get(4));
+        System.out.println("Order ID: " + order.orderID());
+        System.out.println("Customer: " + order.login().trim());
+        System.out.println("Timestamp: " + order.orderTimestamp());
+        System.out.println("Total Price: $" + order.totalPrice());
+        System.out.println("Status: " + order.orderStatus());
 
         System.out.println("\nItems in this order:");
-        String itemsQuery = String.format(
-            "SELECT itemName, quantity FROM ItemsInOrder WHERE orderID = %d;",
-            orderID);
-        List<List<String>> itemsResult = esql.executeQueryAndReturnResult(itemsQuery);
-
-        if (itemsResult.isEmpty()) {
+        if (details.items().isEmpty()) {
             System.out.println("No items found for this order.");
         } else {
             System.out.printf("%-25s %-10s\n", "Item Name", "Quantity");
             System.out.println("--------------------------------------");
-            for (List<String> row : itemsResult) {
-                System.out.printf("%-25s %-10s\n", row.get(0), row.get(1));
+            for (Map.Entry<String, Integer> item : details.items().entrySet()) {
+                System.out.printf("%-25s %-10s\n", item.getKey(), item.getValue());
             }
         }
 
+    } catch (ServiceException e) {
+        System.out.println(e.getMessage());
     } catch (Exception e) {
         System.err.println("Error: " + e.getMessage());
     }
    }
    public static void viewStores(PizzaStore esql) {
       try {
-        System.out.println("Available Stores:");
-         
-        // Query to fetch all store information
-        String storeQuery = "SELECT storeID, address, city, state, isOpen, reviewScore FROM Store ORDER BY storeID;";
-         
-        esql.executeQueryAndPrintResult(storeQuery);
- 
+        System.out.println("Search stores (press Enter to skip a question).");
+        searchStores(esql.getService());
     } catch (Exception e) {
         System.err.println("Error: " + e.getMessage());
     }
    }
-   public static void updateOrderStatus(PizzaStore esql, String authorisedUser) {
+
+   /*
+    * Asks for a state, a city (or its first letters) and whether only open
+    * stores are wanted, then prints the best reviewed matches.
+    **/
+   private static void searchStores(PizzaService service) throws IOException, SQLException {
+      System.out.print("State: ");
+      String state = in.readLine();
+      System.out.print("City or start of city name: ");
+      String city = in.readLine();
+      System.out.print("Open stores only? (y/n): ");
+      boolean openOnly = in.readLine().trim().equalsIgnoreCase("y");
+      List<Store> stores = service.searchStores(state, city, openOnly, PizzaService.STORE_SEARCH_LIMIT);
+      if (stores.isEmpty()) {
+         System.out.println("No stores match.");
+         return;
+      }
+      System.out.println("storeid\taddress\tcity\tstate\tisopen\treviewscore\t");
+      for (Store store : stores) {
+         System.out.println(store.storeID() + "\t" + store.address() + "\t" + store.city() + "\t"
+            + store.state() + "\t" + store.isOpen() + "\t" + store.reviewScore() + "\t");
+      }
+      if (stores.size() == PizzaService.STORE_SEARCH_LIMIT)
+         System.out.println("(best " + stores.size() + " shown; narrow the search to see others)");
+   }//end searchStores
+   public static void updateOrderStatus(PizzaStore esql, Session session) {
       try {
-        String roleCheckQuery = String.format("SELECT role FROM Users WHERE login = '%s';", authorisedUser);
-        List<List<String>> result = esql.executeQueryAndReturnResult(roleCheckQuery);
- 
-        if (result.isEmpty()) {
-            System.out.println("Error retrieving user role.");
-            return;
-        }
- 
-        String userRole = result.get(0).get(0).trim().toLowerCase();
-        if (!userRole.equals("driver") && !userRole.equals("manager")) {
+        PizzaService service = esql.getService();
+        if (!session.role().handlesOrders()) {
             System.out.println("Permission denied. Only drivers and managers can update order status.");
             return;
         }
  
-        System.out.println("Available Orders:");
-        esql.executeQueryAndPrintResult("SELECT orderID, login, storeID, totalPrice, orderStatus FROM FoodOrder;");
-         
-        System.out.print("Enter the Order ID to update: ");
-        int orderID = Integer.parseInt(in.readLine().trim());
- 
-        String orderCheckQuery = String.format("SELECT * FROM FoodOrder WHERE orderID = %d;", orderID);
-        List<List<String>> orderResult = esql.executeQueryAndReturnResult(orderCheckQuery);
- 
-        if (orderResult.isEmpty()) {
-            System.out.println("Order not found.");
+        // show the orders still in progress a page at a time; finished ones can be typed in
+        System.out.println("Orders in progress:");
+        OrderPager pager = service.orders(session, new OrderFilter().active(true), OrderPager.DEFAULT_PAGE_SIZE, null);
+        printOrderPage(pager, true);
+        String answer;
+        while (true) {
+            System.out.println("Several Order IDs separated by commas, or \"store\" for a store's orders, move them one step at once.");
+            System.out.print(pager.hasMore() ? "Enter the Order ID to update (blank for older orders): "
+                                             : "Enter the Order ID to update: ");
+            answer = in.readLine().trim();
+            if (!answer.isEmpty() || !pager.hasMore()) break;
+            printOrderPage(pager, true);
+        }
+        if (answer.equalsIgnoreCase("store") || answer.contains(",")) {
+            updateOrderStatuses(service, session, answer);
             return;
         }
+        int orderID = Integer.parseInt(answer);
+        service.order(session, orderID);
  
         System.out.println("Available Status Options:");
-        System.out.println("1. Order Received");
-        System.out.println("2. Preparing");
-        System.out.println("3. Out for Delivery");
-        System.out.println("4. Delivered");
+        for (int i = 0; i < PizzaService.ORDER_STATUSES.size(); i++) {
+            System.out.println((i + 1) + ". " + PizzaService.ORDER_STATUSES.get(i));
+        }
         System.out.print("Choose a new status: ");
         int statusChoice = Integer.parseInt(in.readLine().trim());
- 
-        String newStatus = "";
-        switch (statusChoice) {
-            case 1: newStatus = "Order Received"; break;
-            case 2: newStatus = "Preparing"; break;
-            case 3: newStatus = "Out for Delivery"; break;
-            case 4: newStatus = "Delivered"; break;
-            default:
-                System.out.println("Invalid status choice. Please try again.");
-                return;
+        if (statusChoice < 1 || statusChoice > PizzaService.ORDER_STATUSES.size()) {
+            System.out.println("Invalid status choice. Please try again.");
+            return;
         }
         
-        String updateQuery = String.format(
-            "UPDATE FoodOrder SET orderStatus = '%s' WHERE orderID = %d;",
-            newStatus, orderID);
-        esql.executeUpdate(updateQuery);
+        service.updateOrderStatus(session, orderID, PizzaService.ORDER_STATUSES.get(statusChoice - 1));
         System.out.println("Order status updated successfully!");
  
+    } catch (ServiceException e) {
+        System.out.println(e.getMessage());
     } catch (Exception e) {
         System.err.println("Error: " + e.getMessage());
     }
    }
-   public static void updateMenu(PizzaStore esql, String authorisedUser) {
+   /**
+    * Moves the listed orders, or a store's orders in progress, to the next
+    * status in one go and reports the ones that were skipped.
+    */
+   public static void updateOrderStatuses(PizzaService service, Session session, String answer)
+         throws ServiceException, SQLException, IOException {
+      OrderFilter filter = null;
+      List<Integer> orderIDs = new ArrayList<>();
+      if (answer.equalsIgnoreCase("store")) {
+         System.out.print("Enter the Store ID: ");
+         filter = new OrderFilter().storeID(Integer.parseInt(in.readLine().trim()));
+         System.out.print("Only orders placed more than how many minutes ago? (blank for all): ");
+         String minutes = in.readLine().trim();
+         if (!minutes.isEmpty())
+            filter.until(new Timestamp(System.currentTimeMillis() - Long.parseLong(minutes) * 60_000L));
+      } else {
+         for (String id : answer.split(",")) if (!id.trim().isEmpty()) orderIDs.add(Integer.parseInt(id.trim()));
+      }
+
+      // "Order Received" is where every order starts, so it is not offered
+      System.out.println("Orders move one step at a time. Move them to:");
+      for (int i = 1; i < PizzaService.ORDER_STATUSES.size(); i++) {
+         System.out.println(i + ". " + PizzaService.ORDER_STATUSES.get(i) + " (from " + PizzaService.ORDER_STATUSES.get(i - 1) + ")");
+      }
+      System.out.print("Choose a new status: ");
+      int statusChoice = Integer.parseInt(in.readLine().trim());
+      if (statusChoice < 1 || statusChoice >= PizzaService.ORDER_STATUSES.size()) {
+         System.out.println("Invalid status choice. Please try again.");
+         return;
+      }
+      String status = PizzaService.ORDER_STATUSES.get(statusChoice);
+      StatusUpdate update = filter != null ? service.updateOrderStatuses(session, filter, status)
+                                           : service.updateOrderStatuses(session, orderIDs, status);
+      System.out.println(update.updated().size() + " order(s) updated to " + status
+         + (update.updated().isEmpty() ? "." : ": " + update.updated().keySet()));
+      for (Map.Entry<Integer, String> skipped : update.skipped().entrySet()) {
+         System.out.println("Order " + skipped.getKey() + " skipped: " + skipped.getValue());
+      }
+   }//end updateOrderStatuses
+
+   public static void updateMenu(PizzaStore esql, Session session) {
       try {
-        String roleCheckQuery = String.format("SELECT role FROM Users WHERE login = '%s';", authorisedUser);
-        List<List<String>> result = esql.executeQueryAndReturnResult(roleCheckQuery);
- 
-        if (result.isEmpty() || !result.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+        PizzaService service = esql.getService();
+        if (!session.role().isManager()) {
             System.out.println("Permission denied. Only managers can update the menu.");
             return;
         }
@@ -832,14 +916,11 @@ public class PizzaStore {
         System.out.print("Enter the name of the food item to update (or type new product name to add a new item): ");
         String itemName = in.readLine().trim();
  
-        String itemCheckQuery = String.format("SELECT * FROM Items WHERE LOWER(itemName) = LOWER('%s');", itemName);
-        List<List<String>> itemResult = esql.executeQueryAndReturnResult(itemCheckQuery);
- 
-        if (itemResult.isEmpty()) {
+        if (service.menu().find(itemName) == null) {
             System.out.println("Item not found. Would you like to add this item? (yes/no)");
             String response = in.readLine().trim().toLowerCase();
             if (response.equals("yes")) {
-                addNewItem(esql, itemName);
+                addNewItem(esql, session, itemName);
             } else {
              System.out.println("Update canceled.");
             }
@@ -859,42 +940,30 @@ public class PizzaStore {
             switch (readChoice()) {
                case 1:
                   System.out.print("Enter new price: ");
-                  double newPrice = Double.parseDouble(in.readLine().trim());
-                  String updatePriceQuery = String.format(
-                     "UPDATE Items SET price = %.2f WHERE LOWER(itemName) = LOWER('%s');",
-                     newPrice, itemName.replace("'", "''"));
-                  esql.executeUpdate(updatePriceQuery);
+                  BigDecimal newPrice = new BigDecimal(in.readLine().trim());
+                  service.updatePrice(session, itemName, newPrice);
                   System.out.println("Price updated successfully!");
                   break;
                case 2:
                   System.out.print("Enter new type (e.g., drinks, sides, entree): ");
                   String newType = in.readLine().trim();
-                   String updateTypeQuery = String.format(
-                     "UPDATE Items SET typeOfItem = '%s' WHERE LOWER(itemName) = LOWER('%s');",
-                     newType.replace("'", "''"), itemName.replace("'", "''"));
-                  esql.executeUpdate(updateTypeQuery);
+                  service.updateType(session, itemName, newType);
                   System.out.println("Type updated successfully!");
                   break;
                case 3:
                   System.out.print("Enter new ingredients: ");
                   String newIngredients = in.readLine().trim();
-                  String updateIngredientsQuery = String.format(
-                     "UPDATE Items SET ingredients = '%s' WHERE LOWER(itemName) = LOWER('%s');",
-                     newIngredients.replace("'", "''"), itemName.replace("'", "''"));
-                  esql.executeUpdate(updateIngredientsQuery);
+                  service.updateIngredients(session, itemName, newIngredients);
                   System.out.println("Ingredients updated successfully!");
                   break;
                case 4:
                   System.out.print("Enter new description: ");
                   String newDescription = in.readLine().trim();
-                  String updateDescriptionQuery = String.format(
-                     "UPDATE Items SET description = '%s' WHERE LOWER(itemName) = LOWER('%s');",
-                     newDescription.replace("'", "''"), itemName.replace("'", "''"));
-                  esql.executeUpdate(updateDescriptionQuery);
+                  service.updateDescription(session, itemName, newDescription);
                   System.out.println("Description updated successfully!");
                   break;
                case 5:
-                  deleteItem(esql, itemName);
+                  deleteItem(esql, session, itemName);
                   updating = false; // Exit update menu after deletion
                   break;
                case 6:
@@ -905,18 +974,20 @@ public class PizzaStore {
                   break;
             }
          }         
+     } catch (ServiceException e) {
+        System.out.println(e.getMessage());
      } catch (Exception e) {
         System.err.println("Error: " + e.getMessage());
     }
    }
 
-   public static void addNewItem(PizzaStore esql, String itemName) {
+   public static void addNewItem(PizzaStore esql, Session session, String itemName) {
       try {
         System.out.print("Enter type (e.g., drinks, sides, entree): ");
         String type = in.readLine().trim();
   
         System.out.print("Enter price: ");
-        double price = Double.parseDouble(in.readLine().trim());
+        BigDecimal price = new BigDecimal(in.readLine().trim());
   
         System.out.print("Enter ingredients: ");
         String ingredients = in.readLine().trim();
@@ -924,66 +995,41 @@ public class PizzaStore {
         System.out.print("Enter description: ");
         String description = in.readLine().trim();
   
-        // Insert the new item into the database
-        String insertItemQuery = String.format(
-            "INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) VALUES ('%s', '%s', '%s', %.2f, '%s');",
-            itemName.replace("'", "''"), ingredients.replace("'", "''"), type.replace("'", "''"), price, description.replace("'", "''"));
-  
-        esql.executeUpdate(insertItemQuery);
+        // Insert the new item into the database and the in-memory menu
+        esql.getService().addMenuItem(session, itemName, ingredients, type, price, description);
         System.out.println("New item added successfully!");
   
+    } catch (ServiceException e) {
+        System.out.println(e.getMessage());
     } catch (Exception e) {
         System.err.println("Error: " + e.getMessage());
     }
   }
 
-  public static void deleteItem(PizzaStore esql, String itemName) {
+  public static void deleteItem(PizzaStore esql, Session session, String itemName) {
       try {
-     // Check if item exists in ItemsInOrder (i.e., has been ordered before)
-        String checkOrderQuery = String.format(
-            "SELECT COUNT(*) FROM ItemsInOrder WHERE LOWER(itemName) = LOWER('%s');",
-            itemName.replace("'", "''"));
-
-        List<List<String>> orderResult = esql.executeQueryAndReturnResult(checkOrderQuery);
-        int orderCount = Integer.parseInt(orderResult.get(0).get(0));
-
-        if (orderCount > 0) {
-            System.out.println("Cannot delete item. It is associated with existing orders.");
-            return;
-        }
-
-         String deleteQuery = String.format(
-            "DELETE FROM Items WHERE LOWER(itemName) = LOWER('%s');",
-            itemName.replace("'", "''"));
-
-         esql.executeUpdate(deleteQuery);
+         // refused when the item has been ordered before
+         esql.getService().deleteMenuItem(session, itemName);
          System.out.println("Item successfully deleted from the menu.");
 
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
       } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
       }
    }
 
-   public static void updateUser(PizzaStore esql, String authorisedUser) {
+   public static void updateUser(PizzaStore esql, Session session) {
       try {
-         String roleCheckQuery = String.format("SELECT role FROM Users WHERE login = '%s';", authorisedUser);
-         List<List<String>> result = esql.executeQueryAndReturnResult(roleCheckQuery);
- 
-         if (result.isEmpty() || !result.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         PizzaService service = esql.getService();
+         if (!session.role().isManager()) {
              System.out.println("Permission denied. Only managers can update user roles.");
              return;
          }
  
          System.out.print("Enter the login of the user to update: ");
          String userToUpdate = in.readLine().trim();
- 
-         String checkUserQuery = String.format("SELECT * FROM Users WHERE login = '%s';", userToUpdate);
-        List<List<String>> userResult = esql.executeQueryAndReturnResult(checkUserQuery);
-
-        if (userResult.isEmpty()) {
-         System.out.println("User not found.");
-         return;
-        }
+         service.user(session, userToUpdate);
 
         // Menu for updating user details
         boolean updating = true;
@@ -995,52 +1041,202 @@ public class PizzaStore {
             System.out.println("4. Change Role");
             System.out.println("5. Go Back");
 
+            UserField field;
             switch (readChoice()) {
-                case 1:
-                    System.out.print("Enter new phone number: ");
-                    String newPhone = in.readLine().trim();
-                    String updatePhoneQuery = String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s';", newPhone, userToUpdate);
-                    esql.executeUpdate(updatePhoneQuery);
-                    System.out.println("Phone number updated successfully!");
-                    break;
-                case 2:
-                    System.out.print("Enter new favorite item: ");
-                    String newFav = in.readLine().trim();
-                    String updateFavQuery = String.format("UPDATE Users SET favoriteItems = '%s' WHERE login = '%s';", newFav.replace("'", "''"), userToUpdate);
-                    esql.executeUpdate(updateFavQuery);
-                    System.out.println("Favorite item updated successfully!");
-                    break;
-                case 3:
-                    System.out.print("Enter new password: ");
-                    String newPass = in.readLine().trim();
-                    String updatePassQuery = String.format("UPDATE Users SET password = '%s' WHERE login = '%s';", newPass, userToUpdate);
-                    esql.executeUpdate(updatePassQuery);
-                    System.out.println("Password updated successfully!");
-                    break;
+                case 1: field = UserField.PHONE; break;
+                case 2: field = UserField.FAVORITE_ITEMS; break;
+                case 3: field = UserField.PASSWORD; break;
                 case 4:
                     System.out.print("Enter new role (customer/driver/manager): ");
                     String newRole = in.readLine().trim();
-                    if (!newRole.equalsIgnoreCase("customer") && !newRole.equalsIgnoreCase("driver") && !newRole.equalsIgnoreCase("manager")) {
-                        System.out.println("Invalid role. Please enter 'customer', 'driver', or 'manager'.");
-                        break;
+                    try {
+                        // sessions of that user re-read their role on their next action
+                        service.changeRole(session, userToUpdate, newRole);
+                        System.out.println("User role updated successfully!");
+                    } catch (ServiceException e) {
+                        System.out.println(e.getMessage());
                     }
-                    String updateRoleQuery = String.format("UPDATE Users SET role = '%s' WHERE login = '%s';", newRole, userToUpdate);
-                    esql.executeUpdate(updateRoleQuery);
-                    System.out.println("User role updated successfully!");
-                    break;
+                    continue;
                 case 5:
                     updating = false;
-                    break;
+                    continue;
                 default:
                     System.out.println("Invalid choice. Try again.");
-                    break;
+                    continue;
+            }
+            System.out.print("Enter new " + field.label().toLowerCase() + ": ");
+            String value = in.readLine().trim();
+            try {
+                service.updateUser(session, userToUpdate, field, value);
+                System.out.println(field.label() + " updated successfully!");
+            } catch (ServiceException e) {
+                System.out.println(e.getMessage());
             }
         }
+     } catch (ServiceException e) {
+         System.out.println(e.getMessage());
      } catch (Exception e) {
          System.err.println("Error: " + e.getMessage());
      }
    }
 
+   public static void viewPoolStats(PizzaStore esql, Session session) {
+      try {
+         PoolStats stats = esql.getService().poolStats(session);
+         System.out.println("Connection Pool Statistics:");
+         System.out.println(stats);
+         System.out.println(esql.getService().serviceStats(session));
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (Exception e) {
+         System.err.println("Error: " + e.getMessage());
+      }
+   }
 
-}//end PizzaStore
+   /*
+    * Prints the latency of every database call site, busiest first, and the
+    * newest slow calls; the counters can be started over afterwards.
+    **/
+   public static void viewCallStats(PizzaStore esql, Session session) {
+      try {
+         PizzaService service = esql.getService();
+         System.out.println("Database Call Statistics:");
+         System.out.print(service.callStats(session));
+         System.out.print("Reset the counters? (y/n): ");
+         if (in.readLine().trim().equalsIgnoreCase("y")) {
+            service.resetCallStats(session);
+            System.out.println("Counters reset.");
+         }
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (Exception e) {
+         System.err.println("Error: " + e.getMessage());
+      }
+   }
+
+   /*
+    * Prints order changes as they happen until Enter is pressed.  Customers
+    * see their own orders; drivers and managers choose the stores.
+    **/
+   public static void watchOrders(PizzaStore esql, Session session) {
+      try {
+         Set<Integer> storeIDs = new HashSet<>();
+         if (session.role().handlesOrders()) {
+            System.out.print(session.role().isManager()
+               ? "Enter store IDs to follow, separated by commas (blank for all stores): "
+               : "Enter the store IDs you deliver for, separated by commas: ");
+            for (String id : in.readLine().split(",")) {
+               if (!id.trim().isEmpty()) storeIDs.add(Integer.parseInt(id.trim()));
+            }
+         }
+         Thread printer;
+         try (Subscription updates = esql.getService().watchOrders(session, storeIDs)) {
+            printer = new Thread(() -> {
+               try {
+                  while (!updates.isClosed()) {
+                     if (updates.takeResync())
+                        System.out.println("(some updates may have been missed; view your orders to catch up)");
+                     for (OrderEvent event : updates.next(1000)) System.out.println(event);
+                  }
+               } catch (InterruptedException e) {
+                  // stop printing
+               }
+            }, "order-updates");
+            printer.setDaemon(true);
+            printer.start();
+            System.out.println("Watching for order updates. Press Enter to stop.");
+            in.readLine();
+         }
+         // closing the subscription ends the printer's loop
+         printer.join();
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (NumberFormatException e) {
+         System.out.println("Store IDs must be numbers.");
+      } catch (Exception e) {
+         System.err.println("Error: " + e.getMessage());
+      }
+   }
 
+   /*
+    * Manager reports, read from the sales summaries: sales by hour or by
+    * day, best sellers and the average ticket.
+    **/
+   public static void salesReports(PizzaStore esql, Session session) {
+      try {
+         PizzaService service = esql.getService();
+         if (!session.role().isManager()) {
+            System.out.println("Permission denied. Only managers can view sales reports.");
+            return;
+         }
+         boolean viewing = true;
+         while (viewing) {
+            System.out.println("SALES REPORTS:");
+            System.out.println("1. Sales by Hour (one day)");
+            System.out.println("2. Sales by Day");
+            System.out.println("3. Top Items at a Store");
+            System.out.println("4. Totals and Average Ticket");
+            System.out.println("5. Go Back");
+            switch (readChoice()) {
+               case 1: {
+                  int storeID = readStoreID();
+                  System.out.print("Enter the day (YYYY-MM-DD): ");
+                  Timestamp day = Timestamp.valueOf(in.readLine().trim() + " 00:00:00");
+                  Timestamp next = new Timestamp(day.getTime() + 24L * 60 * 60 * 1000);
+                  printSales(service.salesByHour(session, storeID, day, next));
+                  break;
+               }
+               case 2: {
+                  int storeID = readStoreID();
+                  System.out.print("Enter the first day (YYYY-MM-DD): ");
+                  Timestamp from = Timestamp.valueOf(in.readLine().trim() + " 00:00:00");
+                  System.out.print("Enter the day after the last (YYYY-MM-DD): ");
+                  Timestamp until = Timestamp.valueOf(in.readLine().trim() + " 00:00:00");
+                  printSales(service.salesByDay(session, storeID, from, until));
+                  break;
+               }
+               case 3: {
+                  int storeID = readStoreID();
+                  List<ItemSales> items = service.topItems(session, storeID, 10);
+                  if (items.isEmpty()) System.out.println("No sales recorded.");
+                  else System.out.println("itemname\tquantity\trevenue\t");
+                  for (ItemSales item : items)
+                     System.out.println(item.itemName() + "\t" + item.quantity() + "\t" + item.revenue() + "\t");
+                  break;
+               }
+               case 4: {
+                  System.out.print("Enter Store ID (blank for all stores): ");
+                  String id = in.readLine().trim();
+                  SalesTotal total = service.salesTotal(session, id.isEmpty() ? null : Integer.valueOf(id));
+                  System.out.println("orders\trevenue\taverageticket\t");
+                  System.out.println(total.orders() + "\t" + total.revenue() + "\t" + total.averageTicket() + "\t");
+                  break;
+               }
+               case 5: viewing = false; break;
+               default: System.out.println("Unrecognized choice!"); break;
+            }
+         }
+      } catch (ServiceException e) {
+         System.out.println(e.getMessage());
+      } catch (IllegalArgumentException e) {
+         System.out.println("Store IDs must be numbers and dates YYYY-MM-DD.");
+      } catch (Exception e) {
+         System.err.println("Error: " + e.getMessage());
+      }
+   }
+
+   private static int readStoreID() throws IOException {
+      System.out.print("Enter Store ID: ");
+      return Integer.parseInt(in.readLine().trim());
+   }//end readStoreID
+
+   private static void printSales(List<SalesRow> rows) {
+      if (rows.isEmpty()) {
+         System.out.println("No sales recorded.");
+         return;
+      }
+      System.out.println("period\torders\trevenue\t");
+      for (SalesRow row : rows) System.out.println(row.period() + "\t" + row.orders() + "\t" + row.revenue() + "\t");
+   }//end printSales
+
+}//end PizzaStore
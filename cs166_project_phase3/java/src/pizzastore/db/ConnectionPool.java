@@ -0,0 +1,365 @@
+package pizzastore.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pizzastore.metrics.LatencyHistogram;
+
+/**
+ * A bounded pool of physical PostgreSQL connections.  The pool keeps at
+ * least {@code minSize} connections open, never opens more than
+ * {@code maxSize}, validates idle connections before lending them out and
+ * closes connections that have sat idle longer than the idle timeout.
+ * Borrowers that find the pool exhausted wait up to the acquire timeout and
+ * then get an SQLException.
+ *
+ */
+public final class ConnectionPool implements AutoCloseable {
+
+   /**
+    * Pool settings.  Defaults can be overridden through system properties
+    * (see {@link #fromSystemProperties()}).
+    */
+   public static final class Config {
+      int minSize = 1;
+      int maxSize = 8;
+      long idleTimeoutMillis = 5 * 60 * 1000L;
+      long acquireTimeoutMillis = 10 * 1000L;
+      long evictionIntervalMillis = 30 * 1000L;
+      int validationTimeoutSeconds = 2;
+      boolean validateOnBorrow = true;
+      int statementCacheSize = 64;
+      StatementListener statementListener = null;
+
+      public Config minSize(int n) { this.minSize = n; return this; }
+      public Config maxSize(int n) { this.maxSize = n; return this; }
+      public Config idleTimeoutMillis(long ms) { this.idleTimeoutMillis = ms; return this; }
+      public Config acquireTimeoutMillis(long ms) { this.acquireTimeoutMillis = ms; return this; }
+      public Config evictionIntervalMillis(long ms) { this.evictionIntervalMillis = ms; return this; }
+      public Config validationTimeoutSeconds(int s) { this.validationTimeoutSeconds = s; return this; }
+      public Config validateOnBorrow(boolean b) { this.validateOnBorrow = b; return this; }
+      public Config statementCacheSize(int n) { this.statementCacheSize = n; return this; }
+      public Config statementListener(StatementListener l) { this.statementListener = l; return this; }
+
+      /**
+       * Reads {@code pizzastore.pool.min}, {@code .max}, {@code .idleTimeoutMs},
+       * {@code .acquireTimeoutMs}, {@code .validate} and {@code .statementCache}
+       * on top of the defaults.
+       */
+      public static Config fromSystemProperties() {
+         Config c = new Config();
+         c.minSize = Integer.getInteger("pizzastore.pool.min", c.minSize);
+         c.maxSize = Integer.getInteger("pizzastore.pool.max", c.maxSize);
+         c.idleTimeoutMillis = Long.getLong("pizzastore.pool.idleTimeoutMs", c.idleTimeoutMillis);
+         c.acquireTimeoutMillis = Long.getLong("pizzastore.pool.acquireTimeoutMs", c.acquireTimeoutMillis);
+         c.validateOnBorrow = Boolean.parseBoolean(
+            System.getProperty("pizzastore.pool.validate", String.valueOf(c.validateOnBorrow)));
+         c.statementCacheSize = Integer.getInteger("pizzastore.pool.statementCache", c.statementCacheSize);
+         return c;
+      }//end fromSystemProperties
+
+      void check() {
+         if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+            throw new IllegalArgumentException("invalid pool size: min=" + minSize + " max=" + maxSize);
+         if (statementCacheSize < 1)
+            throw new IllegalArgumentException("invalid statement cache size: " + statementCacheSize);
+      }
+   }//end Config
+
+   private final String url;
+   private final String user;
+   private final String password;
+   private final Config config;
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition available = lock.newCondition();
+   // most recently returned connection at the head, oldest at the tail
+   private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+   private int total = 0;
+   private int waiters = 0;
+   private boolean closed = false;
+
+   private final LatencyHistogram waitTimes = new LatencyHistogram();
+   private final AtomicLong timeouts = new AtomicLong();
+   private final AtomicLong created = new AtomicLong();
+   private final AtomicLong evicted = new AtomicLong();
+   private final LongAdder statementHits = new LongAdder();
+   private final LongAdder statementMisses = new LongAdder();
+   private final ScheduledExecutorService evictor;
+
+   /**
+    * Creates the pool and opens {@code minSize} connections up front.
+    *
+    * @param url the JDBC url
+    * @param user the database user
+    * @param password the database password
+    * @param config pool settings
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool(String url, String user, String password, Config config) throws SQLException {
+      config.check();
+      this.url = url;
+      this.user = user;
+      this.password = password;
+      this.config = config;
+      fillToMinimum();
+      this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "pizzastore-pool-evictor");
+         t.setDaemon(true);
+         return t;
+      });
+      this.evictor.scheduleWithFixedDelay(this::evictIdle,
+         config.evictionIntervalMillis, config.evictionIntervalMillis, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting up to the acquire timeout when every
+    * connection is in use.  Close the returned object to give it back.
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when the pool is closed, the wait times out
+    *         or a new connection cannot be opened
+    */
+   public PooledConnection borrow() throws SQLException {
+      long start = System.nanoTime();
+      long remaining = TimeUnit.MILLISECONDS.toNanos(config.acquireTimeoutMillis);
+      while (true) {
+         PooledConnection candidate = null;
+         boolean create = false;
+         lock.lock();
+         try {
+            while (true) {
+               if (closed) throw new SQLException("Connection pool is closed");
+               if (!idle.isEmpty()) {
+                  candidate = idle.pollFirst();
+                  break;
+               }
+               if (total < config.maxSize) {
+                  total++;
+                  create = true;
+                  break;
+               }
+               if (remaining <= 0) {
+                  timeouts.incrementAndGet();
+                  throw new SQLException("Timed out after " + config.acquireTimeoutMillis
+                     + "ms waiting for a database connection (pool max=" + config.maxSize + ")");
+               }
+               waiters++;
+               try {
+                  remaining = available.awaitNanos(remaining);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               } finally {
+                  waiters--;
+               }
+            }
+         } finally {
+            lock.unlock();
+         }
+
+         if (create) {
+            candidate = open();
+         } else if (config.validateOnBorrow && !isValid(candidate)) {
+            discard(candidate);
+            continue;
+         }
+         waitTimes.recordSince(start);
+         candidate.lent();
+         return candidate;
+      }
+   }//end borrow
+
+   /**
+    * Gives a borrowed connection back.  Called from
+    * {@link PooledConnection#close()}.
+    */
+   void release(PooledConnection pc) {
+      if (!pc.isOnLoan()) return;
+      pc.returned();
+      if (!pc.isBroken()) {
+         try {
+            pc.reset();
+         } catch (SQLException e) {
+            pc.markBroken();
+         }
+      }
+      lock.lock();
+      try {
+         if (!closed && !pc.isBroken()) {
+            idle.addFirst(pc);
+            available.signal();
+            return;
+         }
+      } finally {
+         lock.unlock();
+      }
+      discard(pc);
+   }//end release
+
+   /**
+    * @return a snapshot of the pool counters
+    */
+   public PoolStats stats() {
+      lock.lock();
+      try {
+         int idleCount = idle.size();
+         return new PoolStats(total, total - idleCount, idleCount, waiters, config.maxSize,
+            created.get(), evicted.get(), timeouts.get(), statementHits.sum(), statementMisses.sum(),
+            waitTimes.snapshot());
+      } finally {
+         lock.unlock();
+      }
+   }//end stats
+
+   /**
+    * Closes every idle connection and stops lending.  Connections still on
+    * loan are closed when they come back.
+    */
+   @Override
+   public void close() {
+      List<PooledConnection> toClose;
+      lock.lock();
+      try {
+         if (closed) return;
+         closed = true;
+         toClose = new ArrayList<>(idle);
+         total -= idle.size();
+         idle.clear();
+         available.signalAll();
+      } finally {
+         lock.unlock();
+      }
+      evictor.shutdownNow();
+      for (PooledConnection pc : toClose) pc.closePhysical();
+   }//end close
+
+   /**
+    * Opens a connection with the pool's settings that the pool does not
+    * manage, for long-lived sessions such as a LISTEN.  The caller closes it.
+    *
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openDedicated() throws SQLException {
+      return DriverManager.getConnection(url, user, password);
+   }//end openDedicated
+
+   /**
+    * Opens a pool with this pool's user, password and settings on another
+    * server, e.g. a replica.  The caller closes it.
+    *
+    * @param url the JDBC url of the other server
+    * @throws java.sql.SQLException when its initial connections cannot be opened
+    */
+   public ConnectionPool sibling(String url) throws SQLException {
+      return new ConnectionPool(url, user, password, config);
+   }//end sibling
+
+   private PooledConnection open() throws SQLException {
+      try {
+         Connection c = DriverManager.getConnection(url, user, password);
+         created.incrementAndGet();
+         return new PooledConnection(this, c,
+            new StatementCache(c, config.statementCacheSize, statementHits, statementMisses),
+            config.statementListener);
+      } catch (SQLException | RuntimeException e) {
+         lock.lock();
+         try {
+            total--;
+            available.signal();
+         } finally {
+            lock.unlock();
+         }
+         throw e;
+      }
+   }//end open
+
+   private void discard(PooledConnection pc) {
+      pc.closePhysical();
+      lock.lock();
+      try {
+         total--;
+         available.signal();
+      } finally {
+         lock.unlock();
+      }
+   }//end discard
+
+   private boolean isValid(PooledConnection pc) {
+      Connection c = pc.connection();
+      try {
+         return c.isValid(config.validationTimeoutSeconds);
+      } catch (SQLFeatureNotSupportedException | AbstractMethodError e) {
+         // pre-JDBC4 drivers have no isValid, fall back to a round trip
+         try (Statement stmt = c.createStatement()) {
+            stmt.execute("SELECT 1");
+            return true;
+         } catch (SQLException ignored) {
+            return false;
+         }
+      } catch (SQLException e) {
+         return false;
+      }
+   }//end isValid
+
+   private void fillToMinimum() throws SQLException {
+      while (true) {
+         lock.lock();
+         try {
+            if (closed || total >= config.minSize) return;
+            total++;
+         } finally {
+            lock.unlock();
+         }
+         PooledConnection pc = open();
+         pc.returned();
+         lock.lock();
+         try {
+            idle.addLast(pc);
+            available.signal();
+         } finally {
+            lock.unlock();
+         }
+      }
+   }//end fillToMinimum
+
+   private void evictIdle() {
+      List<PooledConnection> expired = new ArrayList<>();
+      long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(config.idleTimeoutMillis);
+      lock.lock();
+      try {
+         Iterator<PooledConnection> it = idle.descendingIterator();
+         while (it.hasNext() && total > config.minSize) {
+            PooledConnection pc = it.next();
+            if (pc.lastReturnedNanos() - cutoff > 0) break;
+            it.remove();
+            total--;
+            expired.add(pc);
+         }
+      } finally {
+         lock.unlock();
+      }
+      evicted.addAndGet(expired.size());
+      for (PooledConnection pc : expired) pc.closePhysical();
+      try {
+         fillToMinimum();
+      } catch (SQLException e) {
+         // the next borrow will surface the failure.
+      }
+   }//end evictIdle
+
+}//end ConnectionPool
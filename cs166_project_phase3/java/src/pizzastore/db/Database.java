@@ -0,0 +1,388 @@
+package pizzastore.db;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+
+/**
+ * The parameterized query helpers shared by the terminal client and the
+ * service layer.  Every call borrows a pooled connection, runs one cached
+ * PreparedStatement and gives the connection back.
+ *
+ * Every call is timed, with its row count and any error, under a
+ * {@link CallSite}: the one named with {@link #at}, or else one named
+ * after the statement.
+ *
+ * Calls go to the primary unless the database has a {@link ReplicaSet}
+ * and the view says otherwise: {@link #readingAs} sends them to a replica
+ * that has every write of the reader, {@link #writingAs} records each
+ * call as a write of that login once it returns.
+ *
+ */
+public final class Database {
+
+   private enum Route { PRIMARY, READ, WRITE }
+
+   private final ConnectionPool pool;
+   private final ReplicaSet replicas;
+   private final CallSite site;
+   private final Route route;
+   private final String login;
+
+   public Database(ConnectionPool pool) {
+      this(pool, null);
+   }
+
+   /**
+    * @param replicas where reads may go, or null to send everything to the pool
+    */
+   public Database(ConnectionPool pool, ReplicaSet replicas) {
+      this(pool, replicas, null, Route.PRIMARY, null);
+   }
+
+   private Database(ConnectionPool pool, ReplicaSet replicas, CallSite site, Route route, String login) {
+      this.pool = pool;
+      this.replicas = replicas;
+      this.site = site;
+      this.route = route;
+      this.login = login;
+   }
+
+   /**
+    * Tags calls with their logical operation.  The view is one small
+    * object over a shared site, cheap enough to make at the call.
+    *
+    * @param name the operation, e.g. "viewOrderInfo.items"
+    * @return a view of this database whose calls are counted under that name
+    */
+   public Database at(String name) {
+      return new Database(pool, replicas, CallSites.of(name), route, login);
+   }//end at
+
+   /**
+    * Sends calls to a replica that has replayed every write recorded for
+    * the login, or to the primary when none has.  Only for statements that
+    * write nothing.
+    *
+    * @param reader the login reading, or null for reads that only bound the lag
+    * @return a view reading through the replicas; this database when there are none
+    */
+   public Database readingAs(String reader) {
+      return replicas == null ? this : new Database(pool, replicas, site, Route.READ, reader);
+   }//end readingAs
+
+   /**
+    * Records every call that returns as a write of the login, so the
+    * login's later reads are not answered by a replica without it.
+    *
+    * @param writer the login whose data the calls change
+    * @return a view recording its writes; this database when there are no replicas
+    */
+   public Database writingAs(String writer) {
+      return replicas == null ? this : new Database(pool, replicas, site, Route.WRITE, writer);
+   }//end writingAs
+
+   /**
+    * Records a write of the login made outside these helpers, e.g. by a
+    * transaction on a borrowed connection, once it has committed.
+    */
+   public void wrote(String writer) {
+      if (replicas != null) replicas.wrote(writer);
+   }//end wrote
+
+   /**
+    * Borrows a connection from where this view's calls go, for statements
+    * the helpers do not cover.  The caller closes it and records its
+    * writes with {@link #wrote}.
+    */
+   public PooledConnection borrow() throws SQLException {
+      return route == Route.READ ? replicas.borrowFor(login) : pool.borrow();
+   }//end borrow
+
+   private void returned() {
+      if (route == Route.WRITE) replicas.wrote(login);
+   }//end returned
+
+   private CallSite site(String sql) {
+      return site != null ? site : CallSites.forSql(sql);
+   }//end site
+
+   /**
+    * Builds the JDBC url of a database on this machine.
+    *
+    * @param dbname the name of the database
+    * @param dbport the port postgres listens on
+    * @return the connection url
+    */
+   public static String url(String dbname, String dbport) {
+      return "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+   }//end url
+
+   /**
+    * @return the primary pool this database borrows connections from
+    */
+   public ConnectionPool pool() {
+      return pool;
+   }//end pool
+
+   /**
+    * Executes an INSERT, UPDATE or DELETE.
+    *
+    * @param sql the SQL text with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when the update fails
+    */
+   public int executeUpdate(String sql, Object... params) throws SQLException {
+      CallSite site = site(sql);
+      long start = site.start();
+      try (PooledConnection conn = borrow()) {
+         int rows = conn.prepare(sql, params).executeUpdate();
+         returned();
+         site.done(start, rows, sql);
+         return rows;
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, sql, e);
+         throw e;
+      }
+   }//end executeUpdate
+
+   /**
+    * Executes a query and maps every row with the given mapper.
+    *
+    * @param query the SQL text with ? placeholders
+    * @param mapper reads one row; called once per row
+    * @param params the values bound to the placeholders
+    * @return the mapped rows in result order
+    * @throws java.sql.SQLException when the query fails
+    */
+   public <T> List<T> query(String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow();
+           ResultSet rs = conn.prepare(query, params).executeQuery()) {
+         List<T> result = new ArrayList<>();
+         while (rs.next()) result.add(mapper.map(rs));
+         returned();
+         site.done(start, result.size(), query);
+         return result;
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, query, e);
+         throw e;
+      }
+   }//end query
+
+   /**
+    * Executes a query and maps its first row.
+    *
+    * @return the mapped first row, or null when there are no rows
+    * @throws java.sql.SQLException when the query fails
+    */
+   public <T> T queryOne(String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow();
+           ResultSet rs = conn.prepare(query, params).executeQuery()) {
+         T row = rs.next() ? mapper.map(rs) : null;
+         returned();
+         site.done(start, row == null ? 0 : 1, query);
+         return row;
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, query, e);
+         throw e;
+      }
+   }//end queryOne
+
+   /**
+    * Executes a query that returns one integral value, e.g. a COUNT(*).
+    *
+    * @return the first column of the first row, or 0 when there are no rows
+    * @throws java.sql.SQLException when the query fails
+    */
+   public long queryLong(String query, Object... params) throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow();
+           ResultSet rs = conn.prepare(query, params).executeQuery()) {
+         boolean found = rs.next();
+         long value = found ? rs.getLong(1) : 0L;
+         returned();
+         site.done(start, found ? 1 : 0, query);
+         return value;
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, query, e);
+         throw e;
+      }
+   }//end queryLong
+
+   /**
+    * Streams a query whose columns are all integral through one reusable
+    * batch of primitive column arrays.  The rows are fetched from the server
+    * batchSize at a time inside a read-only transaction, so neither the
+    * driver nor this method holds the whole result.
+    *
+    * @param query the SQL text with ? placeholders
+    * @param batchSize the rows per batch and per fetch
+    * @param consumer called with each filled batch
+    * @param params the values bound to the placeholders
+    * @return the number of rows scanned
+    * @throws java.sql.SQLException when the query or the consumer fails
+    */
+   public long scan(String query, int batchSize, LongColumns.Consumer consumer, Object... params)
+         throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow()) {
+         Connection c = conn.connection();
+         c.setAutoCommit(false);
+         PreparedStatement stmt = conn.prepare(query, params);
+         stmt.setFetchSize(batchSize);
+         try (ResultSet rs = stmt.executeQuery()) {
+            LongColumns batch = new LongColumns(rs.getMetaData().getColumnCount(), batchSize);
+            long total = 0;
+            int row = 0;
+            while (rs.next()) {
+               for (int col = 0; col < batch.columnCount(); col++) batch.set(col, row, rs.getLong(col + 1));
+               if (++row == batch.capacity()) {
+                  batch.size(row);
+                  consumer.accept(batch);
+                  total += row;
+                  row = 0;
+               }
+            }
+            if (row > 0) {
+               batch.size(row);
+               consumer.accept(batch);
+               total += row;
+            }
+            c.commit();
+            returned();
+            site.done(start, total, query);
+            return total;
+         } catch (SQLException | RuntimeException e) {
+            try {
+               c.rollback();
+            } catch (SQLException rollbackFailure) {
+               e.addSuppressed(rollbackFailure);
+            }
+            site.failed(start, query, e);
+            throw e;
+         } finally {
+            // the statement is cached and shared with other callers
+            stmt.setFetchSize(0);
+            c.setAutoCommit(true);
+         }
+      }
+   }//end scan
+
+   /**
+    * Executes a query and returns every row as a list of column strings.
+    * Meant for ad-hoc queries whose shape is not known in advance; code
+    * that knows its columns should use {@link #query} with a typed mapper.
+    *
+    * @param query the SQL text with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when the query fails
+    */
+   public List<List<String>> executeQueryAndReturnResult(String query, Object... params) throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow()) {
+         PreparedStatement stmt = conn.prepare(query, params);
+         try (ResultSet rs = stmt.executeQuery()) {
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int numCol = rsmd.getColumnCount();
+            List<List<String>> result = new ArrayList<List<String>>();
+            while (rs.next()) {
+               List<String> record = new ArrayList<String>(numCol);
+               for (int i = 1; i <= numCol; ++i)
+                  record.add(rs.getString(i));
+               result.add(record);
+            }
+            returned();
+            site.done(start, result.size(), query);
+            return result;
+         }
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, query, e);
+         throw e;
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Executes a query and prints the column names followed by every row,
+    * tab separated.  Nothing is printed when there are no rows.
+    *
+    * @param out the stream the rows are written to
+    * @param query the SQL text with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when the query fails
+    */
+   public int executeQueryAndPrintResult(PrintStream out, String query, Object... params) throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow()) {
+         PreparedStatement stmt = conn.prepare(query, params);
+         try (ResultSet rs = stmt.executeQuery()) {
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int numCol = rsmd.getColumnCount();
+            int rowCount = 0;
+            // one line per row, built first so the stream sees a single write
+            StringBuilder line = new StringBuilder(128);
+            while (rs.next()) {
+               if (rowCount == 0) {
+                  for (int i = 1; i <= numCol; i++) line.append(rsmd.getColumnName(i)).append('\t');
+                  out.println(line);
+                  line.setLength(0);
+               }
+               for (int i = 1; i <= numCol; ++i) line.append(rs.getString(i)).append('\t');
+               out.println(line);
+               line.setLength(0);
+               ++rowCount;
+            }
+            returned();
+            site.done(start, rowCount, query);
+            return rowCount;
+         }
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, query, e);
+         throw e;
+      }
+   }//end executeQueryAndPrintResult
+
+   /**
+    * Executes a query and counts the rows it returns.
+    *
+    * @param query the SQL text with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query fails
+    */
+   public int executeQuery(String query, Object... params) throws SQLException {
+      CallSite site = site(query);
+      long start = site.start();
+      try (PooledConnection conn = borrow()) {
+         try (ResultSet rs = conn.prepare(query, params).executeQuery()) {
+            int rowCount = 0;
+            while (rs.next()) rowCount++;
+            returned();
+            site.done(start, rowCount, query);
+            return rowCount;
+         }
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, query, e);
+         throw e;
+      }
+   }//end executeQuery
+
+}//end Database
@@ -0,0 +1,69 @@
+package pizzastore.db;
+
+import java.sql.SQLException;
+
+/**
+ * A reusable batch of rows from a scan whose columns are all integral,
+ * stored column by column in primitive arrays.  {@link Database#scan} fills
+ * the same batch over and over, so a scan of millions of rows allocates
+ * nothing per row.  Decimal columns can be scanned as cents by selecting
+ * e.g. {@code (totalPrice * 100)::bigint}; SQL NULL reads as 0.
+ *
+ */
+public final class LongColumns {
+
+   /**
+    * Receives each filled batch.  The batch is only valid during the call.
+    */
+   @FunctionalInterface
+   public interface Consumer {
+      void accept(LongColumns batch) throws SQLException;
+   }//end Consumer
+
+   private final long[][] columns;
+   private int size;
+
+   LongColumns(int columnCount, int capacity) {
+      this.columns = new long[columnCount][capacity];
+   }
+
+   /**
+    * @return the number of rows in this batch
+    */
+   public int size() {
+      return size;
+   }//end size
+
+   /**
+    * @param column the 0-based column index
+    * @param row the 0-based row index, below {@link #size()}
+    */
+   public long get(int column, int row) {
+      return columns[column][row];
+   }//end get
+
+   /**
+    * @param column the 0-based column index
+    * @return the backing array of the column; only the first size() entries are valid
+    */
+   public long[] column(int column) {
+      return columns[column];
+   }//end column
+
+   int capacity() {
+      return columns[0].length;
+   }//end capacity
+
+   int columnCount() {
+      return columns.length;
+   }//end columnCount
+
+   void set(int column, int row, long value) {
+      columns[column][row] = value;
+   }//end set
+
+   void size(int size) {
+      this.size = size;
+   }//end size
+
+}//end LongColumns
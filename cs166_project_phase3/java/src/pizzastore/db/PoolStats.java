@@ -0,0 +1,61 @@
+package pizzastore.db;
+
+import pizzastore.metrics.LatencyHistogram;
+
+/**
+ * Point-in-time counters of a {@link ConnectionPool}.
+ *
+ */
+public final class PoolStats {
+
+   private final int total;
+   private final int active;
+   private final int idle;
+   private final int waiters;
+   private final int maxSize;
+   private final long created;
+   private final long evicted;
+   private final long timeouts;
+   private final long statementHits;
+   private final long statementMisses;
+   private final LatencyHistogram.Snapshot waitTimes;
+
+   PoolStats(int total, int active, int idle, int waiters, int maxSize,
+             long created, long evicted, long timeouts, long statementHits, long statementMisses,
+             LatencyHistogram.Snapshot waitTimes) {
+      this.total = total;
+      this.active = active;
+      this.idle = idle;
+      this.waiters = waiters;
+      this.maxSize = maxSize;
+      this.created = created;
+      this.evicted = evicted;
+      this.timeouts = timeouts;
+      this.statementHits = statementHits;
+      this.statementMisses = statementMisses;
+      this.waitTimes = waitTimes;
+   }
+
+   public int total() { return total; }
+   public int active() { return active; }
+   public int idle() { return idle; }
+   public int waiters() { return waiters; }
+   public int maxSize() { return maxSize; }
+   public long created() { return created; }
+   public long evicted() { return evicted; }
+   public long timeouts() { return timeouts; }
+   public long statementHits() { return statementHits; }
+   public long statementMisses() { return statementMisses; }
+   public LatencyHistogram.Snapshot waitTimes() { return waitTimes; }
+
+   @Override
+   public String toString() {
+      return String.format("connections: total=%d/%d active=%d idle=%d waiters=%d%n"
+         + "lifetime: created=%d evicted=%d acquireTimeouts=%d%n"
+         + "statement cache: hits=%d misses=%d%n"
+         + "acquire wait: %s",
+         total, maxSize, active, idle, waiters, created, evicted, timeouts,
+         statementHits, statementMisses, waitTimes.summary());
+   }//end toString
+
+}//end PoolStats
@@ -0,0 +1,118 @@
+package pizzastore.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * A physical connection on loan from a {@link ConnectionPool}.  Closing it
+ * hands the connection back to the pool instead of closing the socket, so
+ * callers use it with try-with-resources exactly like a plain Connection.
+ *
+ */
+public final class PooledConnection implements AutoCloseable {
+
+   private final ConnectionPool pool;
+   private final Connection connection;
+   private final StatementCache statements;
+   private final StatementListener listener;
+   private final long createdNanos = System.nanoTime();
+   private long lastReturnedNanos = createdNanos;
+   private boolean broken = false;
+   private boolean onLoan = false;
+
+   PooledConnection(ConnectionPool pool, Connection connection, StatementCache statements,
+                    StatementListener listener) {
+      this.pool = pool;
+      this.connection = connection;
+      this.statements = statements;
+      this.listener = listener;
+   }
+
+   /**
+    * @return the underlying physical connection
+    */
+   public Connection connection() {
+      return connection;
+   }//end connection
+
+   /**
+    * Fetches the cached PreparedStatement for this SQL text and binds the
+    * parameters in order.  The statement belongs to the cache: callers
+    * close the ResultSet they obtain but never the statement itself.
+    *
+    * @param sql the SQL text with ? placeholders
+    * @param params the values for the placeholders
+    * @return the bound statement
+    * @throws java.sql.SQLException when the statement cannot be prepared or bound
+    */
+   public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = statements.get(sql);
+      bind(stmt, params);
+      if (listener != null) listener.prepared(sql, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Binds positional parameters to a statement.  A null binds as an
+    * untyped SQL NULL so the server infers the type from context.
+    */
+   static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; i++) {
+         if (params[i] == null) stmt.setNull(i + 1, Types.NULL);
+         else stmt.setObject(i + 1, params[i]);
+      }
+   }//end bind
+
+   /**
+    * Marks the connection as unusable so the pool discards it on return
+    * rather than handing it to the next borrower.
+    */
+   public void markBroken() {
+      broken = true;
+   }//end markBroken
+
+   boolean isBroken() { return broken; }
+   long lastReturnedNanos() { return lastReturnedNanos; }
+   long createdNanos() { return createdNanos; }
+   boolean isOnLoan() { return onLoan; }
+
+   void lent() {
+      onLoan = true;
+   }//end lent
+
+   void returned() {
+      onLoan = false;
+      lastReturnedNanos = System.nanoTime();
+   }//end returned
+
+   /**
+    * Restores the session defaults a borrower may have changed so the next
+    * borrower starts from a clean autocommit connection.
+    */
+   void reset() throws SQLException {
+      if (!connection.getAutoCommit()) {
+         connection.rollback();
+         connection.setAutoCommit(true);
+      }
+   }//end reset
+
+   void closePhysical() {
+      statements.clear();
+      try {
+         connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end closePhysical
+
+   /**
+    * Returns the connection to its pool.
+    */
+   @Override
+   public void close() {
+      pool.release(this);
+   }//end close
+
+}//end PooledConnection
@@ -0,0 +1,273 @@
+package pizzastore.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming replicas of the primary that reads may be sent to.  Each
+ * replica has a pool of its own, opened with the primary pool's user and
+ * settings.
+ *
+ * A poller samples the primary's WAL insert position and then how far
+ * each replica has replayed.  A replica that has replayed a sample is
+ * caught up to the moment the sample was taken: every commit that had
+ * returned by then is on it.  A write is recorded as the moment its commit
+ * returned, under the login it belongs to, so a read for that login goes
+ * to a replica caught up past the login's last write, or to the primary
+ * until one is.  A read for no login, or for a login with no recent
+ * write, may go to any replica at most {@code maxLag} behind.
+ *
+ * Write moments are kept per login, not per session, and per process: a
+ * user's other sessions in this process see the write too, another
+ * process does not.
+ *
+ */
+public final class ReplicaSet implements AutoCloseable {
+
+   /**
+    * Replica settings.  Defaults can be overridden through system
+    * properties (see {@link #fromSystemProperties()}).
+    */
+   public static final class Config {
+      List<String> urls = new ArrayList<>();
+      long maxLagMillis = 1000;
+      long pollMillis = 50;
+
+      public Config urls(List<String> urls) { this.urls = new ArrayList<>(urls); return this; }
+      public Config maxLagMillis(long ms) { this.maxLagMillis = ms; return this; }
+      public Config pollMillis(long ms) { this.pollMillis = ms; return this; }
+
+      /**
+       * @return true when there is at least one replica
+       */
+      public boolean enabled() {
+         return !urls.isEmpty();
+      }//end enabled
+
+      /**
+       * Reads {@code pizzastore.replicas} (comma-separated JDBC urls, none
+       * by default), {@code .maxLagMs} and {@code .pollMs} on top of the
+       * defaults.
+       */
+      public static Config fromSystemProperties() {
+         Config c = new Config();
+         String urls = System.getProperty("pizzastore.replicas", "").trim();
+         if (!urls.isEmpty()) {
+            for (String url : urls.split(",")) if (!url.trim().isEmpty()) c.urls.add(url.trim());
+         }
+         c.maxLagMillis = Long.getLong("pizzastore.replicas.maxLagMs", c.maxLagMillis);
+         c.pollMillis = Long.getLong("pizzastore.replicas.pollMs", c.pollMillis);
+         return c;
+      }//end fromSystemProperties
+
+      void check() {
+         if (maxLagMillis < 0) throw new IllegalArgumentException("invalid replica max lag: " + maxLagMillis);
+         if (pollMillis < 1) throw new IllegalArgumentException("invalid replica poll interval: " + pollMillis);
+      }
+   }//end Config
+
+   static final String PRIMARY_POSITION = "SELECT pg_wal_lsn_diff(pg_current_wal_insert_lsn(), '0/0')::bigint;";
+
+   // null on a server that is not a standby
+   static final String REPLAYED = "SELECT pg_wal_lsn_diff(pg_last_wal_replay_lsn(), '0/0')::bigint;";
+
+   /**
+    * Primary positions remembered; a replica further behind than the
+    * oldest one is not caught up to anything.
+    */
+   static final int SAMPLES = 256;
+
+   private static final class Replica {
+      final String url;
+      final ConnectionPool pool;
+      final LongAdder reads = new LongAdder();
+      // System.nanoTime() of the newest primary sample replayed; valid once caughtUp
+      volatile long caughtUpNanos;
+      volatile boolean caughtUp = false;
+      volatile String problem = "not polled yet";
+
+      Replica(String url, ConnectionPool pool) {
+         this.url = url;
+         this.pool = pool;
+      }
+   }//end Replica
+
+   private final ConnectionPool primary;
+   private final long maxLagNanos;
+   private final Replica[] replicas;
+   private final ConcurrentHashMap<String, Long> written = new ConcurrentHashMap<>();
+   private final AtomicInteger next = new AtomicInteger();
+   private final LongAdder primaryReads = new LongAdder();
+   private final LongAdder fallbacks = new LongAdder();
+   private final ScheduledExecutorService poller;
+
+   // the poller's own: primary samples, oldest first from sampleStart
+   private final long[] sampleNanos = new long[SAMPLES];
+   private final long[] samplePositions = new long[SAMPLES];
+   private int sampleStart = 0;
+   private int sampleCount = 0;
+
+   /**
+    * Opens a pool per replica and starts polling them.
+    *
+    * @param primary the pool writes go to; its user, password and
+    *        settings are used for the replicas, and it stays the caller's to close
+    * @throws java.sql.SQLException when a replica pool cannot be opened
+    */
+   public ReplicaSet(ConnectionPool primary, Config config) throws SQLException {
+      config.check();
+      this.primary = primary;
+      this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(config.maxLagMillis);
+      List<Replica> opened = new ArrayList<>();
+      try {
+         for (String url : config.urls) opened.add(new Replica(url, primary.sibling(url)));
+      } catch (SQLException | RuntimeException e) {
+         for (Replica r : opened) r.pool.close();
+         throw e;
+      }
+      this.replicas = opened.toArray(new Replica[0]);
+      this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "pizzastore-replica-poller");
+         t.setDaemon(true);
+         return t;
+      });
+      this.poller.scheduleWithFixedDelay(this::poll, 0, config.pollMillis, TimeUnit.MILLISECONDS);
+   }//end ReplicaSet
+
+   /**
+    * Records that a write for this login has just committed.  Call after
+    * the commit returns.
+    *
+    * @param login the user the written data belongs to; null records nothing
+    */
+   public void wrote(String login) {
+      if (login == null || login.isEmpty()) return;
+      written.put(login, System.nanoTime());
+   }//end wrote
+
+   /**
+    * Borrows a connection to read what the login may see: from a replica
+    * caught up past the login's last write and at most maxLag behind,
+    * taken in turn, or from the primary when none is.  A replica that
+    * cannot lend a connection is passed over until it is polled again.
+    *
+    * @param login the reader, or null to only bound the lag
+    */
+   public PooledConnection borrowFor(String login) throws SQLException {
+      long now = System.nanoTime();
+      long needed = now - maxLagNanos;
+      Long wrote = login == null ? null : written.get(login);
+      if (wrote != null && wrote - needed > 0) needed = wrote;
+      int start = next.getAndIncrement();
+      for (int i = 0; i < replicas.length; i++) {
+         Replica r = replicas[Math.floorMod(start + i, replicas.length)];
+         if (!r.caughtUp || r.caughtUpNanos - needed < 0) continue;
+         try {
+            PooledConnection conn = r.pool.borrow();
+            r.reads.increment();
+            return conn;
+         } catch (SQLException e) {
+            r.caughtUp = false;
+            r.problem = e.getMessage();
+            fallbacks.increment();
+         }
+      }
+      primaryReads.increment();
+      return primary.borrow();
+   }//end borrowFor
+
+   /**
+    * Samples the primary, then moves each replica's caught-up moment to
+    * the newest sample it has replayed, and forgets write moments older
+    * than maxLag, which the lag bound covers on its own.
+    */
+   private void poll() {
+      try {
+         long now = System.nanoTime();
+         // the moment is taken first, so every commit returned by then is at or below the position
+         long position = position(primary, PRIMARY_POSITION);
+         int slot = (sampleStart + sampleCount) % SAMPLES;
+         if (sampleCount == SAMPLES) sampleStart = (sampleStart + 1) % SAMPLES;
+         else sampleCount++;
+         sampleNanos[slot] = now;
+         samplePositions[slot] = position;
+      } catch (SQLException | RuntimeException e) {
+         // without a new sample the replicas keep their moments and age out of maxLag
+      }
+      for (Replica r : replicas) {
+         try {
+            long replayed = position(r.pool, REPLAYED);
+            if (replayed < 0) {
+               r.caughtUp = false;
+               r.problem = "not a standby";
+               continue;
+            }
+            r.problem = "behind every primary sample";
+            for (int i = sampleCount - 1; i >= 0; i--) {
+               int slot = (sampleStart + i) % SAMPLES;
+               if (samplePositions[slot] > replayed) continue;
+               if (!r.caughtUp || sampleNanos[slot] - r.caughtUpNanos > 0) r.caughtUpNanos = sampleNanos[slot];
+               r.caughtUp = true;
+               r.problem = null;
+               break;
+            }
+         } catch (SQLException | RuntimeException e) {
+            r.caughtUp = false;
+            r.problem = e.getMessage();
+         }
+      }
+      long forgotten = System.nanoTime() - maxLagNanos;
+      written.values().removeIf(t -> t - forgotten < 0);
+   }//end poll
+
+   /**
+    * @return the single bigint the query returns, or -1 when it is null
+    */
+   private static long position(ConnectionPool pool, String sql) throws SQLException {
+      try (PooledConnection conn = pool.borrow();
+           ResultSet rs = conn.prepare(sql).executeQuery()) {
+         if (!rs.next()) return -1;
+         long value = rs.getLong(1);
+         return rs.wasNull() ? -1 : value;
+      }
+   }//end position
+
+   /**
+    * @return one line for the primary and one per replica: reads served,
+    *         lag behind the primary and any problem
+    */
+   @Override
+   public String toString() {
+      StringBuilder out = new StringBuilder();
+      out.append(String.format("replicas: %d reads on the primary, %d fallbacks, %d logins awaiting replay",
+         primaryReads.sum(), fallbacks.sum(), written.size()));
+      long now = System.nanoTime();
+      for (Replica r : replicas) {
+         out.append(System.lineSeparator()).append(String.format("  %s: %d reads, ", r.url, r.reads.sum()));
+         if (r.caughtUp) out.append(String.format("%.1f ms behind", (now - r.caughtUpNanos) / 1e6));
+         else out.append("not used");
+         String problem = r.problem;
+         if (problem != null) out.append(" (").append(problem).append(')');
+      }
+      return out.toString();
+   }//end toString
+
+   /**
+    * Stops polling and closes the replica pools.  The primary pool is the
+    * caller's to close.
+    */
+   @Override
+   public void close() {
+      poller.shutdownNow();
+      for (Replica r : replicas) r.pool.close();
+   }//end close
+
+}//end ReplicaSet
@@ -0,0 +1,21 @@
+package pizzastore.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the current row of a result set into an object.  Mappers should use
+ * the typed getters (getInt, getBigDecimal, getTimestamp, ...) so numeric
+ * columns are never round-tripped through strings.
+ *
+ * @param <T> the type a row is mapped to
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+   /**
+    * @param rs a result set positioned on a row; must not be advanced
+    */
+   T map(ResultSet rs) throws SQLException;
+
+}//end RowMapper
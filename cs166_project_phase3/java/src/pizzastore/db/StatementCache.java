@@ -0,0 +1,75 @@
+package pizzastore.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A per-connection LRU cache of PreparedStatements keyed by SQL text.
+ * Re-using the statement object lets the driver switch it to a named
+ * server-side prepared statement after a few executions, so Postgres parses
+ * and plans each distinct query once per connection instead of once per
+ * call.  Not thread-safe; a connection is only ever used by its borrower.
+ *
+ */
+final class StatementCache {
+
+   private final Connection connection;
+   private final LongAdder hits;
+   private final LongAdder misses;
+   private final LinkedHashMap<String, PreparedStatement> statements;
+
+   StatementCache(Connection connection, int capacity, LongAdder hits, LongAdder misses) {
+      this.connection = connection;
+      this.hits = hits;
+      this.misses = misses;
+      this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity) return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }
+
+   /**
+    * Returns the cached statement for this SQL text, preparing it on a miss.
+    *
+    * @param sql the parameterized SQL text
+    * @return a statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   PreparedStatement get(String sql) throws SQLException {
+      PreparedStatement stmt = statements.get(sql);
+      if (stmt != null && !stmt.isClosed()) {
+         hits.increment();
+         stmt.clearParameters();
+         return stmt;
+      }
+      misses.increment();
+      stmt = connection.prepareStatement(sql);
+      statements.put(sql, stmt);
+      return stmt;
+   }//end get
+
+   /**
+    * Closes every cached statement.
+    */
+   void clear() {
+      for (PreparedStatement stmt : statements.values()) closeQuietly(stmt);
+      statements.clear();
+   }//end clear
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end closeQuietly
+
+}//end StatementCache
@@ -0,0 +1,20 @@
+package pizzastore.db;
+
+/**
+ * Sees every statement the application prepares through a pooled
+ * connection, with the parameters bound to it.  Set on a pool with
+ * {@link ConnectionPool.Config#statementListener}.  Called on the borrowing
+ * thread before the statement runs, so implementations must be fast and
+ * thread-safe.
+ *
+ */
+@FunctionalInterface
+public interface StatementListener {
+
+   /**
+    * @param sql the SQL text with ? placeholders
+    * @param params the values bound to the placeholders; must not be changed
+    */
+   void prepared(String sql, Object[] params);
+
+}//end StatementListener
@@ -0,0 +1,130 @@
+package pizzastore.events;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pizzastore.http.Json;
+import pizzastore.order.OrderRow;
+
+/**
+ * A change to one order as published by the FoodOrder trigger: the order
+ * was placed, or its status changed.  When several changes to an order are
+ * coalesced the event carries the latest status and stays marked as placed
+ * if any of them was the insert.  A placed event also carries the price
+ * and time of the order (sql/migrations/V6), so caches can add the row
+ * without reading it.
+ *
+ */
+public final class OrderEvent {
+
+   private final int orderID;
+   private final String login;
+   private final int storeID;
+   private final String status;
+   private final boolean placed;
+   private final BigDecimal totalPrice;
+   private final Timestamp orderTimestamp;
+
+   public OrderEvent(int orderID, String login, int storeID, String status, boolean placed) {
+      this(orderID, login, storeID, status, placed, null, null);
+   }
+
+   /**
+    * @return the event of a newly placed order
+    */
+   public static OrderEvent placed(OrderRow row) {
+      return new OrderEvent(row.orderID(), row.login(), row.storeID(), row.orderStatus(), true,
+         row.totalPrice(), row.orderTimestamp());
+   }//end placed
+
+   private OrderEvent(int orderID, String login, int storeID, String status, boolean placed,
+                      BigDecimal totalPrice, Timestamp orderTimestamp) {
+      this.orderID = orderID;
+      this.login = login;
+      this.storeID = storeID;
+      this.status = status;
+      this.placed = placed;
+      this.totalPrice = totalPrice;
+      this.orderTimestamp = orderTimestamp;
+   }
+
+   /**
+    * Parses a notification payload, e.g.
+    * {"orderID":10001,"login":"bob","storeID":3,"status":"Preparing","placed":false};
+    * placed orders add "totalPrice" and "orderTimestamp".
+    *
+    * @throws IllegalArgumentException when the payload is not an order event
+    */
+   static OrderEvent parse(String payload) {
+      Map<String, Object> json = Json.parseObject(payload);
+      Object orderID = json.get("orderID");
+      Object storeID = json.get("storeID");
+      if (!(orderID instanceof BigDecimal) || !(storeID instanceof BigDecimal))
+         throw new IllegalArgumentException("not an order event: " + payload);
+      Object login = json.get("login");
+      Object status = json.get("status");
+      Object totalPrice = json.get("totalPrice");
+      Object orderTimestamp = json.get("orderTimestamp");
+      return new OrderEvent(((BigDecimal) orderID).intValue(), login == null ? null : login.toString().trim(),
+         ((BigDecimal) storeID).intValue(), status == null ? null : status.toString().trim(),
+         Boolean.TRUE.equals(json.get("placed")),
+         totalPrice instanceof BigDecimal ? (BigDecimal) totalPrice : null,
+         orderTimestamp == null ? null : timestamp(orderTimestamp.toString(), payload));
+   }//end parse
+
+   /**
+    * @param value a timestamp as json_build_object writes it, e.g. 2024-11-03T12:30:05.123456
+    */
+   private static Timestamp timestamp(String value, String payload) {
+      try {
+         return Timestamp.valueOf(value.replace('T', ' '));
+      } catch (IllegalArgumentException e) {
+         throw new IllegalArgumentException("not an order event: " + payload, e);
+      }
+   }//end timestamp
+
+   /**
+    * @return this event with a later change to the same order folded in
+    */
+   OrderEvent then(OrderEvent later) {
+      return placed && !later.placed
+         ? new OrderEvent(later.orderID, later.login, later.storeID, later.status, true, totalPrice, orderTimestamp)
+         : later;
+   }//end then
+
+   public int orderID() { return orderID; }
+   public String login() { return login; }
+   public int storeID() { return storeID; }
+   public String status() { return status; }
+   public boolean placed() { return placed; }
+
+   /**
+    * @return the placed order as a row with its current status, or null
+    *         for a status change or when the publisher sent no price and time
+    */
+   public OrderRow row() {
+      if (!placed || totalPrice == null || orderTimestamp == null) return null;
+      return new OrderRow(orderID, login, storeID, totalPrice, orderTimestamp, status);
+   }//end row
+
+   /**
+    * @return the event as a JSON object
+    */
+   public Map<String, Object> toJson() {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("orderID", orderID);
+      out.put("login", login);
+      out.put("storeID", storeID);
+      out.put("status", status);
+      out.put("placed", placed);
+      return out;
+   }//end toJson
+
+   @Override
+   public String toString() {
+      return "order " + orderID + (placed ? " placed" : "") + " at store " + storeID + ": " + status;
+   }//end toString
+
+}//end OrderEvent
@@ -0,0 +1,278 @@
+package pizzastore.events;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import pizzastore.db.ConnectionPool;
+
+/**
+ * Fans order change notifications out to the clients following them.  A
+ * trigger on FoodOrder (sql/migrations/V2) sends a NOTIFY on
+ * {@value #CHANNEL} for every placed order and status change; one
+ * background thread LISTENs on a dedicated connection and hands each event
+ * to the subscriptions of the order's customer and store, so however many
+ * clients are watching, the database sees one listener and no polling.
+ *
+ * In-process caches register a {@link Listener} to see every event as it
+ * arrives, uncoalesced.  The same connection also LISTENs on
+ * {@value #STORE_CHANNEL} (sql/migrations/V3), which carries no data and
+ * only tells listeners that the Store table changed.
+ *
+ * The listener starts with the first subscription or listener.  When its
+ * connection drops it reconnects with backoff and flags every subscription
+ * for a resync, since notifications sent in between are lost.
+ *
+ * Without a pool nothing is listened to: an engine with no database
+ * server hands its changes to {@link #publish} itself.  With several
+ * pools, e.g. one per order shard, each gets a listener thread of its own.
+ *
+ */
+public final class OrderEvents implements AutoCloseable {
+
+   public static final String CHANNEL = "order_events";
+   public static final String STORE_CHANNEL = "store_changes";
+
+   private static final int POLL_MILLIS = 500;
+   private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+   private final List<ConnectionPool> pools;
+   private final long lingerMillis;
+   private final Map<String, Set<Subscription>> byLogin = new ConcurrentHashMap<>();
+   private final Map<Integer, Set<Subscription>> byStore = new ConcurrentHashMap<>();
+   private final Set<Subscription> everyStore = ConcurrentHashMap.newKeySet();
+   private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+   private final AtomicLong received = new AtomicLong();
+   private final List<Thread> threads = new ArrayList<>();
+   private volatile boolean running = false;
+
+   /**
+    * @param pool supplies the connection settings of the listener, or null
+    *        when events only come from {@link #publish}
+    * @param lingerMillis how long a subscription waits after the first
+    *        event of a batch for more to arrive
+    */
+   public OrderEvents(ConnectionPool pool, long lingerMillis) {
+      this(pool == null ? Collections.<ConnectionPool>emptyList() : Collections.singletonList(pool), lingerMillis);
+   }
+
+   /**
+    * @param pools the databases to listen to, each on a connection of its own
+    */
+   public OrderEvents(List<ConnectionPool> pools, long lingerMillis) {
+      this.pools = new ArrayList<>(pools);
+      this.lingerMillis = lingerMillis;
+   }
+
+   /**
+    * Follows the orders of one customer.
+    */
+   public Subscription forCustomer(String login) {
+      Subscription s = new Subscription(this, login, null, lingerMillis);
+      byLogin.computeIfAbsent(login, k -> ConcurrentHashMap.newKeySet()).add(s);
+      start();
+      return s;
+   }//end forCustomer
+
+   /**
+    * Follows the orders of some stores.
+    *
+    * @param storeIDs the stores, or null for every store
+    */
+   public Subscription forStores(Set<Integer> storeIDs) {
+      Subscription s = new Subscription(this, null, storeIDs == null ? null : new HashSet<>(storeIDs), lingerMillis);
+      if (storeIDs == null) {
+         everyStore.add(s);
+      } else {
+         for (Integer id : storeIDs) byStore.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(s);
+      }
+      start();
+      return s;
+   }//end forStores
+
+   /**
+    * Receives every order event in the listener thread.  Implementations
+    * must be quick and must not block.  An exception thrown by one is
+    * logged and does not keep the event from the others.
+    */
+   public interface Listener {
+      void changed(OrderEvent event);
+
+      /**
+       * Called when any row of Store was inserted, updated or deleted.
+       */
+      default void storesChanged() {
+      }
+
+      /**
+       * Called whenever the listener (re)connects: changes made before
+       * this point may not have been seen.
+       */
+      void missed();
+   }//end Listener
+
+   /**
+    * Registers a listener and starts listening if not already.
+    */
+   public void addListener(Listener l) {
+      listeners.add(l);
+      start();
+   }//end addListener
+
+   void unsubscribe(Subscription s) {
+      if (s.login() != null) {
+         Set<Subscription> subs = byLogin.get(s.login());
+         if (subs != null) subs.remove(s);
+      } else if (s.storeIDs() == null) {
+         everyStore.remove(s);
+      } else {
+         for (Integer id : s.storeIDs()) {
+            Set<Subscription> subs = byStore.get(id);
+            if (subs != null) subs.remove(s);
+         }
+      }
+   }//end unsubscribe
+
+   /**
+    * @return the number of notifications received since the listener started
+    */
+   public long received() {
+      return received.get();
+   }//end received
+
+   private synchronized void start() {
+      if (running || pools.isEmpty()) return;
+      running = true;
+      for (int i = 0; i < pools.size(); i++) {
+         ConnectionPool pool = pools.get(i);
+         Thread t = new Thread(() -> listen(pool), pools.size() == 1 ? "pizzastore-order-events"
+            : "pizzastore-order-events-" + i);
+         t.setDaemon(true);
+         t.start();
+         threads.add(t);
+      }
+   }//end start
+
+   private void listen(ConnectionPool pool) {
+      long backoff = 1000;
+      boolean reconnecting = false;
+      while (running) {
+         try (Connection conn = pool.openDedicated()) {
+            try (Statement stmt = conn.createStatement()) {
+               stmt.execute("LISTEN " + CHANNEL);
+               stmt.execute("LISTEN " + STORE_CHANNEL);
+            }
+            tell("missed", Listener::missed);
+            if (reconnecting) resyncAll();
+            reconnecting = false;
+            backoff = 1000;
+            PGConnection pg = conn.unwrap(PGConnection.class);
+            while (running) {
+               PGNotification[] notes = pg.getNotifications(POLL_MILLIS);
+               if (notes == null) continue;
+               for (PGNotification note : notes) {
+                  if (STORE_CHANNEL.equals(note.getName())) {
+                     tell("storesChanged", Listener::storesChanged);
+                  } else {
+                     dispatch(note.getParameter());
+                  }
+               }
+            }
+         } catch (SQLException e) {
+            if (!running) break;
+            if (!reconnecting) System.err.println("Order event listener lost its connection: " + e.getMessage());
+            reconnecting = true;
+            try {
+               Thread.sleep(backoff);
+            } catch (InterruptedException ie) {
+               break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+         }
+      }
+   }//end listen
+
+   void dispatch(String payload) {
+      OrderEvent e;
+      try {
+         e = OrderEvent.parse(payload);
+      } catch (IllegalArgumentException bad) {
+         System.err.println("Ignoring order event: " + bad.getMessage());
+         return;
+      }
+      publish(e);
+   }//end dispatch
+
+   /**
+    * Hands an event to the listeners and subscriptions as if it had been
+    * received, for changes the database does not announce.
+    */
+   public void publish(OrderEvent e) {
+      received.incrementAndGet();
+      tell("changed", l -> l.changed(e));
+      if (e.login() != null) offer(byLogin.get(e.login()), e);
+      offer(byStore.get(e.storeID()), e);
+      offer(everyStore, e);
+   }//end publish
+
+   /**
+    * Calls every listener, logging rather than passing on what one throws,
+    * so a failing cache neither kills the listener thread nor starves the
+    * listeners after it.
+    */
+   private void tell(String call, Consumer<Listener> each) {
+      for (Listener l : listeners) {
+         try {
+            each.accept(l);
+         } catch (RuntimeException failure) {
+            System.err.println("Order event listener " + l + " failed in " + call + ": " + failure);
+         }
+      }
+   }//end tell
+
+   private static void offer(Set<Subscription> subs, OrderEvent e) {
+      if (subs == null) return;
+      for (Subscription s : subs) s.offer(e);
+   }//end offer
+
+   private void resyncAll() {
+      for (Set<Subscription> subs : byLogin.values()) for (Subscription s : subs) s.markResync();
+      for (Set<Subscription> subs : byStore.values()) for (Subscription s : subs) s.markResync();
+      for (Subscription s : everyStore) s.markResync();
+   }//end resyncAll
+
+   /**
+    * Stops the listener and closes every subscription, which wakes the
+    * clients waiting on them.
+    */
+   @Override
+   public void close() {
+      List<Thread> started;
+      synchronized (this) {
+         running = false;
+         started = new ArrayList<>(threads);
+      }
+      for (Set<Subscription> subs : byLogin.values()) for (Subscription s : subs) s.close();
+      for (Set<Subscription> subs : byStore.values()) for (Subscription s : subs) s.close();
+      for (Subscription s : everyStore) s.close();
+      try {
+         for (Thread t : started) t.join(POLL_MILLIS * 4L);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+}//end OrderEvents
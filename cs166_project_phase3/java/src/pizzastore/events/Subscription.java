@@ -0,0 +1,176 @@
+package pizzastore.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The order events one client is interested in: the orders of one
+ * customer, or the orders of a set of stores.  Events wait here until the
+ * client asks for them; while they wait, repeated changes to the same
+ * order collapse into one event carrying the latest status, so a client
+ * that falls behind receives one entry per order rather than every
+ * transition.
+ *
+ */
+public final class Subscription implements AutoCloseable {
+
+   /**
+    * Distinct orders kept waiting before the oldest are dropped.
+    */
+   static final int MAX_PENDING = 10_000;
+
+   private final OrderEvents hub;
+   private final String login;
+   private final Set<Integer> storeIDs;
+   private final long lingerMillis;
+
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition arrived = lock.newCondition();
+   private final LinkedHashMap<Integer, OrderEvent> pending = new LinkedHashMap<>();
+   private long dropped = 0;
+   private boolean resync = false;
+   private boolean closed = false;
+
+   Subscription(OrderEvents hub, String login, Set<Integer> storeIDs, long lingerMillis) {
+      this.hub = hub;
+      this.login = login;
+      this.storeIDs = storeIDs == null ? null : Collections.unmodifiableSet(storeIDs);
+      this.lingerMillis = lingerMillis;
+   }
+
+   /**
+    * @return the customer whose orders are followed, or null for a store subscription
+    */
+   public String login() { return login; }
+
+   /**
+    * @return the stores followed; null together with a null login means every store
+    */
+   public Set<Integer> storeIDs() { return storeIDs; }
+
+   void offer(OrderEvent e) {
+      lock.lock();
+      try {
+         if (closed) return;
+         OrderEvent earlier = pending.remove(e.orderID());
+         pending.put(e.orderID(), earlier == null ? e : earlier.then(e));
+         if (pending.size() > MAX_PENDING) {
+            Iterator<Integer> oldest = pending.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+            dropped++;
+            resync = true;
+         }
+         arrived.signal();
+      } finally {
+         lock.unlock();
+      }
+   }//end offer
+
+   /**
+    * Marks that events may have been missed, e.g. while the listener was
+    * reconnecting.
+    */
+   void markResync() {
+      lock.lock();
+      try {
+         resync = true;
+         arrived.signal();
+      } finally {
+         lock.unlock();
+      }
+   }//end markResync
+
+   /**
+    * Waits for events and returns them as one batch.  After the first
+    * event arrives the call lingers briefly so a burst is delivered
+    * together.
+    *
+    * @param timeoutMillis how long to wait for the first event
+    * @return the coalesced events, oldest change first; empty on timeout or once closed
+    */
+   public List<OrderEvent> next(long timeoutMillis) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      lock.lock();
+      try {
+         while (pending.isEmpty() && !resync && !closed) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return Collections.emptyList();
+            arrived.awaitNanos(left);
+         }
+      } finally {
+         lock.unlock();
+      }
+      if (lingerMillis > 0) Thread.sleep(lingerMillis);
+      lock.lock();
+      try {
+         List<OrderEvent> batch = new ArrayList<>(pending.values());
+         pending.clear();
+         return batch;
+      } finally {
+         lock.unlock();
+      }
+   }//end next
+
+   /**
+    * Reports and clears the resync flag.  When it was set some events were
+    * missed (listener reconnect or overflow) and the client should re-read
+    * the orders it displays.
+    */
+   public boolean takeResync() {
+      lock.lock();
+      try {
+         boolean was = resync;
+         resync = false;
+         return was;
+      } finally {
+         lock.unlock();
+      }
+   }//end takeResync
+
+   /**
+    * @return the number of events dropped because the client fell too far behind
+    */
+   public long dropped() {
+      lock.lock();
+      try {
+         return dropped;
+      } finally {
+         lock.unlock();
+      }
+   }//end dropped
+
+   public boolean isClosed() {
+      lock.lock();
+      try {
+         return closed;
+      } finally {
+         lock.unlock();
+      }
+   }//end isClosed
+
+   /**
+    * Stops delivery and wakes a waiting {@link #next}.
+    */
+   @Override
+   public void close() {
+      lock.lock();
+      try {
+         if (closed) return;
+         closed = true;
+         pending.clear();
+         arrived.signalAll();
+      } finally {
+         lock.unlock();
+      }
+      hub.unsubscribe(this);
+   }//end close
+
+}//end Subscription
@@ -0,0 +1,876 @@
+package pizzastore.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.events.OrderEvent;
+import pizzastore.events.Subscription;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.menu.MenuItem;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.LatencyHistogram;
+import pizzastore.order.OrderDetails;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPager;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.StatusUpdate;
+import pizzastore.report.ItemSales;
+import pizzastore.report.SalesRow;
+import pizzastore.report.SalesTotal;
+import pizzastore.service.PizzaService;
+import pizzastore.service.ServiceException;
+import pizzastore.service.UserField;
+import pizzastore.service.UserProfile;
+import pizzastore.session.Session;
+import pizzastore.storage.Storage;
+import pizzastore.storage.embedded.EmbeddedStorage;
+import pizzastore.store.Store;
+
+/**
+ * HTTP/JSON front end over {@link PizzaService}, for the web and kiosk
+ * clients.  Every request runs on its own virtual thread, so a request
+ * blocked on the database costs a few hundred bytes of heap rather than a
+ * platform thread; the connection pool is what bounds concurrent database
+ * work.  On JDKs older than 21 requests fall back to a cached pool of
+ * platform threads.
+ *
+ * Clients log in with POST /sessions and send the returned token as
+ * "Authorization: Bearer &lt;token&gt;".  A token unused for
+ * pizzastore.api.tokenIdleMinutes (30 by default) expires, as does one
+ * logged out with DELETE /sessions.  Routes:
+ *
+ * <pre>
+ *   POST   /users                  register {login, password, phoneNum}
+ *   GET    /users/{login}          (manager) read a profile
+ *   PATCH  /users/{login}          (manager) {phoneNum, favoriteItems, password, role}
+ *   POST   /sessions               log in {login, password}
+ *   DELETE /sessions               log out
+ *   GET    /profile                own profile
+ *   PATCH  /profile                {phoneNum, favoriteItems, password}
+ *   GET    /menu                   ?type= &amp;minPrice= &amp;maxPrice= &amp;sort=asc|desc
+ *                                   &amp;has=pepperoni,pine* &amp;without=cheese ingredient search
+ *   POST   /menu                   (manager) {itemName, ingredients, typeOfItem, price, description}
+ *   PATCH  /menu/{itemName}        (manager) {price, typeOfItem, ingredients, description}
+ *   DELETE /menu/{itemName}        (manager)
+ *   GET    /stores                 ?state= &amp;city= (or its start) &amp;open=true &amp;limit=, best reviewed first
+ *   POST   /orders                 {storeID, items: {itemName: quantity}}
+ *   POST   /orders/favorites       {storeID} one of each favorite item
+ *   GET    /orders                 ?storeID= &amp;status= &amp;from= &amp;until= &amp;login= &amp;active= &amp;before= &amp;limit=
+ *   GET    /orders/recent
+ *   GET    /orders/{orderID}
+ *   POST   /orders/{orderID}/reorder {storeID} (optional, the same store by default)
+ *   PUT    /orders/{orderID}/status (driver, manager) {status}
+ *   POST   /orders/status          (driver, manager) {status, orderIDs: [...]} or, for the orders in
+ *                                   progress, {status, storeID, login, from, until, olderThanMinutes}
+ *   GET    /pool                   (manager) connection pool statistics
+ *   GET    /calls                  (manager) latency, rows and errors per database call site, slow calls
+ *   DELETE /calls                  (manager) start the call statistics over
+ *   GET    /reports/hourly         (manager) ?storeID= &amp;from= &amp;until= orders and revenue per hour
+ *   GET    /reports/daily          (manager) ?storeID= &amp;from= &amp;until= orders and revenue per day
+ *   GET    /reports/items          (manager) ?storeID= &amp;limit= best sellers by units
+ *   GET    /reports/totals         (manager) ?storeID= (all stores when absent) with the average ticket
+ *   GET    /events                 ?stores=1,2 order changes as Server-Sent Events
+ * </pre>
+ *
+ * GET /orders returns a page and a "next" cursor; pass it as before= for
+ * the following page.  active=true lists only the orders in progress.
+ *
+ * POST /orders/status moves orders one step, e.g. from Preparing to Out
+ * for Delivery, and answers with the orderIDs updated and the ones
+ * skipped with the reason.  PUT /orders/{orderID}/status moves a driver's
+ * order one step too, answering 409 when it is not in the status before;
+ * a manager may set any status.
+ *
+ * /events keeps the response open and writes each batch of changes as
+ * "data: [...]"; an "event: resync" line means changes were missed and the
+ * client should re-read its orders.  Customers receive their own orders,
+ * drivers and managers the stores they list (managers: all by default).
+ *
+ */
+public final class ApiServer {
+
+   private static final int MAX_PAGE_SIZE = 500;
+   private static final int MAX_BODY_BYTES = 64 * 1024;
+   private static final long HEARTBEAT_MILLIS = 15_000;
+   static final long TOKEN_IDLE_MILLIS =
+      TimeUnit.MINUTES.toMillis(Long.getLong("pizzastore.api.tokenIdleMinutes", 30L));
+
+   /**
+    * Returned by a route that has already written its own response.
+    */
+   private static final Reply STREAMED = new Reply(0, null);
+
+   private final PizzaService service;
+   private final HttpServer server;
+   private final ExecutorService executor;
+   private final Map<String, Token> tokens = new ConcurrentHashMap<>();
+   // when idle tokens were last swept out, on a login
+   private final AtomicLong swept = new AtomicLong(System.currentTimeMillis());
+   private final SecureRandom random = new SecureRandom();
+
+   /**
+    * @param service the service every request is delegated to
+    * @param address the address to listen on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public ApiServer(PizzaService service, InetSocketAddress address) throws IOException {
+      this.service = service;
+      this.server = HttpServer.create(address, 0);
+      this.executor = requestExecutor();
+      this.server.setExecutor(executor);
+      this.server.createContext("/", this::handle);
+   }
+
+   /**
+    * Looked up reflectively so the module still compiles for JDK 17.
+    */
+   private static ExecutorService requestExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool();
+      }
+   }//end requestExecutor
+
+   public void start() {
+      server.start();
+   }//end start
+
+   /**
+    * Stops accepting requests, waits up to delaySeconds for running ones,
+    * then shuts the executor down.
+    */
+   public void stop(int delaySeconds) {
+      server.stop(delaySeconds);
+      executor.shutdown();
+   }//end stop
+
+   /**
+    * @return the bound address, useful when started on port 0
+    */
+   public InetSocketAddress address() {
+      return server.getAddress();
+   }//end address
+
+   private void handle(HttpExchange ex) throws IOException {
+      int status;
+      Object body;
+      try {
+         Reply reply = route(ex);
+         if (reply == STREAMED) return;
+         status = reply.status;
+         body = reply.body;
+      } catch (ServiceException e) {
+         status = statusOf(e.kind());
+         body = error(e.getMessage());
+      } catch (IllegalArgumentException e) {
+         // also a body field that is missing or of the wrong type; see string and integer
+         status = 400;
+         body = error(e.getMessage());
+      } catch (SQLException e) {
+         System.err.println("Error: " + ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + e.getMessage());
+         status = 500;
+         body = error("Database error.");
+      } catch (RuntimeException e) {
+         System.err.println("Error: " + ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + e);
+         status = 500;
+         body = error("Internal error.");
+      }
+      send(ex, status, body);
+   }//end handle
+
+   private Reply route(HttpExchange ex) throws ServiceException, SQLException, IOException {
+      String method = ex.getRequestMethod();
+      List<String> path = segments(ex.getRequestURI().getRawPath());
+      Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+      String resource = path.isEmpty() ? "" : path.get(0);
+
+      switch (resource) {
+         case "users":
+            if (path.size() == 1 && method.equals("POST")) {
+               Map<String, Object> in = body(ex);
+               service.createUser(string(in, "login"), string(in, "password"), string(in, "phoneNum"));
+               return new Reply(201, message("User registered successfully!"));
+            }
+            if (path.size() == 2 && method.equals("GET")) {
+               return new Reply(200, json(service.user(session(ex), path.get(1))));
+            }
+            if (path.size() == 2 && method.equals("PATCH")) {
+               Session session = session(ex);
+               Map<String, Object> in = body(ex);
+               for (UserField field : UserField.values()) {
+                  if (in.containsKey(field.column()))
+                     service.updateUser(session, path.get(1), field, optionalString(in, field.column()));
+               }
+               if (in.containsKey("role")) service.changeRole(session, path.get(1), string(in, "role"));
+               return new Reply(200, json(service.user(session, path.get(1))));
+            }
+            break;
+         case "sessions":
+            if (path.size() == 1 && method.equals("POST")) {
+               Map<String, Object> in = body(ex);
+               Session session = service.logIn(string(in, "login"), string(in, "password"));
+               expireIdle();
+               String token = newToken();
+               tokens.put(token, new Token(session));
+               Map<String, Object> out = new LinkedHashMap<>();
+               out.put("token", token);
+               out.put("login", session.login());
+               out.put("role", session.role().dbValue());
+               return new Reply(201, out);
+            }
+            if (path.size() == 1 && method.equals("DELETE")) {
+               session(ex);
+               tokens.remove(token(ex));
+               return new Reply(204, null);
+            }
+            break;
+         case "profile":
+            if (path.size() == 1 && method.equals("GET")) {
+               return new Reply(200, json(service.profile(session(ex))));
+            }
+            if (path.size() == 1 && method.equals("PATCH")) {
+               Session session = session(ex);
+               Map<String, Object> in = body(ex);
+               for (UserField field : UserField.values()) {
+                  if (in.containsKey(field.column()))
+                     service.updateProfile(session, field, optionalString(in, field.column()));
+               }
+               return new Reply(200, json(service.profile(session)));
+            }
+            break;
+         case "menu":
+            if (path.size() == 1 && method.equals("GET")) {
+               return new Reply(200, menu(query));
+            }
+            if (path.size() == 1 && method.equals("POST")) {
+               Session session = session(ex);
+               Map<String, Object> in = body(ex);
+               MenuItem item = service.addMenuItem(session, string(in, "itemName"), string(in, "ingredients"),
+                  string(in, "typeOfItem"), decimal(in, "price"), optionalString(in, "description"));
+               return new Reply(201, json(item));
+            }
+            if (path.size() == 2 && method.equals("PATCH")) {
+               Session session = session(ex);
+               Map<String, Object> in = body(ex);
+               String name = path.get(1);
+               MenuItem item = service.menu().find(name);
+               if (in.containsKey("price")) item = service.updatePrice(session, name, decimal(in, "price"));
+               if (in.containsKey("typeOfItem")) item = service.updateType(session, name, string(in, "typeOfItem"));
+               if (in.containsKey("ingredients"))
+                  item = service.updateIngredients(session, name, string(in, "ingredients"));
+               if (in.containsKey("description"))
+                  item = service.updateDescription(session, name, optionalString(in, "description"));
+               if (item == null) throw new ServiceException(ServiceException.Kind.NOT_FOUND, "Item not found.");
+               return new Reply(200, json(item));
+            }
+            if (path.size() == 2 && method.equals("DELETE")) {
+               service.deleteMenuItem(session(ex), path.get(1));
+               return new Reply(204, null);
+            }
+            break;
+         case "stores":
+            if (path.size() == 1 && method.equals("GET")) {
+               List<Store> stores;
+               if (query.isEmpty()) {
+                  stores = service.stores();
+               } else {
+                  int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit"))
+                     : PizzaService.STORE_SEARCH_LIMIT;
+                  if (limit < 1 || limit > MAX_PAGE_SIZE)
+                     throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+                  stores = service.searchStores(query.get("state"), query.get("city"),
+                     Boolean.parseBoolean(query.get("open")), limit);
+               }
+               List<Object> out = new ArrayList<>(stores.size());
+               for (Store store : stores) out.add(json(store));
+               return new Reply(200, out);
+            }
+            break;
+         case "orders":
+            return orders(ex, method, path, query);
+         case "events":
+            if (path.size() == 1 && method.equals("GET")) {
+               Set<Integer> stores = new HashSet<>();
+               if (query.containsKey("stores")) {
+                  for (String id : query.get("stores").split(",")) {
+                     if (!id.trim().isEmpty()) stores.add(Integer.valueOf(id.trim()));
+                  }
+               }
+               stream(ex, service.watchOrders(session(ex), stores));
+               return STREAMED;
+            }
+            break;
+         case "pool":
+            if (path.size() == 1 && method.equals("GET")) {
+               PoolStats stats = service.poolStats(session(ex));
+               return new Reply(200, Collections.singletonMap("stats", stats.toString()));
+            }
+            break;
+         case "calls":
+            if (path.size() == 1 && method.equals("GET")) return calls(session(ex));
+            if (path.size() == 1 && method.equals("DELETE")) {
+               service.resetCallStats(session(ex));
+               return new Reply(204, null);
+            }
+            break;
+         case "reports":
+            if (path.size() == 2 && method.equals("GET")) return reports(session(ex), path.get(1), query);
+            break;
+         default:
+            break;
+      }
+      return new Reply(404, error("No route for " + method + " " + ex.getRequestURI().getPath()));
+   }//end route
+
+   private Reply calls(Session session) throws ServiceException {
+      List<Object> sites = new ArrayList<>();
+      for (CallSite site : service.callSites(session)) {
+         LatencyHistogram.Snapshot s = site.latency();
+         if (s.count() == 0) continue;
+         Map<String, Object> r = new LinkedHashMap<>();
+         r.put("site", site.getName());
+         r.put("calls", s.count());
+         r.put("errors", site.getErrors());
+         r.put("rows", site.getRows());
+         r.put("slow", site.slowCalls());
+         r.put("meanMs", s.mean() / 1e6);
+         r.put("p50Ms", s.percentile(0.50) / 1e6);
+         r.put("p99Ms", s.percentile(0.99) / 1e6);
+         r.put("p999Ms", s.percentile(0.999) / 1e6);
+         r.put("maxMs", s.max() / 1e6);
+         sites.add(r);
+      }
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("sites", sites);
+      out.put("slow", service.slowQueries(session));
+      return new Reply(200, out);
+   }//end calls
+
+   private Reply reports(Session session, String report, Map<String, String> query)
+         throws ServiceException, SQLException {
+      switch (report) {
+         case "hourly":
+         case "daily": {
+            if (!query.containsKey("storeID") || !query.containsKey("from") || !query.containsKey("until"))
+               throw new IllegalArgumentException("storeID, from and until are required");
+            int storeID = Integer.parseInt(query.get("storeID"));
+            Timestamp from = timestamp(query.get("from"));
+            Timestamp until = timestamp(query.get("until"));
+            List<SalesRow> rows = report.equals("hourly") ? service.salesByHour(session, storeID, from, until)
+               : service.salesByDay(session, storeID, from, until);
+            List<Object> out = new ArrayList<>(rows.size());
+            for (SalesRow row : rows) {
+               Map<String, Object> r = new LinkedHashMap<>();
+               r.put("period", row.period());
+               r.put("orders", row.orders());
+               r.put("revenue", row.revenue());
+               out.add(r);
+            }
+            return new Reply(200, out);
+         }
+         case "items": {
+            if (!query.containsKey("storeID")) throw new IllegalArgumentException("storeID is required");
+            int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 10;
+            if (limit < 1 || limit > MAX_PAGE_SIZE)
+               throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+            List<ItemSales> items = service.topItems(session, Integer.parseInt(query.get("storeID")), limit);
+            List<Object> out = new ArrayList<>(items.size());
+            for (ItemSales item : items) {
+               Map<String, Object> r = new LinkedHashMap<>();
+               r.put("itemName", item.itemName());
+               r.put("quantity", item.quantity());
+               r.put("revenue", item.revenue());
+               out.add(r);
+            }
+            return new Reply(200, out);
+         }
+         case "totals": {
+            SalesTotal total = service.salesTotal(session,
+               query.containsKey("storeID") ? Integer.valueOf(query.get("storeID")) : null);
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("storeID", total.storeID());
+            out.put("orders", total.orders());
+            out.put("revenue", total.revenue());
+            out.put("averageTicket", total.averageTicket());
+            return new Reply(200, out);
+         }
+         default:
+            return new Reply(404, error("No such report: " + report));
+      }
+   }//end reports
+
+   private Reply orders(HttpExchange ex, String method, List<String> path, Map<String, String> query)
+         throws ServiceException, SQLException, IOException {
+      if (path.size() == 1 && method.equals("POST")) {
+         Session session = session(ex);
+         Map<String, Object> in = body(ex);
+         Object items = in.get("items");
+         if (!(items instanceof Map)) throw new IllegalArgumentException("items must be an object of name: quantity");
+         Map<String, Integer> lines = new LinkedHashMap<>();
+         for (Map.Entry<?, ?> line : ((Map<?, ?>) items).entrySet()) {
+            lines.merge(String.valueOf(line.getKey()), whole(line.getValue(), "quantity of " + line.getKey()),
+               Integer::sum);
+         }
+         return receipt(service.placeOrder(session, integer(in, "storeID"), lines));
+      }
+      if (path.size() == 2 && path.get(1).equals("favorites") && method.equals("POST")) {
+         Session session = session(ex);
+         return receipt(service.reorderFavorites(session, integer(body(ex), "storeID")));
+      }
+      if (path.size() == 3 && path.get(2).equals("reorder") && method.equals("POST")) {
+         Session session = session(ex);
+         Map<String, Object> in = body(ex);
+         Integer storeID = in.containsKey("storeID") ? integer(in, "storeID") : null;
+         return receipt(service.reorder(session, Integer.parseInt(path.get(1)), storeID));
+      }
+      if (path.size() == 1 && method.equals("GET")) {
+         Session session = session(ex);
+         OrderFilter filter = new OrderFilter();
+         if (query.containsKey("login")) filter.login(query.get("login"));
+         if (query.containsKey("storeID")) filter.storeID(Integer.valueOf(query.get("storeID")));
+         if (query.containsKey("status")) filter.status(query.get("status"));
+         if (query.containsKey("from")) filter.from(timestamp(query.get("from")));
+         if (query.containsKey("until")) filter.until(timestamp(query.get("until")));
+         if (query.containsKey("active")) filter.active(Boolean.parseBoolean(query.get("active")));
+         String before = query.get("before");
+         int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : OrderPager.DEFAULT_PAGE_SIZE;
+         if (limit < 1 || limit > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+
+         OrderPager pager = service.orders(session, filter, limit, before);
+         List<Object> rows = new ArrayList<>(limit);
+         pager.nextPage(row -> rows.add(json(row)));
+         Map<String, Object> out = new LinkedHashMap<>();
+         out.put("orders", rows);
+         out.put("next", pager.hasMore() ? pager.cursor() : null);
+         return new Reply(200, out);
+      }
+      if (path.size() == 2 && path.get(1).equals("status") && method.equals("POST")) {
+         Session session = session(ex);
+         Map<String, Object> in = body(ex);
+         String status = string(in, "status");
+         StatusUpdate update;
+         if (in.containsKey("orderIDs")) {
+            Object ids = in.get("orderIDs");
+            if (!(ids instanceof List)) throw new IllegalArgumentException("orderIDs must be an array of numbers");
+            List<Integer> orderIDs = new ArrayList<>();
+            for (Object id : (List<?>) ids) orderIDs.add(whole(id, "every orderID"));
+            update = service.updateOrderStatuses(session, orderIDs, status);
+         } else {
+            OrderFilter filter = new OrderFilter();
+            if (in.containsKey("storeID")) filter.storeID(integer(in, "storeID"));
+            if (in.containsKey("login")) filter.login(string(in, "login"));
+            if (in.containsKey("from")) filter.from(timestamp(string(in, "from")));
+            if (in.containsKey("until")) filter.until(timestamp(string(in, "until")));
+            if (in.containsKey("olderThanMinutes")) {
+               Timestamp before = new Timestamp(System.currentTimeMillis() - integer(in, "olderThanMinutes") * 60_000L);
+               if (filter.until() == null || before.before(filter.until())) filter.until(before);
+            }
+            update = service.updateOrderStatuses(session, filter, status);
+         }
+         Map<String, Object> out = new LinkedHashMap<>();
+         out.put("from", update.from());
+         out.put("status", update.to());
+         out.put("updated", new ArrayList<>(update.updated().keySet()));
+         List<Object> skipped = new ArrayList<>();
+         for (Map.Entry<Integer, String> e : update.skipped().entrySet()) {
+            Map<String, Object> one = new LinkedHashMap<>();
+            one.put("orderID", e.getKey());
+            one.put("reason", e.getValue());
+            skipped.add(one);
+         }
+         out.put("skipped", skipped);
+         return new Reply(200, out);
+      }
+      if (path.size() == 2 && path.get(1).equals("recent") && method.equals("GET")) {
+         List<Object> rows = new ArrayList<>();
+         for (OrderRow row : service.recentOrders(session(ex))) rows.add(json(row));
+         return new Reply(200, rows);
+      }
+      if (path.size() == 2 && method.equals("GET")) {
+         OrderDetails details = service.orderDetails(session(ex), Integer.parseInt(path.get(1)));
+         Map<String, Object> out = json(details.order());
+         out.put("items", details.items());
+         return new Reply(200, out);
+      }
+      if (path.size() == 3 && path.get(2).equals("status") && method.equals("PUT")) {
+         Session session = session(ex);
+         int orderID = Integer.parseInt(path.get(1));
+         service.updateOrderStatus(session, orderID, string(body(ex), "status"));
+         return new Reply(200, json(service.order(session, orderID)));
+      }
+      return new Reply(404, error("No route for " + method + " " + ex.getRequestURI().getPath()));
+   }//end orders
+
+   private static Reply receipt(OrderReceipt receipt) {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("orderID", receipt.placed() ? receipt.orderID() : null);
+      out.put("totalPrice", receipt.totalPrice());
+      out.put("unknownItems", receipt.unknownItems());
+      out.put("latency", receipt.latencySummary());
+      return new Reply(receipt.placed() ? 201 : 400, out);
+   }//end receipt
+
+   /**
+    * Writes the subscription's batches until the client goes away or the
+    * server stops.  Idle connections get a comment line now and then so
+    * proxies keep them open and a closed client is noticed.
+    */
+   private static void stream(HttpExchange ex, Subscription updates) throws IOException {
+      try (Subscription sub = updates) {
+         ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+         ex.getResponseHeaders().set("Cache-Control", "no-cache");
+         ex.sendResponseHeaders(200, 0);
+         OutputStream out = ex.getResponseBody();
+         out.write(": watching\n\n".getBytes(StandardCharsets.UTF_8));
+         out.flush();
+         while (!sub.isClosed()) {
+            StringBuilder frame = new StringBuilder();
+            if (sub.takeResync()) frame.append("event: resync\ndata: {}\n\n");
+            List<OrderEvent> batch = sub.next(HEARTBEAT_MILLIS);
+            if (!batch.isEmpty()) {
+               List<Object> events = new ArrayList<>(batch.size());
+               for (OrderEvent event : batch) events.add(event.toJson());
+               frame.append("data: ").append(Json.write(events)).append("\n\n");
+            }
+            if (frame.length() == 0) frame.append(": heartbeat\n\n");
+            out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (IOException e) {
+         // the client disconnected
+      } finally {
+         ex.close();
+      }
+   }//end stream
+
+   private Object menu(Map<String, String> query) throws SQLException {
+      MenuCatalog.Snapshot menu = service.menu();
+      List<MenuItem> items;
+      if (query.containsKey("has") || query.containsKey("without")) {
+         items = menu.search(terms(query.get("has")), terms(query.get("without")));
+      } else if (query.containsKey("type")) {
+         items = menu.ofType(query.get("type"));
+      } else if (query.containsKey("minPrice") || query.containsKey("maxPrice")) {
+         items = menu.priceBetween(new BigDecimal(query.getOrDefault("minPrice", "0")),
+            new BigDecimal(query.getOrDefault("maxPrice", String.valueOf(Long.MAX_VALUE))));
+      } else if (query.containsKey("sort")) {
+         items = menu.sortedByPrice(!query.get("sort").equalsIgnoreCase("desc"));
+      } else {
+         items = menu.all();
+      }
+      List<Object> out = new ArrayList<>(items.size());
+      for (MenuItem item : items) out.add(json(item));
+      return out;
+   }//end menu
+
+   private static List<String> terms(String csv) {
+      return csv == null ? Collections.emptyList() : Arrays.asList(csv.split(","));
+   }//end terms
+
+   // ------------------------------------------------------------ sessions
+
+   /**
+    * @return the revalidated session of the bearer token
+    * @throws ServiceException UNAUTHENTICATED when the token is missing or stale
+    */
+   private Session session(HttpExchange ex) throws ServiceException, SQLException {
+      String token = token(ex);
+      Token held = token == null ? null : tokens.get(token);
+      long now = System.currentTimeMillis();
+      if (held != null && held.idle(now)) {
+         tokens.remove(token, held);
+         held = null;
+      }
+      if (held == null)
+         throw new ServiceException(ServiceException.Kind.UNAUTHENTICATED, "Log in first.");
+      Session current = service.refresh(held.session);
+      if (current == null) {
+         tokens.remove(token);
+         throw new ServiceException(ServiceException.Kind.UNAUTHENTICATED,
+            "Your account is no longer available.");
+      }
+      held.session = current;
+      held.lastUsed = now;
+      return current;
+   }//end session
+
+   /**
+    * Drops the tokens idle too long, at most once a minute.  Lookups expire
+    * a stale token as well; this keeps the ones never sent again from
+    * piling up.
+    */
+   private void expireIdle() {
+      long now = System.currentTimeMillis();
+      long last = swept.get();
+      if (now - last < 60_000 || !swept.compareAndSet(last, now)) return;
+      tokens.values().removeIf(t -> t.idle(now));
+   }//end expireIdle
+
+   private static String token(HttpExchange ex) {
+      String header = ex.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+      return header.substring(7).trim();
+   }//end token
+
+   private String newToken() {
+      byte[] bytes = new byte[24];
+      random.nextBytes(bytes);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+   }//end newToken
+
+   // ------------------------------------------------------------- requests
+
+   private static Map<String, Object> body(HttpExchange ex) throws IOException {
+      try (InputStream in = ex.getRequestBody()) {
+         ByteArrayOutputStream buf = new ByteArrayOutputStream();
+         byte[] chunk = new byte[4096];
+         int n;
+         while ((n = in.read(chunk)) > 0) {
+            buf.write(chunk, 0, n);
+            if (buf.size() > MAX_BODY_BYTES) throw new IllegalArgumentException("request body too large");
+         }
+         return Json.parseObject(new String(buf.toByteArray(), StandardCharsets.UTF_8).trim());
+      }
+   }//end body
+
+   private static List<String> segments(String rawPath) {
+      List<String> segments = new ArrayList<>();
+      for (String s : rawPath.split("/")) {
+         if (!s.isEmpty()) segments.add(URLDecoder.decode(s, StandardCharsets.UTF_8));
+      }
+      return segments;
+   }//end segments
+
+   private static Map<String, String> query(String rawQuery) {
+      Map<String, String> params = new HashMap<>();
+      if (rawQuery == null) return params;
+      for (String pair : rawQuery.split("&")) {
+         int eq = pair.indexOf('=');
+         if (eq <= 0) continue;
+         String value = URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+         if (!value.isEmpty()) params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), value);
+      }
+      return params;
+   }//end query
+
+   /**
+    * @return a body field as text, a number written out plainly
+    * @throws IllegalArgumentException when it is missing, null, or neither a string nor a number
+    */
+   private static String string(Map<String, Object> in, String key) {
+      String value = optionalString(in, key);
+      if (value == null) throw new IllegalArgumentException(key + " is required");
+      return value;
+   }//end string
+
+   /**
+    * @return a body field as text, or null when it is missing or null
+    * @throws IllegalArgumentException when it is neither a string nor a number
+    */
+   private static String optionalString(Map<String, Object> in, String key) {
+      Object value = in.get(key);
+      if (value == null || value instanceof String) return (String) value;
+      if (value instanceof BigDecimal) return ((BigDecimal) value).toPlainString();
+      throw new IllegalArgumentException(key + " must be a string");
+   }//end optionalString
+
+   /**
+    * @throws IllegalArgumentException when the field is missing, or neither
+    *         a number nor a string holding one
+    */
+   private static BigDecimal decimal(Map<String, Object> in, String key) {
+      Object value = in.get(key);
+      if (value == null) throw new IllegalArgumentException(key + " is required");
+      if (value instanceof BigDecimal) return (BigDecimal) value;
+      if (value instanceof String) return new BigDecimal((String) value);
+      throw new IllegalArgumentException(key + " must be a number");
+   }//end decimal
+
+   private static int integer(Map<String, Object> in, String key) {
+      return whole(decimal(in, key), key);
+   }//end integer
+
+   /**
+    * @param what names the value in the error
+    * @throws IllegalArgumentException when the value is not a whole number that fits an int
+    */
+   private static int whole(Object value, String what) {
+      if (!(value instanceof BigDecimal)) throw new IllegalArgumentException(what + " must be a number");
+      try {
+         return ((BigDecimal) value).intValueExact();
+      } catch (ArithmeticException e) {
+         throw new IllegalArgumentException(what + " must be a whole number");
+      }
+   }//end whole
+
+   private static Timestamp timestamp(String value) {
+      return Timestamp.valueOf(value.length() <= 10 ? value + " 00:00:00" : value);
+   }//end timestamp
+
+   // ------------------------------------------------------------ responses
+
+   private static void send(HttpExchange ex, int status, Object body) throws IOException {
+      try {
+         if (body == null) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+         }
+         byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+         ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+         ex.sendResponseHeaders(status, bytes.length);
+         try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+         }
+      } finally {
+         ex.close();
+      }
+   }//end send
+
+   private static int statusOf(ServiceException.Kind kind) {
+      switch (kind) {
+         case UNAUTHENTICATED: return 401;
+         case FORBIDDEN: return 403;
+         case NOT_FOUND: return 404;
+         case CONFLICT: return 409;
+         case BUSY: return 503;
+         default: return 400;
+      }
+   }//end statusOf
+
+   private static Map<String, Object> error(String message) {
+      return Collections.singletonMap("error", message);
+   }//end error
+
+   private static Map<String, Object> message(String message) {
+      return Collections.singletonMap("message", message);
+   }//end message
+
+   private static Map<String, Object> json(UserProfile profile) {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("login", profile.login());
+      out.put("favoriteItems", profile.favoriteItems());
+      out.put("phoneNum", profile.phoneNum());
+      out.put("role", profile.role().dbValue());
+      return out;
+   }//end json
+
+   private static Map<String, Object> json(MenuItem item) {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("itemName", item.itemName());
+      out.put("typeOfItem", item.typeOfItem());
+      out.put("price", item.price());
+      out.put("ingredients", item.ingredients());
+      out.put("description", item.description());
+      return out;
+   }//end json
+
+   private static Map<String, Object> json(Store store) {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("storeID", store.storeID());
+      out.put("address", store.address());
+      out.put("city", store.city());
+      out.put("state", store.state());
+      out.put("isOpen", store.open());
+      out.put("reviewScore", store.reviewScore());
+      return out;
+   }//end json
+
+   private static Map<String, Object> json(OrderRow row) {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("orderID", row.orderID());
+      out.put("login", row.login() == null ? null : row.login().trim());
+      out.put("storeID", row.storeID());
+      out.put("totalPrice", row.totalPrice());
+      out.put("orderTimestamp", row.orderTimestamp());
+      out.put("orderStatus", row.orderStatus());
+      return out;
+   }//end json
+
+   /**
+    * A logged-in session and when its token was last used.
+    */
+   private static final class Token {
+      volatile Session session;
+      volatile long lastUsed = System.currentTimeMillis();
+
+      Token(Session session) {
+         this.session = session;
+      }
+
+      boolean idle(long now) {
+         return now - lastUsed > TOKEN_IDLE_MILLIS;
+      }
+   }//end Token
+
+   private static final class Reply {
+      final int status;
+      final Object body;
+
+      Reply(int status, Object body) {
+         this.status = status;
+         this.body = body;
+      }
+   }//end Reply
+
+   /**
+    * Starts the API on its own, without the terminal client.
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;httpPort&gt;
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length != 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + ApiServer.class.getName()
+            + " <dbname> <port> <user> <httpPort>");
+         return;
+      }
+      // -Dpizzastore.storage=embedded serves the embedded store and ignores the database arguments
+      Storage.Config storage = Storage.Config.fromSystemProperties();
+      ConnectionPool pool = storage.embedded() ? null : new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         ConnectionPool.Config.fromSystemProperties());
+      PizzaService service = pool == null ? new PizzaService(EmbeddedStorage.open(storage)) : new PizzaService(pool);
+      ApiServer api = new ApiServer(service, new InetSocketAddress(Integer.parseInt(args[3])));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+         api.stop(2);
+         service.close();
+         if (pool != null) pool.close();
+      }));
+      api.start();
+      System.out.println("Listening on " + api.address());
+   }//end main
+
+}//end ApiServer
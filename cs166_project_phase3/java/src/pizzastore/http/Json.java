@@ -0,0 +1,227 @@
+package pizzastore.http;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the API: objects become LinkedHashMaps, arrays
+ * Lists, numbers BigDecimals, and the literals Boolean or null.  Writing
+ * accepts the same types plus any other Number, and falls back to
+ * toString() for everything else (timestamps, enums).
+ *
+ */
+public final class Json {
+
+   private Json() {
+   }
+
+   /**
+    * @return the JSON text of a value
+    */
+   public static String write(Object value) {
+      StringBuilder out = new StringBuilder(128);
+      write(value, out);
+      return out.toString();
+   }//end write
+
+   private static void write(Object value, StringBuilder out) {
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof Boolean || value instanceof Number) {
+         out.append(value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString());
+      } else if (value instanceof Map) {
+         out.append('{');
+         boolean first = true;
+         for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+            if (!first) out.append(',');
+            first = false;
+            quote(String.valueOf(e.getKey()), out);
+            out.append(':');
+            write(e.getValue(), out);
+         }
+         out.append('}');
+      } else if (value instanceof Iterable) {
+         out.append('[');
+         boolean first = true;
+         for (Object item : (Iterable<?>) value) {
+            if (!first) out.append(',');
+            first = false;
+            write(item, out);
+         }
+         out.append(']');
+      } else {
+         quote(value.toString(), out);
+      }
+   }//end write
+
+   private static void quote(String s, StringBuilder out) {
+      out.append('"');
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+               else out.append(c);
+         }
+      }
+      out.append('"');
+   }//end quote
+
+   /**
+    * Parses a JSON document.
+    *
+    * @throws IllegalArgumentException when the text is not valid JSON
+    */
+   public static Object parse(String text) {
+      Parser p = new Parser(text);
+      p.skipSpace();
+      Object value = p.value();
+      p.skipSpace();
+      if (p.pos != text.length()) throw p.error("trailing characters");
+      return value;
+   }//end parse
+
+   /**
+    * Parses a document that must be an object.
+    *
+    * @throws IllegalArgumentException when the text is not a JSON object
+    */
+   @SuppressWarnings("unchecked")
+   public static Map<String, Object> parseObject(String text) {
+      Object value = parse(text.isEmpty() ? "{}" : text);
+      if (!(value instanceof Map)) throw new IllegalArgumentException("expected a JSON object");
+      return (Map<String, Object>) value;
+   }//end parseObject
+
+   private static final class Parser {
+      private final String s;
+      int pos = 0;
+
+      Parser(String s) {
+         this.s = s;
+      }
+
+      Object value() {
+         if (pos >= s.length()) throw error("unexpected end");
+         char c = s.charAt(pos);
+         switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+               if (c == '-' || (c >= '0' && c <= '9')) return number();
+               throw error("unexpected '" + c + "'");
+         }
+      }//end value
+
+      private Map<String, Object> object() {
+         Map<String, Object> map = new LinkedHashMap<>();
+         pos++;
+         skipSpace();
+         if (peek('}')) return map;
+         while (true) {
+            skipSpace();
+            if (pos >= s.length() || s.charAt(pos) != '"') throw error("expected a key");
+            String key = string();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            map.put(key, value());
+            skipSpace();
+            if (peek('}')) return map;
+            expect(',');
+         }
+      }//end object
+
+      private List<Object> array() {
+         List<Object> list = new ArrayList<>();
+         pos++;
+         skipSpace();
+         if (peek(']')) return list;
+         while (true) {
+            skipSpace();
+            list.add(value());
+            skipSpace();
+            if (peek(']')) return list;
+            expect(',');
+         }
+      }//end array
+
+      private String string() {
+         StringBuilder out = new StringBuilder();
+         pos++;
+         while (pos < s.length()) {
+            char c = s.charAt(pos++);
+            if (c == '"') return out.toString();
+            if (c != '\\') {
+               out.append(c);
+               continue;
+            }
+            if (pos >= s.length()) break;
+            char e = s.charAt(pos++);
+            switch (e) {
+               case 'n': out.append('\n'); break;
+               case 'r': out.append('\r'); break;
+               case 't': out.append('\t'); break;
+               case 'b': out.append('\b'); break;
+               case 'f': out.append('\f'); break;
+               case 'u':
+                  if (pos + 4 > s.length()) throw error("bad escape");
+                  out.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                  pos += 4;
+                  break;
+               default: out.append(e);
+            }
+         }
+         throw error("unterminated string");
+      }//end string
+
+      private BigDecimal number() {
+         int start = pos;
+         while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+         try {
+            return new BigDecimal(s.substring(start, pos));
+         } catch (NumberFormatException e) {
+            throw error("bad number");
+         }
+      }//end number
+
+      private Object literal(String word, Object value) {
+         if (!s.startsWith(word, pos)) throw error("unexpected token");
+         pos += word.length();
+         return value;
+      }//end literal
+
+      void skipSpace() {
+         while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+      }//end skipSpace
+
+      private boolean peek(char c) {
+         if (pos < s.length() && s.charAt(pos) == c) {
+            pos++;
+            return true;
+         }
+         return false;
+      }//end peek
+
+      private void expect(char c) {
+         if (!peek(c)) throw error("expected '" + c + "'");
+      }//end expect
+
+      IllegalArgumentException error(String message) {
+         return new IllegalArgumentException("invalid JSON at " + pos + ": " + message);
+      }//end error
+   }//end Parser
+
+}//end Json
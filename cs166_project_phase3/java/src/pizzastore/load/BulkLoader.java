@@ -0,0 +1,431 @@
+package pizzastore.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.report.SalesBackfill;
+import pizzastore.schema.PartitionMaintainer;
+import pizzastore.storage.postgres.PostgresItems;
+
+/**
+ * Fills the five tables through the driver's COPY protocol, either from
+ * CSV files or from the synthetic {@link DataGenerator}.
+ *
+ * Tables are loaded in foreign-key order, one phase at a time: Users, Items
+ * and Store have no dependencies and load in parallel, then FoodOrder, then
+ * ItemsInOrder.  Inside a phase every CSV file, or every range of generated
+ * rows, streams on its own connection, so one large table is loaded by
+ * several backends at once.
+ *
+ * After migration V5, FoodOrder and ItemsInOrder are partitioned by month.
+ * Generated orders get the partitions of their time span before the copy.
+ * CSV orders are copied into a temporary table first, and only the months
+ * that hold orders get partitions.  CSV items take their orderTimestamp from their order, because
+ * itemsinorder.csv does not have one.  CSV files still load into the
+ * tables of sql/src/create_tables.sql as they are; generating needs V5.
+ *
+ * <pre>
+ *   BulkLoader &lt;dbname&gt; &lt;port&gt; &lt;user&gt; load [dataDir] [--threads N] [--truncate]
+ *   BulkLoader &lt;dbname&gt; &lt;port&gt; &lt;user&gt; generate [dataDir] [--users N] [--stores N]
+ *              [--orders N] [--max-lines N] [--days N] [--seed N] [--threads N] [--truncate]
+ * </pre>
+ *
+ * In load mode every file in dataDir named after a table (e.g. users.csv,
+ * or foodorder.part1.csv, foodorder.part2.csv for a pre-split file) is
+ * copied into that table.  In generate mode Items is taken from dataDir
+ * (the real menu) unless the table already has rows, and the other tables
+ * are generated; they must be empty or --truncate given.
+ *
+ */
+public final class BulkLoader {
+
+   /**
+    * The tables in foreign-key order, with the columns in generated and in
+    * CSV order.
+    */
+   enum Table {
+      USERS("Users", "login, password, role, favoriteItems, phoneNum", null, 0),
+      ITEMS("Items", "itemName, ingredients, typeOfItem, price, description", null, 0),
+      STORE("Store", "storeID, address, city, state, isOpen, reviewScore", null, 0),
+      FOODORDER("FoodOrder", "orderID, login, storeID, totalPrice, orderTimestamp, orderStatus", null, 1),
+      ITEMSINORDER("ItemsInOrder", "orderID, itemName, quantity, orderTimestamp", "orderID, itemName, quantity", 2);
+
+      final String name;
+      final String columns;
+      final String csvColumns;
+      final int phase;
+
+      Table(String name, String columns, String csvColumns, int phase) {
+         this.name = name;
+         this.columns = columns;
+         this.csvColumns = csvColumns != null ? csvColumns : columns;
+         this.phase = phase;
+      }
+
+      String copyCsv() {
+         return copyCsv(name);
+      }//end copyCsv
+
+      String copyCsv(String target) {
+         return "COPY " + target + " (" + csvColumns + ") FROM STDIN WITH (FORMAT csv, HEADER true)";
+      }//end copyCsv
+
+      String copyText() {
+         return "COPY " + name + " (" + columns + ") FROM STDIN";
+      }//end copyText
+   }//end Table
+
+   private static final int PHASES = 3;
+   private static final long MIN_CHUNK_ROWS = 50_000;
+
+   private final ConnectionPool pool;
+   private final ExecutorService workers;
+   private final int threads;
+   private final Map<Table, AtomicLong> loaded = new LinkedHashMap<>();
+   private final Map<Table, AtomicLong> nanos = new LinkedHashMap<>();
+
+   /**
+    * @param pool the pool to borrow one connection per running COPY from
+    * @param threads the number of COPY streams that may run at once
+    */
+   public BulkLoader(ConnectionPool pool, int threads) {
+      this.pool = pool;
+      this.threads = threads;
+      this.workers = Executors.newFixedThreadPool(threads);
+      for (Table t : Table.values()) {
+         loaded.put(t, new AtomicLong());
+         nanos.put(t, new AtomicLong());
+      }
+   }
+
+   /**
+    * Empties all five tables.
+    */
+   public void truncate() throws SQLException {
+      try (PooledConnection conn = pool.borrow()) {
+         conn.prepare("TRUNCATE ItemsInOrder, FoodOrder, Store, Items, Users;").executeUpdate();
+      }
+   }//end truncate
+
+   /**
+    * Copies every CSV file in the directory into the table it is named
+    * after, in foreign-key order.
+    *
+    * @param dataDir the directory holding the CSV files
+    * @throws java.sql.SQLException when a COPY fails; tables loaded in earlier phases keep their rows
+    */
+   public void loadCsv(File dataDir) throws SQLException, IOException {
+      File[] files = dataDir.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".csv"));
+      if (files == null) throw new IOException("not a directory: " + dataDir);
+      Arrays.sort(files);
+      boolean partitioned = PartitionMaintainer.installed(new Database(pool));
+      for (int phase = 0; phase < PHASES; phase++) {
+         List<Task> tasks = new ArrayList<>();
+         for (File file : files) {
+            Table table = tableOf(file);
+            if (table == null || table.phase != phase) continue;
+            if (partitioned && (table == Table.FOODORDER || table == Table.ITEMSINORDER)) {
+               tasks.add(new Task(table, (conn, copy) -> copyStaged(conn, copy, table, file)));
+               continue;
+            }
+            tasks.add(new Task(table, (conn, copy) -> {
+               try (InputStream in = new FileInputStream(file)) {
+                  return copy.copyIn(table.copyCsv(), in, 256 * 1024);
+               }
+            }));
+         }
+         run(tasks);
+      }
+      finish(partitioned);
+   }//end loadCsv
+
+   /**
+    * Loads the menu from dataDir when Items is empty and generates the
+    * other four tables.
+    *
+    * @throws java.sql.SQLException when a COPY fails or migration V5 is not applied
+    */
+   public void generate(File dataDir, long seed, long users, long stores, long orders, int maxLines, int days)
+         throws SQLException, IOException {
+      if (!PartitionMaintainer.installed(new Database(pool)))
+         throw new SQLException("generating needs the partitioned order tables; run scripts/migrate.sh first");
+      for (Table table : new Table[] { Table.USERS, Table.STORE, Table.FOODORDER, Table.ITEMSINORDER }) {
+         if (hasRows(table))
+            throw new SQLException(table.name + " is not empty; use --truncate to replace it");
+      }
+      if (!hasRows(Table.ITEMS)) {
+         File items = new File(dataDir, "items.csv");
+         run(Arrays.asList(new Task(Table.ITEMS, (conn, copy) -> {
+            try (InputStream in = new FileInputStream(items)) {
+               return copy.copyIn(Table.ITEMS.copyCsv(), in, 256 * 1024);
+            }
+         })));
+      }
+
+      DataGenerator gen = new DataGenerator(seed, users, stores, orders, maxLines, 1,
+         System.currentTimeMillis() / 1000, days, new MenuCatalog(new PostgresItems(new Database(pool))).reload().all());
+
+      List<Task> phase = new ArrayList<>();
+      phase.addAll(chunks(Table.USERS, gen.users(), gen::writeUsers));
+      phase.addAll(chunks(Table.STORE, gen.stores(), gen::writeStores));
+      run(phase);
+      try (PooledConnection conn = pool.borrow()) {
+         // the generator writes UTC civil times
+         conn.prepare("SELECT create_order_partitions(to_timestamp(?) AT TIME ZONE 'UTC', "
+            + "to_timestamp(?) AT TIME ZONE 'UTC');", gen.firstEpoch(), gen.lastEpoch()).executeQuery().close();
+      }
+      run(chunks(Table.FOODORDER, gen.orders(), gen::writeOrders));
+      run(chunks(Table.ITEMSINORDER, gen.orders(), gen::writeLines));
+      finish(true);
+   }//end generate
+
+   /**
+    * Prints the rows and throughput of every table loaded so far.
+    */
+   public void report() {
+      for (Table t : Table.values()) {
+         long rows = loaded.get(t).get();
+         if (rows == 0) continue;
+         // nanos add up across parallel streams, so this is the per-stream rate
+         double seconds = nanos.get(t).get() / 1e9;
+         System.out.printf("%-13s %,12d rows  %8.2fs stream time  %,12.0f rows/s per stream%n",
+            t.name, rows, seconds, seconds > 0 ? rows / seconds : 0.0);
+      }
+   }//end report
+
+   public void shutdown() {
+      workers.shutdown();
+   }//end shutdown
+
+   private interface CopyJob {
+      long copy(PooledConnection conn, CopyManager copy) throws SQLException, IOException;
+   }//end CopyJob
+
+   private interface RangeWriter {
+      void write(CopyWriter out, long from, long to) throws SQLException;
+   }//end RangeWriter
+
+   private final class Task {
+      final Table table;
+      final CopyJob job;
+
+      Task(Table table, CopyJob job) {
+         this.table = table;
+         this.job = job;
+      }
+
+      Long call() throws SQLException, IOException {
+         long start = System.nanoTime();
+         long rows;
+         try (PooledConnection conn = pool.borrow()) {
+            // keeps the FoodOrder trigger from sending one notification per copied row
+            conn.prepare("SELECT set_config('pizzastore.bulk_load', 'on', false);").executeQuery().close();
+            try {
+               rows = job.copy(conn, conn.connection().unwrap(PGConnection.class).getCopyAPI());
+            } finally {
+               conn.prepare("SELECT set_config('pizzastore.bulk_load', 'off', false);").executeQuery().close();
+            }
+         }
+         loaded.get(table).addAndGet(rows);
+         nanos.get(table).addAndGet(System.nanoTime() - start);
+         return rows;
+      }//end call
+   }//end Task
+
+   /**
+    * Splits rows [0, total) into about one range per thread, each copied on
+    * its own connection.
+    */
+   private List<Task> chunks(Table table, long total, RangeWriter writer) {
+      List<Task> tasks = new ArrayList<>();
+      long size = Math.max(MIN_CHUNK_ROWS, (total + threads - 1) / threads);
+      for (long from = 0; from < total; from += size) {
+         long start = from;
+         long end = Math.min(total, from + size);
+         tasks.add(new Task(table, (conn, copy) -> {
+            CopyWriter out = new CopyWriter(copy.copyIn(table.copyText()));
+            try {
+               writer.write(out, start, end);
+               return out.finish();
+            } catch (SQLException | RuntimeException e) {
+               out.cancel();
+               throw e;
+            }
+         }));
+      }
+      return tasks;
+   }//end chunks
+
+   /**
+    * Copies a CSV file of orders or items into a temporary table on the
+    * task's connection, then inserts it into the partitioned table.  Orders
+    * get the partitions of their months first; items take the
+    * orderTimestamp of their order.
+    *
+    * @return the number of rows inserted
+    * @throws java.sql.SQLException when an item names an order that does not exist
+    */
+   private static long copyStaged(PooledConnection conn, CopyManager copy, Table table, File file)
+         throws SQLException, IOException {
+      String staging = table.name.toLowerCase(Locale.ROOT) + "_csv";
+      // plain statements: the temporary table must not end up in the statement cache
+      try (Statement stmt = conn.connection().createStatement()) {
+         stmt.execute(table == Table.FOODORDER
+            ? "CREATE TEMP TABLE " + staging + " (LIKE FoodOrder);"
+            : "CREATE TEMP TABLE " + staging + " (orderID integer, itemName varchar(50), quantity integer);");
+         try {
+            long copied;
+            try (InputStream in = new FileInputStream(file)) {
+               copied = copy.copyIn(table.copyCsv(staging), in, 256 * 1024);
+            }
+            if (table == Table.FOODORDER) {
+               stmt.execute("SELECT create_order_partitions(o.month, o.month) FROM (SELECT DISTINCT "
+                  + "date_trunc('month', orderTimestamp) AS month FROM " + staging + ") o;");
+               return stmt.executeUpdate("INSERT INTO FoodOrder (" + table.columns + ") SELECT "
+                  + table.columns + " FROM " + staging + ";");
+            }
+            long inserted = stmt.executeUpdate("INSERT INTO ItemsInOrder (" + table.columns + ") "
+               + "SELECT c.orderID, c.itemName, c.quantity, f.orderTimestamp FROM " + staging + " c "
+               + "JOIN FoodOrder f ON f.orderID = c.orderID;");
+            if (inserted != copied)
+               throw new SQLException((copied - inserted) + " rows of " + file.getName()
+                  + " name orders that are not in FoodOrder");
+            return inserted;
+         } finally {
+            stmt.execute("DROP TABLE " + staging + ";");
+         }
+      }
+   }//end copyStaged
+
+   /**
+    * Runs one phase and waits for all of it.
+    */
+   private void run(List<Task> tasks) throws SQLException, IOException {
+      List<Future<Long>> running = new ArrayList<>();
+      for (Task task : tasks) running.add(workers.submit(task::call));
+      Throwable failure = null;
+      for (Future<Long> f : running) {
+         try {
+            f.get();
+         } catch (ExecutionException e) {
+            if (failure == null) failure = e.getCause();
+            else failure.addSuppressed(e.getCause());
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while loading", e);
+         }
+      }
+      if (failure instanceof SQLException) throw (SQLException) failure;
+      if (failure instanceof IOException) throw (IOException) failure;
+      if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+      if (failure != null) throw new SQLException(failure);
+   }//end run
+
+   /**
+    * Moves the order sequence past the loaded rows, sorts the loaded order
+    * months into place and refreshes planner statistics.
+    */
+   private void finish(boolean partitioned) throws SQLException {
+      if (partitioned) new PartitionMaintainer(pool, new PartitionMaintainer.Config()).run();
+      try (PooledConnection conn = pool.borrow()) {
+         conn.prepare("SELECT setval('foodorder_orderid_seq', COALESCE((SELECT MAX(orderID) FROM FoodOrder), 0) + 1, false);")
+            .executeQuery().close();
+         conn.prepare("ANALYZE Users, Items, Store, FoodOrder, ItemsInOrder;").executeUpdate();
+      }
+   }//end finish
+
+   private boolean hasRows(Table table) throws SQLException {
+      try (PooledConnection conn = pool.borrow();
+           ResultSet rs = conn.prepare("SELECT EXISTS (SELECT 1 FROM " + table.name + ");").executeQuery()) {
+         return rs.next() && rs.getBoolean(1);
+      }
+   }//end hasRows
+
+   private static Table tableOf(File file) {
+      String name = file.getName().toLowerCase(Locale.ROOT);
+      String base = name.substring(0, name.indexOf('.'));
+      for (Table t : Table.values()) {
+         if (t.name.toLowerCase(Locale.ROOT).equals(base)) return t;
+      }
+      return null;
+   }//end tableOf
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4 || !(args[3].equals("load") || args[3].equals("generate"))) {
+         System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName()
+            + " <dbname> <port> <user> load|generate [dataDir] [--threads N] [--truncate]"
+            + " [--users N] [--stores N] [--orders N] [--max-lines N] [--days N] [--seed N]");
+         return;
+      }
+      File dataDir = new File("data");
+      Map<String, String> opts = new LinkedHashMap<>();
+      boolean truncate = false;
+      for (int i = 4; i < args.length; i++) {
+         if (args[i].equals("--truncate")) truncate = true;
+         else if (args[i].startsWith("--") && i + 1 < args.length) opts.put(args[i].substring(2), args[++i]);
+         else dataDir = new File(args[i]);
+      }
+      int threads = Integer.parseInt(opts.getOrDefault("threads",
+         String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors()))));
+
+      ConnectionPool pool = new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         new ConnectionPool.Config().minSize(0).maxSize(threads).statementCacheSize(8));
+      BulkLoader loader = new BulkLoader(pool, threads);
+      long start = System.nanoTime();
+      try {
+         if (truncate) loader.truncate();
+         if (args[3].equals("load")) {
+            loader.loadCsv(dataDir);
+         } else {
+            loader.generate(dataDir,
+               Long.parseLong(opts.getOrDefault("seed", "166")),
+               Long.parseLong(opts.getOrDefault("users", "100000")),
+               Long.parseLong(opts.getOrDefault("stores", "1000")),
+               Long.parseLong(opts.getOrDefault("orders", "1000000")),
+               Integer.parseInt(opts.getOrDefault("max-lines", "5")),
+               Integer.parseInt(opts.getOrDefault("days", "1095")));
+         }
+         loader.report();
+         // the sales triggers skip bulk-loaded rows; count them from scratch
+         if (SalesBackfill.installed(new Database(pool))) {
+            System.out.println("Rebuilding the sales summaries");
+            SalesBackfill backfill = new SalesBackfill(pool, SalesBackfill.DEFAULT_CHUNK);
+            backfill.rebuild();
+            backfill.run();
+         }
+         System.out.printf("Done in %.2fs%n", (System.nanoTime() - start) / 1e9);
+      } finally {
+         loader.shutdown();
+         loader.workers.awaitTermination(1, TimeUnit.MINUTES);
+         pool.close();
+      }
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,179 @@
+package pizzastore.load;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Writes rows in COPY text format straight into a {@link CopyIn} stream.
+ * Rows are encoded into one reusable byte buffer that is handed to the
+ * driver whenever it fills, so generating millions of rows allocates
+ * next to nothing and never touches a temporary file.
+ *
+ */
+final class CopyWriter {
+
+   private static final int BUFFER_SIZE = 256 * 1024;
+
+   private final CopyIn copy;
+   private final byte[] buf = new byte[BUFFER_SIZE];
+   private int len = 0;
+   private boolean rowStarted = false;
+   private long rows = 0;
+
+   CopyWriter(CopyIn copy) {
+      this.copy = copy;
+   }
+
+   /**
+    * Appends a text field, escaping the characters COPY text format treats
+    * specially.  null is written as \N.
+    */
+   CopyWriter text(String value) throws SQLException {
+      separator();
+      if (value == null) {
+         raw('\\');
+         raw('N');
+         return this;
+      }
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         switch (c) {
+            case '\\': raw('\\'); raw('\\'); break;
+            case '\t': raw('\\'); raw('t'); break;
+            case '\n': raw('\\'); raw('n'); break;
+            case '\r': raw('\\'); raw('r'); break;
+            default:
+               if (c < 0x80) {
+                  raw(c);
+               } else {
+                  byte[] utf8 = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                  if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                     utf8 = value.substring(i, i + 2).getBytes(StandardCharsets.UTF_8);
+                     i++;
+                  }
+                  for (byte b : utf8) raw((char) (b & 0xff));
+               }
+         }
+      }
+      return this;
+   }//end text
+
+   /**
+    * Appends a whole number without going through a String.
+    */
+   CopyWriter number(long value) throws SQLException {
+      separator();
+      digits(value);
+      return this;
+   }//end number
+
+   /**
+    * Appends an amount held in cents as a two-decimal number.
+    */
+   CopyWriter cents(long cents) throws SQLException {
+      separator();
+      if (cents < 0) {
+         raw('-');
+         cents = -cents;
+      }
+      digits(cents / 100);
+      raw('.');
+      raw((char) ('0' + (cents / 10) % 10));
+      raw((char) ('0' + cents % 10));
+      return this;
+   }//end cents
+
+   /**
+    * Appends a UTC timestamp given in epoch seconds as yyyy-mm-dd hh:mm:ss.
+    */
+   CopyWriter timestamp(long epochSeconds) throws SQLException {
+      separator();
+      long days = Math.floorDiv(epochSeconds, 86400L);
+      long secs = Math.floorMod(epochSeconds, 86400L);
+      // civil-from-days (Howard Hinnant), valid for the whole proleptic calendar
+      long z = days + 719468;
+      long era = Math.floorDiv(z, 146097);
+      long doe = z - era * 146097;
+      long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      long mp = (5 * doy + 2) / 153;
+      long day = doy - (153 * mp + 2) / 5 + 1;
+      long month = mp < 10 ? mp + 3 : mp - 9;
+      long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+      digits(year);
+      raw('-'); two(month);
+      raw('-'); two(day);
+      raw(' '); two(secs / 3600);
+      raw(':'); two(secs / 60 % 60);
+      raw(':'); two(secs % 60);
+      return this;
+   }//end timestamp
+
+   /**
+    * Ends the current row.
+    */
+   void endRow() throws SQLException {
+      raw('\n');
+      rowStarted = false;
+      rows++;
+   }//end endRow
+
+   /**
+    * Flushes the buffer and completes the COPY.
+    *
+    * @return the number of rows the server reports as copied
+    */
+   long finish() throws SQLException {
+      flush();
+      return copy.endCopy();
+   }//end finish
+
+   /**
+    * Abandons the COPY; the server discards everything sent so far.
+    */
+   void cancel() {
+      try {
+         if (copy.isActive()) copy.cancelCopy();
+      } catch (SQLException ignored) {
+         // the connection is being given up on anyway
+      }
+   }//end cancel
+
+   long rows() {
+      return rows;
+   }//end rows
+
+   private void separator() throws SQLException {
+      if (rowStarted) raw('\t');
+      rowStarted = true;
+   }//end separator
+
+   private void two(long v) throws SQLException {
+      raw((char) ('0' + v / 10));
+      raw((char) ('0' + v % 10));
+   }//end two
+
+   private void digits(long v) throws SQLException {
+      if (v < 0) {
+         raw('-');
+         v = -v;
+      }
+      if (v >= 10) digits(v / 10);
+      raw((char) ('0' + v % 10));
+   }//end digits
+
+   private void raw(char c) throws SQLException {
+      if (len == buf.length) flush();
+      buf[len++] = (byte) c;
+   }//end raw
+
+   private void flush() throws SQLException {
+      if (len > 0) {
+         copy.writeToCopy(buf, 0, len);
+         len = 0;
+      }
+   }//end flush
+
+}//end CopyWriter
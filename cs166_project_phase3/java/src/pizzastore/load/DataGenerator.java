@@ -0,0 +1,229 @@
+package pizzastore.load;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import pizzastore.menu.MenuItem;
+import pizzastore.service.PizzaService;
+
+/**
+ * Produces synthetic Users, Store, FoodOrder and ItemsInOrder rows at any
+ * scale.  Every row is a pure function of the seed and its index, so a
+ * table can be generated in independent ranges on several connections and
+ * ItemsInOrder can re-derive exactly the lines each FoodOrder was priced
+ * from.  Nothing is held in memory besides the menu.
+ *
+ * The shape follows the sample data: a few managers and drivers among many
+ * customers, most orders from a minority of users, order IDs that grow
+ * with time, and every order priced from the real menu.
+ *
+ */
+final class DataGenerator {
+
+   private static final String[] STREETS = {
+      "Hallows", "Bunker Hill", "Jenifer", "Golf", "Westend", "Miller", "Straubel", "Service",
+      "Independence", "School", "Fordem", "Monterey", "Ludington", "Donald", "Debra", "Roxbury",
+      "Vera", "Heath", "Vernon", "Tomscot", "Katie", "Bay", "Crowley", "Longview", "Mayfield" };
+   private static final String[] SUFFIXES = {
+      "Center", "Avenue", "Terrace", "Parkway", "Crossing", "Circle", "Alley", "Court", "Trail",
+      "Lane", "Hill", "Plaza", "Pass", "Point", "Street", "Drive", "Road", "Way" };
+   private static final String[][] CITIES = {
+      { "Riverside", "California" }, { "San Diego", "California" }, { "Los Angeles", "California" },
+      { "Spring", "Texas" }, { "El Paso", "Texas" }, { "Portland", "Oregon" }, { "Omaha", "Nebraska" },
+      { "Honolulu", "Hawaii" }, { "Charlotte", "North Carolina" }, { "Indianapolis", "Indiana" },
+      { "New York City", "New York" }, { "Knoxville", "Tennessee" }, { "Decatur", "Georgia" },
+      { "Spokane", "Washington" }, { "Des Moines", "Iowa" }, { "Louisville", "Kentucky" },
+      { "Topeka", "Kansas" }, { "Tucson", "Arizona" }, { "Akron", "Ohio" }, { "Baltimore", "Maryland" },
+      { "Mobile", "Alabama" }, { "Philadelphia", "Pennsylvania" }, { "Stamford", "Connecticut" },
+      { "Boca Raton", "Florida" }, { "Virginia Beach", "Virginia" } };
+
+   private static final long SECONDS_PER_DAY = 86400L;
+
+   private final long seed;
+   private final long users;
+   private final long stores;
+   private final long orders;
+   private final int maxLines;
+   private final long firstOrderID;
+   private final long startEpoch;
+   private final long endEpoch;
+   private final String[] itemNames;
+   private final long[] itemCents;
+
+   /**
+    * @param seed makes the data set reproducible
+    * @param users number of Users rows
+    * @param stores number of Store rows
+    * @param orders number of FoodOrder rows
+    * @param maxLines the most distinct items one order may contain
+    * @param firstOrderID the orderID of the first generated order
+    * @param endEpoch the timestamp of the newest order, in epoch seconds
+    * @param days how many days of history the orders span
+    * @param menu the items orders are placed from
+    */
+   DataGenerator(long seed, long users, long stores, long orders, int maxLines, long firstOrderID,
+                 long endEpoch, int days, List<MenuItem> menu) {
+      if (menu.isEmpty()) throw new IllegalArgumentException("the Items table is empty");
+      this.seed = seed;
+      this.users = users;
+      this.stores = stores;
+      this.orders = orders;
+      this.maxLines = Math.max(1, Math.min(maxLines, menu.size()));
+      this.firstOrderID = firstOrderID;
+      this.endEpoch = endEpoch;
+      this.startEpoch = endEpoch - days * SECONDS_PER_DAY;
+      this.itemNames = new String[menu.size()];
+      this.itemCents = new long[menu.size()];
+      for (int i = 0; i < menu.size(); i++) {
+         itemNames[i] = menu.get(i).itemName();
+         itemCents[i] = menu.get(i).price().movePointRight(2).longValueExact();
+      }
+   }
+
+   long users() { return users; }
+   long stores() { return stores; }
+   long orders() { return orders; }
+   /** @return the earliest time an order may be placed, in epoch seconds */
+   long firstEpoch() { return startEpoch; }
+   /** @return the latest time an order may be placed, in epoch seconds */
+   long lastEpoch() { return endEpoch; }
+
+   /**
+    * @return the orderID of the last generated order
+    */
+   long lastOrderID() {
+      return firstOrderID + orders - 1;
+   }//end lastOrderID
+
+   static String login(long index) {
+      return "user" + index;
+   }//end login
+
+   /**
+    * Writes Users rows [from, to).
+    */
+   void writeUsers(CopyWriter out, long from, long to) throws SQLException {
+      StringBuilder password = new StringBuilder(12);
+      for (long i = from; i < to; i++) {
+         SplittableRandom r = random(1, i);
+         password.setLength(0);
+         for (int c = 0; c < 10; c++) password.append((char) ('a' + r.nextInt(26)));
+         String role = i % 500 == 0 ? "manager" : i % 25 == 0 ? "driver" : "customer";
+         out.text(login(i)).text(password.toString()).text(role)
+            .text(itemNames[r.nextInt(itemNames.length)])
+            .text(phone(r));
+         out.endRow();
+      }
+   }//end writeUsers
+
+   /**
+    * Writes Store rows with storeIDs [from + 1, to + 1).
+    */
+   void writeStores(CopyWriter out, long from, long to) throws SQLException {
+      for (long i = from; i < to; i++) {
+         SplittableRandom r = random(2, i);
+         String[] city = CITIES[r.nextInt(CITIES.length)];
+         String address = (1 + r.nextInt(99999)) + " " + STREETS[r.nextInt(STREETS.length)] + " "
+            + SUFFIXES[r.nextInt(SUFFIXES.length)];
+         out.number(i + 1).text(address).text(city[0]).text(city[1])
+            .text(r.nextInt(10) < 7 ? "yes" : "no")
+            .text(String.valueOf((10 + r.nextInt(41)) / 10.0));
+         out.endRow();
+      }
+   }//end writeStores
+
+   /**
+    * Writes FoodOrder rows for order indexes [from, to).
+    */
+   void writeOrders(CopyWriter out, long from, long to) throws SQLException {
+      int[] items = new int[maxLines];
+      int[] quantities = new int[maxLines];
+      for (long i = from; i < to; i++) {
+         SplittableRandom r = random(3, i);
+         int lines = lines(i, items, quantities);
+         long total = 0;
+         for (int l = 0; l < lines; l++) total += itemCents[items[l]] * quantities[l];
+
+         long placed = placed(i, r);
+         // a squared draw gives most of the orders to a minority of users
+         double u = r.nextDouble();
+         long customer = (long) (u * u * users);
+
+         out.number(firstOrderID + i).text(login(customer)).number(1 + r.nextLong(stores))
+            .cents(total).timestamp(placed).text(status(r, endEpoch - placed));
+         out.endRow();
+      }
+   }//end writeOrders
+
+   /**
+    * Writes the ItemsInOrder rows of order indexes [from, to).
+    */
+   void writeLines(CopyWriter out, long from, long to) throws SQLException {
+      int[] items = new int[maxLines];
+      int[] quantities = new int[maxLines];
+      for (long i = from; i < to; i++) {
+         int lines = lines(i, items, quantities);
+         long placed = placed(i, random(3, i));
+         for (int l = 0; l < lines; l++) {
+            out.number(firstOrderID + i).text(itemNames[items[l]]).number(quantities[l]).timestamp(placed);
+            out.endRow();
+         }
+      }
+   }//end writeLines
+
+   /**
+    * The time an order was placed.  Order IDs follow time, with a little
+    * jitter inside each slot.
+    *
+    * @param r the order's random stream, before any other draw
+    * @return epoch seconds
+    */
+   private long placed(long index, SplittableRandom r) {
+      long slot = orders > 1 ? (endEpoch - startEpoch) * index / (orders - 1) : 0;
+      return Math.min(endEpoch, startEpoch + slot + r.nextInt(60));
+   }//end placed
+
+   /**
+    * Picks the distinct items and quantities of one order.  FoodOrder and
+    * ItemsInOrder both call this, so totals always match the lines.
+    *
+    * @return the number of lines filled in
+    */
+   private int lines(long index, int[] items, int[] quantities) {
+      SplittableRandom r = random(4, index);
+      int count = 1 + r.nextInt(maxLines);
+      for (int l = 0; l < count; l++) {
+         int item;
+         boolean taken;
+         do {
+            item = r.nextInt(itemNames.length);
+            taken = false;
+            for (int k = 0; k < l; k++) taken |= items[k] == item;
+         } while (taken);
+         items[l] = item;
+         quantities[l] = 1 + r.nextInt(r.nextInt(4) == 0 ? 6 : 2);
+      }
+      return count;
+   }//end lines
+
+   /**
+    * Orders older than a day have been delivered; newer ones are spread
+    * over the earlier statuses.
+    */
+   private static String status(SplittableRandom r, long ageSeconds) {
+      List<String> statuses = PizzaService.ORDER_STATUSES;
+      if (ageSeconds > SECONDS_PER_DAY) return statuses.get(statuses.size() - 1);
+      return statuses.get(r.nextInt(statuses.size()));
+   }//end status
+
+   private static String phone(SplittableRandom r) {
+      return String.format("%03d-%03d-%04d", 200 + r.nextInt(800), r.nextInt(1000), r.nextInt(10000));
+   }//end phone
+
+   private SplittableRandom random(int stream, long index) {
+      // SplittableRandom's own mixer spreads neighbouring seeds apart
+      return new SplittableRandom(seed * 31 + stream * 0x9E3779B97F4A7C15L + index * 0xBF58476D1CE4E5B9L);
+   }//end random
+
+}//end DataGenerator
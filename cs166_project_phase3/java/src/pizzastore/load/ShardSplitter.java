@@ -0,0 +1,235 @@
+package pizzastore.load;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+import pizzastore.report.SalesBackfill;
+import pizzastore.schema.PartitionMaintainer;
+import pizzastore.storage.sharded.ShardMap;
+
+/**
+ * Splits a database that holds every order into the shards of a
+ * {@link ShardMap}, for {@link pizzastore.storage.sharded.ShardedStorage}.
+ * The database becomes shard 0; the other shards need the same schema
+ * (sql/src/create_tables.sql and the migrations) and may be empty.
+ *
+ * For each shard 1 and up, Users, Items and Store are copied in full, then
+ * the orders of the shard's stores and their items are copied and, once
+ * that has committed, deleted from shard 0.  Rows are streamed from one
+ * server's COPY TO into the other's COPY FROM through a staging table, and
+ * inserted with ON CONFLICT DO NOTHING, so a split that stopped half way
+ * is finished by running it again.  Moved orders keep their orderIDs.
+ * Afterwards the sales summaries of every shard are rebuilt and the
+ * orderID sequences stepped as {@link ShardMap#alignSequences} does.
+ *
+ * The shards come from {@code -Dpizzastore.shards} and
+ * {@code -Dpizzastore.shards.stores}, as for the application.
+ *
+ * <pre>
+ *   ShardSplitter &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+ * </pre>
+ *
+ */
+public final class ShardSplitter {
+
+   private static final String[] REFERENCE_TABLES = { "Users", "Items", "Store" };
+
+   private final ShardMap map;
+   private final List<ConnectionPool> pools;
+
+   /**
+    * @param pools one pool per shard, shard 0 first
+    */
+   public ShardSplitter(ShardMap map, List<ConnectionPool> pools) {
+      if (pools.size() != map.count())
+         throw new IllegalArgumentException(pools.size() + " pools for " + map.count() + " shards");
+      this.map = map;
+      this.pools = pools;
+   }
+
+   /**
+    * Moves every shard's orders off shard 0, then rebuilds the summaries
+    * and steps the sequences.
+    *
+    * @throws java.sql.SQLException when a shard lacks the partitioned
+    *         tables of migration V5 or holds orders of another shard's stores
+    */
+   public void split() throws SQLException, IOException {
+      for (int shard = 0; shard < pools.size(); shard++) {
+         if (!PartitionMaintainer.installed(new Database(pools.get(shard))))
+            throw new SQLException("shard " + shard + " needs the partitioned order tables; run scripts/migrate.sh on it first");
+      }
+      List<Integer> stores = new Database(pools.get(0))
+         .query("SELECT storeID FROM Store ORDER BY storeID;", rs -> rs.getInt(1));
+      for (int shard = 1; shard < pools.size(); shard++) {
+         List<Integer> own = new ArrayList<>();
+         for (int storeID : stores) if (map.shardOfStore(storeID) == shard) own.add(storeID);
+         String ids = "'{" + join(own) + "}'::int[]";
+         try (PooledConnection from = pools.get(0).borrow(); PooledConnection to = pools.get(shard).borrow()) {
+            long strays = new Database(pools.get(shard))
+               .queryLong("SELECT count(*) FROM FoodOrder WHERE NOT storeID = ANY(" + ids + ");");
+            if (strays > 0)
+               throw new SQLException("shard " + shard + " holds " + strays + " orders of stores on other shards");
+            long users = 0;
+            for (String table : REFERENCE_TABLES) users += copy(from, to, table, null);
+            long orders = copy(from, to, "FoodOrder", "storeID = ANY(" + ids + ")");
+            long lines = copy(from, to, "ItemsInOrder", "(orderID, orderTimestamp) IN (SELECT orderID, "
+               + "orderTimestamp FROM FoodOrder WHERE storeID = ANY(" + ids + "))");
+            int deleted;
+            try (Statement stmt = from.connection().createStatement()) {
+               // the items go with their orders (sql/migrations/V5)
+               deleted = stmt.executeUpdate("DELETE FROM FoodOrder WHERE storeID = ANY(" + ids + ");");
+            }
+            System.out.printf("shard %d: %d stores, %d reference rows, %d orders and %d items copied, "
+               + "%d orders deleted from shard 0%n", shard, own.size(), users, orders, lines, deleted);
+         }
+         new PartitionMaintainer(pools.get(shard), new PartitionMaintainer.Config()).run();
+      }
+      for (int shard = 0; shard < pools.size(); shard++) {
+         if (!SalesBackfill.installed(new Database(pools.get(shard)))) continue;
+         System.out.println("Rebuilding the sales summaries of shard " + shard);
+         SalesBackfill backfill = new SalesBackfill(pools.get(shard), SalesBackfill.DEFAULT_CHUNK);
+         backfill.rebuild();
+         backfill.run();
+      }
+      System.out.println(map.alignSequences(pools) + " orderID sequence(s) stepped by " + map.count());
+   }//end split
+
+   /**
+    * Copies the rows of a table that match the condition into the same
+    * table of another shard, leaving out rows whose key is already there,
+    * in one transaction on the receiving side.
+    *
+    * @param where an SQL condition, or null for every row
+    * @return the number of rows inserted
+    */
+   private static long copy(PooledConnection from, PooledConnection to, String table, String where)
+         throws SQLException, IOException {
+      String staging = table.toLowerCase(Locale.ROOT) + "_moved";
+      to.connection().setAutoCommit(false);
+      // plain statements: the temporary table must not end up in the statement cache
+      try (Statement stmt = to.connection().createStatement()) {
+         String columns = columns(stmt, table);
+         // the moved rows are counted by the summary rebuild and announce nothing
+         stmt.execute("SET LOCAL pizzastore.bulk_load = on;");
+         stmt.execute("CREATE TEMP TABLE " + staging + " (LIKE " + table + ") ON COMMIT DROP;");
+         pipe(copyApi(from), "COPY (SELECT " + columns + " FROM " + table
+               + (where == null ? "" : " WHERE " + where) + ") TO STDOUT",
+            copyApi(to), "COPY " + staging + " (" + columns + ") FROM STDIN");
+         if (table.equals("FoodOrder")) {
+            stmt.execute("SELECT create_order_partitions(o.month, o.month) FROM (SELECT DISTINCT "
+               + "date_trunc('month', orderTimestamp) AS month FROM " + staging + ") o;");
+         }
+         long inserted = stmt.executeUpdate("INSERT INTO " + table + " (" + columns + ") SELECT " + columns
+            + " FROM " + staging + " ON CONFLICT DO NOTHING;");
+         to.connection().commit();
+         return inserted;
+      } catch (SQLException | IOException | RuntimeException e) {
+         to.connection().rollback();
+         throw e;
+      } finally {
+         to.connection().setAutoCommit(true);
+      }
+   }//end copy
+
+   /**
+    * @return the receiving table's columns in order, so both sides name them the same way
+    */
+   private static String columns(Statement stmt, String table) throws SQLException {
+      StringJoiner columns = new StringJoiner(", ");
+      try (ResultSet rs = stmt.executeQuery("SELECT column_name FROM information_schema.columns "
+            + "WHERE table_schema = current_schema() AND table_name = '" + table.toLowerCase(Locale.ROOT)
+            + "' ORDER BY ordinal_position;")) {
+         while (rs.next()) columns.add(rs.getString(1));
+      }
+      if (columns.length() == 0) throw new SQLException("no table " + table);
+      return columns.toString();
+   }//end columns
+
+   /**
+    * Streams one server's COPY TO into another's COPY FROM.
+    *
+    * @return the number of rows copied in
+    */
+   private static long pipe(CopyManager source, String copyOut, CopyManager target, String copyIn)
+         throws SQLException, IOException {
+      PipedInputStream in = new PipedInputStream(1 << 20);
+      PipedOutputStream out = new PipedOutputStream(in);
+      AtomicReference<Exception> failed = new AtomicReference<>();
+      Thread writer = new Thread(() -> {
+         try (PipedOutputStream o = out) {
+            source.copyOut(copyOut, o);
+         } catch (SQLException | IOException e) {
+            failed.set(e);
+         }
+      }, "pizzastore-shard-copy");
+      writer.start();
+      long rows;
+      try {
+         rows = target.copyIn(copyIn, in, 256 * 1024);
+      } finally {
+         // stops a writer the reader gave up on
+         in.close();
+         try {
+            writer.join();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      Exception e = failed.get();
+      if (e instanceof SQLException) throw (SQLException) e;
+      if (e != null) throw (IOException) e;
+      return rows;
+   }//end pipe
+
+   private static CopyManager copyApi(PooledConnection conn) throws SQLException {
+      return conn.connection().unwrap(PGConnection.class).getCopyAPI();
+   }//end copyApi
+
+   private static String join(List<Integer> ids) {
+      StringJoiner out = new StringJoiner(",");
+      for (int id : ids) out.add(Integer.toString(id));
+      return out.toString();
+   }//end join
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 3) {
+         System.err.println("Usage: java -Dpizzastore.shards=<url>,... [-classpath <classpath>] "
+            + ShardSplitter.class.getName() + " <dbname> <port> <user>");
+         return;
+      }
+      ShardMap.Config config = ShardMap.Config.fromSystemProperties();
+      if (!config.enabled()) {
+         System.err.println("No shards: set -Dpizzastore.shards to the JDBC urls of shards 1 and up.");
+         return;
+      }
+      ShardMap map = new ShardMap(config);
+      ConnectionPool.Config settings = new ConnectionPool.Config().minSize(0).maxSize(4).statementCacheSize(8);
+      List<ConnectionPool> pools = new ArrayList<>();
+      long start = System.nanoTime();
+      try {
+         pools.add(new ConnectionPool(Database.url(args[0], args[1]), args[2], "", settings));
+         for (String url : map.urls()) pools.add(pools.get(0).sibling(url));
+         new ShardSplitter(map, pools).split();
+         System.out.printf("Done in %.2fs%n", (System.nanoTime() - start) / 1e9);
+      } finally {
+         for (ConnectionPool pool : pools) pool.close();
+      }
+   }//end main
+
+}//end ShardSplitter
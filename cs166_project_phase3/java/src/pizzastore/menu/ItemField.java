@@ -0,0 +1,26 @@
+package pizzastore.menu;
+
+/**
+ * The Items columns a manager may change on an item.
+ *
+ */
+public enum ItemField {
+   PRICE("price"),
+   TYPE("typeOfItem"),
+   INGREDIENTS("ingredients"),
+   DESCRIPTION("description");
+
+   private final String column;
+
+   ItemField(String column) {
+      this.column = column;
+   }
+
+   /**
+    * @return the Items column
+    */
+   public String column() {
+      return column;
+   }//end column
+
+}//end ItemField
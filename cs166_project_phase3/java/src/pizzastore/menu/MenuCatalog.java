@@ -0,0 +1,245 @@
+package pizzastore.menu;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import pizzastore.storage.ItemRepository;
+
+/**
+ * An in-memory copy of the Items table.  The table is loaded once into an
+ * immutable {@link Snapshot} that answers name lookups, type filters, price
+ * ranges, both price orders and ingredient searches without touching the
+ * storage.  Menu edits
+ * go through this class: the row is written to the storage first and a new
+ * snapshot is then published atomically (copy-on-write), so readers never
+ * take a lock and never see a half-applied change.
+ *
+ */
+public final class MenuCatalog {
+
+   private static final Comparator<MenuItem> BY_PRICE =
+      Comparator.comparing(MenuItem::price).thenComparing(MenuItem::key);
+   private static final Comparator<MenuItem> BY_TYPE_THEN_PRICE =
+      Comparator.comparing((MenuItem i) -> i.typeOfItem()).thenComparing(BY_PRICE);
+
+   private final ItemRepository items;
+   private volatile Snapshot current = null;
+
+   public MenuCatalog(ItemRepository items) {
+      this.items = items;
+   }
+
+   /**
+    * @return the current snapshot, loading the table on first use
+    * @throws java.sql.SQLException when the first load fails
+    */
+   public Snapshot snapshot() throws SQLException {
+      Snapshot s = current;
+      return s != null ? s : reload();
+   }//end snapshot
+
+   /**
+    * Re-reads the whole Items table and publishes it.
+    *
+    * @return the new snapshot
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public synchronized Snapshot reload() throws SQLException {
+      current = new Snapshot(items.all());
+      return current;
+   }//end reload
+
+   /**
+    * Inserts a new item and publishes it.
+    *
+    * @return the stored item
+    * @throws java.sql.SQLException when the insert fails
+    */
+   public synchronized MenuItem addItem(String itemName, String ingredients, String typeOfItem,
+                                        BigDecimal price, String description) throws SQLException {
+      MenuItem item = items.insert(new MenuItem(itemName, ingredients, typeOfItem, price, description));
+      publish(snapshot().with(item));
+      return item;
+   }//end addItem
+
+   public synchronized MenuItem updatePrice(String itemName, BigDecimal price) throws SQLException {
+      return update(itemName, ItemField.PRICE, price);
+   }//end updatePrice
+
+   public synchronized MenuItem updateType(String itemName, String typeOfItem) throws SQLException {
+      return update(itemName, ItemField.TYPE, typeOfItem);
+   }//end updateType
+
+   public synchronized MenuItem updateIngredients(String itemName, String ingredients) throws SQLException {
+      return update(itemName, ItemField.INGREDIENTS, ingredients);
+   }//end updateIngredients
+
+   public synchronized MenuItem updateDescription(String itemName, String description) throws SQLException {
+      return update(itemName, ItemField.DESCRIPTION, description);
+   }//end updateDescription
+
+   /**
+    * Deletes an item and publishes the menu without it.
+    *
+    * @return true when a row was deleted
+    * @throws java.sql.SQLException when the delete fails
+    */
+   public synchronized boolean deleteItem(String itemName) throws SQLException {
+      boolean deleted = items.delete(itemName);
+      publish(snapshot().without(MenuItem.keyOf(itemName)));
+      return deleted;
+   }//end deleteItem
+
+   private MenuItem update(String itemName, ItemField field, Object value) throws SQLException {
+      MenuItem item = items.update(itemName, field, value);
+      if (item != null) publish(snapshot().with(item));
+      return item;
+   }//end update
+
+   private void publish(Snapshot next) {
+      current = next;
+   }//end publish
+
+   /**
+    * An immutable, fully indexed view of the menu.
+    */
+   public static final class Snapshot {
+      private final Map<String, MenuItem> byName;
+      private final Map<String, List<MenuItem>> byType;
+      private final MenuItem[] byPrice;
+      private final List<MenuItem> byTypeThenPrice;
+      private final MenuIndex index;
+
+      Snapshot(List<MenuItem> items) {
+         this(items, MenuIndex.of(items));
+      }
+
+      private Snapshot(List<MenuItem> items, MenuIndex index) {
+         this.index = index;
+         Map<String, MenuItem> names = new HashMap<>(items.size() * 2);
+         for (MenuItem item : items) names.put(item.key(), item);
+         this.byName = Collections.unmodifiableMap(names);
+
+         MenuItem[] sorted = names.values().toArray(new MenuItem[0]);
+         Arrays.sort(sorted, BY_PRICE);
+         this.byPrice = sorted;
+
+         List<MenuItem> typed = new ArrayList<>(names.values());
+         typed.sort(BY_TYPE_THEN_PRICE);
+         this.byTypeThenPrice = Collections.unmodifiableList(typed);
+
+         Map<String, List<MenuItem>> types = new LinkedHashMap<>();
+         for (MenuItem item : typed) {
+            types.computeIfAbsent(typeKey(item.typeOfItem()), k -> new ArrayList<>()).add(item);
+         }
+         for (Map.Entry<String, List<MenuItem>> e : types.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+         }
+         this.byType = Collections.unmodifiableMap(types);
+      }
+
+      /**
+       * @return the item with this name ignoring case, or null
+       */
+      public MenuItem find(String itemName) {
+         return byName.get(MenuItem.keyOf(itemName));
+      }//end find
+
+      /**
+       * @return every item ordered by type and then price
+       */
+      public List<MenuItem> all() {
+         return byTypeThenPrice;
+      }//end all
+
+      /**
+       * @return the items of one type (case-insensitive), cheapest first
+       */
+      public List<MenuItem> ofType(String typeOfItem) {
+         List<MenuItem> items = byType.get(typeKey(typeOfItem));
+         return items != null ? items : Collections.emptyList();
+      }//end ofType
+
+      /**
+       * @return the items priced within [min, max], cheapest first
+       */
+      public List<MenuItem> priceBetween(BigDecimal min, BigDecimal max) {
+         int lo = 0, hi = byPrice.length;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byPrice[mid].price().compareTo(min) < 0) lo = mid + 1;
+            else hi = mid;
+         }
+         List<MenuItem> result = new ArrayList<>();
+         for (int i = lo; i < byPrice.length && byPrice[i].price().compareTo(max) <= 0; i++) {
+            result.add(byPrice[i]);
+         }
+         return result;
+      }//end priceBetween
+
+      /**
+       * @param ascending true for cheapest first
+       * @return every item ordered by price
+       */
+      public List<MenuItem> sortedByPrice(boolean ascending) {
+         List<MenuItem> items = Arrays.asList(byPrice.clone());
+         if (!ascending) Collections.reverse(items);
+         return items;
+      }//end sortedByPrice
+
+      /**
+       * Searches the ingredients and descriptions, e.g. include "pepperoni"
+       * and exclude "cheese".  Every include term must match the item's
+       * ingredients or description and no exclude term may match its
+       * ingredients.  Terms are matched word by word ignoring case, and a
+       * word ending in * matches any word that starts with it ("pepp*").
+       *
+       * @return the matching items ordered by type and then price; every
+       *         item when both lists are empty
+       */
+      public List<MenuItem> search(Collection<String> include, Collection<String> exclude) {
+         List<MenuItem> found = index.search(include, exclude);
+         found.sort(BY_TYPE_THEN_PRICE);
+         return found;
+      }//end search
+
+      /**
+       * @return the distinct words of every item's ingredients, in order
+       */
+      public Set<String> ingredientWords() {
+         return index.vocabulary();
+      }//end ingredientWords
+
+      public int size() {
+         return byName.size();
+      }//end size
+
+      Snapshot with(MenuItem item) {
+         Map<String, MenuItem> next = new HashMap<>(byName);
+         next.put(item.key(), item);
+         return new Snapshot(new ArrayList<>(next.values()), index.with(item));
+      }//end with
+
+      Snapshot without(String key) {
+         Map<String, MenuItem> next = new HashMap<>(byName);
+         next.remove(key);
+         return new Snapshot(new ArrayList<>(next.values()), index.without(key));
+      }//end without
+
+      private static String typeKey(String typeOfItem) {
+         return typeOfItem == null ? "" : typeOfItem.trim().toLowerCase(Locale.ROOT);
+      }//end typeKey
+   }//end Snapshot
+
+}//end MenuCatalog
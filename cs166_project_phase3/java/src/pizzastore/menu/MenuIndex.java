@@ -0,0 +1,276 @@
+package pizzastore.menu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An inverted index over the ingredients and descriptions of the menu, kept
+ * in each {@link MenuCatalog.Snapshot}.  Both columns are split into
+ * lower-case words, and each word maps to a bitset with one bit per item
+ * slot, so a search is a few ANDs over int arrays and touches only the
+ * items it returns.
+ *
+ * An item keeps its slot while it is on the menu and a deleted item's slot
+ * is reused.  Like the snapshot the index is never modified: changing an
+ * item copies the postings of the words it gains or loses and shares every
+ * other posting with the previous index.
+ *
+ */
+final class MenuIndex {
+
+   private static final int[] NONE = new int[0];
+
+   private final MenuItem[] slots;
+   private final Map<String, Integer> slotOf;
+   private final int[] live;
+   // word -> slots; ingredients alone, and ingredients with the description
+   private final TreeMap<String, int[]> ingredients;
+   private final TreeMap<String, int[]> text;
+
+   private MenuIndex(MenuItem[] slots, Map<String, Integer> slotOf, int[] live,
+                     TreeMap<String, int[]> ingredients, TreeMap<String, int[]> text) {
+      this.slots = slots;
+      this.slotOf = slotOf;
+      this.live = live;
+      this.ingredients = ingredients;
+      this.text = text;
+   }
+
+   /**
+    * @return the index of these items, in slots 0 to n - 1
+    */
+   static MenuIndex of(Collection<MenuItem> items) {
+      MenuItem[] slots = items.toArray(new MenuItem[0]);
+      Map<String, Integer> slotOf = new HashMap<>(slots.length * 2);
+      Map<String, List<Integer>> ingredientSlots = new HashMap<>();
+      Map<String, List<Integer>> textSlots = new HashMap<>();
+      int[] live = new int[words(slots.length)];
+      for (int slot = 0; slot < slots.length; slot++) {
+         MenuItem item = slots[slot];
+         slotOf.put(item.key(), slot);
+         live[slot >>> 5] |= 1 << slot;
+         for (String word : ingredientWords(item)) ingredientSlots.computeIfAbsent(word, k -> new ArrayList<>()).add(slot);
+         for (String word : textWords(item)) textSlots.computeIfAbsent(word, k -> new ArrayList<>()).add(slot);
+      }
+      return new MenuIndex(slots, slotOf, live, postings(ingredientSlots, slots.length),
+         postings(textSlots, slots.length));
+   }//end of
+
+   /**
+    * @return this index with the item added, or replacing the item of the
+    *         same name; the postings are rewritten only when its
+    *         ingredients or description changed
+    */
+   MenuIndex with(MenuItem item) {
+      Integer existing = slotOf.get(item.key());
+      MenuItem old = existing == null ? null : slots[existing];
+      int slot = existing != null ? existing : free();
+      MenuItem[] nextSlots = Arrays.copyOf(slots, Math.max(slots.length, slot + 1));
+      nextSlots[slot] = item;
+      Map<String, Integer> nextSlotOf = slotOf;
+      int[] nextLive = live;
+      if (existing == null) {
+         nextSlotOf = new HashMap<>(slotOf);
+         nextSlotOf.put(item.key(), slot);
+         nextLive = set(live, slot);
+      }
+      Set<String> oldIngredients = old == null ? new TreeSet<>() : ingredientWords(old);
+      Set<String> oldText = old == null ? new TreeSet<>() : textWords(old);
+      Set<String> newIngredients = ingredientWords(item);
+      Set<String> newText = textWords(item);
+      TreeMap<String, int[]> nextIngredients = oldIngredients.equals(newIngredients)
+         ? ingredients : repost(ingredients, slot, oldIngredients, newIngredients);
+      TreeMap<String, int[]> nextText = oldText.equals(newText)
+         ? text : repost(text, slot, oldText, newText);
+      return new MenuIndex(nextSlots, nextSlotOf, nextLive, nextIngredients, nextText);
+   }//end with
+
+   /**
+    * @return this index without the item of this key, which frees its slot
+    */
+   MenuIndex without(String key) {
+      Integer slot = slotOf.get(key);
+      if (slot == null) return this;
+      MenuItem old = slots[slot];
+      MenuItem[] nextSlots = slots.clone();
+      nextSlots[slot] = null;
+      Map<String, Integer> nextSlotOf = new HashMap<>(slotOf);
+      nextSlotOf.remove(key);
+      Set<String> none = new TreeSet<>();
+      return new MenuIndex(nextSlots, nextSlotOf, clear(live, slot),
+         repost(ingredients, slot, ingredientWords(old), none), repost(text, slot, textWords(old), none));
+   }//end without
+
+   /**
+    * Finds the items whose ingredients or description match every include
+    * term and whose ingredients match no exclude term.  A term matches when
+    * it has all of the term's words; a word ending in * matches every word
+    * that starts with it.  Blank terms are ignored, and with no terms at all
+    * every item matches.
+    *
+    * @return the matching items, in no particular order
+    */
+   List<MenuItem> search(Collection<String> include, Collection<String> exclude) {
+      int[] hits = live;
+      for (String term : include) {
+         int[] matched = matching(text, term);
+         if (matched != null) hits = and(hits, matched);
+      }
+      for (String term : exclude) {
+         int[] matched = matching(ingredients, term);
+         if (matched != null) hits = andNot(hits, matched);
+      }
+      List<MenuItem> found = new ArrayList<>();
+      for (int w = 0; w < hits.length; w++) {
+         for (int bits = hits[w]; bits != 0; bits &= bits - 1) {
+            found.add(slots[(w << 5) + Integer.numberOfTrailingZeros(bits)]);
+         }
+      }
+      return found;
+   }//end search
+
+   /**
+    * @return the distinct ingredient words on the menu, in order
+    */
+   Set<String> vocabulary() {
+      return Collections.unmodifiableSet(ingredients.navigableKeySet());
+   }//end vocabulary
+
+   /**
+    * @return the slots matching every word of the term, or null when the
+    *         term has no words
+    */
+   private static int[] matching(TreeMap<String, int[]> postings, String term) {
+      if (term == null) return null;
+      int[] result = null;
+      for (String word : tokens(term, true)) {
+         int[] slots;
+         if (word.endsWith("*")) {
+            String prefix = word.substring(0, word.length() - 1);
+            slots = NONE;
+            for (int[] p : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+               slots = or(slots, p);
+            }
+         } else {
+            slots = postings.getOrDefault(word, NONE);
+         }
+         result = result == null ? slots : and(result, slots);
+      }
+      return result;
+   }//end matching
+
+   private int free() {
+      for (int slot = 0; slot < slots.length; slot++) if (slots[slot] == null) return slot;
+      return slots.length;
+   }//end free
+
+   /**
+    * @return a copy of the postings with the slot moved from the old words to the new ones
+    */
+   private static TreeMap<String, int[]> repost(TreeMap<String, int[]> postings, int slot,
+                                                Set<String> oldWords, Set<String> newWords) {
+      TreeMap<String, int[]> next = new TreeMap<>(postings);
+      for (String word : oldWords) {
+         if (newWords.contains(word)) continue;
+         int[] bits = clear(next.get(word), slot);
+         if (empty(bits)) next.remove(word);
+         else next.put(word, bits);
+      }
+      for (String word : newWords) {
+         if (!oldWords.contains(word)) next.put(word, set(next.getOrDefault(word, NONE), slot));
+      }
+      return next;
+   }//end repost
+
+   private static TreeMap<String, int[]> postings(Map<String, List<Integer>> wordSlots, int size) {
+      TreeMap<String, int[]> postings = new TreeMap<>();
+      for (Map.Entry<String, List<Integer>> e : wordSlots.entrySet()) {
+         int[] bits = new int[words(size)];
+         for (int slot : e.getValue()) bits[slot >>> 5] |= 1 << slot;
+         postings.put(e.getKey(), bits);
+      }
+      return postings;
+   }//end postings
+
+   private static Set<String> ingredientWords(MenuItem item) {
+      return tokens(item.ingredients(), false);
+   }//end ingredientWords
+
+   private static Set<String> textWords(MenuItem item) {
+      Set<String> words = tokens(item.ingredients(), false);
+      words.addAll(tokens(item.description(), false));
+      return words;
+   }//end textWords
+
+   /**
+    * Splits text into lower-case runs of letters and digits.  In a query a *
+    * right after a word is kept on it to mark a prefix.
+    */
+   static Set<String> tokens(String text, boolean query) {
+      Set<String> words = new TreeSet<>();
+      if (text == null) return words;
+      StringBuilder word = new StringBuilder();
+      for (int i = 0; i <= text.length(); i++) {
+         char c = i < text.length() ? text.charAt(i) : ' ';
+         if (Character.isLetterOrDigit(c)) {
+            word.append(Character.toLowerCase(c));
+            continue;
+         }
+         if (word.length() == 0) continue;
+         if (query && c == '*') word.append('*');
+         words.add(word.toString());
+         word.setLength(0);
+      }
+      return words;
+   }//end tokens
+
+   // ------------------------------------------------------------ bitsets
+
+   private static int words(int bits) {
+      return (bits + 31) >>> 5;
+   }//end words
+
+   private static int[] set(int[] bits, int slot) {
+      int[] next = Arrays.copyOf(bits, Math.max(bits.length, words(slot + 1)));
+      next[slot >>> 5] |= 1 << slot;
+      return next;
+   }//end set
+
+   private static int[] clear(int[] bits, int slot) {
+      int[] next = bits.clone();
+      if ((slot >>> 5) < next.length) next[slot >>> 5] &= ~(1 << slot);
+      return next;
+   }//end clear
+
+   private static int[] and(int[] a, int[] b) {
+      int[] out = new int[Math.min(a.length, b.length)];
+      for (int i = 0; i < out.length; i++) out[i] = a[i] & b[i];
+      return out;
+   }//end and
+
+   private static int[] or(int[] a, int[] b) {
+      int[] out = Arrays.copyOf(a, Math.max(a.length, b.length));
+      for (int i = 0; i < b.length; i++) out[i] |= b[i];
+      return out;
+   }//end or
+
+   private static int[] andNot(int[] a, int[] b) {
+      int[] out = a.clone();
+      for (int i = 0; i < Math.min(a.length, b.length); i++) out[i] &= ~b[i];
+      return out;
+   }//end andNot
+
+   private static boolean empty(int[] bits) {
+      for (int w : bits) if (w != 0) return false;
+      return true;
+   }//end empty
+
+}//end MenuIndex
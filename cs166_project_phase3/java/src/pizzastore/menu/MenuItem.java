@@ -0,0 +1,63 @@
+package pizzastore.menu;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * One immutable row of the Items table.  Text columns are trimmed because
+ * the sample data is loaded with padding after the CSV commas.
+ *
+ */
+public final class MenuItem {
+
+   public static final String COLUMNS = "itemName, ingredients, typeOfItem, price, description";
+
+   private final String itemName;
+   private final String ingredients;
+   private final String typeOfItem;
+   private final BigDecimal price;
+   private final String description;
+
+   public MenuItem(String itemName, String ingredients, String typeOfItem, BigDecimal price, String description) {
+      this.itemName = itemName;
+      this.ingredients = ingredients;
+      this.typeOfItem = typeOfItem;
+      this.price = price;
+      this.description = description;
+   }
+
+   /**
+    * Reads the current row of a result set selected with {@link #COLUMNS}.
+    */
+   public static MenuItem fromRow(ResultSet rs) throws SQLException {
+      return new MenuItem(rs.getString(1), trim(rs.getString(2)), trim(rs.getString(3)),
+         rs.getBigDecimal(4), trim(rs.getString(5)));
+   }//end fromRow
+
+   public String itemName() { return itemName; }
+   public String ingredients() { return ingredients; }
+   public String typeOfItem() { return typeOfItem; }
+   public BigDecimal price() { return price; }
+   public String description() { return description; }
+
+   /**
+    * @return the case-insensitive lookup key of this item's name
+    */
+   public String key() {
+      return keyOf(itemName);
+   }//end key
+
+   /**
+    * @return the case-insensitive lookup key of an item name
+    */
+   public static String keyOf(String name) {
+      return name.trim().toLowerCase(Locale.ROOT);
+   }//end keyOf
+
+   private static String trim(String s) {
+      return s == null ? null : s.trim();
+   }//end trim
+
+}//end MenuItem
@@ -0,0 +1,114 @@
+package pizzastore.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of one logical database call, e.g. "viewOrderInfo.items":
+ * a latency histogram and the rows and errors it produced.  Obtain one
+ * with {@link CallSites#of} and keep it in a constant; timing a call is
+ *
+ * <pre>
+ *   long start = SITE.start();
+ *   ... run the statement ...
+ *   SITE.done(start, rows, sql);          // or SITE.failed(start, sql, e)
+ * </pre>
+ *
+ * Recording is lock-free and safe from any thread.  A call slower than
+ * the {@link SlowQueryLog} threshold is offered to the log with its SQL
+ * text, never its parameters.
+ *
+ */
+public final class CallSite implements CallSiteMBean {
+
+   private final String name;
+   private final LatencyHistogram latency = new LatencyHistogram();
+   private final LongAdder rows = new LongAdder();
+   private final LongAdder errors = new LongAdder();
+   private final LongAdder slow = new LongAdder();
+
+   CallSite(String name) {
+      this.name = name;
+   }
+
+   /**
+    * @return the start stamp to pass to {@link #done} or {@link #failed}
+    */
+   public long start() {
+      return System.nanoTime();
+   }//end start
+
+   /**
+    * Records a call that succeeded.
+    *
+    * @param startNanos the stamp from {@link #start}
+    * @param rowCount the rows returned or affected
+    * @param sql the SQL text with ? placeholders, for the slow-query log
+    */
+   public void done(long startNanos, long rowCount, String sql) {
+      long nanos = latency.recordSince(startNanos);
+      rows.add(rowCount);
+      if (nanos >= SlowQueryLog.get().thresholdNanos()) slow(nanos, rowCount, sql, null);
+   }//end done
+
+   /**
+    * Records a call that failed.
+    *
+    * @param startNanos the stamp from {@link #start}
+    * @param sql the SQL text with ? placeholders, for the slow-query log
+    * @param failure what went wrong
+    */
+   public void failed(long startNanos, String sql, Throwable failure) {
+      long nanos = latency.recordSince(startNanos);
+      errors.increment();
+      if (nanos >= SlowQueryLog.get().thresholdNanos()) slow(nanos, 0, sql, failure);
+   }//end failed
+
+   private void slow(long nanos, long rowCount, String sql, Throwable failure) {
+      slow.increment();
+      SlowQueryLog.get().offer(this, slow.sum(), nanos, rowCount, sql, failure);
+   }//end slow
+
+   /**
+    * @return a point-in-time copy of the latencies
+    */
+   public LatencyHistogram.Snapshot latency() {
+      return latency.snapshot();
+   }//end latency
+
+   /**
+    * @return the calls at or above the slow-query threshold
+    */
+   public long slowCalls() {
+      return slow.sum();
+   }//end slowCalls
+
+   @Override public String getName() { return name; }
+   @Override public long getCalls() { return latency.snapshot().count(); }
+   @Override public long getErrors() { return errors.sum(); }
+   @Override public long getRows() { return rows.sum(); }
+   @Override public double getMeanMillis() { return latency.snapshot().mean() / 1e6; }
+   @Override public double getP50Millis() { return latency.snapshot().percentile(0.50) / 1e6; }
+   @Override public double getP99Millis() { return latency.snapshot().percentile(0.99) / 1e6; }
+   @Override public double getP999Millis() { return latency.snapshot().percentile(0.999) / 1e6; }
+   @Override public double getMaxMillis() { return latency.snapshot().max() / 1e6; }
+
+   @Override
+   public double getTotalSeconds() {
+      LatencyHistogram.Snapshot s = latency.snapshot();
+      return s.mean() * s.count() / 1e9;
+   }//end getTotalSeconds
+
+   @Override
+   public void reset() {
+      latency.reset();
+      rows.reset();
+      errors.reset();
+      slow.reset();
+   }//end reset
+
+   @Override
+   public String toString() {
+      return name + " " + latency.snapshot().summary() + " rows=" + rows.sum() + " errors=" + errors.sum();
+   }//end toString
+
+}//end CallSite
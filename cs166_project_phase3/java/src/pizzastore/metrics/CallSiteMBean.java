@@ -0,0 +1,26 @@
+package pizzastore.metrics;
+
+/**
+ * The JMX view of one {@link CallSite}, registered as
+ * {@code pizzastore:type=CallSite,name=<site>}.
+ *
+ */
+public interface CallSiteMBean {
+
+   String getName();
+   long getCalls();
+   long getErrors();
+   long getRows();
+   double getMeanMillis();
+   double getP50Millis();
+   double getP99Millis();
+   double getP999Millis();
+   double getMaxMillis();
+   double getTotalSeconds();
+
+   /**
+    * Starts the counters over.
+    */
+   void reset();
+
+}//end CallSiteMBean
@@ -0,0 +1,148 @@
+package pizzastore.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Every {@link CallSite} of the process by name.  Sites are created on
+ * first use and, unless {@code -Dpizzastore.jmx=false}, registered with
+ * the platform MBean server together with the {@link SlowQueryLog}, so
+ * jconsole or any JMX client can read them.  {@link #dump} renders them as
+ * text, busiest first, for the manager menu.
+ *
+ * Calls whose code does not name a site are counted under a site named
+ * after the statement, e.g. "sql.select.foodorder".
+ *
+ */
+public final class CallSites {
+
+   /**
+    * At most this many sites are named after their SQL; the rest share "sql.other".
+    */
+   static final int MAX_SQL_SITES = 256;
+
+   /**
+    * At most this many statement texts remember their site; others are named again on each call.
+    */
+   static final int MAX_SQL_TEXTS = 4096;
+
+   private static final boolean JMX = Boolean.parseBoolean(System.getProperty("pizzastore.jmx", "true"));
+   private static final Pattern TABLE = Pattern.compile("(?i)\\b(?:from|into|update)\\s+([a-z_][a-z0-9_.]*)");
+
+   private static final Map<String, CallSite> SITES = new ConcurrentHashMap<>();
+   private static final Map<String, CallSite> BY_SQL = new ConcurrentHashMap<>();
+   // the site names given out by forSql, guarded by itself
+   private static final Set<String> SQL_NAMES = new HashSet<>();
+
+   static {
+      register("pizzastore:type=SlowQueryLog", SlowQueryLog.get());
+   }
+
+   private CallSites() {
+   }
+
+   /**
+    * @param name the logical operation, e.g. "placeOrder.insertItems"
+    * @return the site of that name, created on first use
+    */
+   public static CallSite of(String name) {
+      CallSite site = SITES.get(name);
+      if (site != null) return site;
+      return SITES.computeIfAbsent(name, n -> {
+         CallSite created = new CallSite(n);
+         register("pizzastore:type=CallSite,name=" + ObjectName.quote(n), created);
+         return created;
+      });
+   }//end of
+
+   /**
+    * @return the site untagged calls of this statement are counted under
+    */
+   public static CallSite forSql(String sql) {
+      CallSite site = BY_SQL.get(sql);
+      if (site != null) return site;
+      String name = nameOf(sql);
+      synchronized (SQL_NAMES) {
+         if (!SQL_NAMES.contains(name) && (SQL_NAMES.size() >= MAX_SQL_SITES || !SQL_NAMES.add(name))) {
+            name = "sql.other";
+         }
+      }
+      site = of(name);
+      if (BY_SQL.size() < MAX_SQL_TEXTS) BY_SQL.putIfAbsent(sql, site);
+      return site;
+   }//end forSql
+
+   static String nameOf(String sql) {
+      String text = sql.trim();
+      int space = text.indexOf(' ');
+      String verb = (space < 0 ? text : text.substring(0, space)).replaceAll("\\W", "");
+      Matcher m = TABLE.matcher(text);
+      return "sql." + verb.toLowerCase(Locale.ROOT) + (m.find() ? "." + m.group(1).toLowerCase(Locale.ROOT) : "");
+   }//end nameOf
+
+   /**
+    * @return every site, the most total time first
+    */
+   public static List<CallSite> all() {
+      List<CallSite> sites = new ArrayList<>(SITES.values());
+      sites.sort(Comparator.comparingDouble(CallSite::getTotalSeconds).reversed());
+      return sites;
+   }//end all
+
+   /**
+    * Starts every site over and clears the slow-query log.
+    */
+   public static void reset() {
+      for (CallSite site : SITES.values()) site.reset();
+      SlowQueryLog.get().clear();
+   }//end reset
+
+   /**
+    * @return one line per site that has been called, busiest first, then the
+    *         newest slow-query log entries
+    */
+   public static String dump() {
+      StringBuilder out = new StringBuilder();
+      out.append(String.format("%-32s %9s %6s %10s %9s %9s %9s %9s %9s%n",
+         "call site", "calls", "errors", "rows", "mean ms", "p50 ms", "p99 ms", "max ms", "total s"));
+      for (CallSite site : all()) {
+         LatencyHistogram.Snapshot s = site.latency();
+         if (s.count() == 0) continue;
+         out.append(String.format("%-32s %9d %6d %10d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+            site.getName(), s.count(), site.getErrors(), site.getRows(), s.mean() / 1e6,
+            s.percentile(0.50) / 1e6, s.percentile(0.99) / 1e6, s.max() / 1e6, s.mean() * s.count() / 1e9));
+      }
+      SlowQueryLog log = SlowQueryLog.get();
+      List<String> slow = log.recent();
+      out.append(String.format("%nSlow calls (>= %d ms, 1 in %d logged per site): %d logged%n",
+         log.getThresholdMillis(), log.getSampleEvery(), log.getLogged()));
+      for (String entry : slow) out.append(entry).append(System.lineSeparator());
+      return out.toString();
+   }//end dump
+
+   private static void register(String name, Object bean) {
+      if (!JMX) return;
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName objectName = new ObjectName(name);
+         if (!server.isRegistered(objectName)) server.registerMBean(bean, objectName);
+      } catch (JMException e) {
+         // metrics still work without JMX
+         System.err.println("Cannot register " + name + ": " + e.getMessage());
+      }
+   }//end register
+
+}//end CallSites
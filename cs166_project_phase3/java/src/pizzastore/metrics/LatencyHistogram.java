@@ -0,0 +1,155 @@
+package pizzastore.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock-free latency histogram.  Values (nanoseconds) are recorded into
+ * log-linear buckets: every power of two is split into 16 sub-buckets, so a
+ * reported percentile is never more than ~6% away from the recorded value.
+ * Recording is a single atomic increment and is safe from any thread.
+ *
+ */
+public final class LatencyHistogram {
+
+   private static final int SUB_BITS = 4;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final LongAdder sum = new LongAdder();
+   private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+   /**
+    * Records one observation.
+    *
+    * @param nanos the observed latency in nanoseconds, negatives count as 0
+    */
+   public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      counts.incrementAndGet(indexOf(nanos));
+      sum.add(nanos);
+      max.accumulate(nanos);
+   }//end record
+
+   /**
+    * Records the time elapsed since the given {@link System#nanoTime()} stamp.
+    *
+    * @param startNanos the start stamp
+    * @return the recorded latency in nanoseconds
+    */
+   public long recordSince(long startNanos) {
+      long elapsed = System.nanoTime() - startNanos;
+      record(elapsed);
+      return elapsed;
+   }//end recordSince
+
+   /**
+    * Adds every observation of another histogram to this one, e.g. to
+    * report a total over several call sites.
+    *
+    * @param other the histogram to add; it is not changed
+    */
+   public void merge(LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; i++) {
+         long n = other.counts.get(i);
+         if (n != 0) counts.addAndGet(i, n);
+      }
+      sum.add(other.sum.sum());
+      max.accumulate(other.max.get());
+   }//end merge
+
+   /**
+    * Resets all counters.  Concurrent recordings may be partly kept.
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+      sum.reset();
+      max.reset();
+   }//end reset
+
+   /**
+    * @return a point-in-time copy of this histogram
+    */
+   public Snapshot snapshot() {
+      long[] copy = new long[BUCKETS];
+      long n = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         copy[i] = counts.get(i);
+         n += copy[i];
+      }
+      return new Snapshot(copy, n, sum.sum(), max.get());
+   }//end snapshot
+
+   static int indexOf(long value) {
+      if (value < SUB_COUNT) return (int) value;
+      int exp = 63 - Long.numberOfLeadingZeros(value);
+      int shift = exp - SUB_BITS;
+      int sub = (int) ((value >>> shift) & (SUB_COUNT - 1));
+      return (shift + 1) * SUB_COUNT + sub;
+   }//end indexOf
+
+   static long lowerBound(int index) {
+      if (index < SUB_COUNT) return index;
+      int shift = index / SUB_COUNT - 1;
+      int sub = index % SUB_COUNT;
+      return ((long) (SUB_COUNT + sub)) << shift;
+   }//end lowerBound
+
+   static long upperBound(int index) {
+      if (index < SUB_COUNT) return index;
+      int shift = index / SUB_COUNT - 1;
+      return lowerBound(index) + (1L << shift) - 1;
+   }//end upperBound
+
+   /**
+    * An immutable copy of a histogram used for reporting.
+    */
+   public static final class Snapshot {
+      private final long[] counts;
+      private final long count;
+      private final long sum;
+      private final long max;
+
+      Snapshot(long[] counts, long count, long sum, long max) {
+         this.counts = counts;
+         this.count = count;
+         this.sum = sum;
+         this.max = max;
+      }
+
+      public long count() { return count; }
+      public long max() { return max; }
+      public double mean() { return count == 0 ? 0.0 : (double) sum / count; }
+
+      /**
+       * @param quantile a value in [0, 1], e.g. 0.99 for p99
+       * @return the approximate latency in nanoseconds at that quantile
+       */
+      public long percentile(double quantile) {
+         if (count == 0) return 0;
+         long rank = (long) Math.ceil(quantile * count);
+         if (rank < 1) rank = 1;
+         long seen = 0;
+         for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBound(i), max);
+         }
+         return max;
+      }//end percentile
+
+      /**
+       * @return a one-line summary in milliseconds
+       */
+      public String summary() {
+         return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+            count, mean() / 1e6, percentile(0.50) / 1e6, percentile(0.99) / 1e6,
+            percentile(0.999) / 1e6, max / 1e6);
+      }//end summary
+
+      @Override
+      public String toString() { return summary(); }
+   }//end Snapshot
+
+}//end LatencyHistogram
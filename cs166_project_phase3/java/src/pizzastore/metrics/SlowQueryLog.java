@@ -0,0 +1,136 @@
+package pizzastore.metrics;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The database calls that took at least the threshold.  Each call site
+ * logs its first slow call and then one in every sampleEvery, so a hot
+ * slow statement cannot flood the log.  An entry holds the call site, the
+ * time, the rows and the SQL text with its ? placeholders; parameter values
+ * (passwords among them) are never logged.  A failed call logs its
+ * SQLState and the first line of the error, never the server's DETAIL,
+ * which can quote the row that was being written.
+ *
+ * The newest entries are kept in memory for the manager's dump and JMX
+ * ({@code pizzastore:type=SlowQueryLog}); with
+ * {@code pizzastore.slowQuery.file} set they are also appended to that file.
+ *
+ */
+public final class SlowQueryLog implements SlowQueryLogMBean {
+
+   /**
+    * Entries kept in memory.
+    */
+   static final int KEEP = 64;
+
+   private static final SlowQueryLog INSTANCE = new SlowQueryLog(
+      Long.getLong("pizzastore.slowQuery.thresholdMs", 100),
+      Integer.getInteger("pizzastore.slowQuery.sampleEvery", 1),
+      System.getProperty("pizzastore.slowQuery.file"));
+
+   private volatile long thresholdNanos;
+   private volatile int sampleEvery;
+   private final String file;
+   private final Deque<String> recent = new ArrayDeque<>(KEEP);
+   private final LongAdder logged = new LongAdder();
+
+   private SlowQueryLog(long thresholdMillis, int sampleEvery, String file) {
+      setThresholdMillis(thresholdMillis);
+      setSampleEvery(sampleEvery);
+      this.file = file;
+   }
+
+   /**
+    * @return the log every call site writes to, configured from
+    *         {@code pizzastore.slowQuery.thresholdMs} (100),
+    *         {@code .sampleEvery} (1) and {@code .file} (none)
+    */
+   public static SlowQueryLog get() {
+      return INSTANCE;
+   }//end get
+
+   long thresholdNanos() {
+      return thresholdNanos;
+   }//end thresholdNanos
+
+   /**
+    * @param ordinal the number of slow calls the site has had, this one included
+    */
+   void offer(CallSite site, long ordinal, long nanos, long rows, String sql, Throwable failure) {
+      if ((ordinal - 1) % sampleEvery != 0) return;
+      String entry = String.format("%s %s %.3fms rows=%d%s sql=%s", Instant.now(), site.getName(), nanos / 1e6,
+         rows, failure == null ? "" : " failed=\"" + describe(failure) + "\"", oneLine(sql));
+      logged.increment();
+      synchronized (recent) {
+         if (recent.size() == KEEP) recent.removeFirst();
+         recent.addLast(entry);
+         if (file != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+               out.println(entry);
+            } catch (IOException e) {
+               System.err.println("Cannot write the slow-query log: " + e.getMessage());
+            }
+         }
+      }
+   }//end offer
+
+   /**
+    * @return the SQLState, when there is one, and the first line of the
+    *         message; the Detail, Hint and Where lines follow on later lines
+    */
+   static String describe(Throwable failure) {
+      String message = String.valueOf(failure.getMessage());
+      int eol = message.indexOf('\n');
+      if (eol >= 0) message = message.substring(0, eol);
+      String state = failure instanceof SQLException ? ((SQLException) failure).getSQLState() : null;
+      return (state == null ? failure.getClass().getSimpleName() : state) + " " + message.trim();
+   }//end describe
+
+   private static String oneLine(String sql) {
+      return sql == null ? "" : sql.replaceAll("\\s+", " ").trim();
+   }//end oneLine
+
+   /**
+    * @return the newest entries, oldest first
+    */
+   public List<String> recent() {
+      synchronized (recent) {
+         return new ArrayList<>(recent);
+      }
+   }//end recent
+
+   @Override public long getThresholdMillis() { return thresholdNanos / 1_000_000; }
+   @Override public int getSampleEvery() { return sampleEvery; }
+   @Override public long getLogged() { return logged.sum(); }
+   @Override public String[] getRecent() { return recent().toArray(new String[0]); }
+
+   @Override
+   public void setThresholdMillis(long millis) {
+      if (millis < 0) throw new IllegalArgumentException("threshold must not be negative: " + millis);
+      thresholdNanos = millis * 1_000_000;
+   }//end setThresholdMillis
+
+   @Override
+   public void setSampleEvery(int n) {
+      if (n < 1) throw new IllegalArgumentException("sampleEvery must be positive: " + n);
+      sampleEvery = n;
+   }//end setSampleEvery
+
+   @Override
+   public void clear() {
+      synchronized (recent) {
+         recent.clear();
+      }
+      logged.reset();
+   }//end clear
+
+}//end SlowQueryLog
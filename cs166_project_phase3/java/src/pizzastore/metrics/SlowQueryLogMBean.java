@@ -0,0 +1,23 @@
+package pizzastore.metrics;
+
+/**
+ * The JMX view of the {@link SlowQueryLog}, registered as
+ * {@code pizzastore:type=SlowQueryLog}.  The threshold and the sampling
+ * can be changed at run time.
+ *
+ */
+public interface SlowQueryLogMBean {
+
+   long getThresholdMillis();
+   void setThresholdMillis(long millis);
+   int getSampleEvery();
+   void setSampleEvery(int n);
+   long getLogged();
+   String[] getRecent();
+
+   /**
+    * Forgets the entries kept in memory.
+    */
+   void clear();
+
+}//end SlowQueryLogMBean
@@ -0,0 +1,28 @@
+package pizzastore.order;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A FoodOrder row together with its ItemsInOrder lines.
+ *
+ */
+public final class OrderDetails {
+
+   private final OrderRow order;
+   private final Map<String, Integer> items;
+
+   public OrderDetails(OrderRow order, Map<String, Integer> items) {
+      this.order = order;
+      this.items = Collections.unmodifiableMap(new LinkedHashMap<>(items));
+   }
+
+   public OrderRow order() { return order; }
+
+   /**
+    * @return item name mapped to quantity, in the order the rows were read
+    */
+   public Map<String, Integer> items() { return items; }
+
+}//end OrderDetails
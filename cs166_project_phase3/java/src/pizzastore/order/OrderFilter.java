@@ -0,0 +1,127 @@
+package pizzastore.order;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Optional restrictions for an order listing.  Unset fields do not filter.
+ * The time range is half-open: from inclusive, until exclusive.
+ *
+ */
+public final class OrderFilter {
+
+   /**
+    * The statuses of orders in progress, which FoodOrder keeps in its
+    * foodorder_active partition (sql/migrations/V5).  A predicate naming
+    * them reads that partition alone.
+    */
+   static final String ACTIVE = "orderStatus IN ('Order Received', 'Preparing', 'Out for Delivery')";
+
+   private static final Set<String> IN_PROGRESS =
+      new HashSet<>(Arrays.asList("Order Received", "Preparing", "Out for Delivery"));
+
+   String login = null;
+   Integer storeID = null;
+   String status = null;
+   Timestamp from = null;
+   Timestamp until = null;
+   boolean active = false;
+
+   public OrderFilter login(String login) { this.login = login; return this; }
+   public OrderFilter storeID(Integer storeID) { this.storeID = storeID; return this; }
+   public OrderFilter status(String status) { this.status = status; return this; }
+   public OrderFilter from(Timestamp from) { this.from = from; return this; }
+   public OrderFilter until(Timestamp until) { this.until = until; return this; }
+   /** @param active true for orders in progress only */
+   public OrderFilter active(boolean active) { this.active = active; return this; }
+
+   /**
+    * Appends one "AND ..." predicate per set field to the SQL and the
+    * matching values to the parameter list.  The SQL text only depends on
+    * which fields are set, so each combination is one cached statement.
+    */
+   public void appendTo(StringBuilder sql, List<Object> params) {
+      if (login != null) {
+         sql.append(" AND login = ?");
+         params.add(login);
+      }
+      if (storeID != null) {
+         sql.append(" AND storeID = ?");
+         params.add(storeID);
+      }
+      if (status != null) {
+         sql.append(" AND orderStatus = CAST(? AS char(50))");
+         params.add(status);
+      }
+      if (active) sql.append(" AND ").append(ACTIVE);
+      if (from != null) {
+         sql.append(" AND orderTimestamp >= ?");
+         params.add(from);
+      }
+      if (until != null) {
+         sql.append(" AND orderTimestamp < ?");
+         params.add(until);
+      }
+   }//end appendTo
+
+   /**
+    * The same restrictions as {@link #appendTo}, tested on a row in memory.
+    */
+   public boolean matches(OrderRow row) {
+      if (login != null && (row.login() == null || !row.login().trim().equals(login))) return false;
+      if (storeID != null && row.storeID() != storeID) return false;
+      if (status != null && !status.trim().equals(row.orderStatus())) return false;
+      if (active && !inProgress(row.orderStatus())) return false;
+      if (from != null && row.orderTimestamp().before(from)) return false;
+      return until == null || row.orderTimestamp().before(until);
+   }//end matches
+
+   /**
+    * @return true for the statuses of {@link #ACTIVE}
+    */
+   public static boolean inProgress(String status) {
+      return status != null && IN_PROGRESS.contains(status.trim());
+   }//end inProgress
+
+   /** @return the login restriction, or null */
+   public String login() { return login; }
+   /** @return the store restriction, or null */
+   public Integer storeID() { return storeID; }
+   /** @return the inclusive start of the time range, or null */
+   public Timestamp from() { return from; }
+   /** @return the exclusive end of the time range, or null */
+   public Timestamp until() { return until; }
+   /** @return true when only orders in progress are listed */
+   public boolean active() { return active; }
+
+   /**
+    * @return a copy that can be changed without affecting this filter
+    */
+   public OrderFilter copy() {
+      OrderFilter f = new OrderFilter();
+      f.login = login;
+      f.storeID = storeID;
+      f.status = status;
+      f.from = from;
+      f.until = until;
+      f.active = active;
+      return f;
+   }//end copy
+
+   @Override
+   public String toString() {
+      List<String> parts = new ArrayList<>();
+      if (login != null) parts.add("login=" + login);
+      if (storeID != null) parts.add("store=" + storeID);
+      if (status != null) parts.add("status=" + status);
+      if (from != null) parts.add("from=" + from);
+      if (until != null) parts.add("until=" + until);
+      if (active) parts.add("in progress");
+      return parts.isEmpty() ? "all orders" : String.join(", ", parts);
+   }//end toString
+
+}//end OrderFilter
@@ -0,0 +1,202 @@
+package pizzastore.order;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+
+/**
+ * Finds single orders by orderID in the partitioned FoodOrder of
+ * migration V5, whose partitions are keyed by status and month rather than
+ * by orderID.  An order in progress is one index probe in the active
+ * partition.  A finished one is looked for only in the months whose
+ * orderID range (the order_months table, kept by the partition maintenance)
+ * covers it, which is usually one month; both probes go in one statement.
+ * An order the ranges do not place is looked for everywhere, and the
+ * ranges are read again on the next lookup.
+ *
+ * Order items carry their order's timestamp, so they are read from the
+ * one month that holds them.
+ *
+ * Lookups go to a replica that has the reader's own writes when the
+ * database has replicas; the lookup behind a status update stays on the
+ * primary.
+ *
+ */
+public final class OrderLookup {
+
+   static final String FIND_ACTIVE =
+      "SELECT " + OrderRow.COLUMNS + " FROM FoodOrder WHERE orderID = ? AND " + OrderFilter.ACTIVE + ";";
+
+   // the active partition first; the second branch runs only when the first found nothing
+   static final String FIND_BETWEEN =
+      "(SELECT " + OrderRow.COLUMNS + " FROM FoodOrder WHERE orderID = ? AND " + OrderFilter.ACTIVE + ") " +
+      "UNION ALL " +
+      "(SELECT " + OrderRow.COLUMNS + " FROM FoodOrder WHERE orderID = ? " +
+      "AND orderTimestamp >= ? AND orderTimestamp < ?) LIMIT 1;";
+
+   static final String FIND_SINCE =
+      "(SELECT " + OrderRow.COLUMNS + " FROM FoodOrder WHERE orderID = ? AND " + OrderFilter.ACTIVE + ") " +
+      "UNION ALL " +
+      "(SELECT " + OrderRow.COLUMNS + " FROM FoodOrder WHERE orderID = ? AND orderTimestamp >= ?) LIMIT 1;";
+
+   static final String FIND_ANYWHERE =
+      "SELECT " + OrderRow.COLUMNS + " FROM FoodOrder WHERE orderID = ?;";
+
+   static final String ITEMS =
+      "SELECT itemName, quantity FROM ItemsInOrder WHERE orderID = ? AND orderTimestamp = ?;";
+
+   static final String UPDATE_ACTIVE =
+      "UPDATE FoodOrder SET orderStatus = ? WHERE orderID = ? AND " + OrderFilter.ACTIVE +
+      " RETURNING COALESCE(login, '');";
+
+   static final String UPDATE_AT =
+      "UPDATE FoodOrder SET orderStatus = ? WHERE orderID = ? AND orderTimestamp = ? " +
+      "RETURNING COALESCE(login, '');";
+
+   static final String MONTHS =
+      "SELECT month, min_order, max_order FROM order_months " +
+      "WHERE NOT archived AND min_order IS NOT NULL ORDER BY month;";
+
+   /**
+    * How long the month ranges are trusted before they are read again.
+    */
+   static final long REFRESH_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(Long.getLong("pizzastore.orderMonths.refreshMs", 5 * 60 * 1000L));
+
+   /**
+    * The orderID range of one history month.
+    */
+   private static final class Month {
+      final LocalDateTime start;
+      final int minOrder;
+      final int maxOrder;
+
+      Month(LocalDateTime start, int minOrder, int maxOrder) {
+         this.start = start;
+         this.minOrder = minOrder;
+         this.maxOrder = maxOrder;
+      }
+   }//end Month
+
+   private static final CallSite ITEMS_SITE = CallSites.of("viewOrderInfo.items");
+
+   private final Database find;
+   private final Database findAnywhere;
+   private final Database update;
+   private final Database updateAt;
+   private final Database loadMonths;
+   private volatile List<Month> months;
+   private volatile long loadedNanos;
+
+   public OrderLookup(Database db) {
+      this.find = db.at("viewOrderInfo.find");
+      this.findAnywhere = db.at("viewOrderInfo.findAnywhere");
+      this.update = db.at("updateOrderStatus.active");
+      this.updateAt = db.at("updateOrderStatus.byMonth");
+      this.loadMonths = db.at("orderMonths.load");
+   }
+
+   /**
+    * @param reader the login reading, whose own writes the answer includes
+    * @return the order, or null when there is none with this orderID
+    */
+   public OrderRow find(int orderID, String reader) throws SQLException {
+      return find(orderID, find.readingAs(reader), findAnywhere.readingAs(reader));
+   }//end find
+
+   private OrderRow find(int orderID, Database near, Database anywhere) throws SQLException {
+      List<Month> known = months();
+      LocalDateTime from = null;
+      LocalDateTime until = null;
+      Month newest = null;
+      for (Month m : known) {
+         if (newest == null || m.maxOrder > newest.maxOrder) newest = m;
+         if (orderID < m.minOrder || orderID > m.maxOrder) continue;
+         if (from == null) from = m.start;
+         until = m.start.plusMonths(1);
+      }
+      OrderRow order;
+      if (from != null) {
+         order = near.queryOne(FIND_BETWEEN, OrderRow::fromRow, orderID, orderID,
+            Timestamp.valueOf(from), Timestamp.valueOf(until));
+      } else if (newest != null && orderID > newest.maxOrder) {
+         // finished after the ranges were last refreshed
+         order = near.queryOne(FIND_SINCE, OrderRow::fromRow, orderID, orderID, Timestamp.valueOf(newest.start));
+      } else {
+         order = near.queryOne(FIND_ACTIVE, OrderRow::fromRow, orderID);
+      }
+      if (order != null) return order;
+      order = anywhere.queryOne(FIND_ANYWHERE, OrderRow::fromRow, orderID);
+      if (order != null) months = null;
+      return order;
+   }//end find
+
+   /**
+    * @param reader the login reading, whose own writes the answer includes
+    * @return the items of the order and their quantities, in no particular order
+    */
+   public Map<String, Integer> items(OrderRow order, String reader) throws SQLException {
+      Map<String, Integer> items = new LinkedHashMap<>();
+      long start = ITEMS_SITE.start();
+      try (PooledConnection conn = find.readingAs(reader).borrow();
+           ResultSet rs = conn.prepare(ITEMS, order.orderID(), order.orderTimestamp()).executeQuery()) {
+         while (rs.next()) items.put(rs.getString(1), rs.getInt(2));
+      } catch (SQLException | RuntimeException e) {
+         ITEMS_SITE.failed(start, ITEMS, e);
+         throw e;
+      }
+      ITEMS_SITE.done(start, items.size(), ITEMS);
+      return items;
+   }//end items
+
+   /**
+    * Sets the status of an order.  An order in progress is updated through
+    * the active partition; a finished one is found first and updated in its
+    * month.
+    *
+    * @param writer the login making the change; the order's own login is
+    *        recorded as a writer too
+    * @return the order's login ("" for none), or null when the order does not exist
+    */
+   public String updateStatus(int orderID, String status, String writer) throws SQLException {
+      String login = update.writingAs(writer).queryOne(UPDATE_ACTIVE, rs -> rs.getString(1), status, orderID);
+      if (login == null) {
+         OrderRow order = find(orderID, find, findAnywhere);
+         if (order == null) return null;
+         login = updateAt.writingAs(writer).queryOne(UPDATE_AT, rs -> rs.getString(1), status, orderID,
+            order.orderTimestamp());
+         if (login == null) return null;
+      }
+      update.wrote(login);
+      return login;
+   }//end updateStatus
+
+   /**
+    * Marks the month ranges stale, e.g. after a maintenance pass.
+    */
+   public void invalidate() {
+      months = null;
+   }//end invalidate
+
+   private List<Month> months() throws SQLException {
+      List<Month> known = months;
+      if (known != null && System.nanoTime() - loadedNanos < REFRESH_NANOS) return known;
+      known = new ArrayList<>(loadMonths.query(MONTHS, rs ->
+         new Month(rs.getTimestamp(1).toLocalDateTime(), rs.getInt(2), rs.getInt(3))));
+      loadedNanos = System.nanoTime();
+      months = known;
+      return known;
+   }//end months
+
+}//end OrderLookup
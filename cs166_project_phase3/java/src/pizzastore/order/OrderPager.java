@@ -0,0 +1,110 @@
+package pizzastore.order;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+
+import pizzastore.storage.OrderRepository;
+
+/**
+ * Pages through FoodOrder newest first using keyset pagination: every page
+ * seeks below the (orderTimestamp, orderID) of the last row seen instead of
+ * skipping rows, so page N costs the same as page 1.  Each page is one
+ * {@link OrderRepository#page} call that asks for one row more than the
+ * page holds, which tells whether another page exists.  The position is
+ * all the state there is, so a listing can be resumed from its
+ * {@link #cursor()} by another pager, e.g. for a stateless HTTP client.
+ *
+ */
+public final class OrderPager {
+
+   /**
+    * Page size used by the terminal listings, from -Dpizzastore.pageSize.
+    */
+   public static final int DEFAULT_PAGE_SIZE = Integer.getInteger("pizzastore.pageSize", 20);
+
+   private final OrderRepository orders;
+   private final OrderFilter filter;
+   private final String reader;
+   private final int pageSize;
+   private Timestamp lastTime = null;
+   private Integer lastSeen = null;
+   private boolean exhausted = false;
+
+   /**
+    * @param orders the FoodOrder table each page is read from
+    * @param filter restrictions applied to every page
+    * @param pageSize the maximum number of rows per page
+    */
+   public OrderPager(OrderRepository orders, OrderFilter filter, int pageSize) {
+      this(orders, filter, null, pageSize, null);
+   }
+
+   /**
+    * Resumes a listing from a cursor handed out earlier, e.g. by a stateless
+    * HTTP client that only kept the last {@link #cursor()} it saw.
+    *
+    * @param reader the login the pages are read for, whose own writes they include
+    * @param startBelow the first page holds orders older than this cursor; null for the newest
+    * @throws IllegalArgumentException when the cursor was not made by {@link #cursor()}
+    */
+   public OrderPager(OrderRepository orders, OrderFilter filter, String reader, int pageSize, String startBelow) {
+      if (pageSize < 1) throw new IllegalArgumentException("page size must be positive: " + pageSize);
+      this.orders = orders;
+      this.filter = filter.copy();
+      this.reader = reader;
+      this.pageSize = pageSize;
+      if (startBelow != null) {
+         int split = startBelow.indexOf('_');
+         try {
+            if (split < 0) throw new NumberFormatException();
+            long micros = Long.parseLong(startBelow.substring(0, split));
+            this.lastTime = new Timestamp(Math.floorDiv(micros, 1_000_000L) * 1000);
+            this.lastTime.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+            this.lastSeen = Integer.valueOf(startBelow.substring(split + 1));
+         } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not an order cursor: " + startBelow);
+         }
+      }
+   }
+
+   /**
+    * @return false once a page came back short, i.e. there are no older orders
+    */
+   public boolean hasMore() {
+      return !exhausted;
+   }//end hasMore
+
+   /**
+    * @return where the next page starts, for a later {@link #OrderPager(OrderRepository, OrderFilter, String, int, String)};
+    *         null before the first page
+    */
+   public String cursor() {
+      if (lastSeen == null) return null;
+      long micros = Math.floorDiv(lastTime.getTime(), 1000L) * 1_000_000L + lastTime.getNanos() / 1000;
+      return micros + "_" + lastSeen;
+   }//end cursor
+
+   /**
+    * Streams the next page of orders to the sink.
+    *
+    * @param sink receives each row in descending orderID order
+    * @return the number of rows delivered
+    * @throws java.sql.SQLException when the page cannot be read
+    */
+   public int nextPage(Consumer<OrderRow> sink) throws SQLException {
+      if (exhausted) return 0;
+      int[] delivered = {0};
+      int read = orders.page(filter, reader, lastTime, lastSeen, pageSize + 1, row -> {
+         // the extra row only tells us that another page exists
+         if (delivered[0] == pageSize) return;
+         lastTime = row.orderTimestamp();
+         lastSeen = row.orderID();
+         sink.accept(row);
+         delivered[0]++;
+      });
+      if (read <= pageSize) exhausted = true;
+      return delivered[0];
+   }//end nextPage
+
+}//end OrderPager
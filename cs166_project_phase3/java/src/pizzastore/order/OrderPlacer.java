@@ -0,0 +1,285 @@
+package pizzastore.order;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+import pizzastore.db.PooledConnection;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.menu.MenuItem;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+
+/**
+ * Places an order as a single transaction: every line is priced from the
+ * in-memory menu, one INSERT creates the FoodOrder, one multi-row INSERT
+ * writes all ItemsInOrder rows, then a single commit.
+ * A failure at any point rolls the whole order back, so there is never a
+ * FoodOrder without its items.
+ *
+ * A reorder, of an earlier order or of the customer's favorite items, is
+ * one statement: its lines are read and priced at the current Items.price
+ * inside the database, and the FoodOrder row and an INSERT ... SELECT of
+ * the lines are written by data-modifying CTEs of the same statement, so
+ * the whole order is one round trip and one transaction.
+ *
+ */
+public final class OrderPlacer {
+
+   static final String INSERT_ORDER =
+      "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+      "VALUES (NEXTVAL('foodorder_orderid_seq'), ?, ?, ?, NOW(), 'Order Received') RETURNING " + OrderRow.COLUMNS + ";";
+
+   // NOW() is the transaction start, the same orderTimestamp the order got
+   static final String INSERT_ITEMS =
+      "INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp) " +
+      "SELECT ?, t.itemName, t.quantity, NOW() FROM unnest(?::varchar[], ?::integer[]) AS t(itemName, quantity);";
+
+   // what a reorder writes once the CTE "lines" holds (itemName, quantity, price)
+   private static final String PLACE_LINES =
+      "placed AS (" +
+      "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+      "SELECT NEXTVAL('foodorder_orderid_seq'), ?, ?, SUM(price * quantity), NOW(), 'Order Received' " +
+      "FROM lines HAVING COUNT(*) > 0 RETURNING " + OrderRow.COLUMNS + "), " +
+      "copied AS (" +
+      "INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp) " +
+      "SELECT placed.orderID, lines.itemName, lines.quantity, placed.orderTimestamp FROM placed, lines) ";
+
+   // one row even when nothing is placed, for the names that did not match
+   private static final String PLACED =
+      " FROM (SELECT 1) AS one LEFT JOIN placed ON TRUE;";
+
+   static final String REORDER =
+      "WITH lines AS (" +
+      "SELECT i.itemName, o.quantity, i.price FROM ItemsInOrder o JOIN Items i ON i.itemName = o.itemName " +
+      "WHERE o.orderID = ? AND o.orderTimestamp = ?), " + PLACE_LINES +
+      "SELECT placed.*, ARRAY[]::text[] AS unknown" + PLACED;
+
+   // favoriteItems is free text: comma-separated names, one of each, matched ignoring case
+   static final String REORDER_FAVORITES =
+      "WITH wanted AS (" +
+      "SELECT LOWER(TRIM(f)) AS key, MIN(TRIM(f)) AS typed, COUNT(*)::integer AS quantity " +
+      "FROM Users u, unnest(string_to_array(u.favoriteItems, ',')) AS f " +
+      "WHERE u.login = ? AND TRIM(f) <> '' GROUP BY 1), " +
+      "lines AS (" +
+      "SELECT i.itemName, w.quantity, i.price FROM wanted w JOIN Items i ON LOWER(i.itemName) = w.key), " +
+      PLACE_LINES +
+      "SELECT placed.*, ARRAY(SELECT w.typed FROM wanted w " +
+      "WHERE NOT EXISTS (SELECT 1 FROM lines l WHERE LOWER(l.itemName) = w.key) ORDER BY w.typed) AS unknown" + PLACED;
+
+   private static final CallSite REORDER_SITE = CallSites.of("reorder.order");
+   private static final CallSite REORDER_FAVORITES_SITE = CallSites.of("reorder.favorites");
+   private static final CallSite INSERT_ORDER_SITE = CallSites.of("placeOrder.insertOrder");
+   private static final CallSite INSERT_ITEMS_SITE = CallSites.of("placeOrder.insertItems");
+   private static final CallSite COMMIT_SITE = CallSites.of("placeOrder.commit");
+
+   private OrderPlacer() {
+   }
+
+   /**
+    * Places an order on the given connection.  Item names are matched
+    * case-insensitively and repeated names are merged into one line.
+    * Names that are not on the menu are skipped and reported on the receipt;
+    * when no name matches nothing is written.
+    *
+    * @param conn a borrowed connection in autocommit mode
+    * @param menu the menu snapshot used to resolve names and prices
+    * @param login the customer placing the order
+    * @param storeID the store the order is placed at
+    * @param lines item name as typed mapped to quantity
+    * @return the receipt with the new orderID and phase timings
+    * @throws java.sql.SQLException when any statement fails; the order is rolled back
+    */
+   public static OrderReceipt place(PooledConnection conn, MenuCatalog.Snapshot menu, String login,
+                                    int storeID, Map<String, Integer> lines) throws SQLException {
+      long start = System.nanoTime();
+      Priced priced = price(menu, lines);
+      return write(conn, priced, login, storeID, System.nanoTime() - start);
+   }//end place
+
+   /**
+    * Writes an order priced earlier in its own transaction.
+    *
+    * @param conn a borrowed connection in autocommit mode
+    * @param priced the lines as resolved by {@link #price}
+    * @param resolveNanos the time spent pricing, reported on the receipt
+    * @return the receipt; nothing is written when no line matched the menu
+    * @throws java.sql.SQLException when any statement fails; the order is rolled back
+    */
+   public static OrderReceipt write(PooledConnection conn, Priced priced, String login, int storeID,
+                                    long resolveNanos) throws SQLException {
+      long resolved = System.nanoTime();
+      List<String> itemNames = priced.itemNames;
+      List<Integer> itemQuantities = priced.quantities;
+      List<String> unknown = priced.unknown;
+      BigDecimal total = priced.total;
+
+      if (itemNames.isEmpty()) {
+         return new OrderReceipt(null, BigDecimal.ZERO, unknown, resolveNanos, 0, 0);
+      }
+
+      conn.connection().setAutoCommit(false);
+      // the statement running now, for the call-site counters
+      CallSite site = INSERT_ORDER_SITE;
+      String sql = INSERT_ORDER;
+      long start = site.start();
+      try {
+         OrderRow order;
+         PreparedStatement insertOrder = conn.prepare(INSERT_ORDER, login, storeID, total);
+         try (ResultSet rs = insertOrder.executeQuery()) {
+            rs.next();
+            order = OrderRow.fromRow(rs);
+         }
+         site.done(start, 1, sql);
+         site = INSERT_ITEMS_SITE;
+         sql = INSERT_ITEMS;
+         start = site.start();
+         int written = conn.prepare(INSERT_ITEMS, order.orderID(), itemNames.toArray(new String[0]),
+            itemQuantities.toArray(new Integer[0])).executeUpdate();
+         site.done(start, written, sql);
+         long inserted = System.nanoTime();
+
+         site = COMMIT_SITE;
+         sql = "COMMIT;";
+         start = site.start();
+         conn.connection().commit();
+         site.done(start, 0, sql);
+         long committed = System.nanoTime();
+         return new OrderReceipt(order, total, unknown,
+            resolveNanos, inserted - resolved, committed - inserted);
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, sql, e);
+         try {
+            conn.connection().rollback();
+         } catch (SQLException rollbackFailure) {
+            e.addSuppressed(rollbackFailure);
+         }
+         throw e;
+      } finally {
+         conn.connection().setAutoCommit(true);
+      }
+   }//end write
+
+   /**
+    * Places a copy of an earlier order, repriced at the current menu
+    * prices, in one statement.
+    *
+    * @param conn a borrowed connection in autocommit mode
+    * @param from the order copied, as read through {@link OrderLookup#find}
+    * @return the receipt; nothing is placed when the order has no items
+    * @throws java.sql.SQLException when the statement fails; nothing is written
+    */
+   public static OrderReceipt reorder(PooledConnection conn, OrderRow from, String login, int storeID)
+         throws SQLException {
+      return reorder(conn, REORDER_SITE, REORDER, from.orderID(), from.orderTimestamp(), login, storeID);
+   }//end reorder
+
+   /**
+    * Places one of each of the customer's favorite items in one statement.
+    *
+    * @param conn a borrowed connection in autocommit mode
+    * @return the receipt, whose unknown items are the favorites not on the
+    *         menu; nothing is placed when none is
+    * @throws java.sql.SQLException when the statement fails; nothing is written
+    */
+   public static OrderReceipt reorderFavorites(PooledConnection conn, String login, int storeID)
+         throws SQLException {
+      return reorder(conn, REORDER_FAVORITES_SITE, REORDER_FAVORITES, login, login, storeID);
+   }//end reorderFavorites
+
+   private static OrderReceipt reorder(PooledConnection conn, CallSite site, String sql, Object... params)
+         throws SQLException {
+      long start = site.start();
+      try (ResultSet rs = conn.prepare(sql, params).executeQuery()) {
+         rs.next();
+         OrderRow order = rs.getObject(1) == null ? null : OrderRow.fromRow(rs);
+         List<String> unknown = Arrays.asList((String[]) rs.getArray("unknown").getArray());
+         long elapsed = System.nanoTime() - start;
+         site.done(start, order == null ? 0 : 1, sql);
+         return new OrderReceipt(order, order == null ? BigDecimal.ZERO : order.totalPrice(), unknown, 0, elapsed, 0);
+      } catch (SQLException | RuntimeException e) {
+         site.failed(start, sql, e);
+         throw e;
+      }
+   }//end reorder
+
+   /**
+    * Resolves and prices the lines of an order against the menu without
+    * touching the database.  Names are matched case-insensitively and
+    * lines that only differ by case are merged.
+    *
+    * @param menu the menu snapshot used to resolve names and prices
+    * @param lines item name as typed mapped to quantity
+    * @return the matched lines, the names that did not match and the total
+    */
+   public static Priced price(MenuCatalog.Snapshot menu, Map<String, Integer> lines) {
+      return price(menu::find, lines);
+   }//end price
+
+   /**
+    * Prices lines against any name lookup, e.g. a storage engine's own
+    * Items table.
+    *
+    * @param menu finds an item by name in any case, or returns null
+    * @see #price(MenuCatalog.Snapshot, Map)
+    */
+   public static Priced price(Function<String, MenuItem> menu, Map<String, Integer> lines) {
+      // merge lines that only differ by case, keeping the first spelling for messages
+      Map<String, Integer> quantities = new LinkedHashMap<>();
+      Map<String, String> typedNames = new HashMap<>();
+      for (Map.Entry<String, Integer> line : lines.entrySet()) {
+         String key = line.getKey().trim().toLowerCase(Locale.ROOT);
+         quantities.merge(key, line.getValue(), Integer::sum);
+         typedNames.putIfAbsent(key, line.getKey().trim());
+      }
+
+      Priced priced = new Priced(quantities.size());
+      BigDecimal total = BigDecimal.ZERO;
+      for (Map.Entry<String, Integer> line : quantities.entrySet()) {
+         MenuItem item = menu.apply(line.getKey());
+         if (item == null) {
+            priced.unknown.add(typedNames.get(line.getKey()));
+            continue;
+         }
+         priced.itemNames.add(item.itemName());
+         priced.quantities.add(line.getValue());
+         total = total.add(item.price().multiply(BigDecimal.valueOf(line.getValue())));
+      }
+      priced.total = total;
+      return priced;
+   }//end price
+
+   /**
+    * The lines of an order as resolved by {@link #price}.
+    */
+   public static final class Priced {
+      private final List<String> itemNames;
+      private final List<Integer> quantities;
+      private final List<String> unknown = new ArrayList<>();
+      private BigDecimal total;
+
+      private Priced(int lines) {
+         this.itemNames = new ArrayList<>(lines);
+         this.quantities = new ArrayList<>(lines);
+      }
+
+      /** @return the menu spelling of every matched item */
+      public List<String> itemNames() { return itemNames; }
+      /** @return the quantity of each matched item, in the same order */
+      public List<Integer> quantities() { return quantities; }
+      /** @return the names as typed that are not on the menu */
+      public List<String> unknown() { return unknown; }
+      /** @return the sum of price times quantity over the matched items */
+      public BigDecimal total() { return total; }
+   }//end Priced
+
+}//end OrderPlacer
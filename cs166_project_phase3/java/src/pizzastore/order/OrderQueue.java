@@ -0,0 +1,340 @@
+package pizzastore.order;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.PooledConnection;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+
+/**
+ * Group commit for order placement.  Callers price their order and hand it
+ * to {@link #submit}; one writer thread drains the queue in batches and
+ * writes each batch with four statements and a single commit, so the cost
+ * of the commit (the WAL flush) is shared by every order in the batch.
+ *
+ * Durability is unchanged: a future completes only after the commit that
+ * contains its order, so a caller holding an orderID holds a committed
+ * order, exactly as with {@link OrderPlacer#place}.  Orders still queued
+ * or in an uncommitted batch when the process dies are lost, and their
+ * callers never got an orderID.
+ *
+ * When a batch fails (a store deleted meanwhile, say) it is rolled back
+ * and its orders are retried one transaction each, so one bad order only
+ * fails its own future.  The queue is bounded: when it is full, submit
+ * waits up to the offer timeout and then refuses the order.
+ *
+ */
+public final class OrderQueue implements AutoCloseable {
+
+   /**
+    * Queue settings.  Defaults can be overridden through system properties
+    * (see {@link #fromSystemProperties()}).
+    */
+   public static final class Config {
+      boolean enabled = false;
+      int capacity = 1024;
+      int batchSize = 64;
+      long lingerMillis = 2;
+      long offerTimeoutMillis = 1000;
+
+      public Config enabled(boolean b) { this.enabled = b; return this; }
+      public Config capacity(int n) { this.capacity = n; return this; }
+      public Config batchSize(int n) { this.batchSize = n; return this; }
+      public Config lingerMillis(long ms) { this.lingerMillis = ms; return this; }
+      public Config offerTimeoutMillis(long ms) { this.offerTimeoutMillis = ms; return this; }
+
+      public boolean enabled() { return enabled; }
+
+      /**
+       * Reads {@code pizzastore.orders.groupCommit}, {@code .queue},
+       * {@code .batch}, {@code .lingerMs} and {@code .offerTimeoutMs} on top
+       * of the defaults.
+       */
+      public static Config fromSystemProperties() {
+         Config c = new Config();
+         c.enabled = Boolean.parseBoolean(System.getProperty("pizzastore.orders.groupCommit", "false"));
+         c.capacity = Integer.getInteger("pizzastore.orders.queue", c.capacity);
+         c.batchSize = Integer.getInteger("pizzastore.orders.batch", c.batchSize);
+         c.lingerMillis = Long.getLong("pizzastore.orders.lingerMs", c.lingerMillis);
+         c.offerTimeoutMillis = Long.getLong("pizzastore.orders.offerTimeoutMs", c.offerTimeoutMillis);
+         return c;
+      }//end fromSystemProperties
+
+      void check() {
+         if (capacity < 1 || batchSize < 1 || lingerMillis < 0 || offerTimeoutMillis < 0)
+            throw new IllegalArgumentException("invalid order queue settings: capacity=" + capacity
+               + " batch=" + batchSize + " linger=" + lingerMillis + " offerTimeout=" + offerTimeoutMillis);
+      }
+   }//end Config
+
+   static final String NEXT_IDS =
+      "SELECT NEXTVAL('foodorder_orderid_seq') FROM generate_series(1, ?);";
+
+   static final String INSERT_ORDERS =
+      "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+      "SELECT t.orderID, t.login, t.storeID, t.totalPrice, NOW(), 'Order Received' " +
+      "FROM unnest(?::integer[], ?::varchar[], ?::integer[], ?::numeric[]) " +
+      "AS t(orderID, login, storeID, totalPrice) " +
+      "RETURNING " + OrderRow.COLUMNS + ";";
+
+   // NOW() is the transaction start, the same orderTimestamp the orders got
+   static final String INSERT_ITEMS =
+      "INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp) " +
+      "SELECT t.orderID, t.itemName, t.quantity, NOW() " +
+      "FROM unnest(?::integer[], ?::varchar[], ?::integer[]) AS t(orderID, itemName, quantity);";
+
+   private static final CallSite NEXT_IDS_SITE = CallSites.of("orderQueue.nextIds");
+   private static final CallSite INSERT_ORDERS_SITE = CallSites.of("orderQueue.insertOrders");
+   private static final CallSite INSERT_ITEMS_SITE = CallSites.of("orderQueue.insertItems");
+   private static final CallSite COMMIT_SITE = CallSites.of("orderQueue.commit");
+
+   private final ConnectionPool pool;
+   private final Config config;
+   private final BlockingQueue<Pending> queue;
+   private final Thread writer;
+   private volatile boolean running = true;
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong batched = new AtomicLong();
+   private final AtomicLong retried = new AtomicLong();
+   private final AtomicLong rejected = new AtomicLong();
+
+   /**
+    * Starts the writer thread.
+    *
+    * @param pool the pool the writer borrows one connection per batch from
+    * @param config queue settings
+    */
+   public OrderQueue(ConnectionPool pool, Config config) {
+      config.check();
+      this.pool = pool;
+      this.config = config;
+      this.queue = new ArrayBlockingQueue<>(config.capacity);
+      this.writer = new Thread(this::drain, "pizzastore-order-writer");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }
+
+   /**
+    * Queues a priced order.  Orders whose lines all failed to match the
+    * menu are answered at once without touching the queue.
+    *
+    * @param resolveNanos the time spent pricing, reported on the receipt
+    * @return completes with the receipt once the order is committed, or
+    *         exceptionally with the SQLException that prevented it
+    * @throws RejectedExecutionException when the queue stays full for the
+    *         offer timeout, or the queue is closed
+    * @throws InterruptedException when interrupted while waiting for room
+    */
+   public CompletableFuture<OrderReceipt> submit(OrderPlacer.Priced priced, String login, int storeID,
+                                                  long resolveNanos) throws InterruptedException {
+      if (priced.itemNames().isEmpty())
+         return CompletableFuture.completedFuture(
+            new OrderReceipt(null, BigDecimal.ZERO, priced.unknown(), resolveNanos, 0, 0));
+      if (!running) throw new RejectedExecutionException("the order queue is closed");
+      Pending p = new Pending(priced, login, storeID, resolveNanos);
+      if (!queue.offer(p, config.offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+         rejected.incrementAndGet();
+         throw new RejectedExecutionException("the order queue is full");
+      }
+      // closed meanwhile: the writer may have taken its last order already.  If the
+      // order is still queued it is taken back here, otherwise the writer has it
+      if (!running && queue.remove(p)) throw new RejectedExecutionException("the order queue is closed");
+      return p.future;
+   }//end submit
+
+   private void drain() {
+      List<Pending> batch = new ArrayList<>(config.batchSize);
+      while (running || !queue.isEmpty()) {
+         try {
+            Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) continue;
+            batch.add(first);
+            // take what is already waiting, then linger briefly for more
+            queue.drainTo(batch, config.batchSize - 1);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.lingerMillis);
+            while (batch.size() < config.batchSize) {
+               long left = deadline - System.nanoTime();
+               if (left <= 0) break;
+               Pending next = queue.poll(left, TimeUnit.NANOSECONDS);
+               if (next == null) break;
+               batch.add(next);
+               queue.drainTo(batch, config.batchSize - batch.size());
+            }
+            write(batch);
+         } catch (InterruptedException e) {
+            if (!running) break;
+         } catch (RuntimeException e) {
+            for (Pending p : batch) p.future.completeExceptionally(e);
+         } finally {
+            batch.clear();
+         }
+      }
+      // anything still queued after close is refused rather than left hanging
+      for (Pending p; (p = queue.poll()) != null; )
+         p.future.completeExceptionally(new SQLException("the order queue was closed"));
+   }//end drain
+
+   private void write(List<Pending> batch) {
+      try (PooledConnection conn = pool.borrow()) {
+         try {
+            writeBatch(conn, batch);
+            return;
+         } catch (SQLException e) {
+            if (batch.size() == 1) {
+               batch.get(0).future.completeExceptionally(e);
+               return;
+            }
+         }
+         // the batch was rolled back; find the bad orders one at a time
+         retried.addAndGet(batch.size());
+         for (Pending p : batch) {
+            try {
+               p.future.complete(OrderPlacer.write(conn, p.priced, p.login, p.storeID, p.resolveNanos));
+               written.incrementAndGet();
+            } catch (SQLException e) {
+               p.future.completeExceptionally(e);
+            }
+         }
+      } catch (SQLException e) {
+         // no connection
+         for (Pending p : batch) p.future.completeExceptionally(e);
+      }
+   }//end write
+
+   private void writeBatch(PooledConnection conn, List<Pending> batch) throws SQLException {
+      long start = System.nanoTime();
+      int n = batch.size();
+      conn.connection().setAutoCommit(false);
+      // the statement running now, for the call-site counters
+      CallSite site = NEXT_IDS_SITE;
+      String sql = NEXT_IDS;
+      long at = site.start();
+      try {
+         Integer[] ids = new Integer[n];
+         try (ResultSet rs = conn.prepare(NEXT_IDS, n).executeQuery()) {
+            for (int i = 0; i < n && rs.next(); i++) ids[i] = rs.getInt(1);
+         }
+         site.done(at, n, sql);
+         String[] logins = new String[n];
+         Integer[] stores = new Integer[n];
+         BigDecimal[] totals = new BigDecimal[n];
+         List<Integer> itemOrders = new ArrayList<>();
+         List<String> itemNames = new ArrayList<>();
+         List<Integer> itemQuantities = new ArrayList<>();
+         for (int i = 0; i < n; i++) {
+            Pending p = batch.get(i);
+            logins[i] = p.login;
+            stores[i] = p.storeID;
+            totals[i] = p.priced.total();
+            for (int l = 0; l < p.priced.itemNames().size(); l++) {
+               itemOrders.add(ids[i]);
+               itemNames.add(p.priced.itemNames().get(l));
+               itemQuantities.add(p.priced.quantities().get(l));
+            }
+         }
+         Map<Integer, OrderRow> rows = new HashMap<>(n * 2);
+         site = INSERT_ORDERS_SITE;
+         sql = INSERT_ORDERS;
+         at = site.start();
+         try (ResultSet rs = conn.prepare(INSERT_ORDERS, ids, logins, stores, totals).executeQuery()) {
+            while (rs.next()) {
+               OrderRow row = OrderRow.fromRow(rs);
+               rows.put(row.orderID(), row);
+            }
+         }
+         site.done(at, rows.size(), sql);
+         site = INSERT_ITEMS_SITE;
+         sql = INSERT_ITEMS;
+         at = site.start();
+         int lines = conn.prepare(INSERT_ITEMS, itemOrders.toArray(new Integer[0]), itemNames.toArray(new String[0]),
+            itemQuantities.toArray(new Integer[0])).executeUpdate();
+         site.done(at, lines, sql);
+         long inserted = System.nanoTime();
+
+         site = COMMIT_SITE;
+         sql = "COMMIT;";
+         at = site.start();
+         conn.connection().commit();
+         site.done(at, 0, sql);
+         long committed = System.nanoTime();
+         batches.incrementAndGet();
+         batched.addAndGet(n);
+         written.addAndGet(n);
+         for (int i = 0; i < n; i++) {
+            Pending p = batch.get(i);
+            // the insert time includes the wait in the queue
+            p.future.complete(new OrderReceipt(rows.get(ids[i]), p.priced.total(), p.priced.unknown(),
+               p.resolveNanos, inserted - p.queuedNanos, committed - inserted));
+         }
+      } catch (SQLException | RuntimeException e) {
+         site.failed(at, sql, e);
+         try {
+            conn.connection().rollback();
+         } catch (SQLException rollbackFailure) {
+            e.addSuppressed(rollbackFailure);
+         }
+         throw e;
+      } finally {
+         conn.connection().setAutoCommit(true);
+      }
+   }//end writeBatch
+
+   /**
+    * @return the number of orders waiting to be written
+    */
+   public int queued() {
+      return queue.size();
+   }//end queued
+
+   /**
+    * Stops taking orders, writes the ones already queued and stops the
+    * writer.
+    */
+   @Override
+   public void close() {
+      running = false;
+      try {
+         writer.join(10_000);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+   @Override
+   public String toString() {
+      long b = batches.get();
+      return String.format("order queue: queued=%d written=%d batches=%d meanBatch=%.1f retried=%d rejected=%d",
+         queue.size(), written.get(), b, b == 0 ? 0.0 : batched.get() / (double) b, retried.get(), rejected.get());
+   }//end toString
+
+   private static final class Pending {
+      final OrderPlacer.Priced priced;
+      final String login;
+      final int storeID;
+      final long resolveNanos;
+      final long queuedNanos = System.nanoTime();
+      final CompletableFuture<OrderReceipt> future = new CompletableFuture<>();
+
+      Pending(OrderPlacer.Priced priced, String login, int storeID, long resolveNanos) {
+         this.priced = priced;
+         this.login = login;
+         this.storeID = storeID;
+         this.resolveNanos = resolveNanos;
+      }
+   }//end Pending
+
+}//end OrderQueue
@@ -0,0 +1,64 @@
+package pizzastore.order;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of one order placement: the new order and total, the item
+ * names that did not match the menu, and how long each phase took.
+ *
+ */
+public final class OrderReceipt {
+
+   private final OrderRow order;
+   private final BigDecimal totalPrice;
+   private final List<String> unknownItems;
+   private final long resolveNanos;
+   private final long insertNanos;
+   private final long commitNanos;
+
+   /**
+    * @param order the committed FoodOrder row, or null when nothing was placed
+    */
+   public OrderReceipt(OrderRow order, BigDecimal totalPrice, List<String> unknownItems,
+                       long resolveNanos, long insertNanos, long commitNanos) {
+      this.order = order;
+      this.totalPrice = totalPrice;
+      this.unknownItems = Collections.unmodifiableList(unknownItems);
+      this.resolveNanos = resolveNanos;
+      this.insertNanos = insertNanos;
+      this.commitNanos = commitNanos;
+   }
+
+   /**
+    * @return true when a FoodOrder row was committed
+    */
+   public boolean placed() { return order != null; }
+
+   /**
+    * @return the orderID, or -1 when nothing was placed
+    */
+   public int orderID() { return order == null ? -1 : order.orderID(); }
+
+   /**
+    * @return the committed FoodOrder row, or null when nothing was placed
+    */
+   public OrderRow order() { return order; }
+
+   public BigDecimal totalPrice() { return totalPrice; }
+   public List<String> unknownItems() { return unknownItems; }
+   public long resolveNanos() { return resolveNanos; }
+   public long insertNanos() { return insertNanos; }
+   public long commitNanos() { return commitNanos; }
+
+   /**
+    * @return the per-phase latency as a one-line string
+    */
+   public String latencySummary() {
+      return String.format("resolve=%.2fms insert=%.2fms commit=%.2fms total=%.2fms",
+         resolveNanos / 1e6, insertNanos / 1e6, commitNanos / 1e6,
+         (resolveNanos + insertNanos + commitNanos) / 1e6);
+   }//end latencySummary
+
+}//end OrderReceipt
@@ -0,0 +1,63 @@
+package pizzastore.order;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+
+/**
+ * One FoodOrder row as shown in order listings.
+ *
+ */
+public final class OrderRow {
+
+   public static final String COLUMNS = "orderID, login, storeID, totalPrice, orderTimestamp, orderStatus";
+
+   /**
+    * The order of every order listing: newest first, then highest orderID.
+    */
+   public static final Comparator<OrderRow> NEWEST_FIRST =
+      Comparator.comparing(OrderRow::orderTimestamp).thenComparingInt(OrderRow::orderID).reversed();
+
+   private final int orderID;
+   private final String login;
+   private final int storeID;
+   private final BigDecimal totalPrice;
+   private final Timestamp orderTimestamp;
+   private final String orderStatus;
+
+   public OrderRow(int orderID, String login, int storeID, BigDecimal totalPrice,
+                   Timestamp orderTimestamp, String orderStatus) {
+      this.orderID = orderID;
+      this.login = login;
+      this.storeID = storeID;
+      this.totalPrice = totalPrice;
+      this.orderTimestamp = orderTimestamp;
+      this.orderStatus = orderStatus;
+   }
+
+   /**
+    * Reads the current row of a result set selected with {@link #COLUMNS}.
+    */
+   public static OrderRow fromRow(ResultSet rs) throws SQLException {
+      String status = rs.getString(6);
+      return new OrderRow(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getBigDecimal(4),
+         rs.getTimestamp(5), status == null ? null : status.trim());
+   }//end fromRow
+
+   public int orderID() { return orderID; }
+   public String login() { return login; }
+   public int storeID() { return storeID; }
+   public BigDecimal totalPrice() { return totalPrice; }
+   public Timestamp orderTimestamp() { return orderTimestamp; }
+   public String orderStatus() { return orderStatus; }
+
+   /**
+    * @return a copy of this row with another status
+    */
+   public OrderRow withStatus(String status) {
+      return new OrderRow(orderID, login, storeID, totalPrice, orderTimestamp, status);
+   }//end withStatus
+
+}//end OrderRow
@@ -0,0 +1,288 @@
+package pizzastore.order;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the newest orders of each active customer, and the newest orders
+ * overall for drivers and managers, so "recent orders" is answered from
+ * memory.  Each list is a fixed-size ring of {@link OrderRow}s, newest
+ * first.  Customer rings are evicted least recently used once their
+ * estimated footprint passes the memory budget.
+ *
+ * Rings are filled from the database on login and first use, then kept
+ * current in place: {@link #placed} merges a new order, {@link #statusChanged}
+ * rewrites a status.  An order placed elsewhere that arrives without its
+ * row drops the rings it would fall inside, so they are re-read.
+ *
+ * Fills are stamped: a fill is not installed when its list changed while
+ * it was read, so a ring never goes back in time.  Each customer's list
+ * and the staff list keep their own change stamps, so only a change to
+ * the list being filled rejects a fill; the stamps of the
+ * {@value #STAMPS_KEPT} customers changed last are kept, and the others
+ * count as changed when the oldest of those was dropped.
+ *
+ */
+public final class RecentOrders {
+
+   /**
+    * Memory budget of the customer rings in bytes, from -Dpizzastore.recentOrders.budget.
+    */
+   public static final long DEFAULT_BUDGET_BYTES = Long.getLong("pizzastore.recentOrders.budget", 8L << 20);
+
+   // rough heap cost of one OrderRow with its BigDecimal, Timestamp and strings
+   private static final int ROW_BYTES = 200;
+   // map entry, ring object, slot array header and the login key
+   private static final int RING_BYTES = 160;
+   // far more changes than can happen while one list is read
+   private static final int STAMPS_KEPT = 4096;
+
+   private final int depth;
+   private final int maxRings;
+   private final Map<String, Ring> byLogin;
+   private final Map<String, Long> changedAt;
+   private Ring latest = null;
+   private long clock = 0;
+   private long latestChangedAt = 0;
+   // every login without a stamp of its own changed at or before this
+   private long floor = 0;
+   private long hits = 0;
+   private long misses = 0;
+
+   /**
+    * @param depth the number of orders kept per list
+    * @param budgetBytes the memory the customer rings may use
+    */
+   public RecentOrders(int depth, long budgetBytes) {
+      if (depth < 1) throw new IllegalArgumentException("depth must be positive: " + depth);
+      this.depth = depth;
+      this.maxRings = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / (RING_BYTES + (long) depth * ROW_BYTES)));
+      this.byLogin = new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+            return size() > maxRings;
+         }
+      };
+      this.changedAt = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() <= STAMPS_KEPT) return false;
+            floor = Math.max(floor, eldest.getValue());
+            return true;
+         }
+      };
+   }
+
+   /**
+    * @return the customer's cached orders newest first, or null when they must be read
+    */
+   public synchronized List<OrderRow> forCustomer(String login) {
+      return hit(byLogin.get(login));
+   }//end forCustomer
+
+   /**
+    * @return the newest orders of all customers, or null when they must be read
+    */
+   public synchronized List<OrderRow> latest() {
+      return hit(latest);
+   }//end latest
+
+   private List<OrderRow> hit(Ring ring) {
+      if (ring == null) {
+         misses++;
+         return null;
+      }
+      hits++;
+      return ring.rows();
+   }//end hit
+
+   /**
+    * Taken before reading a list from the database and handed back to
+    * {@link #fillCustomer} or {@link #fillLatest}.
+    */
+   public synchronized long stamp() {
+      return clock;
+   }//end stamp
+
+   /**
+    * Installs a customer's list as read from the database, unless that
+    * list changed since the stamp was taken.
+    *
+    * @param rows the newest orders first, at most the depth
+    */
+   public synchronized void fillCustomer(String login, List<OrderRow> rows, long readAt) {
+      String key = login.trim();
+      if (changedAt(key) <= readAt) byLogin.put(key, new Ring(depth, rows));
+   }//end fillCustomer
+
+   /**
+    * Installs the overall list as read from the database, unless it
+    * changed since the stamp was taken.
+    */
+   public synchronized void fillLatest(List<OrderRow> rows, long readAt) {
+      if (latestChangedAt <= readAt) latest = new Ring(depth, rows);
+   }//end fillLatest
+
+   /**
+    * Records a committed order, placed by this process or by another one
+    * that sent its row.
+    */
+   public synchronized void placed(OrderRow order) {
+      String login = order.login().trim();
+      changed(login);
+      Ring ring = byLogin.get(login);
+      if (ring != null) ring.merge(order);
+      if (latest != null) latest.merge(order);
+   }//end placed
+
+   /**
+    * Records an order placed by another process whose row is not known
+    * here: the lists it would fall inside are dropped.
+    *
+    * @param login the order's customer, or null when unknown
+    */
+   public synchronized void placedElsewhere(int orderID, String login) {
+      changed(login == null ? null : login.trim());
+      if (login == null) {
+         byLogin.values().removeIf(ring -> ring.wouldHold(orderID));
+      } else {
+         Ring ring = byLogin.get(login.trim());
+         if (ring != null && ring.wouldHold(orderID)) byLogin.remove(login.trim());
+      }
+      if (latest != null && latest.wouldHold(orderID)) latest = null;
+   }//end placedElsewhere
+
+   /**
+    * Rewrites the status of an order wherever it is cached.
+    *
+    * @param login the order's customer, or null when unknown
+    */
+   public synchronized void statusChanged(int orderID, String login, String status) {
+      changed(login == null ? null : login.trim());
+      if (login != null) {
+         Ring ring = byLogin.get(login.trim());
+         if (ring != null) ring.setStatus(orderID, status);
+      } else {
+         for (Ring ring : byLogin.values()) ring.setStatus(orderID, status);
+      }
+      if (latest != null) latest.setStatus(orderID, status);
+   }//end statusChanged
+
+   /**
+    * Forgets everything, e.g. after changes may have been missed.
+    */
+   public synchronized void clear() {
+      changed(null);
+      byLogin.clear();
+      latest = null;
+   }//end clear
+
+   /**
+    * Stamps a change to a customer's list and to the staff list.
+    *
+    * @param login the customer, or null when it may be any of them
+    */
+   private void changed(String login) {
+      clock++;
+      latestChangedAt = clock;
+      if (login == null) {
+         floor = clock;
+         changedAt.clear();
+      } else {
+         changedAt.put(login, clock);
+      }
+   }//end changed
+
+   private long changedAt(String login) {
+      Long at = changedAt.get(login);
+      return at == null ? floor : at;
+   }//end changedAt
+
+   /**
+    * @return the customer rings the budget allows
+    */
+   public int capacity() {
+      return maxRings;
+   }//end capacity
+
+   @Override
+   public synchronized String toString() {
+      return "recent orders: " + byLogin.size() + "/" + maxRings + " customers cached, "
+         + hits + " hits, " + misses + " misses";
+   }//end toString
+
+   /**
+    * A fixed number of slots written round-robin; head is the newest.
+    */
+   private static final class Ring {
+      private final OrderRow[] slots;
+      private int head = 0;
+      private int size = 0;
+
+      Ring(int depth, List<OrderRow> newestFirst) {
+         slots = new OrderRow[depth];
+         for (int i = Math.min(depth, newestFirst.size()) - 1; i >= 0; i--) push(newestFirst.get(i));
+      }
+
+      private void push(OrderRow order) {
+         head = (head + 1) % slots.length;
+         slots[head] = order;
+         if (size < slots.length) size++;
+      }//end push
+
+      /**
+       * Puts an order in its place, newest first, unless it is already
+       * here or older than every order of a full ring.
+       */
+      void merge(OrderRow order) {
+         if (contains(order.orderID())) return;
+         List<OrderRow> rows = rows();
+         int at = 0;
+         while (at < rows.size() && OrderRow.NEWEST_FIRST.compare(rows.get(at), order) < 0) at++;
+         if (at == slots.length) return;
+         if (at == 0) {
+            push(order);
+            return;
+         }
+         rows.add(at, order);
+         size = 0;
+         for (int i = Math.min(slots.length, rows.size()) - 1; i >= 0; i--) push(rows.get(i));
+      }//end merge
+
+      /**
+       * @return true when an order of which only the ID is known might
+       *         belong here: the ring is not full, or the order is newer
+       *         than its oldest
+       */
+      boolean wouldHold(int orderID) {
+         if (contains(orderID)) return false;
+         if (size < slots.length) return true;
+         return orderID > slots[(head - size + 1 + slots.length) % slots.length].orderID();
+      }//end wouldHold
+
+      boolean contains(int orderID) {
+         return indexOf(orderID) >= 0;
+      }//end contains
+
+      void setStatus(int orderID, String status) {
+         int i = indexOf(orderID);
+         if (i >= 0) slots[i] = slots[i].withStatus(status);
+      }//end setStatus
+
+      private int indexOf(int orderID) {
+         for (int n = 0, i = head; n < size; n++, i = (i - 1 + slots.length) % slots.length) {
+            if (slots[i].orderID() == orderID) return i;
+         }
+         return -1;
+      }//end indexOf
+
+      List<OrderRow> rows() {
+         List<OrderRow> rows = new ArrayList<>(size);
+         for (int n = 0, i = head; n < size; n++, i = (i - 1 + slots.length) % slots.length) rows.add(slots[i]);
+         return rows;
+      }//end rows
+   }//end Ring
+
+}//end RecentOrders
@@ -0,0 +1,103 @@
+package pizzastore.order;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The outcome of one bulk status change: the orders moved from one status
+ * to the next, and the orders left alone with the status they were found
+ * in, so each can be told why.
+ *
+ */
+public final class StatusUpdate {
+
+   private final String from;
+   private final String to;
+   private final Map<Integer, String> updated = new TreeMap<>();
+   // the status each skipped order was found in, null when there is no such order
+   private final Map<Integer, String> found = new TreeMap<>();
+
+   /**
+    * @param from the status an order must be in to change
+    * @param to the status it changes to
+    */
+   public StatusUpdate(String from, String to) {
+      this.from = from;
+      this.to = to;
+   }
+
+   /**
+    * Records an order that changed.
+    *
+    * @param login the order's login ("" for none)
+    */
+   public void updated(int orderID, String login) {
+      updated.put(orderID, login);
+      found.remove(orderID);
+   }//end updated
+
+   /**
+    * Records an order that did not change.
+    *
+    * @param status the status it was found in, or null when it does not exist
+    */
+   public void skipped(int orderID, String status) {
+      if (!updated.containsKey(orderID)) found.put(orderID, status == null ? null : status.trim());
+   }//end skipped
+
+   /**
+    * Adds the outcome of the same change made elsewhere, e.g. on another
+    * shard.  An order changed there counts as changed, and one found there
+    * replaces a "not found" here.
+    */
+   public void addAll(StatusUpdate other) {
+      for (Map.Entry<Integer, String> e : other.updated.entrySet()) updated(e.getKey(), e.getValue());
+      for (Map.Entry<Integer, String> e : other.found.entrySet()) {
+         if (e.getValue() != null || !found.containsKey(e.getKey())) skipped(e.getKey(), e.getValue());
+      }
+   }//end addAll
+
+   public String from() { return from; }
+   public String to() { return to; }
+
+   /**
+    * @return the orders that changed, by orderID, with their logins
+    */
+   public Map<Integer, String> updated() {
+      return Collections.unmodifiableMap(updated);
+   }//end updated
+
+   /**
+    * @return the orders that did not change, by orderID, with the reason
+    */
+   public Map<Integer, String> skipped() {
+      Map<Integer, String> reasons = new LinkedHashMap<>();
+      for (Map.Entry<Integer, String> e : found.entrySet()) reasons.put(e.getKey(), reason(e.getValue()));
+      return reasons;
+   }//end skipped
+
+   /**
+    * @return the skipped orderIDs that were not found at all
+    */
+   public List<Integer> missing() {
+      List<Integer> missing = new ArrayList<>();
+      for (Map.Entry<Integer, String> e : found.entrySet()) if (e.getValue() == null) missing.add(e.getKey());
+      return missing;
+   }//end missing
+
+   private String reason(String status) {
+      if (status == null) return "Order not found.";
+      if (status.equals(to)) return "Already " + to + ".";
+      return "Is " + status + "; only " + from + " orders can become " + to + ".";
+   }//end reason
+
+   @Override
+   public String toString() {
+      return updated.size() + " order(s) now " + to + ", " + found.size() + " skipped";
+   }//end toString
+
+}//end StatusUpdate
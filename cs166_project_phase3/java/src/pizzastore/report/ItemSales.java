@@ -0,0 +1,34 @@
+package pizzastore.report;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Units sold and revenue of one item at one store.
+ *
+ */
+public final class ItemSales {
+
+   private final String itemName;
+   private final long quantity;
+   private final BigDecimal revenue;
+
+   public ItemSales(String itemName, long quantity, BigDecimal revenue) {
+      this.itemName = itemName;
+      this.quantity = quantity;
+      this.revenue = revenue;
+   }
+
+   /**
+    * Reads a row selected as itemName, quantity, revenue.
+    */
+   static ItemSales fromRow(ResultSet rs) throws SQLException {
+      return new ItemSales(rs.getString(1), rs.getLong(2), rs.getBigDecimal(3));
+   }//end fromRow
+
+   public String itemName() { return itemName; }
+   public long quantity() { return quantity; }
+   public BigDecimal revenue() { return revenue; }
+
+}//end ItemSales
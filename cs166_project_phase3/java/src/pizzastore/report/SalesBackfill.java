@@ -0,0 +1,247 @@
+package pizzastore.report;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+
+/**
+ * Folds the orders that predate the sales triggers into the summary
+ * tables.  The work is every orderID up to sales_backfill.high_water,
+ * done in orderID ranges of a fixed size; each range is added and the
+ * progress recorded in one transaction, so the job can be stopped and
+ * rerun at any point and never counts a range twice.  Each range reads
+ * FoodOrder and ItemsInOrder through their orderID indexes.
+ *
+ * An orderID is drawn from the sequence before its row is inserted, so an
+ * order at or below the mark can still be in flight when the mark is
+ * taken; the triggers skip it and it is the backfill's.  Before folding,
+ * {@link #run} therefore waits for every transaction that was open when it
+ * started to end, so those orders are committed (or gone) by the time
+ * their range is read.
+ *
+ * Item revenue for old orders uses today's prices, since the price an
+ * item had when ordered is not stored.
+ *
+ * {@link #rebuild} starts over: it empties the summaries and moves the
+ * high water mark to the newest order, for use after a bulk load (whose
+ * rows the triggers skip) or to repair the summaries.
+ *
+ * <pre>
+ *   SalesBackfill &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--rebuild] [--chunk N]
+ * </pre>
+ *
+ */
+public final class SalesBackfill {
+
+   public static final int DEFAULT_CHUNK = 50_000;
+
+   static final String FOLD_HOURLY =
+      "INSERT INTO store_sales_hourly AS s (storeID, hour, orders, revenue) " +
+      "SELECT storeID, date_trunc('hour', orderTimestamp), count(*), sum(totalPrice) FROM FoodOrder " +
+      "WHERE orderID > ? AND orderID <= ? GROUP BY 1, 2 ORDER BY 1, 2 " +
+      "ON CONFLICT (storeID, hour) DO UPDATE " +
+      "SET orders = s.orders + EXCLUDED.orders, revenue = s.revenue + EXCLUDED.revenue;";
+
+   static final String FOLD_TOTALS =
+      "INSERT INTO store_sales_totals AS s (storeID, orders, revenue) " +
+      "SELECT storeID, count(*), sum(totalPrice) FROM FoodOrder " +
+      "WHERE orderID > ? AND orderID <= ? GROUP BY 1 ORDER BY 1 " +
+      "ON CONFLICT (storeID) DO UPDATE " +
+      "SET orders = s.orders + EXCLUDED.orders, revenue = s.revenue + EXCLUDED.revenue;";
+
+   static final String FOLD_ITEMS =
+      "INSERT INTO store_item_sales AS s (storeID, itemName, quantity, revenue) " +
+      "SELECT f.storeID, o.itemName, sum(o.quantity), sum(o.quantity * i.price) " +
+      "FROM ItemsInOrder o JOIN FoodOrder f ON f.orderID = o.orderID JOIN Items i ON i.itemName = o.itemName " +
+      "WHERE o.orderID > ? AND o.orderID <= ? GROUP BY 1, 2 ORDER BY 1, 2 " +
+      "ON CONFLICT (storeID, itemName) DO UPDATE " +
+      "SET quantity = s.quantity + EXCLUDED.quantity, revenue = s.revenue + EXCLUDED.revenue;";
+
+   // the virtual transaction IDs of the other transactions open in this database
+   static final String OPEN_TRANSACTIONS =
+      "SELECT COALESCE(array_agg(l.virtualxid), '{}') FROM pg_locks l JOIN pg_stat_activity a ON a.pid = l.pid " +
+      "WHERE l.locktype = 'virtualxid' AND l.granted AND l.pid <> pg_backend_pid() " +
+      "AND a.datname = current_database();";
+
+   static final String STILL_OPEN =
+      "SELECT COALESCE(array_agg(virtualxid), '{}') FROM pg_locks " +
+      "WHERE locktype = 'virtualxid' AND granted AND virtualxid = ANY(?::text[]);";
+
+   private static final long WAIT_MILLIS = 100;
+
+   private final ConnectionPool pool;
+   private final int chunk;
+
+   /**
+    * @param chunk the orderIDs folded per transaction
+    */
+   public SalesBackfill(ConnectionPool pool, int chunk) {
+      if (chunk < 1) throw new IllegalArgumentException("chunk must be positive: " + chunk);
+      this.pool = pool;
+      this.chunk = chunk;
+   }
+
+   /**
+    * @return true when the sales summaries have been migrated into this database
+    */
+   public static boolean installed(Database db) throws SQLException {
+      return db.queryLong("SELECT count(*) FROM pg_class WHERE relname = 'sales_backfill';") > 0;
+   }//end installed
+
+   /**
+    * Empties the summaries and makes every existing order the backfill's.
+    * Order inserts wait while this runs; an order whose ID was drawn before
+    * the mark but inserted after it is folded by {@link #run}, which waits
+    * for it first.
+    */
+   public void rebuild() throws SQLException {
+      try (PooledConnection conn = pool.borrow()) {
+         conn.connection().setAutoCommit(false);
+         try (Statement stmt = conn.connection().createStatement()) {
+            stmt.execute("LOCK TABLE FoodOrder, ItemsInOrder IN SHARE MODE;");
+            stmt.execute("TRUNCATE store_sales_hourly, store_sales_totals, store_item_sales;");
+            stmt.execute("UPDATE sales_backfill SET done_through = 0, "
+               + "high_water = (SELECT COALESCE(max(orderID), 0) FROM FoodOrder);");
+            conn.connection().commit();
+         } catch (SQLException | RuntimeException e) {
+            conn.connection().rollback();
+            throw e;
+         } finally {
+            conn.connection().setAutoCommit(true);
+         }
+      }
+   }//end rebuild
+
+   /**
+    * Folds every remaining range, once the transactions open when it starts
+    * have ended.
+    *
+    * @return the number of ranges folded by this call
+    * @throws java.sql.SQLException when a range fails; the ranges before it stay folded
+    */
+   public int run() throws SQLException {
+      long start = System.nanoTime();
+      awaitOpenTransactions();
+      int ranges = 0;
+      while (true) {
+         int[] progress = progress();
+         int done = progress[0];
+         int highWater = progress[1];
+         if (done >= highWater) break;
+         int upTo = (int) Math.min((long) done + chunk, highWater);
+         if (!fold(done, upTo)) throw new SQLException("another backfill is running");
+         ranges++;
+         if (ranges % 20 == 0 || upTo == highWater) {
+            System.out.printf("folded orders through %d of %d (%.1fs)%n", upTo, highWater,
+               (System.nanoTime() - start) / 1e9);
+         }
+      }
+      return ranges;
+   }//end run
+
+   /**
+    * Waits until every transaction open in this database right now has
+    * committed or rolled back, the way CREATE INDEX CONCURRENTLY does.  Each
+    * transaction holds the lock on its own virtual transaction ID until it
+    * ends, and pg_locks shows those to every role.
+    */
+   private void awaitOpenTransactions() throws SQLException {
+      try (PooledConnection conn = pool.borrow()) {
+         String[] open;
+         try (ResultSet rs = conn.prepare(OPEN_TRANSACTIONS).executeQuery()) {
+            rs.next();
+            open = (String[]) rs.getArray(1).getArray();
+         }
+         long waited = 0;
+         while (open.length > 0) {
+            try (ResultSet rs = conn.prepare(STILL_OPEN, (Object) open).executeQuery()) {
+               rs.next();
+               open = (String[]) rs.getArray(1).getArray();
+            }
+            if (open.length == 0) break;
+            if (waited % 10_000 == 0) {
+               System.out.println("waiting for " + open.length + " open transaction(s) to end");
+            }
+            try {
+               Thread.sleep(WAIT_MILLIS);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException("interrupted while waiting for open transactions", e);
+            }
+            waited += WAIT_MILLIS;
+         }
+      }
+   }//end awaitOpenTransactions
+
+   /**
+    * @return done_through and high_water
+    */
+   private int[] progress() throws SQLException {
+      try (PooledConnection conn = pool.borrow();
+           ResultSet rs = conn.prepare("SELECT done_through, high_water FROM sales_backfill WHERE id = 1;")
+              .executeQuery()) {
+         if (!rs.next()) throw new SQLException("sales_backfill has no row; apply migration V4 first");
+         return new int[] { rs.getInt(1), rs.getInt(2) };
+      }
+   }//end progress
+
+   /**
+    * Folds (from, upTo] and advances the progress, all or nothing.
+    *
+    * @return false when the progress moved meanwhile, i.e. another run got there first
+    */
+   private boolean fold(int from, int upTo) throws SQLException {
+      try (PooledConnection conn = pool.borrow()) {
+         conn.connection().setAutoCommit(false);
+         try {
+            // claim the range first; a concurrent run blocks here and then finds it taken
+            if (conn.prepare("UPDATE sales_backfill SET done_through = ? WHERE id = 1 AND done_through = ?;",
+                  upTo, from).executeUpdate() == 0) {
+               conn.connection().rollback();
+               return false;
+            }
+            conn.prepare(FOLD_HOURLY, from, upTo).executeUpdate();
+            conn.prepare(FOLD_TOTALS, from, upTo).executeUpdate();
+            conn.prepare(FOLD_ITEMS, from, upTo).executeUpdate();
+            conn.connection().commit();
+            return true;
+         } catch (SQLException | RuntimeException e) {
+            conn.connection().rollback();
+            throw e;
+         } finally {
+            conn.connection().setAutoCommit(true);
+         }
+      }
+   }//end fold
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws SQLException {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + SalesBackfill.class.getName()
+            + " <dbname> <port> <user> [--rebuild] [--chunk N]");
+         return;
+      }
+      boolean rebuild = false;
+      int chunk = DEFAULT_CHUNK;
+      for (int i = 3; i < args.length; i++) {
+         if (args[i].equals("--rebuild")) rebuild = true;
+         else if (args[i].equals("--chunk") && i + 1 < args.length) chunk = Integer.parseInt(args[++i]);
+      }
+      ConnectionPool pool = new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         new ConnectionPool.Config().maxSize(1));
+      try {
+         SalesBackfill backfill = new SalesBackfill(pool, chunk);
+         if (rebuild) backfill.rebuild();
+         System.out.println("Folded " + backfill.run() + " range(s).");
+      } finally {
+         pool.close();
+      }
+   }//end main
+
+}//end SalesBackfill
@@ -0,0 +1,101 @@
+package pizzastore.report;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import pizzastore.db.Database;
+
+/**
+ * The manager reports, read from the summary tables of
+ * sql/migrations/V4 rather than from FoodOrder and ItemsInOrder.  Every
+ * query is an index range over its summary's primary key, so its cost
+ * depends on the period or the number of rows asked for, never on how
+ * many orders have been taken.
+ *
+ * With the orders sharded by store each shard keeps the summaries of its
+ * own stores, so a store's report is read from its shard and the total of
+ * every store adds the shards up.
+ *
+ */
+public final class SalesReport {
+
+   private final IntUnaryOperator shardOf;
+   private final Database[] hourly;
+   private final Database[] daily;
+   private final Database[] topItems;
+   private final Database[] total;
+
+   public SalesReport(Database db) {
+      this(Collections.singletonList(db), storeID -> 0);
+   }
+
+   /**
+    * @param shards the database of each shard
+    * @param shardOf the shard holding a store's orders
+    */
+   public SalesReport(List<Database> shards, IntUnaryOperator shardOf) {
+      this.shardOf = shardOf;
+      int n = shards.size();
+      this.hourly = new Database[n];
+      this.daily = new Database[n];
+      this.topItems = new Database[n];
+      this.total = new Database[n];
+      for (int i = 0; i < n; i++) {
+         this.hourly[i] = shards.get(i).at("salesReports.hourly");
+         this.daily[i] = shards.get(i).at("salesReports.daily");
+         this.topItems[i] = shards.get(i).at("salesReports.topItems");
+         this.total[i] = shards.get(i).at("salesReports.total");
+      }
+   }
+
+   /**
+    * @return one row per hour with orders in [from, until), oldest first
+    */
+   public List<SalesRow> hourly(int storeID, Timestamp from, Timestamp until) throws SQLException {
+      return hourly[shardOf.applyAsInt(storeID)].query("SELECT storeID, hour, orders, revenue FROM store_sales_hourly "
+         + "WHERE storeID = ? AND hour >= ? AND hour < ? ORDER BY hour;", SalesRow::fromRow, storeID, from, until);
+   }//end hourly
+
+   /**
+    * @return one row per day with orders in [from, until), oldest first
+    */
+   public List<SalesRow> daily(int storeID, Timestamp from, Timestamp until) throws SQLException {
+      return daily[shardOf.applyAsInt(storeID)].query("SELECT storeID, date_trunc('day', hour), sum(orders), sum(revenue) FROM store_sales_hourly "
+         + "WHERE storeID = ? AND hour >= ? AND hour < ? GROUP BY 1, 2 ORDER BY 2;", SalesRow::fromRow,
+         storeID, from, until);
+   }//end daily
+
+   /**
+    * @return the store's best sellers by units sold
+    */
+   public List<ItemSales> topItems(int storeID, int limit) throws SQLException {
+      return topItems[shardOf.applyAsInt(storeID)].query("SELECT itemName, quantity, revenue FROM store_item_sales "
+         + "WHERE storeID = ? ORDER BY quantity DESC, itemName LIMIT ?;", ItemSales::fromRow, storeID, limit);
+   }//end topItems
+
+   /**
+    * @param storeID the store, or null for every store together
+    * @return the all-time orders, revenue and average ticket
+    */
+   public SalesTotal total(Integer storeID) throws SQLException {
+      if (storeID == null) {
+         long orders = 0;
+         BigDecimal revenue = BigDecimal.ZERO;
+         for (Database shard : this.total) {
+            SalesTotal part = shard.queryOne("SELECT COALESCE(sum(orders), 0), sum(revenue) FROM store_sales_totals;",
+               rs -> SalesTotal.fromRow(null, rs));
+            orders += part.orders();
+            revenue = revenue.add(part.revenue());
+         }
+         return new SalesTotal(null, orders, revenue);
+      }
+      SalesTotal total = this.total[shardOf.applyAsInt(storeID)].queryOne("SELECT orders, revenue FROM store_sales_totals WHERE storeID = ?;",
+         rs -> SalesTotal.fromRow(storeID, rs), storeID);
+      return total != null ? total : new SalesTotal(storeID, 0, BigDecimal.ZERO);
+   }//end total
+
+}//end SalesReport
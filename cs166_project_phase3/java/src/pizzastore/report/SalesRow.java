@@ -0,0 +1,39 @@
+package pizzastore.report;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Orders and revenue of one store in one period (an hour or a day).
+ *
+ */
+public final class SalesRow {
+
+   private final int storeID;
+   private final Timestamp period;
+   private final long orders;
+   private final BigDecimal revenue;
+
+   public SalesRow(int storeID, Timestamp period, long orders, BigDecimal revenue) {
+      this.storeID = storeID;
+      this.period = period;
+      this.orders = orders;
+      this.revenue = revenue;
+   }
+
+   /**
+    * Reads a row selected as storeID, period, orders, revenue.
+    */
+   static SalesRow fromRow(ResultSet rs) throws SQLException {
+      return new SalesRow(rs.getInt(1), rs.getTimestamp(2), rs.getLong(3), rs.getBigDecimal(4));
+   }//end fromRow
+
+   public int storeID() { return storeID; }
+   /** @return the start of the period */
+   public Timestamp period() { return period; }
+   public long orders() { return orders; }
+   public BigDecimal revenue() { return revenue; }
+
+}//end SalesRow
@@ -0,0 +1,48 @@
+package pizzastore.report;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * All-time orders and revenue of one store, or of every store.
+ *
+ */
+public final class SalesTotal {
+
+   private final Integer storeID;
+   private final long orders;
+   private final BigDecimal revenue;
+
+   /**
+    * @param storeID the store, or null for the total over every store
+    */
+   public SalesTotal(Integer storeID, long orders, BigDecimal revenue) {
+      this.storeID = storeID;
+      this.orders = orders;
+      this.revenue = revenue;
+   }
+
+   /**
+    * Reads a row selected as orders, revenue.
+    */
+   static SalesTotal fromRow(Integer storeID, ResultSet rs) throws SQLException {
+      BigDecimal revenue = rs.getBigDecimal(2);
+      return new SalesTotal(storeID, rs.getLong(1), revenue == null ? BigDecimal.ZERO : revenue);
+   }//end fromRow
+
+   /** @return the store, or null for every store */
+   public Integer storeID() { return storeID; }
+   public long orders() { return orders; }
+   public BigDecimal revenue() { return revenue; }
+
+   /**
+    * @return revenue per order rounded to cents, zero without orders
+    */
+   public BigDecimal averageTicket() {
+      if (orders == 0) return BigDecimal.ZERO.setScale(2);
+      return revenue.divide(BigDecimal.valueOf(orders), 2, RoundingMode.HALF_UP);
+   }//end averageTicket
+
+}//end SalesTotal
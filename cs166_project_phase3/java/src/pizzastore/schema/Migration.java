@@ -0,0 +1,63 @@
+package pizzastore.schema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * One versioned schema change, read from a file named
+ * {@code V<version>__<description>.sql}.  A migration normally runs in a
+ * single transaction.  A first line of {@code -- migrate:no-transaction}
+ * runs its statements one by one in autocommit instead, which CREATE INDEX
+ * CONCURRENTLY needs; such a migration must be safe to re-run after a
+ * partial failure (IF [NOT] EXISTS).
+ *
+ */
+public final class Migration {
+
+   private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+   private static final String NO_TRANSACTION = "-- migrate:no-transaction";
+
+   private final int version;
+   private final String description;
+   private final String sql;
+   private final long checksum;
+
+   Migration(int version, String description, String sql) {
+      this.version = version;
+      this.description = description;
+      this.sql = sql;
+      CRC32 crc = new CRC32();
+      crc.update(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+      this.checksum = crc.getValue();
+   }
+
+   /**
+    * @return the migration in the file, or null when the name does not follow the pattern
+    */
+   static Migration read(Path file) throws IOException {
+      Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+      if (!m.matches()) return null;
+      return new Migration(Integer.parseInt(m.group(1)), m.group(2).replace('_', ' '),
+         new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+   }//end read
+
+   public int version() { return version; }
+   public String description() { return description; }
+   public long checksum() { return checksum; }
+   String sql() { return sql; }
+
+   boolean transactional() {
+      return !sql.trim().startsWith(NO_TRANSACTION);
+   }//end transactional
+
+   @Override
+   public String toString() {
+      return "V" + version + " " + description;
+   }//end toString
+
+}//end Migration
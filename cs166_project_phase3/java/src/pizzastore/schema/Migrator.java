@@ -0,0 +1,220 @@
+package pizzastore.schema;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+
+/**
+ * Brings a database's schema up to date by applying the migrations in a
+ * directory (sql/migrations) that have not been applied yet, in version
+ * order.  Applied versions are recorded in schema_version together with a
+ * checksum of the file; a file that changed after it was applied stops the
+ * run rather than leaving the databases of different installs out of step.
+ * Concurrent runs are serialized with an advisory lock.
+ *
+ * <pre>
+ *   Migrator &lt;dbname&gt; &lt;port&gt; &lt;user&gt; migrate|status [migrationsDir]
+ * </pre>
+ *
+ */
+public final class Migrator {
+
+   static final String HISTORY_TABLE = "schema_version";
+
+   // an arbitrary key for pg_advisory_lock, the same for every install
+   private static final long LOCK_KEY = 166_2024_0001L;
+
+   private final ConnectionPool pool;
+   private final Path directory;
+
+   /**
+    * @param pool the pool to borrow the migrating connection from
+    * @param directory the directory holding the V&lt;n&gt;__name.sql files
+    */
+   public Migrator(ConnectionPool pool, Path directory) {
+      this.pool = pool;
+      this.directory = directory;
+   }
+
+   /**
+    * @return every migration in the directory, in version order
+    * @throws java.io.IOException when the directory cannot be read or two files share a version
+    */
+   public List<Migration> available() throws IOException {
+      List<Migration> migrations = new ArrayList<>();
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.sql")) {
+         for (Path file : files) {
+            Migration m = Migration.read(file);
+            if (m != null) migrations.add(m);
+         }
+      }
+      migrations.sort(Comparator.comparingInt(Migration::version));
+      for (int i = 1; i < migrations.size(); i++) {
+         if (migrations.get(i).version() == migrations.get(i - 1).version())
+            throw new IOException("two migrations with version " + migrations.get(i).version() + " in " + directory);
+      }
+      return migrations;
+   }//end available
+
+   /**
+    * @return the applied versions mapped to their recorded checksums
+    */
+   public Map<Integer, Long> applied() throws SQLException {
+      try (PooledConnection conn = pool.borrow()) {
+         createHistory(conn.connection());
+         return applied(conn.connection());
+      }
+   }//end applied
+
+   /**
+    * Applies every pending migration.
+    *
+    * @return the migrations that were applied
+    * @throws java.sql.SQLException when a migration fails; the ones before it stay applied
+    * @throws java.io.IOException when the directory cannot be read
+    */
+   public List<Migration> migrate() throws SQLException, IOException {
+      List<Migration> available = available();
+      List<Migration> done = new ArrayList<>();
+      try (PooledConnection conn = pool.borrow()) {
+         Connection c = conn.connection();
+         try (Statement stmt = c.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+         }
+         try {
+            createHistory(c);
+            Map<Integer, Long> applied = applied(c);
+            for (Migration m : available) {
+               Long checksum = applied.get(m.version());
+               if (checksum != null) {
+                  if (checksum != m.checksum())
+                     throw new SQLException(m + " was changed after it was applied; add a new migration instead");
+                  continue;
+               }
+               apply(c, m);
+               done.add(m);
+            }
+         } finally {
+            try (Statement stmt = c.createStatement()) {
+               stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+         }
+      }
+      return done;
+   }//end migrate
+
+   private void apply(Connection c, Migration m) throws SQLException {
+      long start = System.nanoTime();
+      try (Statement stmt = c.createStatement()) {
+         if (m.transactional()) {
+            c.setAutoCommit(false);
+            try {
+               stmt.execute(m.sql());
+               record(c, m, start);
+               c.commit();
+            } catch (SQLException | RuntimeException e) {
+               c.rollback();
+               throw e;
+            } finally {
+               c.setAutoCommit(true);
+            }
+         } else {
+            for (String sql : SqlScript.split(m.sql())) stmt.execute(sql);
+            record(c, m, start);
+         }
+      } catch (SQLException e) {
+         throw new SQLException(m + " failed: " + e.getMessage(), e.getSQLState(), e);
+      }
+   }//end apply
+
+   private static void createHistory(Connection c) throws SQLException {
+      try (Statement stmt = c.createStatement()) {
+         stmt.execute("CREATE TABLE IF NOT EXISTS " + HISTORY_TABLE + " ("
+            + "version integer PRIMARY KEY, description varchar(200) NOT NULL, checksum bigint NOT NULL, "
+            + "appliedAt timestamp NOT NULL DEFAULT NOW(), millis bigint NOT NULL)");
+      }
+   }//end createHistory
+
+   private static Map<Integer, Long> applied(Connection c) throws SQLException {
+      Map<Integer, Long> applied = new LinkedHashMap<>();
+      try (Statement stmt = c.createStatement();
+           ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM " + HISTORY_TABLE + " ORDER BY version")) {
+         while (rs.next()) applied.put(rs.getInt(1), rs.getLong(2));
+      }
+      return applied;
+   }//end applied
+
+   private static void record(Connection c, Migration m, long startNanos) throws SQLException {
+      try (PreparedStatement stmt = c.prepareStatement("INSERT INTO " + HISTORY_TABLE
+            + " (version, description, checksum, millis) VALUES (?, ?, ?, ?)")) {
+         stmt.setInt(1, m.version());
+         stmt.setString(2, m.description());
+         stmt.setLong(3, m.checksum());
+         stmt.setLong(4, (System.nanoTime() - startNanos) / 1_000_000);
+         stmt.executeUpdate();
+      }
+   }//end record
+
+   /**
+    * Prints every migration with the time it was applied, or "pending".
+    */
+   public void printStatus() throws SQLException, IOException {
+      Map<Integer, Timestamp> appliedAt = new LinkedHashMap<>();
+      Map<Integer, Long> checksums = applied();
+      try (PooledConnection conn = pool.borrow();
+           ResultSet rs = conn.prepare("SELECT version, appliedAt FROM " + HISTORY_TABLE + ";").executeQuery()) {
+         while (rs.next()) appliedAt.put(rs.getInt(1), rs.getTimestamp(2));
+      }
+      for (Migration m : available()) {
+         Long checksum = checksums.get(m.version());
+         String state = checksum == null ? "pending"
+            : checksum != m.checksum() ? "CHANGED since applied " + appliedAt.get(m.version())
+            : "applied " + appliedAt.get(m.version());
+         System.out.printf("%-40s %s%n", m, state);
+      }
+   }//end printStatus
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4 || !(args[3].equals("migrate") || args[3].equals("status"))) {
+         System.err.println("Usage: java [-classpath <classpath>] " + Migrator.class.getName()
+            + " <dbname> <port> <user> migrate|status [migrationsDir]");
+         return;
+      }
+      Path dir = Paths.get(args.length > 4 ? args[4] : "../sql/migrations");
+      ConnectionPool pool = new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         new ConnectionPool.Config().maxSize(1));
+      try {
+         Migrator migrator = new Migrator(pool, dir);
+         if (args[3].equals("status")) {
+            migrator.printStatus();
+            return;
+         }
+         List<Migration> done = migrator.migrate();
+         for (Migration m : done) System.out.println("Applied " + m);
+         System.out.println(done.isEmpty() ? "The schema is up to date." : done.size() + " migration(s) applied.");
+      } finally {
+         pool.close();
+      }
+   }//end main
+
+}//end Migrator
@@ -0,0 +1,192 @@
+package pizzastore.schema;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+
+/**
+ * Keeps the monthly order partitions of migration V5 ahead of the clock
+ * and, when asked, archives old months.  All of the work is the
+ * maintain_order_partitions() function; this class calls it once
+ * ({@link #run}, or from the command line) or every few minutes from a
+ * daemon thread ({@link #start}).
+ *
+ * Delivered and cancelled orders land in the month of their timestamp,
+ * and FoodOrder's history has no default partition (it would stop the
+ * planner from reading the months in order), so a month must exist before
+ * its first order leaves the active partition.  The function creates the
+ * months from the oldest active order to monthsAhead past today; missing
+ * months only happen when the maintainer has not run for that long.
+ *
+ * Archiving detaches months older than keepMonths that hold no active
+ * orders and moves them to the order_archive schema, where they stay
+ * readable but no longer take part in queries on FoodOrder.
+ *
+ * <pre>
+ *   PartitionMaintainer &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--ahead N] [--keep N]
+ * </pre>
+ *
+ */
+public final class PartitionMaintainer implements AutoCloseable {
+
+   /**
+    * Maintenance settings.  A pass is scheduled every hour by default
+    * (see {@link #fromSystemProperties()}), so the coming months exist
+    * before any order is finished in them.  A database without migration
+    * V5 is left alone.
+    */
+   public static final class Config {
+      int monthsAhead = 3;
+      int keepMonths = 0;
+      long intervalMinutes = 60;
+
+      public Config monthsAhead(int n) { this.monthsAhead = n; return this; }
+      public Config keepMonths(int n) { this.keepMonths = n; return this; }
+      public Config intervalMinutes(long n) { this.intervalMinutes = n; return this; }
+
+      /**
+       * @return true when {@link #start} should schedule runs
+       */
+      public boolean scheduled() { return intervalMinutes > 0; }
+
+      /**
+       * Reads {@code pizzastore.partitions.monthsAhead}, {@code .keepMonths}
+       * (0 never archives) and {@code .intervalMinutes} (60; 0 never runs) on top
+       * of the defaults.
+       */
+      public static Config fromSystemProperties() {
+         Config c = new Config();
+         c.monthsAhead = Integer.getInteger("pizzastore.partitions.monthsAhead", c.monthsAhead);
+         c.keepMonths = Integer.getInteger("pizzastore.partitions.keepMonths", c.keepMonths);
+         c.intervalMinutes = Long.getLong("pizzastore.partitions.intervalMinutes", c.intervalMinutes);
+         return c;
+      }//end fromSystemProperties
+
+      void check() {
+         if (monthsAhead < 0 || keepMonths < 0 || intervalMinutes < 0)
+            throw new IllegalArgumentException("invalid partition settings: ahead=" + monthsAhead
+               + " keep=" + keepMonths + " interval=" + intervalMinutes);
+      }
+   }//end Config
+
+   static final String MAINTAIN = "SELECT * FROM maintain_order_partitions(?, ?);";
+
+   private final ConnectionPool pool;
+   private final Config config;
+   private ScheduledExecutorService scheduler;
+
+   public PartitionMaintainer(ConnectionPool pool, Config config) {
+      config.check();
+      this.pool = pool;
+      this.config = config;
+   }
+
+   /**
+    * @return true when migration V5 has been applied to this database
+    */
+   public static boolean installed(Database db) throws SQLException {
+      return db.queryLong("SELECT count(*) FROM pg_proc WHERE proname = 'maintain_order_partitions';") > 0;
+   }//end installed
+
+   /**
+    * Runs one maintenance pass.  A pass that finds another one running
+    * skips, and DDL that cannot get its lock within five seconds fails the
+    * pass rather than queue the order traffic behind it.
+    *
+    * @return what the pass did, one line per partition created, moved or archived
+    */
+   public List<String> run() throws SQLException {
+      List<String> done = new ArrayList<>();
+      try (PooledConnection conn = pool.borrow()) {
+         conn.connection().setAutoCommit(false);
+         try {
+            try (ResultSet rs = conn.prepare("SELECT pg_try_advisory_xact_lock(hashtext('maintain_order_partitions'));")
+                  .executeQuery()) {
+               rs.next();
+               if (!rs.getBoolean(1)) {
+                  conn.connection().rollback();
+                  return done;
+               }
+            }
+            conn.prepare("SELECT set_config('lock_timeout', '5s', true);").executeQuery().close();
+            try (ResultSet rs = conn.prepare(MAINTAIN, config.monthsAhead,
+                  config.keepMonths > 0 ? config.keepMonths : null).executeQuery()) {
+               while (rs.next()) done.add(rs.getString(1));
+            }
+            conn.connection().commit();
+            return done;
+         } catch (SQLException | RuntimeException e) {
+            conn.connection().rollback();
+            throw e;
+         } finally {
+            conn.connection().setAutoCommit(true);
+         }
+      }
+   }//end run
+
+   /**
+    * Schedules a pass every intervalMinutes, the first one right away.
+    * Does nothing when the interval is 0.  Passes are skipped while the
+    * database does not have migration V5, so it can be applied later.
+    * What a pass did and why it failed are reported on System.err; a
+    * failed pass does not stop the later ones.
+    */
+   public synchronized void start() {
+      if (!config.scheduled() || scheduler != null) return;
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "pizzastore-partitions");
+         t.setDaemon(true);
+         return t;
+      });
+      scheduler.scheduleWithFixedDelay(() -> {
+         try {
+            if (!installed(new Database(pool))) return;
+            // stderr, like the other background components: stdout carries the CLI's menus
+            for (String line : run()) System.err.println("partitions: " + line);
+         } catch (SQLException | RuntimeException e) {
+            // an exception escaping the task would cancel every later pass
+            System.err.println("partition maintenance failed: " + e);
+         }
+      }, 0, config.intervalMinutes, TimeUnit.MINUTES);
+   }//end start
+
+   @Override
+   public synchronized void close() {
+      if (scheduler != null) scheduler.shutdownNow();
+      scheduler = null;
+   }//end close
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws SQLException {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + PartitionMaintainer.class.getName()
+            + " <dbname> <port> <user> [--ahead N] [--keep N]");
+         return;
+      }
+      Config config = new Config();
+      for (int i = 3; i < args.length; i++) {
+         if (args[i].equals("--ahead") && i + 1 < args.length) config.monthsAhead(Integer.parseInt(args[++i]));
+         else if (args[i].equals("--keep") && i + 1 < args.length) config.keepMonths(Integer.parseInt(args[++i]));
+      }
+      ConnectionPool pool = new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         new ConnectionPool.Config().maxSize(1));
+      try {
+         List<String> done = new PartitionMaintainer(pool, config).run();
+         for (String line : done) System.out.println(line);
+         System.out.println(done.size() + " partition change(s).");
+      } finally {
+         pool.close();
+      }
+   }//end main
+
+}//end PartitionMaintainer
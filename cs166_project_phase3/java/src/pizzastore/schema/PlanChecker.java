@@ -0,0 +1,197 @@
+package pizzastore.schema;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+import pizzastore.db.StatementListener;
+import pizzastore.http.Json;
+import pizzastore.service.PizzaService;
+import pizzastore.workload.ReplayDriver;
+import pizzastore.workload.WorkloadGenerator;
+import pizzastore.workload.WorkloadOp;
+
+/**
+ * Checks the query plans of the statements the application issues.  A
+ * workload covering every operation is generated from the database and
+ * replayed once through {@link PizzaService} while a
+ * {@link StatementListener} records each distinct SQL text with the first
+ * parameters it was run with.  Every recorded statement is then EXPLAINed
+ * with those parameters, and the check fails when a plan reads a table of
+ * at least --min-rows rows with a sequential scan.
+ *
+ * Run it against a generated dataset (scripts/load.sh generate); on the
+ * sample data every table is small enough that sequential scans are the
+ * right plan.  The replay places a handful of orders and changes a few
+ * order statuses.
+ *
+ * <pre>
+ *   PlanChecker &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--ops N] [--min-rows N]
+ * </pre>
+ *
+ */
+public final class PlanChecker implements StatementListener {
+
+   /**
+    * The plan of one statement.
+    */
+   public static final class Result {
+      private final String sql;
+      private final List<String> nodes = new ArrayList<>();
+      private final List<String> seqScans = new ArrayList<>();
+
+      Result(String sql) {
+         this.sql = sql;
+      }
+
+      public String sql() { return sql; }
+      /** @return the scan and join nodes of the plan, e.g. "Index Scan using x on foodorder" */
+      public List<String> nodes() { return nodes; }
+      /** @return the large tables the plan reads sequentially; empty when it passes */
+      public List<String> seqScans() { return seqScans; }
+      public boolean passed() { return seqScans.isEmpty(); }
+   }//end Result
+
+   private final Map<String, Object[]> statements = new ConcurrentHashMap<>();
+   private final long minRows;
+   private volatile boolean recording = false;
+
+   /**
+    * @param minRows the table size from which a sequential scan fails the check
+    */
+   public PlanChecker(long minRows) {
+      this.minRows = minRows;
+   }
+
+   @Override
+   public void prepared(String sql, Object[] params) {
+      if (recording) statements.putIfAbsent(sql, params.clone());
+   }//end prepared
+
+   /**
+    * Runs every operation type of the workload through the service so
+    * their statements are recorded.  The pool behind the service must have
+    * this checker as its statement listener.
+    *
+    * @param ops the number of operations to replay
+    */
+   public void capture(PizzaService service, int ops) throws SQLException, InterruptedException {
+      Map<WorkloadOp.Type, Integer> mix = new EnumMap<>(WorkloadOp.Type.class);
+      for (WorkloadOp.Type t : WorkloadOp.Type.values()) {
+         if (t != WorkloadOp.Type.LOGIN) mix.put(t, 1);
+      }
+      List<WorkloadOp> workload = new WorkloadGenerator(service.database(), 20, 166).generate(ops, mix);
+      // only the replay is the application; the generator's sampling queries are not
+      recording = true;
+      try {
+         new ReplayDriver(service, workload).runClosedLoop(1, workload.size(), Long.MAX_VALUE);
+      } finally {
+         recording = false;
+      }
+   }//end capture
+
+   /**
+    * EXPLAINs every recorded statement.
+    *
+    * @return one result per statement, in SQL text order
+    */
+   public List<Result> check(Database db) throws SQLException {
+      Map<String, Long> sizes = new HashMap<>();
+      for (List<String> row : db.executeQueryAndReturnResult(
+            "SELECT relname, reltuples::bigint FROM pg_class WHERE relkind IN ('r', 'p');"))
+         sizes.put(row.get(0), Long.valueOf(row.get(1)));
+
+      List<String> sqls = new ArrayList<>(statements.keySet());
+      sqls.sort(null);
+      List<Result> results = new ArrayList<>();
+      try (PooledConnection conn = db.pool().borrow()) {
+         for (String sql : sqls) {
+            String verb = sql.trim().split("\\s+", 2)[0].toUpperCase(Locale.ROOT);
+            if (!(verb.equals("SELECT") || verb.equals("INSERT") || verb.equals("UPDATE")
+                  || verb.equals("DELETE") || verb.equals("WITH")))
+               continue;
+            // a plain statement, so the EXPLAIN is not recorded as application SQL
+            try (PreparedStatement stmt = conn.connection().prepareStatement("EXPLAIN (FORMAT JSON) " + sql)) {
+               Object[] params = statements.get(sql);
+               for (int i = 0; i < params.length; i++) stmt.setObject(i + 1, params[i]);
+               try (ResultSet rs = stmt.executeQuery()) {
+                  rs.next();
+                  Result result = new Result(sql);
+                  Object plan = ((Map<?, ?>) ((List<?>) Json.parse(rs.getString(1))).get(0)).get("Plan");
+                  walk((Map<?, ?>) plan, sizes, result);
+                  if (!result.nodes.isEmpty()) results.add(result);
+               }
+            }
+         }
+      }
+      return results;
+   }//end check
+
+   private void walk(Map<?, ?> node, Map<String, Long> sizes, Result result) {
+      String type = String.valueOf(node.get("Node Type"));
+      Object relation = node.get("Relation Name");
+      Object index = node.get("Index Name");
+      if (relation == null && index != null) {
+         result.nodes.add(type + " using " + index);
+      } else if (relation != null) {
+         result.nodes.add(type + (index != null ? " using " + index : "") + " on " + relation);
+         Long rows = sizes.get(relation.toString());
+         if (type.equals("Seq Scan") && rows != null && rows >= minRows)
+            result.seqScans.add(relation + " (" + rows + " rows)");
+      }
+      Object children = node.get("Plans");
+      if (children instanceof List) {
+         for (Object child : (List<?>) children) walk((Map<?, ?>) child, sizes, result);
+      }
+   }//end walk
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + PlanChecker.class.getName()
+            + " <dbname> <port> <user> [--ops N] [--min-rows N]");
+         return;
+      }
+      Map<String, String> opts = new HashMap<>();
+      for (int i = 3; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+      PlanChecker checker = new PlanChecker(Long.parseLong(opts.getOrDefault("min-rows", "10000")));
+
+      ConnectionPool pool = new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         new ConnectionPool.Config().maxSize(2).statementListener(checker));
+      int failed = 0;
+      try {
+         PizzaService service = new PizzaService(pool);
+         Database db = service.database();
+         if (db.queryLong("SELECT COUNT(*) FROM FoodOrder;") < checker.minRows)
+            System.out.println("Warning: FoodOrder has fewer than " + checker.minRows
+               + " rows; generate a dataset first (scripts/load.sh generate).");
+         checker.capture(service, Integer.parseInt(opts.getOrDefault("ops", "400")));
+
+         for (Result r : checker.check(db)) {
+            System.out.println((r.passed() ? "ok    " : "FAIL  ") + r.sql().replaceAll("\\s+", " "));
+            for (String node : r.nodes()) System.out.println("        " + node);
+            if (!r.passed()) {
+               System.out.println("        sequential scan of " + String.join(", ", r.seqScans()));
+               failed++;
+            }
+         }
+      } finally {
+         pool.close();
+      }
+      System.out.println(failed == 0 ? "All plans use indexes on the large tables." : failed + " statement(s) failed.");
+      if (failed > 0) System.exit(1);
+   }//end main
+
+}//end PlanChecker
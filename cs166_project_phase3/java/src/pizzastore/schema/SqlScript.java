@@ -0,0 +1,86 @@
+package pizzastore.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a SQL script into statements at the semicolons that end them.
+ * Semicolons inside quoted strings, quoted identifiers, comments and
+ * dollar-quoted bodies ($$ ... $$, $fn$ ... $fn$) are kept.
+ *
+ */
+final class SqlScript {
+
+   private SqlScript() {
+   }
+
+   /**
+    * @return the statements without their terminating semicolons; blank
+    *         and comment-only statements are dropped
+    */
+   static List<String> split(String script) {
+      List<String> statements = new ArrayList<>();
+      StringBuilder current = new StringBuilder();
+      boolean code = false;
+      int i = 0;
+      int n = script.length();
+      while (i < n) {
+         char c = script.charAt(i);
+         int end;
+         if (c == '-' && i + 1 < n && script.charAt(i + 1) == '-') {
+            end = script.indexOf('\n', i);
+            end = end < 0 ? n : end + 1;
+         } else if (c == '/' && i + 1 < n && script.charAt(i + 1) == '*') {
+            end = script.indexOf("*/", i + 2);
+            end = end < 0 ? n : end + 2;
+         } else if (c == '\'' || c == '"') {
+            end = i + 1;
+            while (end < n) {
+               if (script.charAt(end) == c) {
+                  // a doubled quote is an escaped quote
+                  if (end + 1 < n && script.charAt(end + 1) == c) end += 2;
+                  else break;
+               } else {
+                  end++;
+               }
+            }
+            end = Math.min(end + 1, n);
+            code = true;
+         } else if (c == '$' && (end = dollarTagEnd(script, i)) > 0) {
+            String tag = script.substring(i, end);
+            int close = script.indexOf(tag, end);
+            end = close < 0 ? n : close + tag.length();
+            code = true;
+         } else if (c == ';') {
+            if (code) statements.add(current.toString().trim());
+            current.setLength(0);
+            code = false;
+            i++;
+            continue;
+         } else {
+            end = i + 1;
+            if (!Character.isWhitespace(c)) code = true;
+         }
+         current.append(script, i, end);
+         i = end;
+      }
+      if (code) statements.add(current.toString().trim());
+      return statements;
+   }//end split
+
+   /**
+    * @return the index just past a dollar-quote tag starting at i, or -1
+    */
+   private static int dollarTagEnd(String script, int i) {
+      // $1 is a parameter, not a tag
+      int j = i + 1;
+      while (j < script.length()) {
+         char c = script.charAt(j);
+         if (c == '$') return j + 1;
+         if (!(Character.isLetterOrDigit(c) || c == '_') || (j == i + 1 && Character.isDigit(c))) return -1;
+         j++;
+      }
+      return -1;
+   }//end dollarTagEnd
+
+}//end SqlScript
@@ -0,0 +1,777 @@
+package pizzastore.service;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.events.OrderEvent;
+import pizzastore.events.OrderEvents;
+import pizzastore.events.Subscription;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.menu.MenuItem;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+import pizzastore.metrics.SlowQueryLog;
+import pizzastore.order.OrderDetails;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPager;
+import pizzastore.order.OrderPlacer;
+import pizzastore.order.OrderQueue;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.RecentOrders;
+import pizzastore.order.StatusUpdate;
+import pizzastore.report.ItemSales;
+import pizzastore.report.SalesReport;
+import pizzastore.report.SalesRow;
+import pizzastore.report.SalesTotal;
+import pizzastore.schema.PartitionMaintainer;
+import pizzastore.session.Role;
+import pizzastore.session.Session;
+import pizzastore.session.SessionRegistry;
+import pizzastore.storage.OrderItemRepository;
+import pizzastore.storage.OrderRepository;
+import pizzastore.storage.Storage;
+import pizzastore.storage.UserRepository;
+import pizzastore.storage.postgres.PostgresStorage;
+import pizzastore.storage.sharded.ShardMap;
+import pizzastore.storage.sharded.ShardedStorage;
+import pizzastore.store.Store;
+import pizzastore.store.StoreDirectory;
+
+import static pizzastore.service.ServiceException.Kind.BUSY;
+import static pizzastore.service.ServiceException.Kind.CONFLICT;
+import static pizzastore.service.ServiceException.Kind.FORBIDDEN;
+import static pizzastore.service.ServiceException.Kind.INVALID;
+import static pizzastore.service.ServiceException.Kind.NOT_FOUND;
+import static pizzastore.service.ServiceException.Kind.UNAUTHENTICATED;
+
+/**
+ * Every operation of the pizza store without any console I/O.  The
+ * terminal client and the HTTP API are both thin front ends over one
+ * instance, which is safe to call from any number of threads: state lives
+ * in the storage engine, the copy-on-write menu and store directory, the
+ * session registry and the recent-orders cache.
+ *
+ * The tables are reached through the repositories of a {@link Storage}:
+ * PostgreSQL, or the embedded engine when there is no database server.
+ * Sales reports and pool statistics need the database server.
+ *
+ * Authorization is decided here from the caller's {@link Session}; refused
+ * requests raise a {@link ServiceException} whose message is the text the
+ * terminal client has always shown.
+ *
+ */
+public final class PizzaService {
+
+   /**
+    * The values orderStatus may be set to, in the order they happen.
+    */
+   public static final List<String> ORDER_STATUSES = Collections.unmodifiableList(
+      Arrays.asList("Order Received", "Preparing", "Out for Delivery", "Delivered"));
+
+   /**
+    * The most orderIDs one bulk status change may list.
+    */
+   public static final int BULK_STATUS_LIMIT = 1000;
+
+   /**
+    * How long {@link #placeOrder} waits for its order to be written.
+    */
+   static final long PLACE_TIMEOUT_MILLIS = Long.getLong("pizzastore.orders.placeTimeoutMs", 30_000L);
+
+   /**
+    * Number of orders in the "recent orders" listing.
+    */
+   public static final int RECENT_ORDERS = 5;
+
+   /**
+    * Number of stores a store search returns unless told otherwise.
+    */
+   public static final int STORE_SEARCH_LIMIT = 20;
+
+   /**
+    * How long an order-event batch stays open for further changes.
+    */
+   static final long EVENT_LINGER_MILLIS = 200;
+
+   private final Storage storage;
+   private final UserRepository users;
+   private final OrderRepository orders;
+   private final OrderItemRepository orderItems;
+   private final MenuCatalog menu;
+   private final StoreDirectory stores;
+   private final SalesReport reports;
+   private final SessionRegistry sessions = new SessionRegistry();
+   private final OrderEvents events;
+   private final RecentOrders recent = new RecentOrders(RECENT_ORDERS, RecentOrders.DEFAULT_BUDGET_BYTES);
+   private volatile boolean followingChanges = false;
+
+   /**
+    * Group commit, partition maintenance, replicas and order shards are
+    * configured from system properties; see
+    * {@link PostgresStorage#PostgresStorage(ConnectionPool)} and
+    * {@link ShardMap.Config#fromSystemProperties()}.
+    *
+    * @throws java.sql.SQLException when a replica or shard cannot be reached
+    */
+   public PizzaService(ConnectionPool pool) throws SQLException {
+      this(postgres(pool, ShardMap.Config.fromSystemProperties()));
+   }
+
+   /**
+    * @param orders the order queue settings; orders are written one
+    *        transaction each unless they enable it
+    * @param partitions the order partition maintenance, run on a timer
+    *        unless its interval is 0
+    */
+   public PizzaService(ConnectionPool pool, OrderQueue.Config orders, PartitionMaintainer.Config partitions) {
+      this(new PostgresStorage(pool, orders, partitions));
+   }
+
+   /**
+    * @param storage the engine holding the tables; closed with this service
+    */
+   public PizzaService(Storage storage) {
+      this.storage = storage;
+      this.users = storage.users();
+      this.orders = storage.orders();
+      this.orderItems = storage.orderItems();
+      this.menu = new MenuCatalog(storage.items());
+      this.stores = new StoreDirectory(storage.stores());
+      this.reports = storage.reports();
+      this.events = storage.events(EVENT_LINGER_MILLIS);
+   }
+
+   private static Storage postgres(ConnectionPool pool, ShardMap.Config shards) throws SQLException {
+      return shards.enabled() ? new ShardedStorage(pool, shards) : new PostgresStorage(pool);
+   }//end postgres
+
+   /**
+    * @return the query helpers, for callers that need plain SQL; null on
+    *         an engine without a database server
+    */
+   public Database database() {
+      return storage.database();
+   }//end database
+
+   // ---------------------------------------------------------------- users
+
+   /**
+    * Registers a new customer.
+    *
+    * @throws ServiceException CONFLICT when the login is taken
+    * @throws java.sql.SQLException when the insert fails
+    */
+   public void createUser(String login, String password, String phoneNum) throws ServiceException, SQLException {
+      if (isBlank(login) || isBlank(password) || isBlank(phoneNum))
+         throw new ServiceException(INVALID, "Login, password and phone number are required.");
+      if (!users.insert(login, password, phoneNum))
+         throw new ServiceException(CONFLICT, "Username already exists. Please choose a different one.");
+   }//end createUser
+
+   /**
+    * Checks a login and password.  The role is read in the same query, so
+    * later authorization checks need no further round trips.
+    *
+    * @return the new session
+    * @throws ServiceException UNAUTHENTICATED when the credentials do not match
+    * @throws java.sql.SQLException when the lookup fails
+    */
+   public Session logIn(String login, String password) throws ServiceException, SQLException {
+      long version = sessions.currentVersion(login);
+      Role role = users.authenticate(login, password);
+      if (role == null) throw new ServiceException(UNAUTHENTICATED, "Invalid login or password.");
+      Session session = sessions.open(login, role, version);
+      // most sessions check their orders first; warm their ring now
+      recentOrders(session);
+      return session;
+   }//end logIn
+
+   /**
+    * Revalidates a session before an action.  A session whose role version
+    * is still current is returned as is; a stale one has its role re-read.
+    *
+    * @return the current session, or null when the user no longer exists
+    * @throws java.sql.SQLException when the role lookup fails
+    */
+   public Session refresh(Session session) throws SQLException {
+      if (sessions.isCurrent(session)) return session;
+      long version = sessions.currentVersion(session.login());
+      Role role = users.role(session.login());
+      if (role == null) return null;
+      return sessions.open(session.login(), role, version);
+   }//end refresh
+
+   /**
+    * @return the profile of the session's own user
+    */
+   public UserProfile profile(Session session) throws ServiceException, SQLException {
+      return findUser(session.login());
+   }//end profile
+
+   /**
+    * Changes one field of the session's own profile.
+    */
+   public void updateProfile(Session session, UserField field, String value) throws ServiceException, SQLException {
+      writeUserField(session.login(), field, value);
+   }//end updateProfile
+
+   /**
+    * @return the profile of any user; managers only
+    */
+   public UserProfile user(Session session, String login) throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update user roles.");
+      return findUser(login);
+   }//end user
+
+   /**
+    * Changes one field of any user's profile; managers only.
+    */
+   public void updateUser(Session session, String login, UserField field, String value)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update user roles.");
+      writeUserField(login, field, value);
+   }//end updateUser
+
+   /**
+    * Changes a user's role; managers only.  Open sessions of that user pick
+    * up the new role on their next action.
+    *
+    * @param role "customer", "driver" or "manager" in any case
+    */
+   public void changeRole(Session session, String login, String role) throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update user roles.");
+      if (role == null || !(role.equalsIgnoreCase("customer") || role.equalsIgnoreCase("driver")
+            || role.equalsIgnoreCase("manager")))
+         throw new ServiceException(INVALID, "Invalid role. Please enter 'customer', 'driver', or 'manager'.");
+      if (!users.updateRole(login, role.trim()))
+         throw new ServiceException(NOT_FOUND, "User not found.");
+      sessions.invalidate(login);
+   }//end changeRole
+
+   private UserProfile findUser(String login) throws ServiceException, SQLException {
+      UserProfile profile = users.find(login);
+      if (profile == null) throw new ServiceException(NOT_FOUND, "User not found.");
+      return profile;
+   }//end findUser
+
+   private void writeUserField(String login, UserField field, String value) throws ServiceException, SQLException {
+      if (field != UserField.FAVORITE_ITEMS && isBlank(value))
+         throw new ServiceException(INVALID, field.label() + " cannot be empty.");
+      if (!users.update(login, field, value))
+         throw new ServiceException(NOT_FOUND, "User not found.");
+   }//end writeUserField
+
+   // ----------------------------------------------------------------- menu
+
+   /**
+    * @return the current menu snapshot, answered from memory
+    */
+   public MenuCatalog.Snapshot menu() throws SQLException {
+      return menu.snapshot();
+   }//end menu
+
+   /**
+    * Adds an item; managers only.
+    *
+    * @throws ServiceException CONFLICT when an item of that name exists
+    */
+   public MenuItem addMenuItem(Session session, String itemName, String ingredients, String typeOfItem,
+                               BigDecimal price, String description) throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update the menu.");
+      if (isBlank(itemName) || price == null || price.signum() < 0)
+         throw new ServiceException(INVALID, "An item needs a name and a non-negative price.");
+      if (menu.snapshot().find(itemName) != null)
+         throw new ServiceException(CONFLICT, "Item already exists.");
+      return menu.addItem(itemName.trim(), ingredients, typeOfItem, price, description);
+   }//end addMenuItem
+
+   public MenuItem updatePrice(Session session, String itemName, BigDecimal price)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update the menu.");
+      if (price == null || price.signum() < 0)
+         throw new ServiceException(INVALID, "Price cannot be negative.");
+      return found(menu.updatePrice(itemName, price));
+   }//end updatePrice
+
+   public MenuItem updateType(Session session, String itemName, String typeOfItem)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update the menu.");
+      return found(menu.updateType(itemName, typeOfItem));
+   }//end updateType
+
+   public MenuItem updateIngredients(Session session, String itemName, String ingredients)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update the menu.");
+      return found(menu.updateIngredients(itemName, ingredients));
+   }//end updateIngredients
+
+   public MenuItem updateDescription(Session session, String itemName, String description)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update the menu.");
+      return found(menu.updateDescription(itemName, description));
+   }//end updateDescription
+
+   /**
+    * Deletes an item that has never been ordered; managers only.
+    *
+    * @throws ServiceException CONFLICT when the item appears in an order
+    */
+   public void deleteMenuItem(Session session, String itemName) throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can update the menu.");
+      // the menu resolves the name case-insensitively, so the check can use the exact spelling
+      MenuItem item = found(menu.snapshot().find(itemName));
+      if (orderItems.ordered(item.itemName()))
+         throw new ServiceException(CONFLICT, "Cannot delete item. It is associated with existing orders.");
+      if (!menu.deleteItem(item.itemName()))
+         throw new ServiceException(NOT_FOUND, "Item not found.");
+   }//end deleteMenuItem
+
+   private static MenuItem found(MenuItem item) throws ServiceException {
+      if (item == null) throw new ServiceException(NOT_FOUND, "Item not found.");
+      return item;
+   }//end found
+
+   // --------------------------------------------------------------- stores
+
+   /**
+    * @return every store ordered by storeID, answered from memory
+    */
+   public List<Store> stores() throws SQLException {
+      followChanges();
+      return stores.snapshot().all();
+   }//end stores
+
+   /**
+    * Finds stores best reviewed first, answered from memory.  Every
+    * criterion is optional.
+    *
+    * @param state the state, ignoring case
+    * @param city the city or the start of its name, ignoring case
+    * @param openOnly true to skip closed stores
+    * @param limit the most stores returned
+    */
+   public List<Store> searchStores(String state, String city, boolean openOnly, int limit) throws SQLException {
+      followChanges();
+      return stores.snapshot().search(state, city, openOnly, limit);
+   }//end searchStores
+
+   // --------------------------------------------------------------- orders
+
+   /**
+    * Places an order for the session's user in one transaction.  With
+    * group commit on, the order shares its commit with others placed at the
+    * same moment; either way this returns once the order is durable, or
+    * fails after {@code pizzastore.orders.placeTimeoutMs} (30s) of waiting.
+    *
+    * @param lines item name mapped to quantity
+    * @return the receipt; {@link OrderReceipt#placed()} is false when no name matched the menu
+    * @throws ServiceException INVALID when there are no lines or a quantity is not positive,
+    *         NOT_FOUND when there is no such store, BUSY when the order queue is full
+    */
+   public OrderReceipt placeOrder(Session session, int storeID, Map<String, Integer> lines)
+         throws ServiceException, SQLException {
+      CompletableFuture<OrderReceipt> placed = placeOrderAsync(session, storeID, lines);
+      try {
+         return placed.get(PLACE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while the order was being written; it may still be placed.", e);
+      } catch (TimeoutException e) {
+         throw new SQLException("Timed out while the order was being written; it may still be placed.", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException) throw (SQLException) cause;
+         if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+         throw new SQLException(cause);
+      }
+   }//end placeOrder
+
+   /**
+    * Validates and prices an order now and hands it to the storage, which
+    * writes it through the order queue when group commit is on, otherwise
+    * at once on the caller's thread.
+    *
+    * @return completes with the receipt once the order is committed
+    * @see #placeOrder
+    */
+   public CompletableFuture<OrderReceipt> placeOrderAsync(Session session, int storeID, Map<String, Integer> lines)
+         throws ServiceException, SQLException {
+      if (lines == null || lines.isEmpty())
+         throw new ServiceException(INVALID, "Order canceled. No items were added.");
+      for (Map.Entry<String, Integer> line : lines.entrySet()) {
+         if (line.getValue() == null || line.getValue() <= 0)
+            throw new ServiceException(INVALID, "Quantity must be positive.");
+      }
+      followChanges();
+      if (stores.find(storeID) == null) throw new ServiceException(NOT_FOUND, "Store not found.");
+      long start = System.nanoTime();
+      OrderPlacer.Priced priced = OrderPlacer.price(menu.snapshot(), lines);
+      try {
+         return orders.place(priced, session.login(), storeID, System.nanoTime() - start)
+            .thenApply(receipt -> {
+               if (receipt.placed()) recent.placed(receipt.order());
+               return receipt;
+            });
+      } catch (RejectedExecutionException e) {
+         throw new ServiceException(BUSY, "We are taking too many orders right now. Please try again shortly.");
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new ServiceException(BUSY, "Order canceled.");
+      }
+   }//end placeOrderAsync
+
+   /**
+    * Places the same items as an earlier order, at today's prices, in one
+    * statement.  The order must be one the session may read.
+    *
+    * @param storeID the store to order from, or null for the store of the earlier order
+    * @return the receipt; {@link OrderReceipt#placed()} is false when none of its items is on the menu
+    * @throws ServiceException NOT_FOUND when there is no such order or store,
+    *         FORBIDDEN when a customer names another customer's order
+    */
+   public OrderReceipt reorder(Session session, int orderID, Integer storeID) throws ServiceException, SQLException {
+      OrderRow from = order(session, orderID);
+      int store = storeID == null ? from.storeID() : storeID;
+      followChanges();
+      if (stores.find(store) == null) throw new ServiceException(NOT_FOUND, "Store not found.");
+      return placed(orders.reorder(from, session.login(), store));
+   }//end reorder
+
+   /**
+    * Orders one of each item in the session's favoriteItems, at today's
+    * prices, in one statement.
+    *
+    * @return the receipt, listing the favorites that are not on the menu
+    * @throws ServiceException NOT_FOUND when there is no such store,
+    *         INVALID when the user has no favorite items
+    */
+   public OrderReceipt reorderFavorites(Session session, int storeID) throws ServiceException, SQLException {
+      followChanges();
+      if (stores.find(storeID) == null) throw new ServiceException(NOT_FOUND, "Store not found.");
+      OrderReceipt receipt = orders.reorderFavorites(session.login(), storeID);
+      if (!receipt.placed() && receipt.unknownItems().isEmpty())
+         throw new ServiceException(INVALID, "You have no favorite items. Add some to your profile first.");
+      return placed(receipt);
+   }//end reorderFavorites
+
+   private OrderReceipt placed(OrderReceipt receipt) {
+      if (receipt.placed()) recent.placed(receipt.order());
+      return receipt;
+   }//end placed
+
+   /**
+    * Pages through the orders the session may see, newest first.  Customers
+    * only ever see their own orders whatever the filter says.
+    *
+    * @param startBelow resume below this {@link OrderPager#cursor()}, or null for the newest
+    * @throws IllegalArgumentException when startBelow is not a cursor
+    */
+   public OrderPager orders(Session session, OrderFilter filter, int pageSize, String startBelow) {
+      OrderFilter visible = session.role().handlesOrders() ? filter : filter.copy().login(session.login());
+      return new OrderPager(orders, visible, session.login(), pageSize, startBelow);
+   }//end orders
+
+   /**
+    * Answered from the recent-orders cache, which {@link #logIn} fills;
+    * only a list that is not cached is read from the database.
+    *
+    * @return the {@link #RECENT_ORDERS} newest orders the session may see
+    */
+   public List<OrderRow> recentOrders(Session session) throws SQLException {
+      boolean staff = session.role().handlesOrders();
+      List<OrderRow> rows = staff ? recent.latest() : recent.forCustomer(session.login());
+      if (rows != null) return rows;
+      followChanges();
+      long stamp = recent.stamp();
+      rows = new ArrayList<>(RECENT_ORDERS);
+      orders(session, new OrderFilter(), RECENT_ORDERS, null).nextPage(rows::add);
+      if (staff) recent.fillLatest(rows, stamp);
+      else recent.fillCustomer(session.login(), rows, stamp);
+      return rows;
+   }//end recentOrders
+
+   /**
+    * Keeps the recent-orders cache and the store directory in step with
+    * changes made by other processes.
+    */
+   private void followChanges() {
+      if (followingChanges) return;
+      synchronized (this) {
+         if (followingChanges) return;
+         followingChanges = true;
+      }
+      events.addListener(new OrderEvents.Listener() {
+         @Override
+         public void changed(OrderEvent e) {
+            OrderRow row = e.row();
+            if (row != null) recent.placed(row);
+            else if (e.placed()) recent.placedElsewhere(e.orderID(), e.login());
+            else recent.statusChanged(e.orderID(), e.login(), e.status());
+         }
+
+         @Override
+         public void storesChanged() {
+            stores.invalidate();
+         }
+
+         @Override
+         public void missed() {
+            recent.clear();
+            stores.invalidate();
+         }
+      });
+   }//end followChanges
+
+   /**
+    * @return one order; customers may only read their own
+    * @throws ServiceException NOT_FOUND or FORBIDDEN
+    */
+   public OrderRow order(Session session, int orderID) throws ServiceException, SQLException {
+      OrderRow order = orders.find(orderID, session.login());
+      if (order == null) throw new ServiceException(NOT_FOUND, "Order not found.");
+      if (!session.role().handlesOrders() && !order.login().trim().equals(session.login()))
+         throw new ServiceException(FORBIDDEN, "Permission denied. You can only view your own orders.");
+      return order;
+   }//end order
+
+   /**
+    * @return one order with its items; customers may only read their own
+    */
+   public OrderDetails orderDetails(Session session, int orderID) throws ServiceException, SQLException {
+      OrderRow order = order(session, orderID);
+      return new OrderDetails(order, orderItems.items(order, session.login()));
+   }//end orderDetails
+
+   /**
+    * Sets the status of an order; drivers and managers only.  A driver
+    * moves an order one step along {@link #ORDER_STATUSES}, as
+    * {@link #updateOrderStatuses} does; a manager may set any status, e.g.
+    * to correct a mistake.
+    *
+    * @param status one of {@link #ORDER_STATUSES}
+    * @throws ServiceException FORBIDDEN, INVALID, NOT_FOUND, or CONFLICT
+    *         when a driver names an order not in the status before this one
+    */
+   public void updateOrderStatus(Session session, int orderID, String status) throws ServiceException, SQLException {
+      if (!session.role().isManager()) {
+         StatusUpdate update = updateOrderStatuses(session, Collections.singletonList(orderID), status);
+         if (!update.missing().isEmpty()) throw new ServiceException(NOT_FOUND, "Order not found.");
+         String skipped = update.skipped().get(orderID);
+         if (skipped != null) throw new ServiceException(CONFLICT, skipped);
+         return;
+      }
+      if (!ORDER_STATUSES.contains(status))
+         throw new ServiceException(INVALID, "Invalid status choice. Please try again.");
+      String login = orders.updateStatus(orderID, status, session.login());
+      if (login == null) throw new ServiceException(NOT_FOUND, "Order not found.");
+      recent.statusChanged(orderID, login, status);
+   }//end updateOrderStatus
+
+   /**
+    * Moves the listed orders to a status in one write; drivers and
+    * managers only.  Unlike {@link #updateOrderStatus} for a manager, which
+    * may set any status, an order only moves one step along {@link #ORDER_STATUSES}:
+    * the orders not in the status before it are left alone and reported.
+    *
+    * @param status the status the orders move to, after "Order Received"
+    * @return the orders changed and the ones skipped, with the reason
+    * @throws ServiceException FORBIDDEN, or INVALID for a status no order
+    *         can move to or when none or more than {@link #BULK_STATUS_LIMIT}
+    *         orders are listed
+    */
+   public StatusUpdate updateOrderStatuses(Session session, Collection<Integer> orderIDs, String status)
+         throws ServiceException, SQLException {
+      String from = statusBefore(session, status);
+      if (orderIDs.isEmpty()) throw new ServiceException(INVALID, "No orders given.");
+      if (orderIDs.size() > BULK_STATUS_LIMIT)
+         throw new ServiceException(INVALID, "At most " + BULK_STATUS_LIMIT + " orders can be updated at once.");
+      return statusesChanged(orders.updateStatuses(orderIDs, from, status, session.login()));
+   }//end updateOrderStatuses
+
+   /**
+    * Moves every order in progress the filter matches that is in the
+    * status before this one, e.g. all Preparing orders of a store placed
+    * before a given time, in one write; drivers and managers only.  The
+    * other orders in progress it matches are reported as skipped.
+    *
+    * @param status the status the orders move to, after "Order Received"
+    * @return the orders changed and the ones skipped, with the reason
+    * @throws ServiceException FORBIDDEN, or INVALID for a status no order can move to
+    */
+   public StatusUpdate updateOrderStatuses(Session session, OrderFilter filter, String status)
+         throws ServiceException, SQLException {
+      String from = statusBefore(session, status);
+      return statusesChanged(orders.updateStatuses(filter, from, status, session.login()));
+   }//end updateOrderStatuses
+
+   /**
+    * @return the status an order must be in to move to this one
+    */
+   private static String statusBefore(Session session, String status) throws ServiceException {
+      if (!session.role().handlesOrders())
+         throw new ServiceException(FORBIDDEN, "Permission denied. Only drivers and managers can update order status.");
+      int step = ORDER_STATUSES.indexOf(status);
+      if (step < 0) throw new ServiceException(INVALID, "Invalid status choice. Please try again.");
+      if (step == 0) throw new ServiceException(INVALID, "Orders are Order Received when placed; no order can move back to it.");
+      return ORDER_STATUSES.get(step - 1);
+   }//end statusBefore
+
+   private StatusUpdate statusesChanged(StatusUpdate update) {
+      for (Map.Entry<Integer, String> e : update.updated().entrySet()) {
+         recent.statusChanged(e.getKey(), e.getValue(), update.to());
+      }
+      return update;
+   }//end statusesChanged
+
+   /**
+    * Follows order changes as they happen instead of re-reading orders.
+    * Customers follow their own orders whatever stores are given; drivers
+    * name the stores they deliver for; managers may leave the stores empty
+    * to follow every store.
+    *
+    * @param storeIDs the stores to follow, ignored for customers
+    * @return the subscription; the caller closes it
+    * @throws ServiceException INVALID when a driver names no store
+    */
+   public Subscription watchOrders(Session session, Set<Integer> storeIDs) throws ServiceException {
+      if (!session.role().handlesOrders()) return events.forCustomer(session.login());
+      if (storeIDs == null || storeIDs.isEmpty()) {
+         if (!session.role().isManager())
+            throw new ServiceException(INVALID, "Drivers must choose the stores they deliver for.");
+         return events.forStores(null);
+      }
+      return events.forStores(storeIDs);
+   }//end watchOrders
+
+   // -------------------------------------------------------------- reports
+
+   /**
+    * @return orders and revenue per hour in [from, until); managers only
+    */
+   public List<SalesRow> salesByHour(Session session, int storeID, Timestamp from, Timestamp until)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can view sales reports.");
+      return reports().hourly(storeID, from, until);
+   }//end salesByHour
+
+   /**
+    * @return orders and revenue per day in [from, until); managers only
+    */
+   public List<SalesRow> salesByDay(Session session, int storeID, Timestamp from, Timestamp until)
+         throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can view sales reports.");
+      return reports().daily(storeID, from, until);
+   }//end salesByDay
+
+   /**
+    * @return the store's best sellers by units sold; managers only
+    */
+   public List<ItemSales> topItems(Session session, int storeID, int limit) throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can view sales reports.");
+      return reports().topItems(storeID, limit);
+   }//end topItems
+
+   /**
+    * @param storeID the store, or null for every store
+    * @return all-time orders, revenue and average ticket; managers only
+    */
+   public SalesTotal salesTotal(Session session, Integer storeID) throws ServiceException, SQLException {
+      requireManager(session, "Permission denied. Only managers can view sales reports.");
+      return reports().total(storeID);
+   }//end salesTotal
+
+   private SalesReport reports() throws ServiceException {
+      if (reports == null) throw new ServiceException(NOT_FOUND, "Sales reports need the database server.");
+      return reports;
+   }//end reports
+
+   // ------------------------------------------------------------ operations
+
+   /**
+    * @return the connection pool counters; managers only
+    */
+   public PoolStats poolStats(Session session) throws ServiceException {
+      requireManager(session, "Permission denied. Only managers can view pool statistics.");
+      PoolStats stats = storage.poolStats();
+      if (stats == null) throw new ServiceException(NOT_FOUND, "This store runs without a database server.");
+      return stats;
+   }//end poolStats
+
+   /**
+    * @return the counters of the recent-orders cache and the storage
+    *         engine (e.g. the order queue), one per line; managers only
+    */
+   public String serviceStats(Session session) throws ServiceException {
+      requireManager(session, "Permission denied. Only managers can view pool statistics.");
+      String engine = storage.stats();
+      return engine.isEmpty() ? recent.toString() : recent + System.lineSeparator() + engine;
+   }//end serviceStats
+
+   /**
+    * @return the latency, rows and errors of every database call site,
+    *         busiest first, and the newest slow calls, as text; managers only
+    */
+   public String callStats(Session session) throws ServiceException {
+      requireManager(session, "Permission denied. Only managers can view database call statistics.");
+      return CallSites.dump();
+   }//end callStats
+
+   /**
+    * @return every database call site, busiest first; managers only
+    */
+   public List<CallSite> callSites(Session session) throws ServiceException {
+      requireManager(session, "Permission denied. Only managers can view database call statistics.");
+      return CallSites.all();
+   }//end callSites
+
+   /**
+    * @return the newest slow-query log entries, oldest first; managers only
+    */
+   public List<String> slowQueries(Session session) throws ServiceException {
+      requireManager(session, "Permission denied. Only managers can view database call statistics.");
+      return SlowQueryLog.get().recent();
+   }//end slowQueries
+
+   /**
+    * Starts the call-site counters and the slow-query log over; managers only.
+    */
+   public void resetCallStats(Session session) throws ServiceException {
+      requireManager(session, "Permission denied. Only managers can reset database call statistics.");
+      CallSites.reset();
+   }//end resetCallStats
+
+   /**
+    * Closes the storage, which writes the orders still queued, then stops
+    * the order event listener.  A connection pool is the caller's to close.
+    */
+   public void close() {
+      storage.close();
+      events.close();
+   }//end close
+
+   private static void requireManager(Session session, String message) throws ServiceException {
+      if (!session.role().isManager()) throw new ServiceException(FORBIDDEN, message);
+   }//end requireManager
+
+   private static boolean isBlank(String s) {
+      return s == null || s.trim().isEmpty();
+   }//end isBlank
+
+}//end PizzaService
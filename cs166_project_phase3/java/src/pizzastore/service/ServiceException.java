@@ -0,0 +1,25 @@
+package pizzastore.service;
+
+/**
+ * A request the service refused.  The message is meant for the end user;
+ * the kind tells front ends how to report it.
+ *
+ */
+public class ServiceException extends Exception {
+
+   private static final long serialVersionUID = 1L;
+
+   public enum Kind { INVALID, UNAUTHENTICATED, FORBIDDEN, NOT_FOUND, CONFLICT, BUSY }
+
+   private final Kind kind;
+
+   public ServiceException(Kind kind, String message) {
+      super(message);
+      this.kind = kind;
+   }
+
+   public Kind kind() {
+      return kind;
+   }//end kind
+
+}//end ServiceException
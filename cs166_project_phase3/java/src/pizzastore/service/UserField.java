@@ -0,0 +1,34 @@
+package pizzastore.service;
+
+/**
+ * The Users columns a user may change on a profile.
+ *
+ */
+public enum UserField {
+   PHONE("phoneNum", "Phone number"),
+   FAVORITE_ITEMS("favoriteItems", "Favorite item"),
+   PASSWORD("password", "Password");
+
+   private final String column;
+   private final String label;
+
+   UserField(String column, String label) {
+      this.column = column;
+      this.label = label;
+   }
+
+   /**
+    * @return the Users column, also used as the JSON field name
+    */
+   public String column() {
+      return column;
+   }//end column
+
+   /**
+    * @return the name shown to users, e.g. "Phone number"
+    */
+   public String label() {
+      return label;
+   }//end label
+
+}//end UserField
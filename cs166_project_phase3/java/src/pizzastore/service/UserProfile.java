@@ -0,0 +1,40 @@
+package pizzastore.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import pizzastore.session.Role;
+
+/**
+ * The visible part of a Users row (everything but the password).
+ *
+ */
+public final class UserProfile {
+
+   public static final String COLUMNS = "login, favoriteItems, phoneNum, role";
+
+   private final String login;
+   private final String favoriteItems;
+   private final String phoneNum;
+   private final Role role;
+
+   public UserProfile(String login, String favoriteItems, String phoneNum, Role role) {
+      this.login = login;
+      this.favoriteItems = favoriteItems;
+      this.phoneNum = phoneNum;
+      this.role = role;
+   }
+
+   /**
+    * Reads the current row of a result set selected with {@link #COLUMNS}.
+    */
+   public static UserProfile fromRow(ResultSet rs) throws SQLException {
+      return new UserProfile(rs.getString(1), rs.getString(2), rs.getString(3), Role.parse(rs.getString(4)));
+   }//end fromRow
+
+   public String login() { return login; }
+   public String favoriteItems() { return favoriteItems; }
+   public String phoneNum() { return phoneNum; }
+   public Role role() { return role; }
+
+}//end UserProfile
@@ -0,0 +1,46 @@
+package pizzastore.session;
+
+import java.util.Locale;
+
+/**
+ * The roles stored in Users.role.
+ *
+ */
+public enum Role {
+   CUSTOMER, DRIVER, MANAGER;
+
+   /**
+    * Parses the char(20) role column.  Padding and case are ignored and an
+    * unrecognised value maps to the least privileged role.
+    *
+    * @param value the raw column value
+    * @return the matching role, CUSTOMER when unknown
+    */
+   public static Role parse(String value) {
+      if (value == null) return CUSTOMER;
+      switch (value.trim().toLowerCase(Locale.ROOT)) {
+         case "manager": return MANAGER;
+         case "driver": return DRIVER;
+         default: return CUSTOMER;
+      }
+   }//end parse
+
+   /**
+    * @return true for drivers and managers, who may see and update every order
+    */
+   public boolean handlesOrders() {
+      return this == DRIVER || this == MANAGER;
+   }//end handlesOrders
+
+   public boolean isManager() {
+      return this == MANAGER;
+   }//end isManager
+
+   /**
+    * @return the lower-case spelling used in the Users table
+    */
+   public String dbValue() {
+      return name().toLowerCase(Locale.ROOT);
+   }//end dbValue
+
+}//end Role
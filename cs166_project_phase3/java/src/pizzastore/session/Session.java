@@ -0,0 +1,31 @@
+package pizzastore.session;
+
+/**
+ * An authenticated user.  Carries the role read at login together with the
+ * role version it was read under, so authorization checks are answered in
+ * memory and a role change made elsewhere in the process is noticed through
+ * {@link SessionRegistry#isCurrent(Session)}.
+ *
+ */
+public final class Session {
+
+   private final String login;
+   private final Role role;
+   private final long roleVersion;
+
+   Session(String login, Role role, long roleVersion) {
+      this.login = login;
+      this.role = role;
+      this.roleVersion = roleVersion;
+   }
+
+   public String login() { return login; }
+   public Role role() { return role; }
+   public long roleVersion() { return roleVersion; }
+
+   @Override
+   public String toString() {
+      return login;
+   }//end toString
+
+}//end Session
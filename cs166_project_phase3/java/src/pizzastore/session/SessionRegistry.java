@@ -0,0 +1,61 @@
+package pizzastore.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out {@link Session}s and keeps one role version stamp per login.
+ * Changing a user's role bumps the stamp, which makes every session opened
+ * before the change stale; the holder then re-reads the role once instead
+ * of on every action.  Stamps are per process.
+ *
+ */
+public final class SessionRegistry {
+
+   private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+   /**
+    * Reads the login's role version.  Take it before reading the role from
+    * the database so a concurrent role change is never stamped as current.
+    *
+    * @param login the login about to be authenticated
+    * @return the current version stamp
+    */
+   public long currentVersion(String login) {
+      return stamp(login).get();
+   }//end currentVersion
+
+   /**
+    * Creates a session for a role read under the given version stamp.
+    *
+    * @param login the authenticated login
+    * @param role the role read from the Users table
+    * @param version the stamp from {@link #currentVersion(String)}
+    * @return the new session
+    */
+   public Session open(String login, Role role, long version) {
+      return new Session(login, role, version);
+   }//end open
+
+   /**
+    * @return true when the session's role has not changed since it was opened
+    */
+   public boolean isCurrent(Session session) {
+      return session.roleVersion() == stamp(session.login()).get();
+   }//end isCurrent
+
+   /**
+    * Marks every open session of this login as stale.  Call after the
+    * user's role is changed or the user is removed.
+    *
+    * @param login the affected login
+    */
+   public void invalidate(String login) {
+      stamp(login).incrementAndGet();
+   }//end invalidate
+
+   private AtomicLong stamp(String login) {
+      return versions.computeIfAbsent(login, k -> new AtomicLong());
+   }//end stamp
+
+}//end SessionRegistry
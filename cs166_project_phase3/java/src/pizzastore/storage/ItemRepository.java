@@ -0,0 +1,39 @@
+package pizzastore.storage;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import pizzastore.menu.ItemField;
+import pizzastore.menu.MenuItem;
+
+/**
+ * The Items table.  Item names are matched ignoring case, as the menu
+ * resolves them.
+ *
+ */
+public interface ItemRepository {
+
+   /**
+    * @return every item, in no particular order
+    */
+   List<MenuItem> all() throws SQLException;
+
+   /**
+    * @return the stored item
+    */
+   MenuItem insert(MenuItem item) throws SQLException;
+
+   /**
+    * Changes one column of an item.
+    *
+    * @param value a BigDecimal for {@link ItemField#PRICE}, otherwise a String
+    * @return the stored item, or null when there is no such item
+    */
+   MenuItem update(String itemName, ItemField field, Object value) throws SQLException;
+
+   /**
+    * @return false when there is no such item
+    */
+   boolean delete(String itemName) throws SQLException;
+
+}//end ItemRepository
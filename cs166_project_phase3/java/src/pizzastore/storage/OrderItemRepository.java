@@ -0,0 +1,27 @@
+package pizzastore.storage;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import pizzastore.order.OrderRow;
+
+/**
+ * The ItemsInOrder table.  Rows are written with their order through
+ * {@link OrderRepository#place}.
+ *
+ */
+public interface OrderItemRepository {
+
+   /**
+    * @param reader the login reading, whose own writes the answer includes
+    * @return the items of the order and their quantities, in no particular order
+    */
+   Map<String, Integer> items(OrderRow order, String reader) throws SQLException;
+
+   /**
+    * @param itemName the item name exactly as the menu spells it
+    * @return true when some order holds the item
+    */
+   boolean ordered(String itemName) throws SQLException;
+
+}//end OrderItemRepository
@@ -0,0 +1,103 @@
+package pizzastore.storage;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPlacer;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.StatusUpdate;
+
+/**
+ * The FoodOrder table.  Placing an order also writes its ItemsInOrder
+ * rows, in the same transaction, so an order is never seen without them.
+ *
+ * Reads name the login they are made for and writes the login that made
+ * them, so an engine that reads from replicas can show every user their
+ * own writes; the order's customer always counts as a writer too.
+ *
+ */
+public interface OrderRepository {
+
+   /**
+    * Writes a priced order with the status "Order Received" and the
+    * current time.  Orders whose lines all failed to match the menu are
+    * answered at once and write nothing.
+    *
+    * @param resolveNanos the time spent pricing, reported on the receipt
+    * @return completes with the receipt once the order is durable
+    * @throws java.util.concurrent.RejectedExecutionException when the
+    *         engine queues orders and the queue stays full
+    * @throws InterruptedException when interrupted while waiting for room
+    */
+   CompletableFuture<OrderReceipt> place(OrderPlacer.Priced priced, String login, int storeID, long resolveNanos)
+      throws SQLException, InterruptedException;
+
+   /**
+    * Places a copy of an earlier order, priced at the current menu prices,
+    * as one write.
+    *
+    * @param from the order copied, as read by {@link #find}
+    * @return the receipt; nothing is placed when none of its items is on the menu
+    */
+   OrderReceipt reorder(OrderRow from, String login, int storeID) throws SQLException;
+
+   /**
+    * Places one of each item named in the customer's favoriteItems, a
+    * comma-separated list matched ignoring case, as one write.
+    *
+    * @return the receipt, listing the favorites that are not on the menu;
+    *         nothing is placed when none is
+    */
+   OrderReceipt reorderFavorites(String login, int storeID) throws SQLException;
+
+   /**
+    * @param reader the login reading, whose own writes the answer includes
+    * @return the order, or null when there is none with this orderID
+    */
+   OrderRow find(int orderID, String reader) throws SQLException;
+
+   /**
+    * @param writer the login making the change
+    * @return the order's login ("" for none), or null when the order does not exist
+    */
+   String updateStatus(int orderID, String status, String writer) throws SQLException;
+
+   /**
+    * Moves the listed orders that are in status {@code from} to status
+    * {@code to}, as one write; the status is checked as each row changes.
+    *
+    * @param writer the login making the change
+    * @return the orders changed, and the others with the status they were in
+    */
+   StatusUpdate updateStatuses(Collection<Integer> orderIDs, String from, String to, String writer)
+      throws SQLException;
+
+   /**
+    * Moves the orders the filter matches that are in status {@code from}
+    * to status {@code to}, as one write.  The other orders in progress the
+    * filter matches are reported as skipped; finished ones are left out.
+    *
+    * @param writer the login making the change
+    * @return the orders changed, and the others with the status they were in
+    */
+   StatusUpdate updateStatuses(OrderFilter filter, String from, String to, String writer) throws SQLException;
+
+   /**
+    * Reads orders newest first, by (orderTimestamp, orderID) descending.
+    *
+    * @param reader the login reading, whose own writes the page includes
+    * @param belowTime with belowID, only orders ordered strictly below this pair; null for the newest
+    * @param limit the most rows delivered
+    * @param sink receives each row
+    * @return the number of rows delivered
+    */
+   int page(OrderFilter filter, String reader, Timestamp belowTime, Integer belowID, int limit,
+            Consumer<OrderRow> sink)
+      throws SQLException;
+
+}//end OrderRepository
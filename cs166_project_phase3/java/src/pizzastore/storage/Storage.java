@@ -0,0 +1,116 @@
+package pizzastore.storage;
+
+import java.io.File;
+
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.events.OrderEvents;
+import pizzastore.report.SalesReport;
+
+/**
+ * One storage engine: the repositories of the five tables and the
+ * services that only some engines offer.  {@link pizzastore.service.PizzaService}
+ * runs on any engine; the engine is picked with {@code -Dpizzastore.storage}
+ * (see {@link Config#fromSystemProperties()}).
+ *
+ * <ul>
+ *   <li>postgres ({@link pizzastore.storage.postgres.PostgresStorage}): the
+ *       database server, shared by every process that connects to it.  With
+ *       {@code -Dpizzastore.shards} the orders are split by store over
+ *       several servers ({@link pizzastore.storage.sharded.ShardedStorage}).</li>
+ *   <li>embedded ({@link pizzastore.storage.embedded.EmbeddedStorage}): the
+ *       tables in memory, kept durable in append-only files of one
+ *       directory, owned by a single process.  It needs no server, e.g. for
+ *       store-front terminals and test machines.</li>
+ * </ul>
+ *
+ */
+public interface Storage extends AutoCloseable {
+
+   UserRepository users();
+   ItemRepository items();
+   StoreRepository stores();
+   OrderRepository orders();
+   OrderItemRepository orderItems();
+
+   /**
+    * Creates the order event fan-out of this engine.  Called once.
+    *
+    * @param lingerMillis how long a subscription waits for more events of a batch
+    */
+   OrderEvents events(long lingerMillis);
+
+   /**
+    * @return the sales reports, or null when the engine keeps no sales summaries
+    */
+   SalesReport reports();
+
+   /**
+    * @return the query helpers of the database server, or null when there is none
+    */
+   Database database();
+
+   /**
+    * @return the connection pool counters, or null when there is no pool
+    */
+   PoolStats poolStats();
+
+   /**
+    * @return the engine's own counters, one per line, or "" when it has none
+    */
+   String stats();
+
+   /**
+    * Finishes pending writes and stops the engine's threads.  A connection
+    * pool handed to the engine is the caller's to close.
+    */
+   @Override
+   void close();
+
+   /**
+    * Which engine to run and where the embedded engine keeps its files.
+    */
+   final class Config {
+      String engine = "postgres";
+      File dir = new File("pizzastore-data");
+      File seed = null;
+      boolean sync = true;
+
+      /** @param engine "postgres" or "embedded" */
+      public Config engine(String engine) { this.engine = engine; return this; }
+      /** @param dir the directory of the embedded engine's files */
+      public Config dir(File dir) { this.dir = dir; return this; }
+      /** @param seed CSV files loaded when the embedded engine starts on an empty directory, or null */
+      public Config seed(File seed) { this.seed = seed; return this; }
+      /** @param sync false to leave flushing embedded writes to the operating system */
+      public Config sync(boolean sync) { this.sync = sync; return this; }
+
+      public boolean embedded() { return engine.equals("embedded"); }
+      public File dir() { return dir; }
+      public File seed() { return seed; }
+      public boolean sync() { return sync; }
+
+      /**
+       * Reads {@code pizzastore.storage} (postgres), {@code .dir}
+       * (pizzastore-data), {@code .seed} (none) and {@code .sync} (true) on
+       * top of the defaults.
+       */
+      public static Config fromSystemProperties() {
+         Config c = new Config();
+         c.engine = System.getProperty("pizzastore.storage", c.engine);
+         c.dir = new File(System.getProperty("pizzastore.storage.dir", c.dir.getPath()));
+         String seed = System.getProperty("pizzastore.storage.seed");
+         if (seed != null) c.seed = new File(seed);
+         c.sync = Boolean.parseBoolean(System.getProperty("pizzastore.storage.sync", "true"));
+         return c;
+      }//end fromSystemProperties
+
+      public void check() {
+         if (!engine.equals("postgres") && !engine.equals("embedded"))
+            throw new IllegalArgumentException("unknown storage engine: " + engine + " (postgres or embedded)");
+         if (seed != null && !seed.isDirectory())
+            throw new IllegalArgumentException("not a directory: " + seed);
+      }
+   }//end Config
+
+}//end Storage
@@ -0,0 +1,19 @@
+package pizzastore.storage;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import pizzastore.store.Store;
+
+/**
+ * The Store table, which the application only reads.
+ *
+ */
+public interface StoreRepository {
+
+   /**
+    * @return every store ordered by storeID
+    */
+   List<Store> all() throws SQLException;
+
+}//end StoreRepository
@@ -0,0 +1,48 @@
+package pizzastore.storage;
+
+import java.sql.SQLException;
+
+import pizzastore.service.UserField;
+import pizzastore.service.UserProfile;
+import pizzastore.session.Role;
+
+/**
+ * The Users table.  Logins are matched exactly, as the primary key does.
+ *
+ */
+public interface UserRepository {
+
+   /**
+    * Adds a customer with no favorite items.
+    *
+    * @return false when the login is taken
+    */
+   boolean insert(String login, String password, String phoneNum) throws SQLException;
+
+   /**
+    * @return the role of the user with this login and password, or null when they do not match
+    */
+   Role authenticate(String login, String password) throws SQLException;
+
+   /**
+    * @return the role of the user, or null when there is no such user
+    */
+   Role role(String login) throws SQLException;
+
+   /**
+    * @return the user's profile, or null when there is no such user
+    */
+   UserProfile find(String login) throws SQLException;
+
+   /**
+    * @return false when there is no such user
+    */
+   boolean update(String login, UserField field, String value) throws SQLException;
+
+   /**
+    * @param role the role as it is stored, e.g. "driver"
+    * @return false when there is no such user
+    */
+   boolean updateRole(String login, String role) throws SQLException;
+
+}//end UserRepository
@@ -0,0 +1,229 @@
+package pizzastore.storage.embedded;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of records, written through a memory mapping.  An
+ * append is a copy into the mapped pages; {@link #force} then flushes the
+ * pages written since the last force to the disk, which is what makes a
+ * write durable.
+ *
+ * <pre>
+ *   header:  "PZLOG001" (8 bytes), 8 reserved bytes
+ *   record:  length (int), CRC-32 of the payload (int), payload (length bytes)
+ * </pre>
+ *
+ * The mapping is larger than the data and its tail is zeros, so the first
+ * zero length marks the end.  Opening a log replays every record in order.
+ * A crash can leave the last record half written; its checksum does not
+ * match, so recovery stops there and zeroes the rest, as if the write had
+ * never started.  Records are at most a few hundred bytes and a log is at
+ * most 2 GB, the most one mapping holds.
+ *
+ */
+final class AppendLog implements AutoCloseable {
+
+   static final long MAGIC = 0x505A4C4F47303031L; // "PZLOG001"
+   static final int HEADER_BYTES = 16;
+   static final int INITIAL_BYTES = 1 << 20;
+
+   /**
+    * Receives the records of a log as it is opened.
+    */
+   interface Replay {
+      void apply(byte type, Record.Reader in);
+   }//end Replay
+
+   private final File file;
+   private final FileChannel channel;
+   private MappedByteBuffer map;
+   private int position;
+   private int forced;
+   private long records = 0;
+
+   private AppendLog(File file, FileChannel channel, MappedByteBuffer map, int position) {
+      this.file = file;
+      this.channel = channel;
+      this.map = map;
+      this.position = position;
+      this.forced = position;
+   }
+
+   /**
+    * Opens or creates a log and replays it.
+    *
+    * @param replay receives every intact record, oldest first
+    * @throws java.io.IOException when the file cannot be mapped or is not a log
+    */
+   @SuppressWarnings("resource")
+   static AppendLog open(File file, Replay replay) throws IOException {
+      FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+      try {
+         long size = channel.size();
+         if (size > Integer.MAX_VALUE) throw new IOException(file + " is larger than a log can be");
+         MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_BYTES));
+         if (size == 0) {
+            map.putLong(0, MAGIC);
+            map.force();
+         } else if (size < HEADER_BYTES || map.getLong(0) != MAGIC) {
+            throw new IOException(file + " is not a pizzastore log");
+         }
+         AppendLog log = new AppendLog(file, channel, map, HEADER_BYTES);
+         log.recover(replay);
+         return log;
+      } catch (IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+   }//end open
+
+   private void recover(Replay replay) throws IOException {
+      int pos = HEADER_BYTES;
+      CRC32 crc = new CRC32();
+      while (pos + 8 <= map.capacity()) {
+         int length = map.getInt(pos);
+         if (length == 0) break;
+         if (length < 0 || length > map.capacity() - pos - 8 || crc(crc, pos + 8, length) != map.getInt(pos + 4)) {
+            System.err.println("Dropping the torn record at byte " + pos + " of " + file + " and everything after it");
+            for (int i = pos; i < map.capacity(); i++) map.put(i, (byte) 0);
+            map.force();
+            break;
+         }
+         ByteBuffer payload = map.slice(pos + 8, length);
+         try {
+            replay.apply(payload.get(), new Record.Reader(payload));
+         } catch (RuntimeException e) {
+            throw new IOException("Cannot replay the record at byte " + pos + " of " + file + ": " + e, e);
+         }
+         pos += 8 + length;
+         records++;
+      }
+      position = pos;
+      forced = pos;
+   }//end recover
+
+   private int crc(CRC32 crc, int offset, int length) {
+      crc.reset();
+      crc.update(map.slice(offset, length));
+      return (int) crc.getValue();
+   }//end crc
+
+   /**
+    * Copies a record to the end of the log.  It is not durable before the
+    * next {@link #force}.
+    *
+    * @param record the type byte and fields, as built by {@link Record.Writer}
+    * @throws java.io.IOException when the log cannot grow
+    */
+   synchronized void append(byte[] record) throws IOException {
+      int need = 8 + record.length;
+      if ((long) position + need > map.capacity()) grow((long) position + need);
+      CRC32 crc = new CRC32();
+      crc.update(record);
+      map.put(position + 8, record);
+      map.putInt(position + 4, (int) crc.getValue());
+      // the length goes last: until it is there the record does not exist
+      map.putInt(position, record.length);
+      position += need;
+      records++;
+   }//end append
+
+   /**
+    * Flushes the records appended since the last force to the disk.
+    */
+   synchronized void force() {
+      if (forced == position) return;
+      map.force(forced, position - forced);
+      forced = position;
+   }//end force
+
+   /**
+    * Takes back the records appended since {@code mark}, a value of
+    * {@link #bytes}, after a failed force: their bytes are zeroed so
+    * recovery ends at the mark, and the next append reuses the space.  The
+    * zeroes are flushed when the disk allows; a record that did reach the
+    * disk may otherwise be replayed after a crash.
+    */
+   synchronized void rollback(int mark) {
+      if (mark >= position) return;
+      for (int pos = mark; pos < position; pos += 8 + map.getInt(pos)) records--;
+      for (int i = mark; i < position; i++) map.put(i, (byte) 0);
+      try {
+         map.force(mark, position - mark);
+      } catch (UncheckedIOException e) {
+         System.err.println("Cannot flush the rollback of " + file + ": " + e.getMessage());
+      }
+      position = mark;
+      forced = Math.min(forced, mark);
+   }//end rollback
+
+   private void grow(long needed) throws IOException {
+      long capacity = map.capacity();
+      while (capacity < needed) capacity *= 2;
+      if (capacity > Integer.MAX_VALUE) {
+         if (needed > Integer.MAX_VALUE) throw new IOException(file + " is full");
+         capacity = Integer.MAX_VALUE;
+      }
+      map.force();
+      map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+   }//end grow
+
+   /**
+    * Replaces the log with one holding only the given records, e.g. one
+    * per live row.  The new log is written beside the old one and then
+    * renamed over it, so a crash leaves one or the other.  This log is
+    * closed.
+    *
+    * @return the new log
+    */
+   AppendLog rewrite(Iterable<byte[]> live) throws IOException {
+      File tmp = new File(file.getPath() + ".compact");
+      Files.deleteIfExists(tmp.toPath());
+      try (AppendLog fresh = open(tmp, (type, in) -> { })) {
+         for (byte[] record : live) fresh.append(record);
+         fresh.force();
+      }
+      close();
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return open(file, (type, in) -> { });
+   }//end rewrite
+
+   File file() {
+      return file;
+   }//end file
+
+   /**
+    * @return the records in the log, replayed and appended
+    */
+   synchronized long records() {
+      return records;
+   }//end records
+
+   /**
+    * @return the bytes in use, header included
+    */
+   synchronized int bytes() {
+      return position;
+   }//end bytes
+
+   /**
+    * Flushes and closes the file.  The mapping goes away once it is
+    * garbage collected.
+    */
+   @Override
+   public synchronized void close() throws IOException {
+      if (!channel.isOpen()) return;
+      force();
+      channel.close();
+   }//end close
+
+}//end AppendLog
@@ -0,0 +1,94 @@
+package pizzastore.storage.embedded;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the sample CSV files in data/ the way PostgreSQL's COPY ... CSV
+ * HEADER does: a quote may start anywhere in a field and doubles to mean
+ * itself, quoted commas and line breaks belong to the field, and an empty
+ * unquoted field is null.  The header line and empty lines are skipped.
+ *
+ */
+final class CsvReader implements AutoCloseable {
+
+   private final File file;
+   private final BufferedReader in;
+   private int line = 0;
+
+   CsvReader(File file) throws IOException {
+      this.file = file;
+      this.in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+      next();
+   }
+
+   /**
+    * @return the fields of the next record, or null at the end of the file
+    * @throws java.io.IOException when the file ends inside a quoted field
+    */
+   String[] next() throws IOException {
+      String text;
+      do {
+         text = in.readLine();
+         if (text == null) return null;
+         line++;
+      } while (text.isEmpty());
+      List<String> fields = new ArrayList<>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      int i = 0;
+      while (true) {
+         if (i == text.length()) {
+            if (!quoted) break;
+            // a line break inside quotes belongs to the field
+            text = in.readLine();
+            if (text == null) throw new IOException(file + ":" + line + ": unterminated quoted field");
+            line++;
+            field.append('\n');
+            i = 0;
+            continue;
+         }
+         char c = text.charAt(i++);
+         if (c == '"') {
+            if (quoted && i < text.length() && text.charAt(i) == '"') {
+               field.append('"');
+               i++;
+            } else {
+               quoted = !quoted;
+               wasQuoted = true;
+            }
+         } else if (c == ',' && !quoted) {
+            fields.add(value(field, wasQuoted));
+            field.setLength(0);
+            wasQuoted = false;
+         } else {
+            field.append(c);
+         }
+      }
+      fields.add(value(field, wasQuoted));
+      return fields.toArray(new String[0]);
+   }//end next
+
+   private static String value(StringBuilder field, boolean wasQuoted) {
+      return field.length() == 0 && !wasQuoted ? null : field.toString();
+   }//end value
+
+   /**
+    * @return the line the last record ended on, for messages
+    */
+   int line() {
+      return line;
+   }//end line
+
+   @Override
+   public void close() throws IOException {
+      in.close();
+   }//end close
+
+}//end CsvReader
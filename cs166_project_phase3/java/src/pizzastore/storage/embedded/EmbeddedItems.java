@@ -0,0 +1,142 @@
+package pizzastore.storage.embedded;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pizzastore.menu.ItemField;
+import pizzastore.menu.MenuItem;
+import pizzastore.storage.ItemRepository;
+
+/**
+ * Items in memory, by the case-insensitive key of their name.
+ *
+ */
+final class EmbeddedItems extends Table implements ItemRepository {
+
+   static final byte PUT = 1;
+   static final byte DELETE = 2;
+
+   private final Map<String, MenuItem> byKey = new HashMap<>();
+
+   EmbeddedItems(boolean sync) {
+      super(sync);
+   }
+
+   private static byte[] put(MenuItem item) {
+      return new Record.Writer(PUT).putString(item.itemName()).putString(item.ingredients())
+         .putString(item.typeOfItem()).putDecimal(item.price()).putString(item.description()).bytes();
+   }//end put
+
+   @Override
+   void apply(byte type, Record.Reader in) {
+      if (type == PUT) {
+         MenuItem item = new MenuItem(in.getString(), in.getString(), in.getString(), in.getDecimal(), in.getString());
+         byKey.put(item.key(), item);
+      } else if (type == DELETE) {
+         byKey.remove(MenuItem.keyOf(in.getString()));
+      } else {
+         throw new IllegalStateException("unknown Items record " + type);
+      }
+   }//end apply
+
+   @Override
+   int rows() {
+      return byKey.size();
+   }//end rows
+
+   @Override
+   List<byte[]> live() {
+      List<byte[]> records = new ArrayList<>(byKey.size());
+      for (MenuItem item : byKey.values()) records.add(put(item));
+      return records;
+   }//end live
+
+   /**
+    * Adds a row of the sample data; see {@link Table#load}.
+    */
+   void load(MenuItem item) throws SQLException {
+      load(put(item));
+   }//end load
+
+   /**
+    * @return the item of that name in any case, or null
+    */
+   MenuItem find(String itemName) {
+      lock.readLock().lock();
+      try {
+         return byKey.get(MenuItem.keyOf(itemName));
+      } finally {
+         lock.readLock().unlock();
+      }
+   }//end find
+
+   @Override
+   public List<MenuItem> all() {
+      lock.readLock().lock();
+      try {
+         return new ArrayList<>(byKey.values());
+      } finally {
+         lock.readLock().unlock();
+      }
+   }//end all
+
+   @Override
+   public MenuItem insert(MenuItem item) throws SQLException {
+      lock.writeLock().lock();
+      try {
+         if (byKey.containsKey(item.key()))
+            throw new SQLException("Item already exists: " + item.itemName(), "23505");
+         write(put(item));
+         return item;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end insert
+
+   @Override
+   public MenuItem update(String itemName, ItemField field, Object value) throws SQLException {
+      lock.writeLock().lock();
+      try {
+         MenuItem i = byKey.get(MenuItem.keyOf(itemName));
+         if (i == null) return null;
+         switch (field) {
+            case PRICE:
+               i = new MenuItem(i.itemName(), i.ingredients(), i.typeOfItem(), (BigDecimal) value, i.description());
+               break;
+            case TYPE:
+               i = new MenuItem(i.itemName(), i.ingredients(), (String) value, i.price(), i.description());
+               break;
+            case INGREDIENTS:
+               i = new MenuItem(i.itemName(), (String) value, i.typeOfItem(), i.price(), i.description());
+               break;
+            case DESCRIPTION:
+               i = new MenuItem(i.itemName(), i.ingredients(), i.typeOfItem(), i.price(), (String) value);
+               break;
+            default:
+               throw new IllegalArgumentException("unknown field " + field);
+         }
+         write(put(i));
+         return i;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end update
+
+   @Override
+   public boolean delete(String itemName) throws SQLException {
+      lock.writeLock().lock();
+      try {
+         MenuItem item = byKey.get(MenuItem.keyOf(itemName));
+         if (item == null) return false;
+         write(new Record.Writer(DELETE).putString(item.itemName()).bytes());
+         return true;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end delete
+
+}//end EmbeddedItems
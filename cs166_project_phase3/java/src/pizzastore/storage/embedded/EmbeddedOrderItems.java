@@ -0,0 +1,89 @@
+package pizzastore.storage.embedded;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+import pizzastore.order.OrderRow;
+import pizzastore.storage.OrderItemRepository;
+
+/**
+ * ItemsInOrder in memory: the lines of each order by orderID, and how many
+ * orders hold each item name.  The rows are written and logged with their
+ * order by {@link EmbeddedOrders}, under its lock, so an order and its
+ * items are one record and never seen apart.
+ *
+ */
+final class EmbeddedOrderItems implements OrderItemRepository {
+
+   private static final CallSite ITEMS_SITE = CallSites.of("viewOrderInfo.items");
+
+   /**
+    * The ItemsInOrder rows of one order.
+    */
+   static final class Lines {
+      final String[] itemNames;
+      final int[] quantities;
+
+      Lines(String[] itemNames, int[] quantities) {
+         this.itemNames = itemNames;
+         this.quantities = quantities;
+      }
+   }//end Lines
+
+   private final EmbeddedOrders orders;
+   private final IntMap<Lines> byOrder = new IntMap<>();
+   private final Map<String, Integer> ordersHolding = new HashMap<>();
+
+   EmbeddedOrderItems(EmbeddedOrders orders) {
+      this.orders = orders;
+   }
+
+   /**
+    * Sets the lines of an order.  Called under the orders' write lock.
+    */
+   void put(int orderID, Lines lines) {
+      Lines old = byOrder.put(orderID, lines);
+      if (old != null) {
+         for (String name : old.itemNames) ordersHolding.merge(name, -1, (a, b) -> a + b == 0 ? null : a + b);
+      }
+      for (String name : lines.itemNames) ordersHolding.merge(name, 1, Integer::sum);
+   }//end put
+
+   /**
+    * @return the lines of an order, or null; called with the orders' lock held
+    */
+   Lines get(int orderID) {
+      return byOrder.get(orderID);
+   }//end get
+
+   @Override
+   public Map<String, Integer> items(OrderRow order, String reader) {
+      long start = ITEMS_SITE.start();
+      Map<String, Integer> items = new LinkedHashMap<>();
+      orders.lock.readLock().lock();
+      try {
+         Lines lines = byOrder.get(order.orderID());
+         if (lines != null) {
+            for (int i = 0; i < lines.itemNames.length; i++) items.put(lines.itemNames[i], lines.quantities[i]);
+         }
+      } finally {
+         orders.lock.readLock().unlock();
+      }
+      ITEMS_SITE.done(start, items.size(), "embedded: ItemsInOrder by orderID");
+      return items;
+   }//end items
+
+   @Override
+   public boolean ordered(String itemName) {
+      orders.lock.readLock().lock();
+      try {
+         return ordersHolding.containsKey(itemName);
+      } finally {
+         orders.lock.readLock().unlock();
+      }
+   }//end ordered
+
+}//end EmbeddedOrderItems
@@ -0,0 +1,435 @@
+package pizzastore.storage.embedded;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import pizzastore.events.OrderEvent;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPlacer;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.StatusUpdate;
+import pizzastore.service.UserProfile;
+import pizzastore.storage.OrderRepository;
+
+/**
+ * FoodOrder in memory.  Rows are kept by orderID in an {@link IntMap};
+ * listings walk sorted sets of (orderTimestamp, orderID) newest first, one
+ * over every order, one over the orders in progress and one per customer
+ * and per store, so a page reads only the orders it returns plus those its
+ * other restrictions skip.
+ *
+ * An order is logged as one record holding its ItemsInOrder rows, and a
+ * status change as a record of its own; a bulk status change appends one
+ * record per order and forces them once.  Placing an order holds the write
+ * lock while the record is forced, so orders are durable one at a time,
+ * in orderID order.  A reorder reads its lines, prices them from Items and
+ * places them like any order, so it is one record too.
+ *
+ */
+final class EmbeddedOrders extends Table implements OrderRepository {
+
+   static final byte PLACE = 1;
+   static final byte STATUS = 2;
+
+   static final String RECEIVED = "Order Received";
+
+   private static final CallSite FIND_SITE = CallSites.of("viewOrderInfo.find");
+   private static final CallSite PAGE_SITE = CallSites.of("orders.page");
+   private static final CallSite PLACE_SITE = CallSites.of("placeOrder.insertOrder");
+   private static final CallSite UPDATE_SITE = CallSites.of("updateOrderStatus.active");
+   private static final CallSite UPDATE_LISTED_SITE = CallSites.of("updateOrderStatus.listed");
+   private static final CallSite UPDATE_MATCHING_SITE = CallSites.of("updateOrderStatus.matching");
+
+   /**
+    * The listing position of an order; sets of keys are ordered newest first.
+    */
+   private static final class Key implements Comparable<Key> {
+      final long micros;
+      final int orderID;
+
+      Key(long micros, int orderID) {
+         this.micros = micros;
+         this.orderID = orderID;
+      }
+
+      @Override
+      public int compareTo(Key o) {
+         int c = Long.compare(o.micros, micros);
+         return c != 0 ? c : Integer.compare(o.orderID, orderID);
+      }
+   }//end Key
+
+   private final IntMap<OrderRow> byID = new IntMap<>(1 << 16);
+   private final NavigableSet<Key> newest = new TreeSet<>();
+   private final NavigableSet<Key> inProgress = new TreeSet<>();
+   private final Map<String, NavigableSet<Key>> byLogin = new HashMap<>();
+   private final IntMap<NavigableSet<Key>> byStore = new IntMap<>();
+   private final EmbeddedOrderItems items = new EmbeddedOrderItems(this);
+   private final EmbeddedItems menu;
+   private final EmbeddedUsers users;
+   private int lastID = 0;
+   private volatile Consumer<OrderEvent> events = e -> { };
+
+   /**
+    * @param menu the Items table reorders are priced from
+    * @param users the Users table favorite items are read from
+    */
+   EmbeddedOrders(boolean sync, EmbeddedItems menu, EmbeddedUsers users) {
+      super(sync);
+      this.menu = menu;
+      this.users = users;
+   }
+
+   /**
+    * @return ItemsInOrder, which lives with the orders
+    */
+   EmbeddedOrderItems items() {
+      return items;
+   }//end items
+
+   /**
+    * @param events receives every placement and status change once it is durable
+    */
+   void publishTo(Consumer<OrderEvent> events) {
+      this.events = events;
+   }//end publishTo
+
+   private static byte[] place(OrderRow row, EmbeddedOrderItems.Lines lines) {
+      Record.Writer w = new Record.Writer(PLACE).putInt(row.orderID()).putString(row.login())
+         .putInt(row.storeID()).putDecimal(row.totalPrice()).putLong(micros(row.orderTimestamp()))
+         .putString(row.orderStatus()).putInt(lines.itemNames.length);
+      for (int i = 0; i < lines.itemNames.length; i++) w.putString(lines.itemNames[i]).putInt(lines.quantities[i]);
+      return w.bytes();
+   }//end place
+
+   @Override
+   void apply(byte type, Record.Reader in) {
+      if (type == PLACE) {
+         OrderRow row = new OrderRow(in.getInt(), in.getString(), in.getInt(), in.getDecimal(),
+            timestamp(in.getLong()), in.getString());
+         int n = in.getInt();
+         String[] names = new String[n];
+         int[] quantities = new int[n];
+         for (int i = 0; i < n; i++) {
+            names[i] = in.getString();
+            quantities[i] = in.getInt();
+         }
+         if (byID.put(row.orderID(), row) == null) {
+            Key key = new Key(micros(row.orderTimestamp()), row.orderID());
+            newest.add(key);
+            if (row.login() != null) byLogin.computeIfAbsent(row.login(), k -> new TreeSet<>()).add(key);
+            NavigableSet<Key> store = byStore.get(row.storeID());
+            if (store == null) byStore.put(row.storeID(), store = new TreeSet<>());
+            store.add(key);
+            if (OrderFilter.inProgress(row.orderStatus())) inProgress.add(key);
+         }
+         items.put(row.orderID(), new EmbeddedOrderItems.Lines(names, quantities));
+         lastID = Math.max(lastID, row.orderID());
+      } else if (type == STATUS) {
+         int orderID = in.getInt();
+         String status = in.getString();
+         OrderRow row = byID.get(orderID);
+         if (row == null) return;
+         byID.put(orderID, row.withStatus(status));
+         Key key = new Key(micros(row.orderTimestamp()), orderID);
+         if (OrderFilter.inProgress(status)) inProgress.add(key);
+         else inProgress.remove(key);
+      } else {
+         throw new IllegalStateException("unknown FoodOrder record " + type);
+      }
+   }//end apply
+
+   @Override
+   int rows() {
+      return byID.size();
+   }//end rows
+
+   @Override
+   List<byte[]> live() {
+      List<byte[]> records = new ArrayList<>(byID.size());
+      // oldest first, so orderIDs are replayed in the order they were given
+      for (Key key : newest.descendingSet()) {
+         records.add(place(byID.get(key.orderID), items.get(key.orderID)));
+      }
+      return records;
+   }//end live
+
+   /**
+    * Adds an order of the sample data with its items; see {@link Table#load}.
+    */
+   void load(OrderRow row, String[] itemNames, int[] quantities) throws SQLException {
+      load(place(row, new EmbeddedOrderItems.Lines(itemNames, quantities)));
+   }//end load
+
+   @Override
+   public CompletableFuture<OrderReceipt> place(OrderPlacer.Priced priced, String login, int storeID,
+                                                long resolveNanos) throws SQLException {
+      if (priced.itemNames().isEmpty())
+         return CompletableFuture.completedFuture(
+            new OrderReceipt(null, BigDecimal.ZERO, priced.unknown(), resolveNanos, 0, 0));
+      int n = priced.itemNames().size();
+      String[] names = priced.itemNames().toArray(new String[n]);
+      int[] quantities = new int[n];
+      for (int i = 0; i < n; i++) quantities[i] = priced.quantities().get(i);
+
+      long start = PLACE_SITE.start();
+      OrderRow row;
+      long appended;
+      lock.writeLock().lock();
+      try {
+         row = new OrderRow(lastID + 1, login, storeID, priced.total(),
+            timestamp(micros(new Timestamp(System.currentTimeMillis()))), RECEIVED);
+         byte[] record = place(row, new EmbeddedOrderItems.Lines(names, quantities));
+         int mark = mark();
+         try {
+            append(record);
+            appended = System.nanoTime();
+            force();
+         } catch (SQLException e) {
+            // not applied, so lastID stays and the next order takes this ID
+            rollback(mark);
+            throw e;
+         }
+         apply(PLACE, reader(record));
+      } catch (SQLException | RuntimeException e) {
+         PLACE_SITE.failed(start, "embedded: append FoodOrder", e);
+         throw e;
+      } finally {
+         lock.writeLock().unlock();
+      }
+      long committed = System.nanoTime();
+      PLACE_SITE.done(start, 1 + n, "embedded: append FoodOrder");
+      events.accept(OrderEvent.placed(row));
+      return CompletableFuture.completedFuture(new OrderReceipt(row, priced.total(), priced.unknown(),
+         resolveNanos, appended - start, committed - appended));
+   }//end place
+
+   @Override
+   public OrderReceipt reorder(OrderRow from, String login, int storeID) throws SQLException {
+      Map<String, Integer> lines = items.items(from, login);
+      return reorder(lines, login, storeID);
+   }//end reorder
+
+   @Override
+   public OrderReceipt reorderFavorites(String login, int storeID) throws SQLException {
+      UserProfile profile = users.find(login);
+      Map<String, Integer> lines = new LinkedHashMap<>();
+      if (profile != null && profile.favoriteItems() != null) {
+         for (String name : profile.favoriteItems().split(",")) {
+            if (!name.trim().isEmpty()) lines.merge(name.trim(), 1, Integer::sum);
+         }
+      }
+      return reorder(lines, login, storeID);
+   }//end reorderFavorites
+
+   private OrderReceipt reorder(Map<String, Integer> lines, String login, int storeID) throws SQLException {
+      long start = System.nanoTime();
+      OrderPlacer.Priced priced = OrderPlacer.price(menu::find, lines);
+      // placing never waits here: the future is complete on return
+      return place(priced, login, storeID, System.nanoTime() - start).join();
+   }//end reorder
+
+   @Override
+   public OrderRow find(int orderID, String reader) {
+      long start = FIND_SITE.start();
+      OrderRow row;
+      lock.readLock().lock();
+      try {
+         row = byID.get(orderID);
+      } finally {
+         lock.readLock().unlock();
+      }
+      FIND_SITE.done(start, row == null ? 0 : 1, "embedded: FoodOrder by orderID");
+      return row;
+   }//end find
+
+   @Override
+   public String updateStatus(int orderID, String status, String writer) throws SQLException {
+      long start = UPDATE_SITE.start();
+      OrderRow row;
+      lock.writeLock().lock();
+      try {
+         row = byID.get(orderID);
+         if (row != null) write(new Record.Writer(STATUS).putInt(orderID).putString(status).bytes());
+      } catch (SQLException | RuntimeException e) {
+         UPDATE_SITE.failed(start, "embedded: append status", e);
+         throw e;
+      } finally {
+         lock.writeLock().unlock();
+      }
+      UPDATE_SITE.done(start, row == null ? 0 : 1, "embedded: append status");
+      if (row == null) return null;
+      events.accept(new OrderEvent(orderID, row.login(), row.storeID(), status, false));
+      return row.login() == null ? "" : row.login();
+   }//end updateStatus
+
+   @Override
+   public StatusUpdate updateStatuses(Collection<Integer> orderIDs, String from, String to, String writer)
+         throws SQLException {
+      long start = UPDATE_LISTED_SITE.start();
+      StatusUpdate update = new StatusUpdate(from, to);
+      List<OrderRow> changed = new ArrayList<>();
+      lock.writeLock().lock();
+      try {
+         for (int orderID : orderIDs) {
+            if (update.updated().containsKey(orderID)) continue;
+            OrderRow row = byID.get(orderID);
+            if (row != null && from.equals(row.orderStatus())) {
+               changed.add(row);
+               update.updated(orderID, row.login() == null ? "" : row.login());
+            } else {
+               update.skipped(orderID, row == null ? null : row.orderStatus());
+            }
+         }
+         advance(changed, to);
+      } catch (SQLException | RuntimeException e) {
+         UPDATE_LISTED_SITE.failed(start, "embedded: append statuses", e);
+         throw e;
+      } finally {
+         lock.writeLock().unlock();
+      }
+      UPDATE_LISTED_SITE.done(start, changed.size(), "embedded: append statuses");
+      for (OrderRow row : changed) events.accept(new OrderEvent(row.orderID(), row.login(), row.storeID(), to, false));
+      return update;
+   }//end updateStatuses
+
+   /**
+    * Walks the orders in progress, or those of the filter's customer or
+    * store, and changes the ones in status {@code from}.
+    */
+   @Override
+   public StatusUpdate updateStatuses(OrderFilter filter, String from, String to, String writer)
+         throws SQLException {
+      long start = UPDATE_MATCHING_SITE.start();
+      OrderFilter active = filter.copy().active(true);
+      StatusUpdate update = new StatusUpdate(from, to);
+      List<OrderRow> changed = new ArrayList<>();
+      lock.writeLock().lock();
+      try {
+         NavigableSet<Key> index;
+         if (filter.login() != null) index = byLogin.get(filter.login());
+         else if (filter.storeID() != null) index = byStore.get(filter.storeID());
+         else index = inProgress;
+         if (index != null) {
+            for (Key key : index) {
+               OrderRow row = byID.get(key.orderID);
+               if (!active.matches(row)) continue;
+               if (from.equals(row.orderStatus())) {
+                  changed.add(row);
+                  update.updated(row.orderID(), row.login() == null ? "" : row.login());
+               } else {
+                  update.skipped(row.orderID(), row.orderStatus());
+               }
+            }
+         }
+         advance(changed, to);
+      } catch (SQLException | RuntimeException e) {
+         UPDATE_MATCHING_SITE.failed(start, "embedded: append statuses", e);
+         throw e;
+      } finally {
+         lock.writeLock().unlock();
+      }
+      UPDATE_MATCHING_SITE.done(start, changed.size(), "embedded: append statuses");
+      for (OrderRow row : changed) events.accept(new OrderEvent(row.orderID(), row.login(), row.storeID(), to, false));
+      return update;
+   }//end updateStatuses
+
+   /**
+    * Appends a status record per order, forces them once and applies them;
+    * when the force fails none is applied or kept.  The caller holds the
+    * write lock.
+    */
+   private void advance(List<OrderRow> rows, String to) throws SQLException {
+      if (rows.isEmpty()) return;
+      List<byte[]> records = new ArrayList<>(rows.size());
+      int mark = mark();
+      try {
+         for (OrderRow row : rows) {
+            byte[] record = new Record.Writer(STATUS).putInt(row.orderID()).putString(to).bytes();
+            append(record);
+            records.add(record);
+         }
+         force();
+      } catch (SQLException e) {
+         rollback(mark);
+         throw e;
+      }
+      for (byte[] record : records) apply(STATUS, reader(record));
+   }//end advance
+
+   /**
+    * Walks the narrowest index the filter allows, starting below the
+    * cursor or the end of the time range, and stops at its start.  Rows
+    * are collected under the lock and handed to the sink after it.
+    */
+   @Override
+   public int page(OrderFilter filter, String reader, Timestamp belowTime, Integer belowID, int limit,
+                   Consumer<OrderRow> sink) {
+      long start = PAGE_SITE.start();
+      List<OrderRow> rows = new ArrayList<>(Math.min(limit, 1024));
+      lock.readLock().lock();
+      try {
+         NavigableSet<Key> index;
+         if (filter.login() != null) index = byLogin.get(filter.login());
+         else if (filter.storeID() != null) index = byStore.get(filter.storeID());
+         else if (filter.active()) index = inProgress;
+         else index = newest;
+         if (index != null) {
+            Key from = belowID == null ? null : new Key(micros(belowTime), belowID);
+            Timestamp until = filter.until();
+            // the first key older than until: every order at that instant sorts before it
+            Key untilKey = until == null ? null : new Key(micros(until), Integer.MIN_VALUE);
+            if (from == null || (untilKey != null && untilKey.compareTo(from) > 0)) from = untilKey;
+            long oldest = filter.from() == null ? Long.MIN_VALUE : micros(filter.from());
+            for (Key key : from == null ? index : index.tailSet(from, false)) {
+               if (key.micros < oldest) break;
+               OrderRow row = byID.get(key.orderID);
+               if (!filter.matches(row)) continue;
+               rows.add(row);
+               if (rows.size() == limit) break;
+            }
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+      for (OrderRow row : rows) sink.accept(row);
+      PAGE_SITE.done(start, rows.size(), "embedded: FoodOrder newest first");
+      return rows.size();
+   }//end page
+
+   private static Record.Reader reader(byte[] record) {
+      ByteBuffer in = ByteBuffer.wrap(record);
+      in.get();
+      return new Record.Reader(in);
+   }//end reader
+
+   /**
+    * @return the time in microseconds since the epoch, the precision of a
+    *         PostgreSQL timestamp and of an order cursor
+    */
+   static long micros(Timestamp t) {
+      return Math.floorDiv(t.getTime(), 1000L) * 1_000_000L + t.getNanos() / 1000;
+   }//end micros
+
+   static Timestamp timestamp(long micros) {
+      Timestamp t = new Timestamp(Math.floorDiv(micros, 1_000_000L) * 1000);
+      t.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+      return t;
+   }//end timestamp
+
+}//end EmbeddedOrders
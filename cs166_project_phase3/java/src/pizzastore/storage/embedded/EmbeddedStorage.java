@@ -0,0 +1,232 @@
+package pizzastore.storage.embedded;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.events.OrderEvents;
+import pizzastore.menu.MenuItem;
+import pizzastore.order.OrderRow;
+import pizzastore.report.SalesReport;
+import pizzastore.storage.ItemRepository;
+import pizzastore.storage.OrderItemRepository;
+import pizzastore.storage.OrderRepository;
+import pizzastore.storage.Storage;
+import pizzastore.storage.StoreRepository;
+import pizzastore.storage.UserRepository;
+import pizzastore.store.Store;
+
+/**
+ * The five tables in the memory of this process, each made durable by an
+ * {@link AppendLog} in one directory:
+ *
+ * <pre>
+ *   users.log    Users
+ *   items.log    Items
+ *   stores.log   Store
+ *   orders.log   FoodOrder with its ItemsInOrder rows
+ *   lock         held while the directory is open
+ * </pre>
+ *
+ * Opening the directory replays the logs, which is the whole of recovery,
+ * and rewrites a log that is mostly superseded records.  An empty directory
+ * is filled from the sample CSV files when a seed directory is configured.
+ * Lookups are a map probe under a shared lock, with no connection, network
+ * or SQL between the caller and the row.
+ *
+ * Only one process may open a directory, so order events come from this
+ * process alone and are handed straight to {@link OrderEvents#publish}.
+ * There are no sales summaries, connection pool or group commit: writes
+ * are forced one at a time unless {@code sync} is off.
+ *
+ * <pre>
+ *   EmbeddedStorage &lt;dir&gt; [&lt;csvDir&gt;]    open (seeding an empty dir) and print the counters
+ * </pre>
+ *
+ */
+public final class EmbeddedStorage implements Storage {
+
+   private final File dir;
+   private final FileChannel lockFile;
+   private final FileLock lock;
+   private final EmbeddedUsers users;
+   private final EmbeddedItems items;
+   private final EmbeddedStores stores;
+   private final EmbeddedOrders orders;
+
+   private EmbeddedStorage(File dir, FileChannel lockFile, FileLock lock, boolean sync) {
+      this.dir = dir;
+      this.lockFile = lockFile;
+      this.lock = lock;
+      this.users = new EmbeddedUsers(sync);
+      this.items = new EmbeddedItems(sync);
+      this.stores = new EmbeddedStores(sync);
+      this.orders = new EmbeddedOrders(sync, items, users);
+   }
+
+   /**
+    * Opens the directory of the configuration, creating it when missing.
+    *
+    * @throws java.io.IOException when the directory is in use by another
+    *         process or a log cannot be read
+    * @throws java.sql.SQLException when seeding fails
+    */
+   public static EmbeddedStorage open(Storage.Config config) throws IOException, SQLException {
+      config.check();
+      File dir = config.dir();
+      if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+      FileChannel lockFile = FileChannel.open(new File(dir, "lock").toPath(),
+         StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock lock;
+      try {
+         lock = lockFile.tryLock();
+      } catch (OverlappingFileLockException e) {
+         lock = null;
+      }
+      if (lock == null) {
+         lockFile.close();
+         throw new IOException(dir + " is in use by another process");
+      }
+      EmbeddedStorage storage = new EmbeddedStorage(dir, lockFile, lock, config.sync());
+      try {
+         storage.users.open(dir, "users.log");
+         storage.items.open(dir, "items.log");
+         storage.stores.open(dir, "stores.log");
+         storage.orders.open(dir, "orders.log");
+         if (config.seed() != null && storage.empty()) storage.seed(config.seed());
+      } catch (IOException | SQLException | RuntimeException e) {
+         storage.close();
+         throw e;
+      }
+      return storage;
+   }//end open
+
+   private boolean empty() {
+      return users.empty() && items.empty() && stores.empty() && orders.empty();
+   }//end empty
+
+   /**
+    * Loads users.csv, items.csv, store.csv, foodorder.csv and
+    * itemsinorder.csv, as BulkLoader copies them into the database.
+    */
+   private void seed(File data) throws IOException, SQLException {
+      try (CsvReader csv = new CsvReader(new File(data, "users.csv"))) {
+         for (String[] f = csv.next(); f != null; f = csv.next()) {
+            users.load(text(f[0]), text(f[1]), text(f[2]), text(f[3]), text(f[4]));
+         }
+      }
+      try (CsvReader csv = new CsvReader(new File(data, "items.csv"))) {
+         for (String[] f = csv.next(); f != null; f = csv.next()) {
+            items.load(new MenuItem(text(f[0]), text(f[1]), text(f[2]), new BigDecimal(f[3].trim()), text(f[4])));
+         }
+      }
+      try (CsvReader csv = new CsvReader(new File(data, "store.csv"))) {
+         for (String[] f = csv.next(); f != null; f = csv.next()) {
+            stores.load(new Store(Integer.parseInt(f[0].trim()), text(f[1]), text(f[2]), text(f[3]), text(f[4]),
+               f[5] == null ? null : Double.valueOf(f[5].trim())));
+         }
+      }
+      IntMap<List<String[]>> lines = new IntMap<>();
+      try (CsvReader csv = new CsvReader(new File(data, "itemsinorder.csv"))) {
+         for (String[] f = csv.next(); f != null; f = csv.next()) {
+            int orderID = Integer.parseInt(f[0].trim());
+            List<String[]> of = lines.get(orderID);
+            if (of == null) lines.put(orderID, of = new ArrayList<>());
+            of.add(f);
+         }
+      }
+      try (CsvReader csv = new CsvReader(new File(data, "foodorder.csv"))) {
+         for (String[] f = csv.next(); f != null; f = csv.next()) {
+            OrderRow row = new OrderRow(Integer.parseInt(f[0].trim()), text(f[1]), Integer.parseInt(f[2].trim()),
+               new BigDecimal(f[3].trim()), Timestamp.valueOf(f[4].trim()), text(f[5]));
+            List<String[]> of = lines.get(row.orderID());
+            int n = of == null ? 0 : of.size();
+            String[] names = new String[n];
+            int[] quantities = new int[n];
+            for (int i = 0; i < n; i++) {
+               names[i] = text(of.get(i)[1]);
+               quantities[i] = Integer.parseInt(of.get(i)[2].trim());
+            }
+            orders.load(row, names, quantities);
+         }
+      }
+      users.force();
+      items.force();
+      stores.force();
+      orders.force();
+   }//end seed
+
+   private static String text(String field) {
+      return field == null ? null : field.trim();
+   }//end text
+
+   @Override public UserRepository users() { return users; }
+   @Override public ItemRepository items() { return items; }
+   @Override public StoreRepository stores() { return stores; }
+   @Override public OrderRepository orders() { return orders; }
+   @Override public OrderItemRepository orderItems() { return orders.items(); }
+   @Override public SalesReport reports() { return null; }
+   @Override public Database database() { return null; }
+   @Override public PoolStats poolStats() { return null; }
+
+   @Override
+   public OrderEvents events(long lingerMillis) {
+      OrderEvents events = new OrderEvents(Collections.emptyList(), lingerMillis);
+      orders.publishTo(events::publish);
+      return events;
+   }//end events
+
+   @Override
+   public String stats() {
+      String nl = System.lineSeparator();
+      return "embedded storage in " + dir + nl + users.describe("Users") + nl + items.describe("Items") + nl
+         + stores.describe("Store") + nl + orders.describe("FoodOrder");
+   }//end stats
+
+   /**
+    * Flushes and closes the logs and releases the directory.
+    */
+   @Override
+   public void close() {
+      for (Table t : new Table[] {users, items, stores, orders}) {
+         try {
+            t.close();
+         } catch (IOException e) {
+            System.err.println("Cannot close a log in " + dir + ": " + e.getMessage());
+         }
+      }
+      try {
+         lock.release();
+         lockFile.close();
+      } catch (IOException e) {
+         System.err.println("Cannot release " + dir + ": " + e.getMessage());
+      }
+   }//end close
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println("Usage: java [-classpath <classpath>] " + EmbeddedStorage.class.getName()
+            + " <dir> [<csvDir>]");
+         return;
+      }
+      Storage.Config config = new Storage.Config().engine("embedded").dir(new File(args[0]));
+      if (args.length == 2) config.seed(new File(args[1]));
+      long start = System.nanoTime();
+      try (EmbeddedStorage storage = open(config)) {
+         System.out.printf("Opened in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+         System.out.println(storage.stats());
+      }
+   }//end main
+
+}//end EmbeddedStorage
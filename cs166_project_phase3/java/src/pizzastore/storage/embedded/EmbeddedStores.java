@@ -0,0 +1,89 @@
+package pizzastore.storage.embedded;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import pizzastore.storage.StoreRepository;
+import pizzastore.store.Store;
+
+/**
+ * Stores in memory, by storeID.  The application only reads them; rows
+ * come from the sample data.
+ *
+ */
+final class EmbeddedStores extends Table implements StoreRepository {
+
+   static final byte PUT = 1;
+
+   private final IntMap<Store> byID = new IntMap<>();
+   private List<Store> sorted = null;
+
+   EmbeddedStores(boolean sync) {
+      super(sync);
+   }
+
+   private static byte[] put(Store s) {
+      return new Record.Writer(PUT).putInt(s.storeID()).putString(s.address()).putString(s.city())
+         .putString(s.state()).putString(s.isOpen())
+         .putString(s.reviewScore() == null ? null : s.reviewScore().toString()).bytes();
+   }//end put
+
+   @Override
+   void apply(byte type, Record.Reader in) {
+      if (type != PUT) throw new IllegalStateException("unknown Store record " + type);
+      int storeID = in.getInt();
+      String address = in.getString();
+      String city = in.getString();
+      String state = in.getString();
+      String isOpen = in.getString();
+      String score = in.getString();
+      byID.put(storeID, new Store(storeID, address, city, state, isOpen, score == null ? null : Double.valueOf(score)));
+      sorted = null;
+   }//end apply
+
+   @Override
+   int rows() {
+      return byID.size();
+   }//end rows
+
+   @Override
+   List<byte[]> live() {
+      List<byte[]> records = new ArrayList<>(byID.size());
+      byID.forEachValue(s -> records.add(put(s)));
+      return records;
+   }//end live
+
+   /**
+    * Adds a row of the sample data; see {@link Table#load}.
+    */
+   void load(Store store) throws SQLException {
+      load(put(store));
+   }//end load
+
+   @Override
+   public List<Store> all() {
+      lock.readLock().lock();
+      try {
+         List<Store> s = sorted;
+         if (s != null) return s;
+      } finally {
+         lock.readLock().unlock();
+      }
+      lock.writeLock().lock();
+      try {
+         if (sorted == null) {
+            List<Store> s = new ArrayList<>(byID.size());
+            byID.forEachValue(s::add);
+            s.sort(Comparator.comparingInt(Store::storeID));
+            sorted = Collections.unmodifiableList(s);
+         }
+         return sorted;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end all
+
+}//end EmbeddedStores
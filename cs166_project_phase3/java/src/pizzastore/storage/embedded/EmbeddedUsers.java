@@ -0,0 +1,146 @@
+package pizzastore.storage.embedded;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pizzastore.service.UserField;
+import pizzastore.service.UserProfile;
+import pizzastore.session.Role;
+import pizzastore.storage.UserRepository;
+
+/**
+ * Users in memory, by login.  Every change writes the whole row.
+ *
+ */
+final class EmbeddedUsers extends Table implements UserRepository {
+
+   static final byte PUT = 1;
+
+   private static final class User {
+      final String login;
+      final String password;
+      final String role;
+      final String favoriteItems;
+      final String phoneNum;
+
+      User(String login, String password, String role, String favoriteItems, String phoneNum) {
+         this.login = login;
+         this.password = password;
+         this.role = role;
+         this.favoriteItems = favoriteItems;
+         this.phoneNum = phoneNum;
+      }
+
+      byte[] record() {
+         return new Record.Writer(PUT).putString(login).putString(password).putString(role)
+            .putString(favoriteItems).putString(phoneNum).bytes();
+      }//end record
+   }//end User
+
+   private final Map<String, User> byLogin = new HashMap<>();
+
+   EmbeddedUsers(boolean sync) {
+      super(sync);
+   }
+
+   @Override
+   void apply(byte type, Record.Reader in) {
+      if (type != PUT) throw new IllegalStateException("unknown Users record " + type);
+      User u = new User(in.getString(), in.getString(), in.getString(), in.getString(), in.getString());
+      byLogin.put(u.login, u);
+   }//end apply
+
+   @Override
+   int rows() {
+      return byLogin.size();
+   }//end rows
+
+   @Override
+   List<byte[]> live() {
+      List<byte[]> records = new ArrayList<>(byLogin.size());
+      for (User u : byLogin.values()) records.add(u.record());
+      return records;
+   }//end live
+
+   /**
+    * Adds a row of the sample data; see {@link Table#load}.
+    */
+   void load(String login, String password, String role, String favoriteItems, String phoneNum) throws SQLException {
+      load(new User(login, password, role, favoriteItems, phoneNum).record());
+   }//end load
+
+   @Override
+   public boolean insert(String login, String password, String phoneNum) throws SQLException {
+      lock.writeLock().lock();
+      try {
+         if (byLogin.containsKey(login)) return false;
+         write(new User(login, password, Role.CUSTOMER.dbValue(), null, phoneNum).record());
+         return true;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end insert
+
+   @Override
+   public Role authenticate(String login, String password) {
+      User u = get(login);
+      return u != null && u.password.equals(password) ? Role.parse(u.role) : null;
+   }//end authenticate
+
+   @Override
+   public Role role(String login) {
+      User u = get(login);
+      return u == null ? null : Role.parse(u.role);
+   }//end role
+
+   @Override
+   public UserProfile find(String login) {
+      User u = get(login);
+      return u == null ? null : new UserProfile(u.login, u.favoriteItems, u.phoneNum, Role.parse(u.role));
+   }//end find
+
+   @Override
+   public boolean update(String login, UserField field, String value) throws SQLException {
+      lock.writeLock().lock();
+      try {
+         User u = byLogin.get(login);
+         if (u == null) return false;
+         switch (field) {
+            case PHONE: u = new User(u.login, u.password, u.role, u.favoriteItems, value); break;
+            case FAVORITE_ITEMS: u = new User(u.login, u.password, u.role, value, u.phoneNum); break;
+            case PASSWORD: u = new User(u.login, value, u.role, u.favoriteItems, u.phoneNum); break;
+            default: throw new IllegalArgumentException("unknown field " + field);
+         }
+         write(u.record());
+         return true;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end update
+
+   @Override
+   public boolean updateRole(String login, String role) throws SQLException {
+      lock.writeLock().lock();
+      try {
+         User u = byLogin.get(login);
+         if (u == null) return false;
+         write(new User(u.login, u.password, role, u.favoriteItems, u.phoneNum).record());
+         return true;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end updateRole
+
+   private User get(String login) {
+      lock.readLock().lock();
+      try {
+         return byLogin.get(login);
+      } finally {
+         lock.readLock().unlock();
+      }
+   }//end get
+
+}//end EmbeddedUsers
@@ -0,0 +1,107 @@
+package pizzastore.storage.embedded;
+
+import java.util.function.Consumer;
+
+/**
+ * A hash map from int keys to values with open addressing: the keys live
+ * in a plain int array and are never boxed, so a lookup is a multiply, a
+ * mask and usually one array probe.  Entries are never removed; the
+ * embedded tables keyed by int only ever add rows or replace them.
+ *
+ * Not thread-safe; the tables guard it with their lock.
+ *
+ */
+final class IntMap<V> {
+
+   private static final int MIN_CAPACITY = 16;
+
+   private int[] keys;
+   private Object[] values;
+   private int mask;
+   private int size = 0;
+
+   IntMap() {
+      this(MIN_CAPACITY);
+   }
+
+   /**
+    * @param expected the number of entries to size the map for
+    */
+   IntMap(int expected) {
+      int capacity = MIN_CAPACITY;
+      while (capacity * 2 < expected * 3) capacity <<= 1;
+      this.keys = new int[capacity];
+      this.values = new Object[capacity];
+      this.mask = capacity - 1;
+   }
+
+   /**
+    * @return the value of the key, or null
+    */
+   @SuppressWarnings("unchecked")
+   V get(int key) {
+      for (int i = slot(key); ; i = (i + 1) & mask) {
+         Object v = values[i];
+         if (v == null) return null;
+         if (keys[i] == key) return (V) v;
+      }
+   }//end get
+
+   /**
+    * @param value not null
+    * @return the value the key had, or null
+    */
+   @SuppressWarnings("unchecked")
+   V put(int key, V value) {
+      if (value == null) throw new NullPointerException("IntMap values cannot be null");
+      for (int i = slot(key); ; i = (i + 1) & mask) {
+         Object v = values[i];
+         if (v == null) {
+            keys[i] = key;
+            values[i] = value;
+            // keep at most two thirds of the slots in use
+            if (++size * 3 > keys.length * 2) grow();
+            return null;
+         }
+         if (keys[i] == key) {
+            values[i] = value;
+            return (V) v;
+         }
+      }
+   }//end put
+
+   int size() {
+      return size;
+   }//end size
+
+   /**
+    * Hands every value to the action, in no particular order.
+    */
+   @SuppressWarnings("unchecked")
+   void forEachValue(Consumer<? super V> action) {
+      for (Object v : values) {
+         if (v != null) action.accept((V) v);
+      }
+   }//end forEachValue
+
+   private int slot(int key) {
+      // Fibonacci hashing spreads sequential IDs over the table
+      return (key * 0x9E3779B9 >>> 16 ^ key * 0x9E3779B9) & mask;
+   }//end slot
+
+   private void grow() {
+      int[] oldKeys = keys;
+      Object[] oldValues = values;
+      keys = new int[oldKeys.length * 2];
+      values = new Object[oldValues.length * 2];
+      mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldValues[i] == null) continue;
+         int j = slot(oldKeys[i]);
+         while (values[j] != null) j = (j + 1) & mask;
+         keys[j] = oldKeys[i];
+         values[j] = oldValues[i];
+      }
+   }//end grow
+
+}//end IntMap
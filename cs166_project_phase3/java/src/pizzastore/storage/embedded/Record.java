@@ -0,0 +1,102 @@
+package pizzastore.storage.embedded;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The encoding of one log record: a type byte, then the fields in a fixed
+ * order per type.  Ints and longs are big-endian, strings are a length
+ * (-1 for null) and UTF-8 bytes, decimals are their plain string.
+ *
+ */
+final class Record {
+
+   private Record() {
+   }
+
+   /**
+    * Builds one record.
+    */
+   static final class Writer {
+      private byte[] buf = new byte[128];
+      private int len = 0;
+
+      Writer(byte type) {
+         buf[len++] = type;
+      }
+
+      Writer putInt(int v) {
+         ensure(4);
+         buf[len++] = (byte) (v >>> 24);
+         buf[len++] = (byte) (v >>> 16);
+         buf[len++] = (byte) (v >>> 8);
+         buf[len++] = (byte) v;
+         return this;
+      }//end putInt
+
+      Writer putLong(long v) {
+         putInt((int) (v >>> 32));
+         return putInt((int) v);
+      }//end putLong
+
+      Writer putString(String s) {
+         if (s == null) return putInt(-1);
+         byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+         putInt(bytes.length);
+         ensure(bytes.length);
+         System.arraycopy(bytes, 0, buf, len, bytes.length);
+         len += bytes.length;
+         return this;
+      }//end putString
+
+      Writer putDecimal(BigDecimal d) {
+         return putString(d == null ? null : d.toPlainString());
+      }//end putDecimal
+
+      byte[] bytes() {
+         return Arrays.copyOf(buf, len);
+      }//end bytes
+
+      private void ensure(int more) {
+         if (len + more > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + more));
+      }//end ensure
+   }//end Writer
+
+   /**
+    * Reads the fields of one record in the order they were written.
+    */
+   static final class Reader {
+      private final ByteBuffer in;
+
+      /**
+       * @param in the record, positioned after its type byte
+       */
+      Reader(ByteBuffer in) {
+         this.in = in;
+      }
+
+      int getInt() {
+         return in.getInt();
+      }//end getInt
+
+      long getLong() {
+         return in.getLong();
+      }//end getLong
+
+      String getString() {
+         int n = in.getInt();
+         if (n < 0) return null;
+         byte[] bytes = new byte[n];
+         in.get(bytes);
+         return new String(bytes, StandardCharsets.UTF_8);
+      }//end getString
+
+      BigDecimal getDecimal() {
+         String s = getString();
+         return s == null ? null : new BigDecimal(s);
+      }//end getDecimal
+   }//end Reader
+
+}//end Record
@@ -0,0 +1,158 @@
+package pizzastore.storage.embedded;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One table of the embedded engine: its rows in memory and the log that
+ * makes them durable.  Every change is a record; a write appends it,
+ * forces it when the engine syncs, and only then applies it to memory
+ * through {@link #apply}, the same method that replays the log on startup.
+ * So what recovery rebuilds is exactly what was shown before the crash.  A
+ * write whose force fails is rolled back out of the log, so memory and log
+ * still agree and the next write takes its place.
+ *
+ * Readers share the lock and writers hold it alone.
+ *
+ */
+abstract class Table {
+
+   /**
+    * A log is rewritten on startup when it holds this many times more
+    * records than the table has rows.
+    */
+   static final int COMPACT_RATIO = 4;
+
+   /**
+    * Logs smaller than this are never rewritten.
+    */
+   static final int COMPACT_MIN_RECORDS = 10_000;
+
+   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+   private final boolean sync;
+   private AppendLog log;
+
+   Table(boolean sync) {
+      this.sync = sync;
+   }
+
+   /**
+    * Applies one record to the rows in memory.  Called with the write lock
+    * held, or during {@link #open} before anyone else sees the table.
+    */
+   abstract void apply(byte type, Record.Reader in);
+
+   /**
+    * @return the rows, as the number of records a rewritten log would hold
+    */
+   abstract int rows();
+
+   /**
+    * @return one record per row that recreates the table; called with the lock held
+    */
+   abstract List<byte[]> live();
+
+   /**
+    * Replays the log in the directory, then rewrites it when most of it is
+    * superseded records.
+    *
+    * @param name the file name, e.g. "orders.log"
+    */
+   final void open(File dir, String name) throws IOException {
+      log = AppendLog.open(new File(dir, name), this::apply);
+      if (log.records() >= COMPACT_MIN_RECORDS && log.records() > (long) rows() * COMPACT_RATIO) {
+         log = log.rewrite(live());
+      }
+   }//end open
+
+   /**
+    * Makes a change durable and applies it.  The caller holds the write lock.
+    *
+    * @throws java.sql.SQLException when the log cannot be written; memory is unchanged
+    */
+   final void write(byte[] record) throws SQLException {
+      int mark = mark();
+      try {
+         append(record);
+         force();
+      } catch (SQLException e) {
+         rollback(mark);
+         throw e;
+      }
+      ByteBuffer in = ByteBuffer.wrap(record);
+      apply(in.get(), new Record.Reader(in));
+   }//end write
+
+   /**
+    * Appends and applies a change without forcing it, for bulk loads that
+    * {@link #force} once at the end.  The caller holds the write lock.
+    */
+   final void load(byte[] record) throws SQLException {
+      append(record);
+      ByteBuffer in = ByteBuffer.wrap(record);
+      apply(in.get(), new Record.Reader(in));
+   }//end load
+
+   final void append(byte[] record) throws SQLException {
+      try {
+         log.append(record);
+      } catch (IOException e) {
+         throw new SQLException("Cannot write " + log.file() + ": " + e.getMessage(), e);
+      }
+   }//end append
+
+   /**
+    * Flushes what was appended, unless the engine leaves that to the operating system.
+    *
+    * @throws java.sql.SQLException when the disk refuses the flush
+    */
+   final void force() throws SQLException {
+      if (!sync) return;
+      try {
+         log.force();
+      } catch (UncheckedIOException e) {
+         throw new SQLException("Cannot flush " + log.file() + ": " + e.getMessage(), e);
+      }
+   }//end force
+
+   /**
+    * @return the end of the log, to {@link #rollback} to
+    */
+   final int mark() {
+      return log.bytes();
+   }//end mark
+
+   /**
+    * Takes back what was appended since the mark, when it could not be
+    * forced and so must not be applied.  The caller holds the write lock.
+    */
+   final void rollback(int mark) {
+      log.rollback(mark);
+   }//end rollback
+
+   final boolean empty() {
+      return log.records() == 0;
+   }//end empty
+
+   /**
+    * @return "name: rows, records, bytes" for the engine's counters
+    */
+   final String describe(String name) {
+      lock.readLock().lock();
+      try {
+         return String.format("%s: %d rows, %d log records, %d KB", name, rows(), log.records(), log.bytes() / 1024);
+      } finally {
+         lock.readLock().unlock();
+      }
+   }//end describe
+
+   final void close() throws IOException {
+      if (log != null) log.close();
+   }//end close
+
+}//end Table
@@ -0,0 +1,53 @@
+package pizzastore.storage.postgres;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import pizzastore.db.Database;
+import pizzastore.menu.ItemField;
+import pizzastore.menu.MenuItem;
+import pizzastore.storage.ItemRepository;
+
+/**
+ * Items in the database.  The menu is loaded from a replica when there
+ * are replicas; the catalog applies its own edits, so the load only needs
+ * to be recent.
+ *
+ */
+public final class PostgresItems implements ItemRepository {
+
+   private final Database load;
+   private final Database write;
+   private final Database delete;
+
+   public PostgresItems(Database db) {
+      this.load = db.at("viewMenu.load").readingAs(null);
+      this.write = db.at("updateMenu.write");
+      this.delete = db.at("updateMenu.delete");
+   }
+
+   @Override
+   public List<MenuItem> all() throws SQLException {
+      return load.query("SELECT " + MenuItem.COLUMNS + " FROM Items;", MenuItem::fromRow);
+   }//end all
+
+   @Override
+   public MenuItem insert(MenuItem item) throws SQLException {
+      return write.queryOne("INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) " +
+         "VALUES (?, ?, ?, ?, ?) RETURNING " + MenuItem.COLUMNS + ";", MenuItem::fromRow,
+         item.itemName(), item.ingredients(), item.typeOfItem(), item.price(), item.description());
+   }//end insert
+
+   @Override
+   public MenuItem update(String itemName, ItemField field, Object value) throws SQLException {
+      // the column name comes from the enum, never from the caller
+      return write.queryOne("UPDATE Items SET " + field.column() + " = ? WHERE LOWER(itemName) = LOWER(?) " +
+         "RETURNING " + MenuItem.COLUMNS + ";", MenuItem::fromRow, value, itemName);
+   }//end update
+
+   @Override
+   public boolean delete(String itemName) throws SQLException {
+      return delete.executeUpdate("DELETE FROM Items WHERE LOWER(itemName) = LOWER(?);", itemName) > 0;
+   }//end delete
+
+}//end PostgresItems
@@ -0,0 +1,36 @@
+package pizzastore.storage.postgres;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import pizzastore.db.Database;
+import pizzastore.order.OrderLookup;
+import pizzastore.order.OrderRow;
+import pizzastore.storage.OrderItemRepository;
+
+/**
+ * ItemsInOrder in the database.
+ *
+ */
+public final class PostgresOrderItems implements OrderItemRepository {
+
+   private final OrderLookup lookup;
+   private final Database inUse;
+
+   public PostgresOrderItems(Database db, OrderLookup lookup) {
+      this.lookup = lookup;
+      this.inUse = db.at("deleteMenuItem.inUse");
+   }
+
+   @Override
+   public Map<String, Integer> items(OrderRow order, String reader) throws SQLException {
+      return lookup.items(order, reader);
+   }//end items
+
+   @Override
+   public boolean ordered(String itemName) throws SQLException {
+      // on the primary, as it guards a delete; the plain itemName index answers it
+      return inUse.executeQuery("SELECT 1 FROM ItemsInOrder WHERE itemName = ? LIMIT 1;", itemName) > 0;
+   }//end ordered
+
+}//end PostgresOrderItems
@@ -0,0 +1,230 @@
+package pizzastore.storage.postgres;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import pizzastore.db.Database;
+import pizzastore.db.PooledConnection;
+import pizzastore.metrics.CallSite;
+import pizzastore.metrics.CallSites;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderLookup;
+import pizzastore.order.OrderPlacer;
+import pizzastore.order.OrderQueue;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.StatusUpdate;
+import pizzastore.storage.OrderRepository;
+
+/**
+ * FoodOrder in the database.  Orders are written one transaction each by
+ * {@link OrderPlacer}, or through the group commit of an {@link OrderQueue}
+ * when there is one; single orders are found through {@link OrderLookup}.
+ *
+ * Pages are read with a row comparison on (orderTimestamp, orderID).
+ * FoodOrder is partitioned by month (sql/migrations/V5), and ordering by
+ * the partition key lets the planner read the months newest first and stop
+ * once the page is full; the {@code orderTimestamp <= ?} bound prunes the
+ * newer months on later pages.  Rows are streamed from a server-side
+ * cursor (a transaction plus a fetch size), so the driver never holds more
+ * than one page.
+ *
+ * A bulk status change is one statement: the UPDATE only takes rows still
+ * in the status the change starts from, which it checks again on rows
+ * other sessions changed meanwhile, and returns them; the rest of the
+ * statement reads the skipped orders' statuses as they were when it began.
+ * That status is always one of the orders in progress, so the UPDATE
+ * reads the active partition alone.
+ *
+ * With replicas, pages and lookups are read from one that has the
+ * reader's own writes, and a placed order counts as a write of its
+ * customer once it has committed.
+ *
+ */
+public final class PostgresOrders implements OrderRepository {
+
+   private static final int MAX_FETCH_SIZE = 500;
+
+   // the orders asked for, the ones changed, and the status of the others
+   static final String UPDATE_LISTED =
+      "WITH wanted AS (SELECT DISTINCT unnest(CAST(? AS int[])) AS orderID), " +
+      "changed AS (UPDATE FoodOrder SET orderStatus = ? WHERE orderID IN (SELECT orderID FROM wanted) " +
+      "AND orderStatus = CAST(? AS char(50)) RETURNING orderID, COALESCE(login, '') AS login) " +
+      "SELECT w.orderID, c.login, f.orderStatus FROM wanted w LEFT JOIN changed c ON c.orderID = w.orderID " +
+      "LEFT JOIN LATERAL (SELECT orderStatus FROM FoodOrder WHERE orderID = w.orderID AND c.orderID IS NULL " +
+      "LIMIT 1) f ON TRUE;";
+
+   // the time includes the sink, which runs while the page is read
+   private static final CallSite PAGE_SITE = CallSites.of("orders.page");
+
+   private final Database db;
+   private final OrderLookup lookup;
+   private final OrderQueue queue;
+   private final Database updateListed;
+   private final Database updateMatching;
+
+   /**
+    * @param queue the group commit queue, or null to write each order on the caller's thread
+    */
+   public PostgresOrders(Database db, OrderLookup lookup, OrderQueue queue) {
+      this.db = db;
+      this.lookup = lookup;
+      this.queue = queue;
+      this.updateListed = db.at("updateOrderStatus.listed");
+      this.updateMatching = db.at("updateOrderStatus.matching");
+   }
+
+   @Override
+   public CompletableFuture<OrderReceipt> place(OrderPlacer.Priced priced, String login, int storeID,
+                                                long resolveNanos) throws SQLException, InterruptedException {
+      if (queue != null) {
+         return queue.submit(priced, login, storeID, resolveNanos).thenApply(receipt -> {
+            if (receipt.placed()) db.wrote(login);
+            return receipt;
+         });
+      }
+      OrderReceipt receipt;
+      try (PooledConnection conn = db.borrow()) {
+         receipt = OrderPlacer.write(conn, priced, login, storeID, resolveNanos);
+      }
+      if (receipt.placed()) db.wrote(login);
+      return CompletableFuture.completedFuture(receipt);
+   }//end place
+
+   /**
+    * Reorders bypass the order queue: each is a single statement already.
+    */
+   @Override
+   public OrderReceipt reorder(OrderRow from, String login, int storeID) throws SQLException {
+      OrderReceipt receipt;
+      try (PooledConnection conn = db.borrow()) {
+         receipt = OrderPlacer.reorder(conn, from, login, storeID);
+      }
+      if (receipt.placed()) db.wrote(login);
+      return receipt;
+   }//end reorder
+
+   @Override
+   public OrderReceipt reorderFavorites(String login, int storeID) throws SQLException {
+      OrderReceipt receipt;
+      try (PooledConnection conn = db.borrow()) {
+         receipt = OrderPlacer.reorderFavorites(conn, login, storeID);
+      }
+      if (receipt.placed()) db.wrote(login);
+      return receipt;
+   }//end reorderFavorites
+
+   @Override
+   public OrderRow find(int orderID, String reader) throws SQLException {
+      return lookup.find(orderID, reader);
+   }//end find
+
+   @Override
+   public String updateStatus(int orderID, String status, String writer) throws SQLException {
+      return lookup.updateStatus(orderID, status, writer);
+   }//end updateStatus
+
+   @Override
+   public StatusUpdate updateStatuses(Collection<Integer> orderIDs, String from, String to, String writer)
+         throws SQLException {
+      StringJoiner ids = new StringJoiner(",", "{", "}");
+      for (int orderID : orderIDs) ids.add(Integer.toString(orderID));
+      StatusUpdate update = new StatusUpdate(from, to);
+      updateListed.writingAs(writer).query(UPDATE_LISTED, rs -> {
+         if (rs.getString(2) != null) update.updated(rs.getInt(1), rs.getString(2));
+         else update.skipped(rs.getInt(1), rs.getString(3));
+         return null;
+      }, ids.toString(), to, from);
+      for (String login : update.updated().values()) db.wrote(login);
+      return update;
+   }//end updateStatuses
+
+   /**
+    * The filter, narrowed to the orders in progress, is applied to both
+    * halves of the statement: the UPDATE and the read of the orders it leaves.
+    */
+   @Override
+   public StatusUpdate updateStatuses(OrderFilter filter, String from, String to, String writer)
+         throws SQLException {
+      StringBuilder where = new StringBuilder();
+      List<Object> matching = new ArrayList<>();
+      filter.copy().active(true).appendTo(where, matching);
+      String sql = "WITH changed AS (UPDATE FoodOrder SET orderStatus = ? WHERE orderStatus = CAST(? AS char(50))"
+         + where + " RETURNING orderID, COALESCE(login, '') AS login) "
+         + "SELECT orderID, login, CAST(NULL AS char(50)) FROM changed UNION ALL "
+         + "SELECT orderID, COALESCE(login, ''), orderStatus FROM FoodOrder WHERE orderStatus <> CAST(? AS char(50))"
+         + where + ";";
+      List<Object> params = new ArrayList<>();
+      params.add(to);
+      params.add(from);
+      params.addAll(matching);
+      params.add(from);
+      params.addAll(matching);
+      StatusUpdate update = new StatusUpdate(from, to);
+      updateMatching.writingAs(writer).query(sql, rs -> {
+         if (rs.getString(3) == null) update.updated(rs.getInt(1), rs.getString(2));
+         else update.skipped(rs.getInt(1), rs.getString(3));
+         return null;
+      }, params.toArray());
+      for (String login : update.updated().values()) db.wrote(login);
+      return update;
+   }//end updateStatuses
+
+   @Override
+   public int page(OrderFilter filter, String reader, Timestamp belowTime, Integer belowID, int limit,
+                   Consumer<OrderRow> sink) throws SQLException {
+      StringBuilder sql = new StringBuilder("SELECT ").append(OrderRow.COLUMNS).append(" FROM FoodOrder WHERE TRUE");
+      List<Object> params = new ArrayList<>();
+      if (belowID != null) {
+         // the plain bound prunes partitions, the row comparison seeks the index
+         sql.append(" AND orderTimestamp <= ? AND (orderTimestamp, orderID) < (?, ?)");
+         params.add(belowTime);
+         params.add(belowTime);
+         params.add(belowID);
+      }
+      filter.appendTo(sql, params);
+      sql.append(" ORDER BY orderTimestamp DESC, orderID DESC LIMIT ?;");
+      params.add(limit);
+
+      int delivered = 0;
+      long start = PAGE_SITE.start();
+      try (PooledConnection conn = db.readingAs(reader).borrow()) {
+         // the driver only uses a cursor (fetch size) inside a transaction
+         conn.connection().setAutoCommit(false);
+         try {
+            PreparedStatement stmt = conn.prepare(sql.toString(), params.toArray());
+            stmt.setFetchSize(Math.min(limit, MAX_FETCH_SIZE));
+            try (ResultSet rs = stmt.executeQuery()) {
+               while (rs.next()) {
+                  sink.accept(OrderRow.fromRow(rs));
+                  delivered++;
+               }
+            }
+            conn.connection().commit();
+         } finally {
+            conn.connection().setAutoCommit(true);
+         }
+      } catch (SQLException | RuntimeException e) {
+         PAGE_SITE.failed(start, sql.toString(), e);
+         throw e;
+      }
+      PAGE_SITE.done(start, delivered, sql.toString());
+      return delivered;
+   }//end page
+
+   /**
+    * @return the counters of the order queue, or "" without one
+    */
+   String stats() {
+      return queue == null ? "" : queue.toString();
+   }//end stats
+
+}//end PostgresOrders
@@ -0,0 +1,128 @@
+package pizzastore.storage.postgres;
+
+import java.sql.SQLException;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.db.ReplicaSet;
+import pizzastore.events.OrderEvents;
+import pizzastore.order.OrderLookup;
+import pizzastore.order.OrderQueue;
+import pizzastore.report.SalesReport;
+import pizzastore.schema.PartitionMaintainer;
+import pizzastore.storage.ItemRepository;
+import pizzastore.storage.OrderItemRepository;
+import pizzastore.storage.OrderRepository;
+import pizzastore.storage.Storage;
+import pizzastore.storage.StoreRepository;
+import pizzastore.storage.UserRepository;
+
+/**
+ * The tables in PostgreSQL, reached through a connection pool.  Besides
+ * the repositories it runs what only the database offers: order events
+ * from LISTEN/NOTIFY, sales reports from the trigger-kept summaries, group
+ * commit and the monthly order partitions.
+ *
+ * With a {@link ReplicaSet}, listings, lookups, profiles, the menu and
+ * store loads and the sales reports are read from the replicas; each
+ * user's reads wait for a replica that has that user's own writes, and go
+ * to the primary until one does.  Writes, order events and the checks that
+ * guard a write stay on the primary.
+ *
+ */
+public final class PostgresStorage implements Storage {
+
+   private final ConnectionPool pool;
+   private final ReplicaSet replicas;
+   private final Database db;
+   private final PostgresUsers users;
+   private final PostgresItems items;
+   private final PostgresStores stores;
+   private final PostgresOrders orders;
+   private final PostgresOrderItems orderItems;
+   private final SalesReport reports;
+   private final OrderQueue orderQueue;
+   private final PartitionMaintainer partitions;
+
+   /**
+    * Group commit, partition maintenance and replicas are configured from
+    * system properties; see {@link OrderQueue.Config#fromSystemProperties()},
+    * {@link PartitionMaintainer.Config#fromSystemProperties()} and
+    * {@link ReplicaSet.Config#fromSystemProperties()}.
+    *
+    * @throws java.sql.SQLException when a replica cannot be reached
+    */
+   public PostgresStorage(ConnectionPool pool) throws SQLException {
+      this(pool, OrderQueue.Config.fromSystemProperties(), PartitionMaintainer.Config.fromSystemProperties(),
+         replicas(pool, ReplicaSet.Config.fromSystemProperties()));
+   }
+
+   /**
+    * @param orders the order queue settings; orders are written one
+    *        transaction each unless they enable it
+    * @param partitions the order partition maintenance, run on a timer
+    *        unless its interval is 0
+    */
+   public PostgresStorage(ConnectionPool pool, OrderQueue.Config orders, PartitionMaintainer.Config partitions) {
+      this(pool, orders, partitions, null);
+   }
+
+   /**
+    * @param replicas the replicas reads may go to, closed with this
+    *        storage; null to send everything to the pool
+    */
+   public PostgresStorage(ConnectionPool pool, OrderQueue.Config orders, PartitionMaintainer.Config partitions,
+                          ReplicaSet replicas) {
+      this.pool = pool;
+      this.replicas = replicas;
+      this.db = new Database(pool, replicas);
+      OrderLookup lookup = new OrderLookup(db);
+      this.orderQueue = orders.enabled() ? new OrderQueue(pool, orders) : null;
+      this.users = new PostgresUsers(db);
+      this.items = new PostgresItems(db);
+      this.stores = new PostgresStores(db);
+      this.orders = new PostgresOrders(db, lookup, orderQueue);
+      this.orderItems = new PostgresOrderItems(db, lookup);
+      this.reports = new SalesReport(db.readingAs(null));
+      this.partitions = new PartitionMaintainer(pool, partitions);
+      this.partitions.start();
+   }
+
+   private static ReplicaSet replicas(ConnectionPool pool, ReplicaSet.Config config) throws SQLException {
+      return config.enabled() ? new ReplicaSet(pool, config) : null;
+   }//end replicas
+
+   @Override public UserRepository users() { return users; }
+   @Override public ItemRepository items() { return items; }
+   @Override public StoreRepository stores() { return stores; }
+   @Override public OrderRepository orders() { return orders; }
+   @Override public OrderItemRepository orderItems() { return orderItems; }
+   @Override public SalesReport reports() { return reports; }
+   @Override public Database database() { return db; }
+   @Override public PoolStats poolStats() { return pool.stats(); }
+
+   @Override
+   public String stats() {
+      String queue = orders.stats();
+      if (replicas == null) return queue;
+      return queue.isEmpty() ? replicas.toString() : queue + System.lineSeparator() + replicas;
+   }//end stats
+
+   @Override
+   public OrderEvents events(long lingerMillis) {
+      return new OrderEvents(pool, lingerMillis);
+   }//end events
+
+   /**
+    * Writes the orders still queued, then stops the order writer and the
+    * partition maintenance and closes the replica pools.
+    */
+   @Override
+   public void close() {
+      if (orderQueue != null) orderQueue.close();
+      partitions.close();
+      if (replicas != null) replicas.close();
+   }//end close
+
+}//end PostgresStorage
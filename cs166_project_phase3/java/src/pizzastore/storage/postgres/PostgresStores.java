@@ -0,0 +1,27 @@
+package pizzastore.storage.postgres;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import pizzastore.db.Database;
+import pizzastore.storage.StoreRepository;
+import pizzastore.store.Store;
+
+/**
+ * Stores in the database, loaded from a replica when there are replicas.
+ *
+ */
+public final class PostgresStores implements StoreRepository {
+
+   private final Database load;
+
+   public PostgresStores(Database db) {
+      this.load = db.at("viewStores.load").readingAs(null);
+   }
+
+   @Override
+   public List<Store> all() throws SQLException {
+      return load.query("SELECT " + Store.COLUMNS + " FROM Store ORDER BY storeID;", Store::fromRow);
+   }//end all
+
+}//end PostgresStores
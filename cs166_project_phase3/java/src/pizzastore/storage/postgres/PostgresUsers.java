@@ -0,0 +1,71 @@
+package pizzastore.storage.postgres;
+
+import java.sql.SQLException;
+
+import pizzastore.db.Database;
+import pizzastore.db.RowMapper;
+import pizzastore.service.UserField;
+import pizzastore.service.UserProfile;
+import pizzastore.session.Role;
+import pizzastore.storage.UserRepository;
+
+/**
+ * Users in the database.  Every statement names one login, which is the
+ * reader of the reads and the writer of the writes.
+ *
+ */
+public final class PostgresUsers implements UserRepository {
+
+   private static final RowMapper<Role> ROLE = rs -> Role.parse(rs.getString(1));
+
+   private final Database insert;
+   private final Database checkPassword;
+   private final Database readRole;
+   private final Database read;
+   private final Database write;
+   private final Database changeRole;
+
+   public PostgresUsers(Database db) {
+      this.insert = db.at("createUser.insert");
+      this.checkPassword = db.at("logIn.checkPassword");
+      this.readRole = db.at("refresh.role");
+      this.read = db.at("viewProfile.read");
+      this.write = db.at("updateProfile.write");
+      this.changeRole = db.at("changeRole.update");
+   }
+
+   @Override
+   public boolean insert(String login, String password, String phoneNum) throws SQLException {
+      // the primary key settles concurrent registrations of the same login
+      return insert.writingAs(login).executeUpdate(
+         "INSERT INTO Users (login, password, phoneNum, role, favoriteItems) " +
+         "VALUES (?, ?, ?, 'Customer', NULL) ON CONFLICT (login) DO NOTHING;", login, password, phoneNum) > 0;
+   }//end insert
+
+   @Override
+   public Role authenticate(String login, String password) throws SQLException {
+      return checkPassword.readingAs(login).queryOne("SELECT role FROM Users WHERE login=? AND password=?;", ROLE, login, password);
+   }//end authenticate
+
+   @Override
+   public Role role(String login) throws SQLException {
+      return readRole.readingAs(login).queryOne("SELECT role FROM Users WHERE login = ?;", ROLE, login);
+   }//end role
+
+   @Override
+   public UserProfile find(String login) throws SQLException {
+      return read.readingAs(login).queryOne("SELECT " + UserProfile.COLUMNS + " FROM Users WHERE login = ?;", UserProfile::fromRow, login);
+   }//end find
+
+   @Override
+   public boolean update(String login, UserField field, String value) throws SQLException {
+      // the column name comes from the enum, never from the caller
+      return write.writingAs(login).executeUpdate("UPDATE Users SET " + field.column() + " = ? WHERE login = ?;", value, login) > 0;
+   }//end update
+
+   @Override
+   public boolean updateRole(String login, String role) throws SQLException {
+      return changeRole.writingAs(login).executeUpdate("UPDATE Users SET role = ? WHERE login = ?;", role, login) > 0;
+   }//end updateRole
+
+}//end PostgresUsers
@@ -0,0 +1,106 @@
+package pizzastore.storage.sharded;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task on several shards at once and waits for every one of them.
+ * The calling thread runs the first shard's task itself, so asking one
+ * shard costs no hand-off and asking n shards takes n - 1 pool threads.
+ *
+ */
+final class Scatter implements AutoCloseable {
+
+   /**
+    * The work done on one shard.
+    */
+   interface Task<T> {
+      T run(int shard) throws SQLException;
+   }//end Task
+
+   private final ExecutorService threads;
+
+   Scatter() {
+      AtomicInteger n = new AtomicInteger();
+      this.threads = Executors.newCachedThreadPool(r -> {
+         Thread t = new Thread(r, "pizzastore-shard-" + n.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   /**
+    * Runs the task on each shard and waits for all of them, even when one
+    * fails, so no shard is still reading once this returns.
+    *
+    * @param shards the shards to run on
+    * @return the results, in the order of the shards
+    * @throws java.sql.SQLException the first failure, when any task failed
+    */
+   <T> List<T> each(int[] shards, Task<T> task) throws SQLException {
+      List<Future<T>> others = new ArrayList<>(shards.length);
+      for (int i = 1; i < shards.length; i++) {
+         int shard = shards[i];
+         others.add(threads.submit(() -> task.run(shard)));
+      }
+      List<T> results = new ArrayList<>(shards.length);
+      Throwable failure = null;
+      if (shards.length > 0) {
+         try {
+            results.add(task.run(shards[0]));
+         } catch (SQLException | RuntimeException e) {
+            failure = e;
+            results.add(null);
+         }
+      }
+      boolean interrupted = false;
+      for (Future<T> f : others) {
+         while (true) {
+            try {
+               results.add(f.get());
+            } catch (InterruptedException e) {
+               interrupted = true;
+               continue;
+            } catch (ExecutionException e) {
+               if (failure == null) failure = e.getCause();
+               results.add(null);
+            }
+            break;
+         }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      if (failure instanceof SQLException) throw (SQLException) failure;
+      if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+      if (failure instanceof Error) throw (Error) failure;
+      if (failure != null) throw new SQLException(failure);
+      return results;
+   }//end each
+
+   /**
+    * @return the shards from 0 to count - 1
+    */
+   static int[] all(int count) {
+      return allBut(count, -1);
+   }//end all
+
+   /**
+    * @return the shards from 0 to count - 1 other than the one left out
+    */
+   static int[] allBut(int count, int leftOut) {
+      int[] shards = new int[leftOut >= 0 && leftOut < count ? count - 1 : count];
+      for (int shard = 0, i = 0; shard < count; shard++) if (shard != leftOut) shards[i++] = shard;
+      return shards;
+   }//end allBut
+
+   @Override
+   public void close() {
+      threads.shutdownNow();
+   }//end close
+
+}//end Scatter
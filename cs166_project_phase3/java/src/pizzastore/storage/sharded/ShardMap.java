@@ -0,0 +1,200 @@
+package pizzastore.storage.sharded;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.PooledConnection;
+
+/**
+ * Which database holds the orders of each store.  Shard 0 is the database
+ * the application connects to; the others are listed by JDBC url.  A
+ * store's orders live on shard {@code storeID mod n} unless the map places
+ * the store elsewhere, e.g. to give a busy store a shard of its own.
+ *
+ * An orderID names its shard too: every shard draws orderIDs from its own
+ * foodorder_orderid_seq, stepped by n from a start congruent to the shard,
+ * so {@code orderID mod n} is the shard that placed the order.
+ * {@link #alignSequences} sets the sequences up the first time the shards
+ * are opened.  Orders that existed before, moved to a shard by
+ * {@link pizzastore.load.ShardSplitter}, keep their orderIDs and are found
+ * by asking the other shards.
+ *
+ * The number of shards is fixed once orders have been placed: changing it
+ * changes the shard of most stores and orderIDs.
+ *
+ */
+public final class ShardMap {
+
+   /**
+    * Shard settings.  Defaults can be overridden through system properties
+    * (see {@link #fromSystemProperties()}).
+    */
+   public static final class Config {
+      List<String> urls = new ArrayList<>();
+      Map<Integer, Integer> stores = new HashMap<>();
+
+      /** @param urls the JDBC urls of shards 1 and up */
+      public Config urls(List<String> urls) { this.urls = new ArrayList<>(urls); return this; }
+      /** @param shard the shard holding the store's orders, instead of storeID mod n */
+      public Config place(int storeID, int shard) { this.stores.put(storeID, shard); return this; }
+
+      /**
+       * @return true when there is more than one shard
+       */
+      public boolean enabled() {
+         return !urls.isEmpty();
+      }//end enabled
+
+      /**
+       * @return the number of shards, counting shard 0
+       */
+      public int count() {
+         return urls.size() + 1;
+      }//end count
+
+      /**
+       * Reads {@code pizzastore.shards} (comma-separated JDBC urls of shards
+       * 1 and up, none by default) and {@code .stores} (storeID:shard
+       * pairs, e.g. "17:2,42:0") on top of the defaults.
+       */
+      public static Config fromSystemProperties() {
+         Config c = new Config();
+         String urls = System.getProperty("pizzastore.shards", "").trim();
+         if (!urls.isEmpty()) {
+            for (String url : urls.split(",")) if (!url.trim().isEmpty()) c.urls.add(url.trim());
+         }
+         String stores = System.getProperty("pizzastore.shards.stores", "").trim();
+         if (!stores.isEmpty()) {
+            for (String pair : stores.split(",")) {
+               String[] parts = pair.split(":");
+               if (parts.length != 2) throw new IllegalArgumentException("not a storeID:shard pair: " + pair);
+               c.stores.put(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            }
+         }
+         return c;
+      }//end fromSystemProperties
+
+      void check() {
+         for (Map.Entry<Integer, Integer> e : stores.entrySet()) {
+            if (e.getValue() < 0 || e.getValue() >= count())
+               throw new IllegalArgumentException("store " + e.getKey() + " placed on shard " + e.getValue()
+                  + " of " + count());
+         }
+      }
+   }//end Config
+
+   static final String SEQUENCE = "foodorder_orderid_seq";
+
+   static final String SEQUENCE_STATE = "SELECT s.last_value, p.increment_by FROM " + SEQUENCE + " s, pg_sequences p "
+      + "WHERE p.schemaname = current_schema() AND p.sequencename = '" + SEQUENCE + "';";
+
+   static final String HIGHEST = "SELECT GREATEST((SELECT last_value FROM " + SEQUENCE + "), "
+      + "(SELECT COALESCE(max(orderID), 0) FROM FoodOrder));";
+
+   // an arbitrary key for pg_advisory_lock, taken on shard 0 while aligning
+   private static final long LOCK_KEY = 166_2024_0024L;
+
+   private final int count;
+   private final List<String> urls;
+   private final Map<Integer, Integer> stores;
+
+   public ShardMap(Config config) {
+      config.check();
+      this.count = config.count();
+      this.urls = Collections.unmodifiableList(new ArrayList<>(config.urls));
+      this.stores = new HashMap<>(config.stores);
+   }
+
+   /**
+    * @return the number of shards, counting shard 0
+    */
+   public int count() {
+      return count;
+   }//end count
+
+   /**
+    * @return the JDBC urls of shards 1 and up
+    */
+   public List<String> urls() {
+      return urls;
+   }//end urls
+
+   /**
+    * @return the shard holding the store's orders
+    */
+   public int shardOfStore(int storeID) {
+      Integer placed = stores.get(storeID);
+      return placed != null ? placed : Math.floorMod(storeID, count);
+   }//end shardOfStore
+
+   /**
+    * @return the shard that placed the order, when it was placed after the
+    *         shards were set up
+    */
+   public int shardOfOrder(int orderID) {
+      return Math.floorMod(orderID, count);
+   }//end shardOfOrder
+
+   /**
+    * Steps every shard's orderID sequence by the number of shards, from a
+    * start congruent to the shard and above every orderID on any shard.  A
+    * shard already stepped that way is left alone, so opening the shards
+    * again changes nothing and never reuses an orderID.
+    *
+    * @param pools one pool per shard, shard 0 first
+    * @return the number of sequences changed
+    * @throws java.sql.SQLException when a shard cannot be read or altered
+    */
+   public int alignSequences(List<ConnectionPool> pools) throws SQLException {
+      if (pools.size() != count)
+         throw new IllegalArgumentException(pools.size() + " pools for " + count + " shards");
+      List<PooledConnection> conns = new ArrayList<>();
+      try {
+         for (ConnectionPool pool : pools) conns.add(pool.borrow());
+         conns.get(0).prepare("SELECT pg_advisory_lock(?);", LOCK_KEY).execute();
+         try {
+            List<Integer> misaligned = new ArrayList<>();
+            long highest = 0;
+            for (int shard = 0; shard < count; shard++) {
+               PooledConnection conn = conns.get(shard);
+               try (ResultSet rs = conn.prepare(SEQUENCE_STATE).executeQuery()) {
+                  if (!rs.next()) throw new SQLException("shard " + shard + " has no " + SEQUENCE);
+                  if (rs.getLong(2) != count || Math.floorMod(rs.getLong(1), count) != shard) misaligned.add(shard);
+               }
+               try (ResultSet rs = conn.prepare(HIGHEST).executeQuery()) {
+                  rs.next();
+                  highest = Math.max(highest, rs.getLong(1));
+               }
+            }
+            for (int shard : misaligned) {
+               long start = highest + 1 + Math.floorMod(shard - (highest + 1), (long) count);
+               // ALTER SEQUENCE takes no parameters
+               try (Statement stmt = conns.get(shard).connection().createStatement()) {
+                  stmt.execute("ALTER SEQUENCE " + SEQUENCE + " INCREMENT BY " + count + " RESTART WITH " + start + ";");
+               }
+            }
+            return misaligned.size();
+         } finally {
+            conns.get(0).prepare("SELECT pg_advisory_unlock(?);", LOCK_KEY).execute();
+         }
+      } finally {
+         for (PooledConnection conn : conns) conn.close();
+      }
+   }//end alignSequences
+
+   @Override
+   public String toString() {
+      StringBuilder out = new StringBuilder();
+      out.append(count).append(" shards, storeID mod ").append(count);
+      if (!stores.isEmpty()) out.append(" but ").append(stores.size()).append(" stores placed");
+      return out.toString();
+   }//end toString
+
+}//end ShardMap
@@ -0,0 +1,52 @@
+package pizzastore.storage.sharded;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import pizzastore.menu.ItemField;
+import pizzastore.menu.MenuItem;
+import pizzastore.storage.ItemRepository;
+
+/**
+ * Items on every shard, which order lines refer to and reorders are priced
+ * from.  Like {@link ShardedUsers}, writes go to shard 0 and then to the
+ * others, and the menu is read from shard 0.
+ *
+ */
+final class ShardedItems implements ItemRepository {
+
+   private final ItemRepository[] shards;
+
+   ShardedItems(ItemRepository[] shards) {
+      this.shards = shards;
+   }
+
+   @Override
+   public List<MenuItem> all() throws SQLException {
+      return shards[0].all();
+   }//end all
+
+   @Override
+   public MenuItem insert(MenuItem item) throws SQLException {
+      MenuItem stored = shards[0].insert(item);
+      for (int i = 1; i < shards.length; i++) shards[i].insert(item);
+      return stored;
+   }//end insert
+
+   @Override
+   public MenuItem update(String itemName, ItemField field, Object value) throws SQLException {
+      MenuItem stored = shards[0].update(itemName, field, value);
+      if (stored == null) return null;
+      for (int i = 1; i < shards.length; i++) shards[i].update(itemName, field, value);
+      return stored;
+   }//end update
+
+   @Override
+   public boolean delete(String itemName) throws SQLException {
+      // every shard is tried, so a delete repeated after a failure finishes
+      boolean deleted = shards[0].delete(itemName);
+      for (int i = 1; i < shards.length; i++) shards[i].delete(itemName);
+      return deleted;
+   }//end delete
+
+}//end ShardedItems
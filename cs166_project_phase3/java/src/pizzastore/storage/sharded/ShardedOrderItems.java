@@ -0,0 +1,46 @@
+package pizzastore.storage.sharded;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import pizzastore.order.OrderRow;
+import pizzastore.storage.OrderItemRepository;
+
+/**
+ * ItemsInOrder split over the shards with the orders they belong to.  The
+ * lines of an order are read from its store's shard, where both new orders
+ * and orders moved by {@link pizzastore.load.ShardSplitter} are, and from
+ * the shard its orderID names when they are not there.
+ *
+ */
+final class ShardedOrderItems implements OrderItemRepository {
+
+   private final ShardMap map;
+   private final OrderItemRepository[] shards;
+   private final Scatter scatter;
+
+   ShardedOrderItems(ShardMap map, OrderItemRepository[] shards, Scatter scatter) {
+      this.map = map;
+      this.shards = shards;
+      this.scatter = scatter;
+   }
+
+   @Override
+   public Map<String, Integer> items(OrderRow order, String reader) throws SQLException {
+      int byStore = map.shardOfStore(order.storeID());
+      Map<String, Integer> lines = shards[byStore].items(order, reader);
+      int byID = map.shardOfOrder(order.orderID());
+      // every order has a line, so none means the order is on another shard
+      if (lines.isEmpty() && byID != byStore) lines = shards[byID].items(order, reader);
+      return lines;
+   }//end items
+
+   @Override
+   public boolean ordered(String itemName) throws SQLException {
+      for (boolean found : scatter.each(Scatter.all(shards.length), s -> shards[s].ordered(itemName))) {
+         if (found) return true;
+      }
+      return false;
+   }//end ordered
+
+}//end ShardedOrderItems
@@ -0,0 +1,198 @@
+package pizzastore.storage.sharded;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import pizzastore.menu.MenuItem;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPlacer;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.order.StatusUpdate;
+import pizzastore.storage.ItemRepository;
+import pizzastore.storage.OrderRepository;
+
+/**
+ * FoodOrder split over the shards of a {@link ShardMap}.  An order is
+ * placed on its store's shard, which also numbers it; a lookup or status
+ * change by orderID goes to the shard the orderID names, and only when the
+ * order is not there, as for orders from before the split, to the others.
+ *
+ * A bulk status change by orderIDs sends each shard the orderIDs it
+ * placed, in parallel, and the ones none of them has to every other shard.
+ * One by filter goes to the store's shard, or to all of them.
+ *
+ * A listing for one store reads that store's shard.  Any other listing
+ * reads the same page from every shard in parallel and merges the pages,
+ * newest first: each shard's page is already in (orderTimestamp, orderID)
+ * order, so the first {@code limit} rows of the merge are the page.
+ *
+ */
+final class ShardedOrders implements OrderRepository {
+
+   private final ShardMap map;
+   private final OrderRepository[] shards;
+   private final ShardedOrderItems items;
+   private final ItemRepository menu;
+   private final Scatter scatter;
+
+   /**
+    * @param items the order lines, read when a reorder crosses shards
+    * @param menu the Items table such reorders are priced from
+    */
+   ShardedOrders(ShardMap map, OrderRepository[] shards, ShardedOrderItems items, ItemRepository menu,
+                 Scatter scatter) {
+      this.map = map;
+      this.shards = shards;
+      this.items = items;
+      this.menu = menu;
+      this.scatter = scatter;
+   }
+
+   @Override
+   public CompletableFuture<OrderReceipt> place(OrderPlacer.Priced priced, String login, int storeID,
+                                                long resolveNanos) throws SQLException, InterruptedException {
+      return shards[map.shardOfStore(storeID)].place(priced, login, storeID, resolveNanos);
+   }//end place
+
+   /**
+    * A reorder within one shard is that shard's single statement.  One that
+    * moves to a store on another shard reads the lines, prices them from
+    * Items and places them on the new shard like any order.
+    */
+   @Override
+   public OrderReceipt reorder(OrderRow from, String login, int storeID) throws SQLException {
+      int target = map.shardOfStore(storeID);
+      if (map.shardOfStore(from.storeID()) == target) return shards[target].reorder(from, login, storeID);
+      long start = System.nanoTime();
+      Map<String, MenuItem> byKey = new HashMap<>();
+      for (MenuItem item : menu.all()) byKey.put(item.key(), item);
+      OrderPlacer.Priced priced = OrderPlacer.price(name -> byKey.get(MenuItem.keyOf(name)), items.items(from, login));
+      try {
+         // without a queue the future is complete on return; with one, the wait is the group commit
+         return shards[target].place(priced, login, storeID, System.nanoTime() - start).get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while the reorder was being written; it may still be placed.", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException) throw (SQLException) cause;
+         if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+         throw new SQLException(cause);
+      }
+   }//end reorder
+
+   @Override
+   public OrderReceipt reorderFavorites(String login, int storeID) throws SQLException {
+      return shards[map.shardOfStore(storeID)].reorderFavorites(login, storeID);
+   }//end reorderFavorites
+
+   @Override
+   public OrderRow find(int orderID, String reader) throws SQLException {
+      int home = map.shardOfOrder(orderID);
+      OrderRow row = shards[home].find(orderID, reader);
+      if (row != null) return row;
+      for (OrderRow other : scatter.each(Scatter.allBut(shards.length, home), s -> shards[s].find(orderID, reader))) {
+         if (other != null) return other;
+      }
+      return null;
+   }//end find
+
+   @Override
+   public String updateStatus(int orderID, String status, String writer) throws SQLException {
+      int home = map.shardOfOrder(orderID);
+      String login = shards[home].updateStatus(orderID, status, writer);
+      if (login != null) return login;
+      // an orderID is on one shard at most, so at most one of these changes a row
+      for (String other : scatter.each(Scatter.allBut(shards.length, home),
+            s -> shards[s].updateStatus(orderID, status, writer))) {
+         if (other != null) return other;
+      }
+      return null;
+   }//end updateStatus
+
+   @Override
+   public StatusUpdate updateStatuses(Collection<Integer> orderIDs, String from, String to, String writer)
+         throws SQLException {
+      List<List<Integer>> byShard = new ArrayList<>();
+      for (int i = 0; i < shards.length; i++) byShard.add(new ArrayList<>());
+      for (int orderID : orderIDs) byShard.get(map.shardOfOrder(orderID)).add(orderID);
+      int[] asked = Scatter.all(shards.length);
+      StatusUpdate update = new StatusUpdate(from, to);
+      for (StatusUpdate part : scatter.each(asked, s -> byShard.get(s).isEmpty()
+            ? new StatusUpdate(from, to) : shards[s].updateStatuses(byShard.get(s), from, to, writer))) {
+         update.addAll(part);
+      }
+      List<Integer> missing = update.missing();
+      if (missing.isEmpty() || shards.length == 1) return update;
+      // orders from before the split: a shard is only asked for those it did not place
+      for (StatusUpdate part : scatter.each(asked, s -> {
+         List<Integer> elsewhere = new ArrayList<>();
+         for (int orderID : missing) if (map.shardOfOrder(orderID) != s) elsewhere.add(orderID);
+         return elsewhere.isEmpty() ? new StatusUpdate(from, to) : shards[s].updateStatuses(elsewhere, from, to, writer);
+      })) {
+         update.addAll(part);
+      }
+      return update;
+   }//end updateStatuses
+
+   @Override
+   public StatusUpdate updateStatuses(OrderFilter filter, String from, String to, String writer)
+         throws SQLException {
+      if (filter.storeID() != null) {
+         return shards[map.shardOfStore(filter.storeID())].updateStatuses(filter, from, to, writer);
+      }
+      StatusUpdate update = new StatusUpdate(from, to);
+      for (StatusUpdate part : scatter.each(Scatter.all(shards.length),
+            s -> shards[s].updateStatuses(filter, from, to, writer))) {
+         update.addAll(part);
+      }
+      return update;
+   }//end updateStatuses
+
+   @Override
+   public int page(OrderFilter filter, String reader, Timestamp belowTime, Integer belowID, int limit,
+                   Consumer<OrderRow> sink) throws SQLException {
+      if (filter.storeID() != null) {
+         return shards[map.shardOfStore(filter.storeID())].page(filter, reader, belowTime, belowID, limit, sink);
+      }
+      int[] all = Scatter.all(shards.length);
+      List<List<OrderRow>> pages = scatter.each(all, s -> {
+         List<OrderRow> page = new ArrayList<>(Math.min(limit, 1024));
+         shards[s].page(filter, reader, belowTime, belowID, limit, page::add);
+         return page;
+      });
+      return merge(pages, limit, sink);
+   }//end page
+
+   /**
+    * Delivers the first rows of the sorted pages taken together.
+    *
+    * @return the number of rows delivered
+    */
+   static int merge(List<List<OrderRow>> pages, int limit, Consumer<OrderRow> sink) {
+      // heads of the pages, as {page, position}
+      PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, pages.size()),
+         (a, b) -> OrderRow.NEWEST_FIRST.compare(pages.get(a[0]).get(a[1]), pages.get(b[0]).get(b[1])));
+      for (int p = 0; p < pages.size(); p++) if (!pages.get(p).isEmpty()) heads.add(new int[] {p, 0});
+      int delivered = 0;
+      while (delivered < limit && !heads.isEmpty()) {
+         int[] head = heads.poll();
+         List<OrderRow> page = pages.get(head[0]);
+         sink.accept(page.get(head[1]));
+         delivered++;
+         if (++head[1] < page.size()) heads.add(head);
+      }
+      return delivered;
+   }//end merge
+
+}//end ShardedOrders
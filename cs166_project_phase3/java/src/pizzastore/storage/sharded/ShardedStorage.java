@@ -0,0 +1,156 @@
+package pizzastore.storage.sharded;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.db.PoolStats;
+import pizzastore.events.OrderEvents;
+import pizzastore.order.OrderQueue;
+import pizzastore.report.SalesReport;
+import pizzastore.schema.PartitionMaintainer;
+import pizzastore.storage.ItemRepository;
+import pizzastore.storage.OrderItemRepository;
+import pizzastore.storage.OrderRepository;
+import pizzastore.storage.Storage;
+import pizzastore.storage.StoreRepository;
+import pizzastore.storage.UserRepository;
+import pizzastore.storage.postgres.PostgresStorage;
+
+/**
+ * FoodOrder and ItemsInOrder split by store over several PostgreSQL
+ * databases, each run as a {@link PostgresStorage} of its own, so order
+ * writes and their triggers spread over the shards.  Every shard holds
+ * the same schema and a full copy of Users, Items and Store, which the
+ * orders refer to: those tables are read from shard 0 and their writes are
+ * repeated on every shard.  The Store table is only changed by hand and
+ * has to be changed on every shard the same way.
+ *
+ * Shard 0 is the database of the pool handed in and keeps its replicas,
+ * if any are configured; the other shards are opened with the same user
+ * and pool settings and have none.  Each shard runs its own group commit,
+ * partition maintenance and sales summaries, and order events are
+ * listened to on all of them.
+ *
+ * To split a database that already holds orders, see
+ * {@link pizzastore.load.ShardSplitter}.
+ *
+ */
+public final class ShardedStorage implements Storage {
+
+   private final ShardMap map;
+   private final List<ConnectionPool> pools;
+   private final PostgresStorage[] shards;
+   private final Scatter scatter = new Scatter();
+   private final ShardedUsers users;
+   private final ShardedItems items;
+   private final ShardedOrders orders;
+   private final ShardedOrderItems orderItems;
+   private final SalesReport reports;
+
+   /**
+    * Opens the other shards and steps their orderID sequences, see
+    * {@link ShardMap#alignSequences}.  Group commit, partition maintenance
+    * and the replicas of shard 0 are configured from system properties as
+    * for {@link PostgresStorage#PostgresStorage(ConnectionPool)}.
+    *
+    * @param pool the pool of shard 0; it stays the caller's to close
+    * @throws java.sql.SQLException when a shard cannot be reached or its
+    *         sequence cannot be set up
+    */
+   public ShardedStorage(ConnectionPool pool, ShardMap.Config config) throws SQLException {
+      this.map = new ShardMap(config);
+      this.pools = new ArrayList<>();
+      this.shards = new PostgresStorage[map.count()];
+      pools.add(pool);
+      try {
+         for (String url : map.urls()) pools.add(pool.sibling(url));
+         map.alignSequences(pools);
+         shards[0] = new PostgresStorage(pool);
+         OrderQueue.Config queue = OrderQueue.Config.fromSystemProperties();
+         PartitionMaintainer.Config partitions = PartitionMaintainer.Config.fromSystemProperties();
+         for (int i = 1; i < shards.length; i++) shards[i] = new PostgresStorage(pools.get(i), queue, partitions);
+      } catch (SQLException | RuntimeException e) {
+         close();
+         throw e;
+      }
+
+      UserRepository[] userShards = new UserRepository[shards.length];
+      ItemRepository[] itemShards = new ItemRepository[shards.length];
+      OrderRepository[] orderShards = new OrderRepository[shards.length];
+      OrderItemRepository[] lineShards = new OrderItemRepository[shards.length];
+      List<Database> databases = new ArrayList<>();
+      for (int i = 0; i < shards.length; i++) {
+         userShards[i] = shards[i].users();
+         itemShards[i] = shards[i].items();
+         orderShards[i] = shards[i].orders();
+         lineShards[i] = shards[i].orderItems();
+         databases.add(shards[i].database().readingAs(null));
+      }
+      this.users = new ShardedUsers(userShards);
+      this.items = new ShardedItems(itemShards);
+      this.orderItems = new ShardedOrderItems(map, lineShards, scatter);
+      this.orders = new ShardedOrders(map, orderShards, orderItems, itemShards[0], scatter);
+      this.reports = new SalesReport(databases, map::shardOfStore);
+   }
+
+   @Override public UserRepository users() { return users; }
+   @Override public ItemRepository items() { return items; }
+   @Override public StoreRepository stores() { return shards[0].stores(); }
+   @Override public OrderRepository orders() { return orders; }
+   @Override public OrderItemRepository orderItems() { return orderItems; }
+   @Override public SalesReport reports() { return reports; }
+
+   /**
+    * @return the query helpers of shard 0, which hold every table but the
+    *         orders of the other shards' stores
+    */
+   @Override
+   public Database database() {
+      return shards[0].database();
+   }//end database
+
+   /**
+    * @return the pool counters of shard 0; the others are in {@link #stats()}
+    */
+   @Override
+   public PoolStats poolStats() {
+      return shards[0].poolStats();
+   }//end poolStats
+
+   @Override
+   public OrderEvents events(long lingerMillis) {
+      return new OrderEvents(pools, lingerMillis);
+   }//end events
+
+   @Override
+   public String stats() {
+      String nl = System.lineSeparator();
+      StringBuilder out = new StringBuilder(map.toString());
+      for (int i = 0; i < shards.length; i++) {
+         out.append(nl).append("shard ").append(i);
+         String own = shards[i].stats();
+         if (i > 0) {
+            out.append(" (").append(map.urls().get(i - 1)).append(")");
+            String pool = pools.get(i).stats().toString();
+            own = own.isEmpty() ? pool : pool + nl + own;
+         }
+         if (!own.isEmpty()) out.append(nl).append("  ").append(own.replace(nl, nl + "  "));
+      }
+      return out.toString();
+   }//end stats
+
+   /**
+    * Closes every shard, which writes the orders still queued, and the
+    * pools of shards 1 and up.
+    */
+   @Override
+   public void close() {
+      for (PostgresStorage shard : shards) if (shard != null) shard.close();
+      for (int i = 1; i < pools.size(); i++) pools.get(i).close();
+      scatter.close();
+   }//end close
+
+}//end ShardedStorage
@@ -0,0 +1,67 @@
+package pizzastore.storage.sharded;
+
+import java.sql.SQLException;
+
+import pizzastore.service.UserField;
+import pizzastore.service.UserProfile;
+import pizzastore.session.Role;
+import pizzastore.storage.UserRepository;
+
+/**
+ * Users on every shard.  Each shard needs the rows its orders refer to and
+ * the favorite items its reorders read, so writes go to shard 0 and are
+ * then repeated on the others, while reads are answered by shard 0 alone.
+ * The shards are not written in one transaction: when a later shard
+ * fails, the earlier ones keep the change and the error is reported.
+ * Repeating the write finishes it.  A registration is inserted on every
+ * shard even when shard 0 already has the login, leaving rows that are
+ * there alone, so one that failed half way is repaired by registering
+ * again; only shard 0 is ever asked for the password.
+ *
+ */
+final class ShardedUsers implements UserRepository {
+
+   private final UserRepository[] shards;
+
+   ShardedUsers(UserRepository[] shards) {
+      this.shards = shards;
+   }
+
+   @Override
+   public boolean insert(String login, String password, String phoneNum) throws SQLException {
+      // shard 0 settles who gets the login; the others only fill in rows they lack
+      boolean created = shards[0].insert(login, password, phoneNum);
+      for (int i = 1; i < shards.length; i++) shards[i].insert(login, password, phoneNum);
+      return created;
+   }//end insert
+
+   @Override
+   public Role authenticate(String login, String password) throws SQLException {
+      return shards[0].authenticate(login, password);
+   }//end authenticate
+
+   @Override
+   public Role role(String login) throws SQLException {
+      return shards[0].role(login);
+   }//end role
+
+   @Override
+   public UserProfile find(String login) throws SQLException {
+      return shards[0].find(login);
+   }//end find
+
+   @Override
+   public boolean update(String login, UserField field, String value) throws SQLException {
+      if (!shards[0].update(login, field, value)) return false;
+      for (int i = 1; i < shards.length; i++) shards[i].update(login, field, value);
+      return true;
+   }//end update
+
+   @Override
+   public boolean updateRole(String login, String role) throws SQLException {
+      if (!shards[0].updateRole(login, role)) return false;
+      for (int i = 1; i < shards.length; i++) shards[i].updateRole(login, role);
+      return true;
+   }//end updateRole
+
+}//end ShardedUsers
@@ -0,0 +1,53 @@
+package pizzastore.store;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * One immutable row of the Store table.
+ *
+ */
+public final class Store {
+
+   public static final String COLUMNS = "storeID, address, city, state, isOpen, reviewScore";
+
+   private final int storeID;
+   private final String address;
+   private final String city;
+   private final String state;
+   private final String isOpen;
+   private final Double reviewScore;
+
+   public Store(int storeID, String address, String city, String state, String isOpen, Double reviewScore) {
+      this.storeID = storeID;
+      this.address = address;
+      this.city = city;
+      this.state = state;
+      this.isOpen = isOpen;
+      this.reviewScore = reviewScore;
+   }
+
+   /**
+    * Reads the current row of a result set selected with {@link #COLUMNS}.
+    */
+   public static Store fromRow(ResultSet rs) throws SQLException {
+      // getObject keeps a NULL score (an unreviewed store) apart from 0.0
+      return new Store(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+         rs.getString(5), rs.getObject(6, Double.class));
+   }//end fromRow
+
+   public int storeID() { return storeID; }
+   public String address() { return address; }
+   public String city() { return city; }
+   public String state() { return state; }
+   public String isOpen() { return isOpen; }
+   public Double reviewScore() { return reviewScore; }
+
+   /**
+    * @return true when the isOpen column says "yes"
+    */
+   public boolean open() {
+      return isOpen != null && isOpen.trim().equalsIgnoreCase("yes");
+   }//end open
+
+}//end Store
@@ -0,0 +1,200 @@
+package pizzastore.store;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import pizzastore.storage.StoreRepository;
+
+/**
+ * An in-memory copy of the Store table, indexed for the searches customers
+ * make: by state, by city or the start of a city name, open stores only,
+ * best reviewed first.  Like the menu it is loaded once into an immutable
+ * {@link Snapshot}; {@link #invalidate} drops it when the table changes so
+ * the next read loads it again, so the store_changes notification is
+ * what keeps it current.  A lookup of an unknown storeID reloads too, in
+ * case the notification is late, but only when the snapshot is older than
+ * pizzastore.stores.missReloadMs (5 seconds by default): a burst of
+ * requests for stores that do not exist costs at most one read of the
+ * table per interval.
+ *
+ */
+public final class StoreDirectory {
+
+   /**
+    * Best reviewed first; unreviewed stores last; then by storeID.
+    */
+   static final Comparator<Store> BY_SCORE = Comparator
+      .comparing((Store s) -> s.reviewScore() == null ? Double.NEGATIVE_INFINITY : s.reviewScore())
+      .reversed().thenComparingInt(Store::storeID);
+
+   static final long MISS_RELOAD_MILLIS = Long.getLong("pizzastore.stores.missReloadMs", 5_000L);
+
+   private final StoreRepository stores;
+   private volatile Snapshot current = null;
+
+   public StoreDirectory(StoreRepository stores) {
+      this.stores = stores;
+   }
+
+   /**
+    * @return the current snapshot, loading the table when there is none
+    * @throws java.sql.SQLException when the load fails
+    */
+   public Snapshot snapshot() throws SQLException {
+      Snapshot s = current;
+      return s != null ? s : reload();
+   }//end snapshot
+
+   /**
+    * Re-reads the whole Store table and publishes it.
+    *
+    * @return the new snapshot
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public synchronized Snapshot reload() throws SQLException {
+      current = new Snapshot(stores.all());
+      return current;
+   }//end reload
+
+   /**
+    * Forgets the snapshot; the next read loads the table again.  Waits for
+    * a reload in progress, which may have read the table before the change.
+    */
+   public synchronized void invalidate() {
+      current = null;
+   }//end invalidate
+
+   /**
+    * @return the store, reloading when the snapshot does not know it and is
+    *         old enough; null when there is none
+    * @throws java.sql.SQLException when a reload fails
+    */
+   public Store find(int storeID) throws SQLException {
+      Snapshot s = snapshot();
+      Store store = s.find(storeID);
+      return store != null ? store : reloadAfterMiss(s).find(storeID);
+   }//end find
+
+   /**
+    * @param seen the snapshot that missed
+    * @return a newer snapshot when another thread loaded one meanwhile or
+    *         seen is older than the interval, else seen itself
+    */
+   private synchronized Snapshot reloadAfterMiss(Snapshot seen) throws SQLException {
+      Snapshot s = current;
+      if (s != null && s != seen) return s;
+      if (s != null && System.nanoTime() - s.loadedAt < TimeUnit.MILLISECONDS.toNanos(MISS_RELOAD_MILLIS)) return s;
+      return reload();
+   }//end reloadAfterMiss
+
+   /**
+    * An immutable, fully indexed view of the stores.
+    */
+   public static final class Snapshot {
+      private final long loadedAt = System.nanoTime();
+      private final List<Store> byID;
+      private final Map<Integer, Store> byStoreID;
+      private final List<Store> byScore;
+      private final Map<String, List<Store>> byState;
+      private final NavigableMap<String, List<Store>> byCity;
+
+      Snapshot(List<Store> stores) {
+         this.byID = Collections.unmodifiableList(new ArrayList<>(stores));
+
+         Map<Integer, Store> ids = new HashMap<>(stores.size() * 2);
+         for (Store s : stores) ids.put(s.storeID(), s);
+         this.byStoreID = ids;
+
+         List<Store> scored = new ArrayList<>(stores);
+         scored.sort(BY_SCORE);
+         this.byScore = Collections.unmodifiableList(scored);
+
+         // built from the score order, so every bucket is already best first
+         Map<String, List<Store>> states = new HashMap<>();
+         NavigableMap<String, List<Store>> cities = new TreeMap<>();
+         for (Store s : scored) {
+            states.computeIfAbsent(key(s.state()), k -> new ArrayList<>()).add(s);
+            cities.computeIfAbsent(key(s.city()), k -> new ArrayList<>()).add(s);
+         }
+         this.byState = states;
+         this.byCity = cities;
+      }
+
+      /**
+       * @return the store with this ID, or null
+       */
+      public Store find(int storeID) {
+         return byStoreID.get(storeID);
+      }//end find
+
+      /**
+       * @return every store ordered by storeID
+       */
+      public List<Store> all() {
+         return byID;
+      }//end all
+
+      public int size() {
+         return byID.size();
+      }//end size
+
+      /**
+       * Finds stores best reviewed first.  Every criterion is optional.
+       *
+       * @param state the state, ignoring case; null or blank for any
+       * @param city the city or the start of its name, ignoring case; null or blank for any
+       * @param openOnly true to skip closed stores
+       * @param limit the most stores returned
+       * @return at most limit matching stores
+       */
+      public List<Store> search(String state, String city, boolean openOnly, int limit) {
+         String stateKey = blank(state) ? null : key(state);
+         String cityKey = blank(city) ? null : key(city);
+         List<Store> result = new ArrayList<>(Math.min(limit, 64));
+         if (limit <= 0) return result;
+
+         if (cityKey != null) {
+            // a prefix may span several cities: gather them, then order by score
+            for (List<Store> bucket : byCity.subMap(cityKey, true, cityKey + Character.MAX_VALUE, false).values()) {
+               for (Store s : bucket) {
+                  if (matches(s, stateKey, openOnly)) result.add(s);
+               }
+            }
+            result.sort(BY_SCORE);
+            return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+         }
+
+         // the state bucket and the full list are score ordered: stop at the limit
+         List<Store> candidates = stateKey != null ? byState.get(stateKey) : byScore;
+         if (candidates == null) return result;
+         for (Store s : candidates) {
+            if (openOnly && !s.open()) continue;
+            result.add(s);
+            if (result.size() == limit) break;
+         }
+         return result;
+      }//end search
+
+      private static boolean matches(Store s, String stateKey, boolean openOnly) {
+         return (stateKey == null || key(s.state()).equals(stateKey)) && (!openOnly || s.open());
+      }//end matches
+   }//end Snapshot
+
+   private static String key(String value) {
+      return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+   }//end key
+
+   private static boolean blank(String value) {
+      return value == null || value.trim().isEmpty();
+   }//end blank
+
+}//end StoreDirectory
@@ -0,0 +1,281 @@
+package pizzastore.workload;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.metrics.CallSites;
+import pizzastore.metrics.LatencyHistogram;
+import pizzastore.service.PizzaService;
+import pizzastore.service.ServiceException;
+import pizzastore.session.Session;
+import pizzastore.storage.Storage;
+import pizzastore.storage.embedded.EmbeddedStorage;
+
+/**
+ * Replays a workload file against {@link PizzaService} and reports
+ * throughput and latency percentiles per operation type.
+ *
+ * Two ways of applying load:
+ * <ul>
+ *   <li>closed loop (default): --concurrency workers each run the next
+ *       operation as soon as their previous one finishes;</li>
+ *   <li>open loop: with --rate R operations are started on a fixed
+ *       schedule of R per second whatever the response times.  Latency is
+ *       measured from the scheduled start, so time spent queued behind a
+ *       slow operation counts (no coordinated omission).</li>
+ * </ul>
+ *
+ * The file is replayed --loops times or until --duration seconds have
+ * passed.  Measurements taken during the first --warmup seconds are
+ * dropped.
+ *
+ * With {@code -Dpizzastore.storage=embedded} the workload runs against the
+ * embedded engine in {@code pizzastore.storage.dir} instead, and the
+ * database arguments are ignored.
+ *
+ * <pre>
+ *   ReplayDriver &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;workload.jsonl&gt;
+ *                [--concurrency N] [--rate OPS] [--loops N] [--duration S] [--warmup S]
+ * </pre>
+ *
+ */
+public final class ReplayDriver {
+
+   private final PizzaService service;
+   private final List<WorkloadOp> ops;
+   private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+   private final Map<String, String> passwords = new ConcurrentHashMap<>();
+   private final Map<WorkloadOp.Type, LatencyHistogram> latency = new EnumMap<>(WorkloadOp.Type.class);
+   private final Map<WorkloadOp.Type, LongAdder> refused = new EnumMap<>(WorkloadOp.Type.class);
+   private final Map<WorkloadOp.Type, LongAdder> failed = new EnumMap<>(WorkloadOp.Type.class);
+   private final AtomicBoolean reportedError = new AtomicBoolean();
+   private volatile long measureFrom = 0;
+
+   /**
+    * @param service the service operations are run against
+    * @param ops the workload, replayed in file order
+    */
+   public ReplayDriver(PizzaService service, List<WorkloadOp> ops) {
+      this.service = service;
+      this.ops = ops;
+      for (WorkloadOp.Type t : WorkloadOp.Type.values()) {
+         latency.put(t, new LatencyHistogram());
+         refused.put(t, new LongAdder());
+         failed.put(t, new LongAdder());
+      }
+      // the first login line of a user supplies the password for implicit logins
+      for (WorkloadOp op : ops) {
+         if (op.type() == WorkloadOp.Type.LOGIN && op.password() != null) passwords.putIfAbsent(op.user(), op.password());
+      }
+   }
+
+   /**
+    * Reads a workload file; blank lines and lines starting with # are skipped.
+    */
+   public static List<WorkloadOp> read(String path) throws IOException {
+      List<WorkloadOp> ops = new ArrayList<>();
+      try (BufferedReader in = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+         String line;
+         int lineNo = 0;
+         while ((line = in.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+               ops.add(WorkloadOp.parse(line));
+            } catch (IllegalArgumentException e) {
+               throw new IOException(path + ":" + lineNo + ": " + e.getMessage(), e);
+            }
+         }
+      }
+      return ops;
+   }//end read
+
+   /**
+    * Runs with a fixed number of workers, each starting its next operation
+    * as soon as the previous one returns.
+    *
+    * @param total the number of operations to run, cycling through the file
+    * @param deadline System.nanoTime() after which no new operation starts
+    */
+   public void runClosedLoop(int concurrency, long total, long deadline) throws InterruptedException {
+      AtomicLong cursor = new AtomicLong();
+      List<Thread> workers = new ArrayList<>(concurrency);
+      for (int w = 0; w < concurrency; w++) {
+         Thread t = new Thread(() -> {
+            long i;
+            while ((i = cursor.getAndIncrement()) < total && System.nanoTime() < deadline) {
+               execute(ops.get((int) (i % ops.size())), System.nanoTime());
+            }
+         }, "replay-" + w);
+         t.start();
+         workers.add(t);
+      }
+      for (Thread t : workers) t.join();
+   }//end runClosedLoop
+
+   /**
+    * Starts operations at a fixed rate on a pool of workers.  When the
+    * workers cannot keep up operations queue, and the queueing delay is
+    * part of the latency recorded.
+    */
+   public void runOpenLoop(double opsPerSecond, int concurrency, long total, long deadline)
+         throws InterruptedException {
+      ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+      long interval = (long) (1e9 / opsPerSecond);
+      long start = System.nanoTime();
+      for (long i = 0; i < total; i++) {
+         long intended = start + i * interval;
+         if (intended >= deadline) break;
+         long wait = intended - System.nanoTime();
+         if (wait > 0) LockSupport.parkNanos(wait);
+         WorkloadOp op = ops.get((int) (i % ops.size()));
+         workers.execute(() -> execute(op, intended));
+      }
+      workers.shutdown();
+      workers.awaitTermination(1, TimeUnit.HOURS);
+   }//end runOpenLoop
+
+   /**
+    * Drops the results of operations started before the given
+    * System.nanoTime() stamp, i.e. the warm-up.
+    */
+   public void measureFrom(long startNanos) {
+      this.measureFrom = startNanos;
+   }//end measureFrom
+
+   private void execute(WorkloadOp op, long startNanos) {
+      WorkloadOp.Type type = op.type();
+      boolean ok = false;
+      try {
+         Session session = null;
+         if (type != WorkloadOp.Type.LOGIN) session = sessionOf(op.user());
+         Session next = op.execute(service, session);
+         if (next != null) sessions.put(op.user(), next);
+         ok = true;
+      } catch (ServiceException e) {
+         // refusals (permission denied, unknown order, ...) are part of the workload
+         if (startNanos >= measureFrom) refused.get(type).increment();
+         ok = true;
+      } catch (SQLException | RuntimeException e) {
+         if (startNanos >= measureFrom) failed.get(type).increment();
+         if (reportedError.compareAndSet(false, true)) System.err.println("Error in " + op + ": " + e.getMessage());
+      }
+      long end = System.nanoTime();
+      if (ok && startNanos >= measureFrom) latency.get(type).record(end - startNanos);
+   }//end execute
+
+   private Session sessionOf(String user) throws ServiceException, SQLException {
+      Session session = sessions.get(user);
+      if (session == null) {
+         String password = passwords.get(user);
+         if (password == null)
+            throw new ServiceException(ServiceException.Kind.UNAUTHENTICATED, "no login line for " + user);
+         session = service.logIn(user, password);
+         sessions.put(user, session);
+      }
+      return session;
+   }//end sessionOf
+
+   /**
+    * Prints one line per operation type that ran, then the totals.
+    *
+    * @param seconds the measured wall-clock time, for throughput
+    */
+   public void report(double seconds) {
+      System.out.printf("%-13s %9s %8s %7s %10s %9s %9s %9s %9s %9s%n",
+         "op", "ok", "refused", "failed", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms");
+      LatencyHistogram all = new LatencyHistogram();
+      long allRefused = 0, allFailed = 0;
+      for (WorkloadOp.Type t : WorkloadOp.Type.values()) {
+         LatencyHistogram.Snapshot s = latency.get(t).snapshot();
+         long r = refused.get(t).sum(), f = failed.get(t).sum();
+         if (s.count() == 0 && f == 0) continue;
+         line(t.jsonName(), s, r, f, seconds);
+         allRefused += r;
+         allFailed += f;
+      }
+      for (LatencyHistogram h : latency.values()) all.merge(h);
+      line("TOTAL", all.snapshot(), allRefused, allFailed, seconds);
+   }//end report
+
+   private static void line(String name, LatencyHistogram.Snapshot s, long refused, long failed, double seconds) {
+      System.out.printf("%-13s %9d %8d %7d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+         name, s.count() - refused, refused, failed, s.count() / seconds, s.mean() / 1e6,
+         s.percentile(0.50) / 1e6, s.percentile(0.99) / 1e6, s.percentile(0.999) / 1e6, s.max() / 1e6);
+   }//end line
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + ReplayDriver.class.getName()
+            + " <dbname> <port> <user> <workload.jsonl> [--concurrency N] [--rate OPS]"
+            + " [--loops N] [--duration S] [--warmup S]");
+         return;
+      }
+      Map<String, String> opts = new HashMap<>();
+      for (int i = 4; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+      int concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "8"));
+      long loops = Long.parseLong(opts.getOrDefault("loops", "1"));
+      double duration = Double.parseDouble(opts.getOrDefault("duration", "0"));
+      double warmup = Double.parseDouble(opts.getOrDefault("warmup", "0"));
+
+      List<WorkloadOp> ops = read(args[3]);
+      if (ops.isEmpty()) {
+         System.err.println("The workload is empty.");
+         return;
+      }
+      Storage.Config storage = Storage.Config.fromSystemProperties();
+      // one connection per worker so the pool is never the bottleneck being measured
+      ConnectionPool pool = storage.embedded() ? null : new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         ConnectionPool.Config.fromSystemProperties().maxSize(concurrency));
+      PizzaService service = pool == null ? new PizzaService(EmbeddedStorage.open(storage)) : new PizzaService(pool);
+      try {
+         ReplayDriver driver = new ReplayDriver(service, ops);
+         long total = duration > 0 ? Long.MAX_VALUE : loops * ops.size();
+         long start = System.nanoTime();
+         long deadline = duration > 0 ? start + (long) (duration * 1e9) : Long.MAX_VALUE;
+         long measureFrom = start + (long) (warmup * 1e9);
+         driver.measureFrom(measureFrom);
+
+         if (opts.containsKey("rate")) {
+            driver.runOpenLoop(Double.parseDouble(opts.get("rate")), concurrency, total, deadline);
+         } else {
+            driver.runClosedLoop(concurrency, total, deadline);
+         }
+         double seconds = (System.nanoTime() - measureFrom) / 1e9;
+         System.out.printf("%d workers, %s, %.2fs measured%n", concurrency, opts.containsKey("rate") ? "open loop at " + opts.get("rate") + " ops/s" : "closed loop",
+            seconds);
+         driver.report(seconds);
+         if (pool != null) System.out.println("Pool: " + pool.stats().toString().replace('\n', ' '));
+         System.out.println();
+         System.out.println("Database calls, warmup included:");
+         System.out.print(CallSites.dump());
+      } finally {
+         service.close();
+         if (pool != null) pool.close();
+      }
+   }//end main
+
+}//end ReplayDriver
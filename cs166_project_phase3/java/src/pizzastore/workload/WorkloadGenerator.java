@@ -0,0 +1,213 @@
+package pizzastore.workload;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.order.OrderRow;
+import pizzastore.service.PizzaService;
+import pizzastore.session.Role;
+
+/**
+ * Writes a synthetic workload file drawn from the rows actually in the
+ * database: real logins and passwords, store IDs, menu item names and
+ * order IDs.  Each sampled user logs in first; after that operations are
+ * picked at random by weight.  Customers look up their own orders most of
+ * the time and someone else's now and then, so the replay also exercises
+ * the permission checks.
+ *
+ * <pre>
+ *   WorkloadGenerator &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;out.jsonl&gt;
+ *                     [--ops N] [--users N] [--seed N] [--mix menu=30,placeOrder=15,...]
+ * </pre>
+ *
+ */
+public final class WorkloadGenerator {
+
+   /**
+    * The default operation mix, roughly a dinner-rush customer session.
+    */
+   static final String DEFAULT_MIX =
+      "menu=30,stores=5,profile=5,placeOrder=15,recentOrders=15,orders=10,orderInfo=12,updateStatus=8";
+
+   private final Random random;
+   private final List<String[]> users = new ArrayList<>();
+   private final List<String[]> staff = new ArrayList<>();
+   private final List<Integer> stores = new ArrayList<>();
+   private final List<String> items = new ArrayList<>();
+   private final List<String> types = new ArrayList<>();
+   private final Map<String, List<Integer>> ordersByUser = new HashMap<>();
+   private final List<Integer> orders = new ArrayList<>();
+
+   /**
+    * Samples the users, stores, items and orders the workload refers to.
+    *
+    * @param userCount how many distinct users the workload runs as
+    */
+   public WorkloadGenerator(Database db, int userCount, long seed) throws SQLException {
+      this.random = new Random(seed);
+      db.executeQuery("SELECT setseed(?);", (seed % 1000) / 1000.0);
+      for (String[] user : db.query("SELECT login, password, role FROM Users ORDER BY random() LIMIT ?;",
+            rs -> new String[] { rs.getString(1).trim(), rs.getString(2).trim(), rs.getString(3) }, userCount)) {
+         users.add(user);
+         if (Role.parse(user[2]).handlesOrders()) staff.add(user);
+      }
+      stores.addAll(db.query("SELECT storeID FROM Store ORDER BY random() LIMIT 200;", rs -> rs.getInt(1)));
+      for (String[] item : db.query("SELECT itemName, typeOfItem FROM Items;",
+            rs -> new String[] { rs.getString(1), rs.getString(2).trim() })) {
+         items.add(item[0]);
+         if (!types.contains(item[1])) types.add(item[1]);
+      }
+      String[] logins = new String[users.size()];
+      for (int i = 0; i < logins.length; i++) logins[i] = users.get(i)[0];
+      for (OrderRow order : db.query("SELECT " + OrderRow.COLUMNS
+            + " FROM FoodOrder WHERE login = ANY(?) ORDER BY orderID DESC LIMIT 10000;", OrderRow::fromRow,
+            (Object) logins)) {
+         orders.add(order.orderID());
+         ordersByUser.computeIfAbsent(order.login().trim(), k -> new ArrayList<>()).add(order.orderID());
+      }
+      if (orders.isEmpty()) {
+         orders.addAll(db.query("SELECT orderID FROM FoodOrder ORDER BY orderID DESC LIMIT 1000;", rs -> rs.getInt(1)));
+      }
+      if (users.isEmpty() || stores.isEmpty() || items.isEmpty())
+         throw new SQLException("Users, Store and Items must have rows to build a workload from");
+   }
+
+   /**
+    * @param count the number of operations after the initial logins
+    * @param mix operation name mapped to relative weight
+    * @return the workload, logins first
+    */
+   public List<WorkloadOp> generate(int count, Map<WorkloadOp.Type, Integer> mix) {
+      List<WorkloadOp> ops = new ArrayList<>(count + users.size());
+      for (String[] user : users) {
+         Map<String, Object> args = new LinkedHashMap<>();
+         args.put("password", user[1]);
+         ops.add(new WorkloadOp(WorkloadOp.Type.LOGIN, user[0], args));
+      }
+      int totalWeight = 0;
+      for (int w : mix.values()) totalWeight += w;
+      for (int i = 0; i < count; i++) {
+         int pick = random.nextInt(totalWeight);
+         for (Map.Entry<WorkloadOp.Type, Integer> e : mix.entrySet()) {
+            pick -= e.getValue();
+            if (pick < 0) {
+               WorkloadOp op = next(e.getKey());
+               if (op != null) ops.add(op);
+               break;
+            }
+         }
+      }
+      return ops;
+   }//end generate
+
+   private WorkloadOp next(WorkloadOp.Type type) {
+      String user = pick(users)[0];
+      Map<String, Object> args = new LinkedHashMap<>();
+      switch (type) {
+         case MENU:
+            switch (random.nextInt(4)) {
+               case 0: args.put("type", pick(types)); break;
+               case 1:
+                  args.put("minPrice", BigDecimal.valueOf(random.nextInt(5)));
+                  args.put("maxPrice", BigDecimal.valueOf(5 + random.nextInt(10)));
+                  break;
+               case 2: args.put("sort", random.nextBoolean() ? "asc" : "desc"); break;
+               default: break;
+            }
+            break;
+         case PLACE_ORDER: {
+            args.put("storeID", pick(stores));
+            Map<String, Object> lines = new LinkedHashMap<>();
+            int count = 1 + random.nextInt(4);
+            for (int l = 0; l < count; l++) lines.put(pick(items), BigDecimal.valueOf(1 + random.nextInt(3)));
+            args.put("items", lines);
+            break;
+         }
+         case ORDERS:
+            if (random.nextInt(3) == 0) args.put("storeID", pick(stores));
+            args.put("pages", 1 + random.nextInt(3));
+            break;
+         case ORDER_INFO: {
+            List<Integer> own = ordersByUser.get(user);
+            // mostly their own orders; otherwise a random one, usually refused for customers
+            args.put("orderID", own != null && random.nextInt(10) < 8 ? pick(own) : pick(orders));
+            break;
+         }
+         case UPDATE_STATUS:
+            if (staff.isEmpty() || orders.isEmpty()) return null;
+            user = pick(staff)[0];
+            args.put("orderID", pick(orders));
+            args.put("status", pick(PizzaService.ORDER_STATUSES));
+            break;
+         case LOGIN:
+            for (String[] u : users) {
+               if (u[0].equals(user)) args.put("password", u[1]);
+            }
+            break;
+         default:
+            break;
+      }
+      return new WorkloadOp(type, user, args);
+   }//end next
+
+   private <T> T pick(List<T> list) {
+      return list.get(random.nextInt(list.size()));
+   }//end pick
+
+   /**
+    * Parses a mix such as "menu=30,placeOrder=15".
+    */
+   static Map<WorkloadOp.Type, Integer> parseMix(String mix) {
+      Map<WorkloadOp.Type, Integer> weights = new LinkedHashMap<>();
+      for (String part : mix.split(",")) {
+         String[] kv = part.trim().split("=");
+         if (kv.length != 2) throw new IllegalArgumentException("bad mix entry: " + part);
+         int weight = Integer.parseInt(kv[1].trim());
+         if (weight > 0) weights.put(WorkloadOp.Type.of(kv[0].trim()), weight);
+      }
+      if (weights.isEmpty()) throw new IllegalArgumentException("the mix has no positive weights");
+      return weights;
+   }//end parseMix
+
+   /**
+    * @param args see the class comment
+    */
+   public static void main(String[] args) throws SQLException, IOException {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + WorkloadGenerator.class.getName()
+            + " <dbname> <port> <user> <out.jsonl> [--ops N] [--users N] [--seed N] [--mix op=weight,...]");
+         return;
+      }
+      Map<String, String> opts = new HashMap<>();
+      for (int i = 4; i + 1 < args.length; i += 2) opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+      ConnectionPool pool = new ConnectionPool(Database.url(args[0], args[1]), args[2], "",
+         new ConnectionPool.Config().maxSize(1));
+      try {
+         WorkloadGenerator gen = new WorkloadGenerator(new Database(pool),
+            Integer.parseInt(opts.getOrDefault("users", "100")), Long.parseLong(opts.getOrDefault("seed", "166")));
+         List<WorkloadOp> ops = gen.generate(Integer.parseInt(opts.getOrDefault("ops", "10000")),
+            parseMix(opts.getOrDefault("mix", DEFAULT_MIX)));
+         try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[3]), StandardCharsets.UTF_8))) {
+            for (WorkloadOp op : ops) out.println(op.toJson());
+         }
+         System.out.println("Wrote " + ops.size() + " operations to " + args[3]);
+      } finally {
+         pool.close();
+      }
+   }//end main
+
+}//end WorkloadGenerator
@@ -0,0 +1,199 @@
+package pizzastore.workload;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pizzastore.http.Json;
+import pizzastore.menu.MenuCatalog;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderPager;
+import pizzastore.service.PizzaService;
+import pizzastore.service.ServiceException;
+import pizzastore.session.Session;
+
+/**
+ * One line of a workload file.  Every line is a JSON object with the
+ * operation, the user it runs as and the operation's arguments:
+ *
+ * <pre>
+ *   {"op":"login",         "user":"mfarrears0", "password":"dshimoni0"}
+ *   {"op":"menu",          "user":"...", "type":"drinks"}        also minPrice/maxPrice, sort:"asc"|"desc",
+ *                                                                  or has/without:"pepperoni,pine*"
+ *   {"op":"stores",        "user":"..."}
+ *   {"op":"profile",       "user":"..."}
+ *   {"op":"placeOrder",    "user":"...", "storeID":12, "items":{"Cheese Pizza":2, "Sprite":1}}
+ *   {"op":"recentOrders",  "user":"..."}
+ *   {"op":"orders",        "user":"...", "pages":2}              also storeID, status
+ *   {"op":"orderInfo",     "user":"...", "orderID":10001}
+ *   {"op":"updateStatus",  "user":"...", "orderID":10001, "status":"Preparing"}
+ * </pre>
+ *
+ * Operations other than login need the user to be logged in; the replay
+ * driver logs a user in on first use with the password of the first
+ * login line for that user.
+ *
+ */
+public final class WorkloadOp {
+
+   public enum Type {
+      LOGIN("login"), MENU("menu"), STORES("stores"), PROFILE("profile"), PLACE_ORDER("placeOrder"),
+      RECENT_ORDERS("recentOrders"), ORDERS("orders"), ORDER_INFO("orderInfo"), UPDATE_STATUS("updateStatus");
+
+      private final String jsonName;
+
+      Type(String jsonName) {
+         this.jsonName = jsonName;
+      }
+
+      public String jsonName() {
+         return jsonName;
+      }//end jsonName
+
+      static Type of(String name) {
+         for (Type t : values()) {
+            if (t.jsonName.equalsIgnoreCase(name)) return t;
+         }
+         throw new IllegalArgumentException("unknown op: " + name);
+      }//end of
+   }//end Type
+
+   private final Type type;
+   private final String user;
+   private final Map<String, Object> args;
+
+   WorkloadOp(Type type, String user, Map<String, Object> args) {
+      this.type = type;
+      this.user = user;
+      this.args = Collections.unmodifiableMap(args);
+   }
+
+   /**
+    * Parses one workload line.
+    *
+    * @throws IllegalArgumentException when the line is not a valid operation
+    */
+   public static WorkloadOp parse(String line) {
+      Map<String, Object> json = Json.parseObject(line);
+      Object op = json.remove("op");
+      Object user = json.remove("user");
+      if (op == null || user == null) throw new IllegalArgumentException("op and user are required: " + line);
+      return new WorkloadOp(Type.of(op.toString()), user.toString(), json);
+   }//end parse
+
+   public Type type() { return type; }
+   public String user() { return user; }
+
+   /**
+    * @return the password of a login line, otherwise null
+    */
+   public String password() {
+      Object password = args.get("password");
+      return password == null ? null : password.toString();
+   }//end password
+
+   /**
+    * @return the line as it would be written to a workload file
+    */
+   public String toJson() {
+      Map<String, Object> out = new LinkedHashMap<>();
+      out.put("op", type.jsonName());
+      out.put("user", user);
+      out.putAll(args);
+      return Json.write(out);
+   }//end toJson
+
+   /**
+    * Runs the operation.  Results are consumed but not printed, so the cost
+    * measured is the service call itself.
+    *
+    * @param session the user's session; not used by login
+    * @return the session to use for the user's next operation
+    * @throws ServiceException when the service refuses the operation
+    * @throws java.sql.SQLException when the database fails
+    */
+   Session execute(PizzaService service, Session session) throws ServiceException, SQLException {
+      switch (type) {
+         case LOGIN:
+            return service.logIn(user, password());
+         case MENU: {
+            MenuCatalog.Snapshot menu = service.menu();
+            if (args.containsKey("has") || args.containsKey("without")) menu.search(terms("has"), terms("without"));
+            else if (args.containsKey("type")) menu.ofType(string("type"));
+            else if (args.containsKey("minPrice") || args.containsKey("maxPrice"))
+               menu.priceBetween(decimal("minPrice", BigDecimal.ZERO), decimal("maxPrice", BigDecimal.valueOf(Long.MAX_VALUE)));
+            else if (args.containsKey("sort")) menu.sortedByPrice(!"desc".equalsIgnoreCase(string("sort")));
+            else menu.all();
+            return session;
+         }
+         case STORES:
+            service.stores();
+            return session;
+         case PROFILE:
+            service.profile(session);
+            return session;
+         case PLACE_ORDER: {
+            Map<String, Integer> lines = new LinkedHashMap<>();
+            Object items = args.get("items");
+            if (items instanceof Map) {
+               for (Map.Entry<?, ?> e : ((Map<?, ?>) items).entrySet())
+                  lines.put(e.getKey().toString(), ((BigDecimal) e.getValue()).intValue());
+            }
+            service.placeOrder(session, integer("storeID"), lines);
+            return session;
+         }
+         case RECENT_ORDERS:
+            service.recentOrders(session);
+            return session;
+         case ORDERS: {
+            OrderFilter filter = new OrderFilter();
+            if (args.containsKey("storeID")) filter.storeID(integer("storeID"));
+            if (args.containsKey("status")) filter.status(string("status"));
+            OrderPager pager = service.orders(session, filter, OrderPager.DEFAULT_PAGE_SIZE, null);
+            int pages = args.containsKey("pages") ? integer("pages") : 1;
+            for (int p = 0; p < pages && pager.hasMore(); p++) pager.nextPage(row -> { });
+            return session;
+         }
+         case ORDER_INFO:
+            service.orderDetails(session, integer("orderID"));
+            return session;
+         case UPDATE_STATUS:
+            service.updateOrderStatus(session, integer("orderID"), string("status"));
+            return session;
+         default:
+            throw new IllegalStateException("unhandled op " + type);
+      }
+   }//end execute
+
+   private String string(String key) {
+      Object value = args.get(key);
+      return value == null ? null : value.toString();
+   }//end string
+
+   private List<String> terms(String key) {
+      String value = string(key);
+      return value == null ? Collections.<String>emptyList() : Arrays.asList(value.split(","));
+   }//end terms
+
+   private int integer(String key) {
+      Object value = args.get(key);
+      if (value instanceof BigDecimal) return ((BigDecimal) value).intValue();
+      if (value == null) throw new IllegalArgumentException(type.jsonName() + " needs " + key);
+      return Integer.parseInt(value.toString().trim());
+   }//end integer
+
+   private BigDecimal decimal(String key, BigDecimal otherwise) {
+      Object value = args.get(key);
+      return value == null ? otherwise : new BigDecimal(value.toString());
+   }//end decimal
+
+   @Override
+   public String toString() {
+      return type.jsonName() + "(" + user + ")";
+   }//end toString
+
+}//end WorkloadOp
@@ -0,0 +1,175 @@
+package pizzastore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Assumptions;
+
+import pizzastore.db.ConnectionPool;
+import pizzastore.db.Database;
+import pizzastore.load.BulkLoader;
+import pizzastore.schema.Migrator;
+
+/**
+ * A throwaway database for a test: created on one server per JVM, given the
+ * tables in sql/src, the sample CSVs in data/ and the migrations, and
+ * dropped on close.
+ *
+ * The server is started from the embedded binaries; when they cannot
+ * start, the tests that need a database are skipped.  System properties
+ * change that:
+ *
+ * <pre>
+ *   -Dpizzastore.test.url=jdbc:postgresql://localhost:5432/postgres   use this server instead
+ *   -Dpizzastore.test.user=postgres                                   its superuser (no password)
+ *   -Dpizzastore.test.root=..                                         the project directory holding sql/ and data/
+ * </pre>
+ *
+ */
+public final class TestDatabase implements AutoCloseable {
+
+   private static final AtomicInteger NEXT = new AtomicInteger();
+   private static EmbeddedPostgres embedded;
+   private static String serverUrl;
+   private static String startFailure;
+
+   private final String name;
+   private final String url;
+   private final ConnectionPool pool;
+
+   private TestDatabase(String name, String url) throws SQLException {
+      this.name = name;
+      this.url = url;
+      this.pool = new ConnectionPool(url, user(), "", new ConnectionPool.Config().minSize(1).maxSize(8));
+   }
+
+   /**
+    * @return a new database with the tables, the sample data and every
+    *         migration; skips the calling test when there is no server
+    */
+   public static TestDatabase create() throws SQLException, IOException {
+      return create(true, true);
+   }//end create
+
+   /**
+    * @return a new database with the tables and every migration but no rows,
+    *         e.g. a shard to split into
+    */
+   public static TestDatabase empty() throws SQLException, IOException {
+      return create(false, true);
+   }//end empty
+
+   /**
+    * @param load false to leave the tables empty
+    * @param migrate false to stop at the tables of sql/src
+    */
+   static TestDatabase create(boolean load, boolean migrate) throws SQLException, IOException {
+      String server = server();
+      String name = "pizzastore_test_" + ProcessHandle.current().pid() + "_" + NEXT.incrementAndGet();
+      try (Connection conn = DriverManager.getConnection(server, user(), "");
+           Statement stmt = conn.createStatement()) {
+         stmt.execute("CREATE DATABASE " + name + ";");
+      }
+      TestDatabase db = new TestDatabase(name, withDatabase(server, name));
+      try {
+         File root = root();
+         try (Connection conn = DriverManager.getConnection(db.url, user(), "");
+              Statement stmt = conn.createStatement()) {
+            stmt.execute(read(new File(root, "sql/src/create_tables.sql")));
+         }
+         if (load) {
+            BulkLoader loader = new BulkLoader(db.pool, 2);
+            try {
+               loader.loadCsv(new File(root, "data"));
+            } finally {
+               loader.shutdown();
+            }
+         }
+         if (migrate) new Migrator(db.pool, new File(root, "sql/migrations").toPath()).migrate();
+      } catch (SQLException | IOException | RuntimeException e) {
+         db.close();
+         throw e;
+      }
+      return db;
+   }//end create
+
+   private static synchronized String server() {
+      if (serverUrl != null) return serverUrl;
+      String url = System.getProperty("pizzastore.test.url");
+      if (url != null) return serverUrl = url;
+      if (startFailure == null) {
+         try {
+            embedded = EmbeddedPostgres.builder().start();
+            serverUrl = embedded.getJdbcUrl("postgres", "postgres");
+            Runtime.getRuntime().addShutdownHook(new Thread(TestDatabase::stopEmbedded, "test-db-shutdown"));
+            return serverUrl;
+         } catch (IOException | RuntimeException e) {
+            startFailure = String.valueOf(e.getMessage());
+         }
+      }
+      Assumptions.abort("no PostgreSQL to test against (set pizzastore.test.url): " + startFailure);
+      return null;
+   }//end server
+
+   private static void stopEmbedded() {
+      try {
+         embedded.close();
+      } catch (IOException e) {
+         System.err.println("Could not stop the embedded database: " + e.getMessage());
+      }
+   }//end stopEmbedded
+
+   /**
+    * @return the server url with its database replaced
+    */
+   static String withDatabase(String url, String database) {
+      int query = url.indexOf('?');
+      String base = query < 0 ? url : url.substring(0, query);
+      return base.substring(0, base.lastIndexOf('/') + 1) + database + (query < 0 ? "" : url.substring(query));
+   }//end withDatabase
+
+   public static File root() {
+      return new File(System.getProperty("pizzastore.test.root", ".."));
+   }//end root
+
+   static String user() {
+      return System.getProperty("pizzastore.test.user", "postgres");
+   }//end user
+
+   private static String read(File file) throws IOException {
+      return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+   }//end read
+
+   public ConnectionPool pool() {
+      return pool;
+   }//end pool
+
+   public Database db() {
+      return new Database(pool);
+   }//end db
+
+   public String url() {
+      return url;
+   }//end url
+
+   /**
+    * Closes the pool and drops the database.
+    */
+   @Override
+   public void close() throws SQLException {
+      pool.close();
+      try (Connection conn = DriverManager.getConnection(server(), user(), "");
+           Statement stmt = conn.createStatement()) {
+         stmt.execute("DROP DATABASE IF EXISTS " + name + " WITH (FORCE);");
+      }
+   }//end close
+
+}//end TestDatabase
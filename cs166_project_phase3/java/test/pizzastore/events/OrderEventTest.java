@@ -0,0 +1,66 @@
+package pizzastore.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.TestDatabase;
+import pizzastore.order.OrderRow;
+
+class OrderEventTest {
+
+   @Test
+   void aPlacedOrderArrivesWithItsRow() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         OrderEvents events = new OrderEvents(db.pool(), 0);
+         BlockingQueue<OrderEvent> seen = new LinkedBlockingQueue<>();
+         CountDownLatch listening = new CountDownLatch(1);
+         events.addListener(new OrderEvents.Listener() {
+            @Override
+            public void changed(OrderEvent event) {
+               seen.add(event);
+            }
+
+            @Override
+            public void missed() {
+               listening.countDown();
+            }
+         });
+         try {
+            assertTrue(listening.await(30, TimeUnit.SECONDS));
+            db.db().executeUpdate("INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) "
+               + "VALUES (90001, 'lbeldom3', 1, 19.98, '2031-03-05 12:30:05.25', 'Order Received');");
+            db.db().executeUpdate("UPDATE FoodOrder SET orderStatus = 'Preparing' WHERE orderID = 90001;");
+
+            OrderEvent placed = seen.poll(30, TimeUnit.SECONDS);
+            assertNotNull(placed);
+            OrderRow row = placed.row();
+            assertNotNull(row);
+            assertEquals(90001, row.orderID());
+            assertEquals("lbeldom3", row.login());
+            assertEquals(new BigDecimal("19.98"), row.totalPrice());
+            assertEquals(Timestamp.valueOf("2031-03-05 12:30:05.25"), row.orderTimestamp());
+            assertEquals("Order Received", row.orderStatus());
+
+            OrderEvent preparing = seen.poll(30, TimeUnit.SECONDS);
+            assertNotNull(preparing);
+            assertNull(preparing.row());
+            // coalesced, the insert keeps its row with the later status
+            assertEquals("Preparing", placed.then(preparing).row().orderStatus());
+         } finally {
+            events.close();
+         }
+      }
+   }//end aPlacedOrderArrivesWithItsRow
+
+}//end OrderEventTest
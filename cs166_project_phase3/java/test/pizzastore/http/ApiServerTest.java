@@ -0,0 +1,77 @@
+package pizzastore.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import pizzastore.TestDatabase;
+import pizzastore.service.PizzaService;
+import pizzastore.storage.Storage;
+import pizzastore.storage.embedded.EmbeddedStorage;
+
+class ApiServerTest {
+
+   @TempDir
+   File dir;
+
+   @Test
+   void aMissingOrMistypedFieldIsA400WithTheField() throws Exception {
+      PizzaService service = new PizzaService(EmbeddedStorage.open(new Storage.Config().engine("embedded").dir(dir)
+         .seed(new File(TestDatabase.root(), "data"))));
+      ApiServer api = new ApiServer(service, new InetSocketAddress("127.0.0.1", 0));
+      api.start();
+      try {
+         String base = "http://127.0.0.1:" + api.address().getPort();
+         HttpClient http = HttpClient.newHttpClient();
+
+         HttpResponse<String> missing = post(http, base + "/sessions", "{\"login\":\"lbeldom3\"}", null);
+         assertEquals(400, missing.statusCode());
+         assertEquals("password is required", error(missing));
+
+         HttpResponse<String> mistyped = post(http, base + "/sessions", "{\"login\":[1],\"password\":\"x\"}", null);
+         assertEquals(400, mistyped.statusCode());
+         assertEquals("login must be a string", error(mistyped));
+
+         HttpResponse<String> login = post(http, base + "/sessions",
+            "{\"login\":\"lbeldom3\",\"password\":\"bconrath3\"}", null);
+         assertEquals(201, login.statusCode());
+         String token = (String) Json.parseObject(login.body()).get("token");
+
+         HttpResponse<String> half = post(http, base + "/orders", "{\"storeID\":1,\"items\":{\"Cheese Pizza\":1.5}}", token);
+         assertEquals(400, half.statusCode());
+         assertEquals("quantity of Cheese Pizza must be a whole number", error(half));
+
+         HttpResponse<String> noStore = post(http, base + "/orders", "{\"items\":{\"Cheese Pizza\":1}}", token);
+         assertEquals(400, noStore.statusCode());
+         assertEquals("storeID is required", error(noStore));
+
+         assertEquals(201, post(http, base + "/orders", "{\"storeID\":1,\"items\":{\"Cheese Pizza\":1}}", token)
+            .statusCode());
+      } finally {
+         api.stop(0);
+         service.close();
+      }
+   }//end aMissingOrMistypedFieldIsA400WithTheField
+
+   private static HttpResponse<String> post(HttpClient http, String url, String body, String token) throws Exception {
+      HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+         .POST(HttpRequest.BodyPublishers.ofString(body));
+      if (token != null) request.header("Authorization", "Bearer " + token);
+      return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+   }//end post
+
+   private static Object error(HttpResponse<String> response) {
+      Map<String, Object> body = Json.parseObject(response.body());
+      return body.get("error");
+   }//end error
+
+}//end ApiServerTest
@@ -0,0 +1,114 @@
+package pizzastore.menu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.storage.ItemRepository;
+
+class MenuCatalogTest {
+
+   /**
+    * The Items table in a map, counting full reads.
+    */
+   static final class Items implements ItemRepository {
+      final Map<String, MenuItem> rows = new LinkedHashMap<>();
+      int reads = 0;
+
+      Items(MenuItem... items) {
+         for (MenuItem item : items) rows.put(item.key(), item);
+      }
+
+      @Override
+      public List<MenuItem> all() {
+         reads++;
+         return new ArrayList<>(rows.values());
+      }//end all
+
+      @Override
+      public MenuItem insert(MenuItem item) {
+         rows.put(item.key(), item);
+         return item;
+      }//end insert
+
+      @Override
+      public MenuItem update(String itemName, ItemField field, Object value) {
+         MenuItem i = rows.get(MenuItem.keyOf(itemName));
+         if (i == null) return null;
+         MenuItem next = new MenuItem(i.itemName(),
+            field == ItemField.INGREDIENTS ? (String) value : i.ingredients(),
+            field == ItemField.TYPE ? (String) value : i.typeOfItem(),
+            field == ItemField.PRICE ? (BigDecimal) value : i.price(),
+            field == ItemField.DESCRIPTION ? (String) value : i.description());
+         rows.put(next.key(), next);
+         return next;
+      }//end update
+
+      @Override
+      public boolean delete(String itemName) {
+         return rows.remove(MenuItem.keyOf(itemName)) != null;
+      }//end delete
+   }//end Items
+
+   static MenuItem item(String name, String type, String price) {
+      return new MenuItem(name, "Cheese, Bread", type, new BigDecimal(price), null);
+   }//end item
+
+   private static List<String> names(List<MenuItem> items) {
+      List<String> names = new ArrayList<>();
+      for (MenuItem item : items) names.add(item.itemName());
+      return names;
+   }//end names
+
+   @Test
+   void aSnapshotIsReadOnceAndAnswersEveryView() throws Exception {
+      Items table = new Items(item("Pepperoni Pizza", "entree", "12.50"), item("Cheese Pizza", "entree", "9.99"),
+         item("Lemonade", "drinks", "2.00"), item("Garlic Bread", "sides", "4.25"));
+      MenuCatalog menu = new MenuCatalog(table);
+      MenuCatalog.Snapshot s = menu.snapshot();
+      assertSame(s, menu.snapshot());
+      assertEquals(1, table.reads);
+
+      assertEquals("Cheese Pizza", s.find("  cheese PIZZA ").itemName());
+      assertNull(s.find("Calzone"));
+      assertEquals(Arrays.asList("Cheese Pizza", "Pepperoni Pizza"), names(s.ofType("Entree")));
+      assertEquals(Arrays.asList("Lemonade", "Cheese Pizza", "Pepperoni Pizza", "Garlic Bread"), names(s.all()));
+      assertEquals(Arrays.asList("Garlic Bread", "Cheese Pizza"),
+         names(s.priceBetween(new BigDecimal("4.25"), new BigDecimal("9.99"))));
+      assertEquals(Arrays.asList("Pepperoni Pizza", "Cheese Pizza", "Garlic Bread", "Lemonade"),
+         names(s.sortedByPrice(false)));
+   }//end aSnapshotIsReadOnceAndAnswersEveryView
+
+   @Test
+   void editsPublishANewSnapshotAndLeaveTheOldOneAlone() throws Exception {
+      Items table = new Items(item("Cheese Pizza", "entree", "9.99"), item("Lemonade", "drinks", "2.00"));
+      MenuCatalog menu = new MenuCatalog(table);
+      MenuCatalog.Snapshot before = menu.snapshot();
+
+      menu.updatePrice("cheese pizza", new BigDecimal("1.50"));
+      menu.addItem("Calzone", "Cheese, Ham", "entree", new BigDecimal("11.00"), "folded");
+      menu.deleteItem("LEMONADE");
+      MenuCatalog.Snapshot after = menu.snapshot();
+
+      assertEquals(1, table.reads);
+      assertEquals(new BigDecimal("9.99"), before.find("Cheese Pizza").price());
+      assertEquals(2, before.size());
+      assertEquals(new BigDecimal("1.50"), after.find("Cheese Pizza").price());
+      assertNull(after.find("Lemonade"));
+      assertEquals(Arrays.asList("Cheese Pizza", "Calzone"), names(after.sortedByPrice(true)));
+      assertEquals(Arrays.asList("Cheese Pizza", "Calzone"), names(after.ofType("entree")));
+      // an edit of an item that is gone changes nothing
+      assertNull(menu.updateType("Lemonade", "sides"));
+      assertSame(after, menu.snapshot());
+   }//end editsPublishANewSnapshotAndLeaveTheOldOneAlone
+
+}//end MenuCatalogTest
@@ -0,0 +1,73 @@
+package pizzastore.menu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+class MenuIndexTest {
+
+   private static MenuItem item(String name, String ingredients, String description) {
+      return new MenuItem(name, ingredients, "entree", BigDecimal.TEN, description);
+   }//end item
+
+   private static Set<String> search(MenuIndex index, List<String> include, List<String> exclude) {
+      Set<String> names = new TreeSet<>();
+      for (MenuItem item : index.search(include, exclude)) names.add(item.itemName());
+      return names;
+   }//end search
+
+   private static Set<String> set(String... names) {
+      return new TreeSet<>(Arrays.asList(names));
+   }//end set
+
+   private static final List<String> NONE = Collections.emptyList();
+
+   @Test
+   void includesMatchIngredientsOrDescriptionAndExcludesOnlyIngredients() {
+      MenuIndex index = MenuIndex.of(Arrays.asList(
+         item("Pepperoni Pizza", "Pepperoni, Cheese, Tomato Sauce", "spicy"),
+         item("Veggie Pizza", "Peppers, Onion, Cheese", "no meat"),
+         item("Garden Salad", "Lettuce, Tomato", "with cheese on the side")));
+
+      assertEquals(set("Pepperoni Pizza", "Veggie Pizza", "Garden Salad"), search(index, Arrays.asList("CHEESE"), NONE));
+      assertEquals(set("Pepperoni Pizza", "Veggie Pizza"), search(index, Arrays.asList("pepp*"), NONE));
+      assertEquals(set("Pepperoni Pizza"), search(index, Arrays.asList("tomato sauce"), NONE));
+      // the salad's cheese is in its description, so excluding cheese keeps it
+      assertEquals(set("Garden Salad"), search(index, NONE, Arrays.asList("cheese")));
+      assertEquals(set("Veggie Pizza"), search(index, Arrays.asList("cheese"), Arrays.asList("pepperoni", "tomato")));
+      assertEquals(set("Pepperoni Pizza", "Veggie Pizza", "Garden Salad"), search(index, Arrays.asList(" "), NONE));
+      assertTrue(search(index, Arrays.asList("anchovy"), NONE).isEmpty());
+   }//end includesMatchIngredientsOrDescriptionAndExcludesOnlyIngredients
+
+   @Test
+   void editsRepostOnlyTheItemAndReuseFreedSlots() {
+      List<MenuItem> items = new ArrayList<>();
+      // more than one 32-slot word of the bitsets
+      for (int i = 0; i < 40; i++) items.add(item("Plain " + i, "Bread", null));
+      items.add(item("Ham Pizza", "Ham, Cheese", null));
+      MenuIndex before = MenuIndex.of(items);
+
+      MenuIndex after = before.with(item("Ham Pizza", "Pineapple, Cheese", null))
+         .without(MenuItem.keyOf("Plain 3"))
+         .with(item("Anchovy Pizza", "Anchovy, Cheese", null));
+
+      assertEquals(set("Ham Pizza"), search(before, Arrays.asList("ham"), NONE));
+      assertTrue(search(after, Arrays.asList("ham"), NONE).isEmpty());
+      assertEquals(set("Ham Pizza"), search(after, Arrays.asList("pineapple"), NONE));
+      assertEquals(set("Anchovy Pizza", "Ham Pizza"), search(after, Arrays.asList("cheese"), NONE));
+      assertEquals(39, search(after, Arrays.asList("bread"), NONE).size());
+      assertEquals(41, after.search(NONE, NONE).size());
+      assertEquals(set("anchovy", "bread", "cheese", "pineapple"), new TreeSet<>(after.vocabulary()));
+      assertEquals(set("bread", "cheese", "ham"), new TreeSet<>(before.vocabulary()));
+   }//end editsRepostOnlyTheItemAndReuseFreedSlots
+
+}//end MenuIndexTest
@@ -0,0 +1,118 @@
+package pizzastore.order;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.TestDatabase;
+import pizzastore.menu.MenuItem;
+
+class OrderQueueTest {
+
+   private static final MenuItem CHEESE =
+      new MenuItem("Cheese Pizza", "Cheese, Bread, Tomato Sauce", "entree", new BigDecimal("9.99"), "a classic!");
+   private static final Map<String, Integer> TWO_CHEESE = Collections.singletonMap("Cheese Pizza", 2);
+
+   private static OrderPlacer.Priced priced() {
+      return OrderPlacer.price(name -> name.equalsIgnoreCase(CHEESE.itemName()) ? CHEESE : null, TWO_CHEESE);
+   }//end priced
+
+   @Test
+   void concurrentOrdersShareCommits() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         OrderQueue queue = new OrderQueue(db.pool(), new OrderQueue.Config().enabled(true).lingerMillis(20));
+         List<CompletableFuture<OrderReceipt>> placed = Collections.synchronizedList(new ArrayList<>());
+         List<Thread> callers = new ArrayList<>();
+         for (int t = 0; t < 8; t++) {
+            Thread caller = new Thread(() -> {
+               try {
+                  for (int i = 0; i < 25; i++) placed.add(queue.submit(priced(), "lbeldom3", 1, 0));
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            });
+            callers.add(caller);
+            caller.start();
+         }
+         for (Thread caller : callers) caller.join();
+         Set<Integer> ids = new HashSet<>();
+         for (CompletableFuture<OrderReceipt> f : placed) {
+            OrderReceipt receipt = f.get(30, TimeUnit.SECONDS);
+            assertEquals(new BigDecimal("19.98"), receipt.totalPrice());
+            ids.add(receipt.orderID());
+         }
+         queue.close();
+         assertEquals(200, ids.size());
+
+         Integer[] array = ids.toArray(new Integer[0]);
+         assertEquals(200, db.db().queryLong("SELECT count(*) FROM FoodOrder WHERE orderID = ANY(?);", (Object) array));
+         assertEquals(200, db.db().queryLong(
+            "SELECT count(*) FROM ItemsInOrder WHERE orderID = ANY(?) AND quantity = 2;", (Object) array));
+         // every order of a commit has its transaction's NOW()
+         long commits = db.db().queryLong(
+            "SELECT count(DISTINCT orderTimestamp) FROM FoodOrder WHERE orderID = ANY(?);", (Object) array);
+         assertTrue(commits < 200, commits + " commits for 200 orders");
+      }
+   }//end concurrentOrdersShareCommits
+
+   @Test
+   void aFailingOrderFailsAlone() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         OrderQueue queue = new OrderQueue(db.pool(), new OrderQueue.Config().enabled(true).lingerMillis(50));
+         CompletableFuture<OrderReceipt> before = queue.submit(priced(), "lbeldom3", 1, 0);
+         CompletableFuture<OrderReceipt> noStore = queue.submit(priced(), "lbeldom3", 999_999, 0);
+         CompletableFuture<OrderReceipt> after = queue.submit(priced(), "lbeldom3", 1, 0);
+         assertTrue(before.get(30, TimeUnit.SECONDS).placed());
+         assertTrue(after.get(30, TimeUnit.SECONDS).placed());
+         ExecutionException failed = assertThrows(ExecutionException.class, () -> noStore.get(30, TimeUnit.SECONDS));
+         assertInstanceOf(SQLException.class, failed.getCause());
+         queue.close();
+      }
+   }//end aFailingOrderFailsAlone
+
+   @Test
+   void closingAnswersEveryOrder() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         OrderQueue queue = new OrderQueue(db.pool(), new OrderQueue.Config().enabled(true).lingerMillis(1));
+         List<CompletableFuture<OrderReceipt>> accepted = Collections.synchronizedList(new ArrayList<>());
+         List<Thread> callers = new ArrayList<>();
+         for (int t = 0; t < 4; t++) {
+            Thread caller = new Thread(() -> {
+               try {
+                  while (true) accepted.add(queue.submit(priced(), "lbeldom3", 1, 0));
+               } catch (RejectedExecutionException e) {
+                  // closed
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            });
+            callers.add(caller);
+            caller.start();
+         }
+         Thread.sleep(200);
+         queue.close();
+         for (Thread caller : callers) caller.join(10_000);
+         assertThrows(RejectedExecutionException.class, () -> queue.submit(priced(), "lbeldom3", 1, 0));
+         // an order taken before the close is written, never left waiting
+         for (CompletableFuture<OrderReceipt> f : accepted) assertTrue(f.get(10, TimeUnit.SECONDS).placed());
+         assertEquals(0, queue.queued());
+      }
+   }//end closingAnswersEveryOrder
+
+}//end OrderQueueTest
@@ -0,0 +1,90 @@
+package pizzastore.order;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RecentOrdersTest {
+
+   private static OrderRow order(int orderID, String login, int minute) {
+      return new OrderRow(orderID, login, 1, BigDecimal.ONE, new Timestamp(minute * 60_000L), "Order Received");
+   }//end order
+
+   private static List<Integer> ids(List<OrderRow> rows) {
+      List<Integer> ids = new ArrayList<>();
+      for (OrderRow row : rows) ids.add(row.orderID());
+      return ids;
+   }//end ids
+
+   @Test
+   void onlyAChangeToTheSameListRejectsAFill() {
+      RecentOrders recent = new RecentOrders(3, 1 << 20);
+      long readAt = recent.stamp();
+      recent.placed(order(7, "bob", 70));
+      recent.statusChanged(6, "carol", "Preparing");
+      recent.fillCustomer("alice", Arrays.asList(order(5, "alice", 50)), readAt);
+      recent.fillCustomer("bob", Arrays.asList(order(4, "bob", 40)), readAt);
+      recent.fillLatest(Arrays.asList(order(5, "alice", 50)), readAt);
+
+      assertEquals(Arrays.asList(5), ids(recent.forCustomer("alice")));
+      // bob ordered while his list was read; so did someone on the staff list
+      assertNull(recent.forCustomer("bob"));
+      assertNull(recent.latest());
+
+      readAt = recent.stamp();
+      recent.fillLatest(Arrays.asList(order(7, "bob", 70)), readAt);
+      assertNotNull(recent.latest());
+   }//end onlyAChangeToTheSameListRejectsAFill
+
+   @Test
+   void aChangeToAnUnknownCustomerRejectsEveryFill() {
+      RecentOrders recent = new RecentOrders(3, 1 << 20);
+      long readAt = recent.stamp();
+      recent.statusChanged(6, null, "Preparing");
+      recent.fillCustomer("alice", Arrays.asList(order(5, "alice", 50)), readAt);
+      assertNull(recent.forCustomer("alice"));
+   }//end aChangeToAnUnknownCustomerRejectsEveryFill
+
+   @Test
+   void placedOrdersAreMergedNewestFirst() {
+      RecentOrders recent = new RecentOrders(3, 1 << 20);
+      recent.fillCustomer("alice", Arrays.asList(order(5, "alice", 50), order(3, "alice", 30)), recent.stamp());
+      recent.placed(order(4, "alice", 40));
+      assertEquals(Arrays.asList(5, 4, 3), ids(recent.forCustomer("alice")));
+      recent.placed(order(6, "alice", 60));
+      assertEquals(Arrays.asList(6, 5, 4), ids(recent.forCustomer("alice")));
+      // older than every order of the full ring, and one it already has
+      recent.placed(order(2, "alice", 20));
+      recent.placed(order(5, "alice", 50));
+      assertEquals(Arrays.asList(6, 5, 4), ids(recent.forCustomer("alice")));
+   }//end placedOrdersAreMergedNewestFirst
+
+   @Test
+   void anOrderWithoutItsRowDropsOnlyTheListsItFallsInside() {
+      RecentOrders recent = new RecentOrders(2, 1 << 20);
+      recent.fillCustomer("alice", Arrays.asList(order(9, "alice", 90), order(8, "alice", 80)), recent.stamp());
+      recent.fillCustomer("bob", Arrays.asList(order(6, "bob", 60)), recent.stamp());
+      recent.fillLatest(Arrays.asList(order(9, "alice", 90), order(8, "alice", 80)), recent.stamp());
+
+      recent.placedElsewhere(7, "alice");
+      assertNotNull(recent.forCustomer("alice"));
+      assertNotNull(recent.latest());
+
+      recent.placedElsewhere(10, "alice");
+      assertNull(recent.forCustomer("alice"));
+      assertNull(recent.latest());
+
+      // bob's ring is not full, so any order of his belongs in it
+      recent.placedElsewhere(5, "bob");
+      assertNull(recent.forCustomer("bob"));
+   }//end anOrderWithoutItsRowDropsOnlyTheListsItFallsInside
+
+}//end RecentOrdersTest
@@ -0,0 +1,88 @@
+package pizzastore.schema;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.TestDatabase;
+import pizzastore.db.Database;
+
+/**
+ * The order partitions of migration V5 and their maintenance.
+ */
+class PartitionMaintainerTest {
+
+   private static final String PLACE_2031 =
+      "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) "
+      + "VALUES (90001, 'lbeldom3', 1, 9.99, '2031-03-05 12:00', 'Order Received');";
+   private static final String ITEMS_2031 =
+      "INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp) "
+      + "VALUES (90001, 'Cheese Pizza', 1, '2031-03-05 12:00');";
+   private static final String FINISH_2031 = "UPDATE FoodOrder SET orderStatus = 'Delivered' WHERE orderID = 90001;";
+   private static final String PARTITION_OF =
+      "SELECT tableoid::regclass::text FROM FoodOrder WHERE orderID = 90001;";
+
+   @Test
+   void ordersInProgressStayInTheActivePartition() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         Database sql = db.db();
+         sql.executeUpdate(PLACE_2031);
+         assertEquals("foodorder_active", partitionOf(sql));
+         assertEquals(1, sql.queryLong(
+            "SELECT count(*) FROM foodorder_active WHERE orderStatus IN ('Preparing', 'Order Received');"));
+      }
+   }//end ordersInProgressStayInTheActivePartition
+
+   @Test
+   void aMonthMustExistBeforeItsOrdersFinish() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         Database sql = db.db();
+         sql.executeUpdate(PLACE_2031);
+         sql.executeUpdate(ITEMS_2031);
+         // no history partition for March 2031 yet, and no default one
+         assertThrows(SQLException.class, () -> sql.executeUpdate(FINISH_2031));
+         assertEquals(1, sql.queryLong("SELECT count(*) FROM itemsinorder_default WHERE orderID = 90001;"));
+
+         List<String> done = new PartitionMaintainer(db.pool(), new PartitionMaintainer.Config().monthsAhead(1)).run();
+         assertTrue(done.stream().anyMatch(line -> line.startsWith("created")), done.toString());
+         // the month of the order in progress was created and its items moved into it
+         assertEquals(0, sql.queryLong("SELECT count(*) FROM itemsinorder_default;"));
+         assertEquals(1, sql.queryLong("SELECT count(*) FROM itemsinorder_2031_03 WHERE orderID = 90001;"));
+
+         sql.executeUpdate(FINISH_2031);
+         assertEquals("foodorder_2031_03", partitionOf(sql));
+         assertEquals(0, sql.queryLong("SELECT count(*) FROM foodorder_active;"));
+      }
+   }//end aMonthMustExistBeforeItsOrdersFinish
+
+   @Test
+   void oldMonthsAreArchivedUpToTheOldestOrderInProgress() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         Database sql = db.db();
+         // in progress since November 2024: that month and the ones after it stay
+         sql.executeUpdate("UPDATE FoodOrder SET orderStatus = 'Preparing' WHERE orderID = 10002;");
+         List<String> done = new PartitionMaintainer(db.pool(),
+            new PartitionMaintainer.Config().monthsAhead(0).keepMonths(12)).run();
+         assertTrue(done.contains("archived 2014-05"), done.toString());
+         assertTrue(done.contains("archived 2016-08"), done.toString());
+         assertTrue(done.contains("archived 2018-02"), done.toString());
+         assertFalse(done.contains("archived 2024-11"), done.toString());
+
+         assertEquals(1, sql.queryLong("SELECT count(*) FROM FoodOrder;"));
+         assertEquals(1, sql.queryLong("SELECT count(*) FROM order_archive.foodorder_2016_08 WHERE orderID = 10001;"));
+         assertEquals(1, sql.queryLong("SELECT count(*) FROM order_archive.itemsinorder_2016_08 WHERE orderID = 10001;"));
+         assertEquals(0, sql.queryLong("SELECT count(*) FROM ItemsInOrder WHERE orderID = 10001;"));
+      }
+   }//end oldMonthsAreArchivedUpToTheOldestOrderInProgress
+
+   private static String partitionOf(Database sql) throws SQLException {
+      return sql.queryOne(PARTITION_OF, rs -> rs.getString(1));
+   }//end partitionOf
+
+}//end PartitionMaintainerTest
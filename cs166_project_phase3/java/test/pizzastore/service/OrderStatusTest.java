@@ -0,0 +1,123 @@
+package pizzastore.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import pizzastore.TestDatabase;
+import pizzastore.order.OrderFilter;
+import pizzastore.order.OrderQueue;
+import pizzastore.order.StatusUpdate;
+import pizzastore.schema.PartitionMaintainer;
+import pizzastore.session.Session;
+import pizzastore.storage.Storage;
+import pizzastore.storage.embedded.EmbeddedStorage;
+
+/**
+ * Orders move one step at a time along {@link PizzaService#ORDER_STATUSES};
+ * the same checks run on the embedded engine and on PostgreSQL.
+ */
+class OrderStatusTest {
+
+   private static final int STORE = 2;
+
+   @TempDir
+   File dir;
+
+   @Test
+   void embedded() throws Exception {
+      PizzaService service = new PizzaService(EmbeddedStorage.open(new Storage.Config().engine("embedded").dir(dir)
+         .seed(new File(TestDatabase.root(), "data"))));
+      try {
+         check(service);
+      } finally {
+         service.close();
+      }
+   }//end embedded
+
+   @Test
+   void postgres() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         PizzaService service = new PizzaService(db.pool(), new OrderQueue.Config(),
+            new PartitionMaintainer.Config().intervalMinutes(0));
+         try {
+            check(service);
+         } finally {
+            service.close();
+         }
+      }
+   }//end postgres
+
+   private static void check(PizzaService service) throws Exception {
+      Session customer = service.logIn("lbeldom3", "bconrath3");
+      Session driver = service.logIn("ckohlert1", "lvonhelmholtz1");
+      Session manager = service.logIn("mfarrears0", "dshimoni0");
+      Map<String, Integer> pizza = Collections.singletonMap("Cheese Pizza", 1);
+      int a = service.placeOrder(customer, STORE, pizza).orderID();
+      int b = service.placeOrder(customer, STORE, pizza).orderID();
+      int c = service.placeOrder(customer, STORE, pizza).orderID();
+      int missing = c + 1_000_000;
+
+      StatusUpdate preparing = service.updateOrderStatuses(driver, Collections.singletonList(a), "Preparing");
+      assertEquals(Collections.singleton(a), preparing.updated().keySet());
+
+      StatusUpdate out = service.updateOrderStatuses(driver, Arrays.asList(a, b, missing), "Out for Delivery");
+      assertEquals(Collections.singleton(a), out.updated().keySet());
+      assertEquals("lbeldom3", out.updated().get(a));
+      assertEquals("Is Order Received; only Preparing orders can become Out for Delivery.", out.skipped().get(b));
+      assertEquals("Order not found.", out.skipped().get(missing));
+      assertEquals(Collections.singletonList(missing), out.missing());
+
+      StatusUpdate again = service.updateOrderStatuses(driver, Collections.singletonList(a), "Out for Delivery");
+      assertTrue(again.updated().isEmpty());
+      assertEquals("Already Out for Delivery.", again.skipped().get(a));
+      assertEquals("Out for Delivery", service.order(driver, a).orderStatus().trim());
+
+      // the orders of the store in progress: b and c move, a is a step ahead
+      StatusUpdate store = service.updateOrderStatuses(driver, new OrderFilter().storeID(STORE), "Preparing");
+      assertEquals(Arrays.asList(b, c), new ArrayList<>(store.updated().keySet()));
+      assertEquals("Is Out for Delivery; only Order Received orders can become Preparing.", store.skipped().get(a));
+      assertEquals("Preparing", service.order(driver, c).orderStatus().trim());
+
+      assertEquals(ServiceException.Kind.INVALID, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatuses(driver, Collections.singletonList(a), "Order Received")).kind());
+      assertEquals(ServiceException.Kind.INVALID, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatuses(driver, Collections.singletonList(a), "Baking")).kind());
+      assertEquals(ServiceException.Kind.INVALID, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatuses(driver, Collections.<Integer>emptyList(), "Preparing")).kind());
+      List<Integer> tooMany = new ArrayList<>();
+      for (int i = 0; i <= PizzaService.BULK_STATUS_LIMIT; i++) tooMany.add(i);
+      assertEquals(ServiceException.Kind.INVALID, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatuses(driver, tooMany, "Preparing")).kind());
+      assertEquals(ServiceException.Kind.FORBIDDEN, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatuses(customer, Collections.singletonList(b), "Out for Delivery")).kind());
+
+      // one order at a time: a driver takes one step, a manager may set any status
+      service.updateOrderStatus(driver, a, "Delivered");
+      ServiceException back = assertThrows(ServiceException.class,
+         () -> service.updateOrderStatus(driver, a, "Order Received"));
+      assertEquals(ServiceException.Kind.INVALID, back.kind());
+      ServiceException skip = assertThrows(ServiceException.class, () -> service.updateOrderStatus(driver, c, "Delivered"));
+      assertEquals(ServiceException.Kind.CONFLICT, skip.kind());
+      assertEquals("Is Preparing; only Out for Delivery orders can become Delivered.", skip.getMessage());
+      assertEquals(ServiceException.Kind.NOT_FOUND, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatus(driver, missing, "Preparing")).kind());
+      assertEquals(ServiceException.Kind.FORBIDDEN, assertThrows(ServiceException.class,
+         () -> service.updateOrderStatus(customer, b, "Out for Delivery")).kind());
+      assertEquals("Delivered", service.order(driver, a).orderStatus().trim());
+
+      service.updateOrderStatus(manager, a, "Order Received");
+      assertEquals("Order Received", service.order(manager, a).orderStatus().trim());
+   }//end check
+
+}//end OrderStatusTest
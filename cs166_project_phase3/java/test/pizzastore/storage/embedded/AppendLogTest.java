@@ -0,0 +1,80 @@
+package pizzastore.storage.embedded;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AppendLogTest {
+
+   @TempDir
+   File dir;
+
+   @Test
+   void replaysForcedRecordsInOrder() throws IOException {
+      File file = new File(dir, "t.log");
+      try (AppendLog log = AppendLog.open(file, (type, in) -> { })) {
+         log.append(new byte[] {1, 10});
+         log.append(new byte[] {2, 20});
+         log.force();
+      }
+      assertArrayEquals(new byte[] {1, 2}, types(file));
+   }//end replaysForcedRecordsInOrder
+
+   @Test
+   void rolledBackRecordsAreNotReplayed() throws IOException {
+      File file = new File(dir, "t.log");
+      try (AppendLog log = AppendLog.open(file, (type, in) -> { })) {
+         log.append(new byte[] {1, 10});
+         log.force();
+         int mark = log.bytes();
+         // longer than the record that replaces them, so their tail would survive without the zeroing
+         log.append(new byte[] {8, 1, 2, 3, 4, 5, 6, 7});
+         log.append(new byte[] {9, 1});
+         log.rollback(mark);
+         assertEquals(1, log.records());
+         assertEquals(mark, log.bytes());
+         log.append(new byte[] {3, 30});
+         log.force();
+      }
+      assertArrayEquals(new byte[] {1, 3}, types(file));
+   }//end rolledBackRecordsAreNotReplayed
+
+   @Test
+   void tornRecordEndsTheLog() throws IOException {
+      File file = new File(dir, "t.log");
+      int second;
+      try (AppendLog log = AppendLog.open(file, (type, in) -> { })) {
+         log.append(new byte[] {1, 10});
+         second = log.bytes();
+         log.append(new byte[] {2, 20});
+         log.force();
+      }
+      // a payload byte that no longer matches the checksum, as after a crash mid-write
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+         raf.seek(second + 9);
+         raf.write(21);
+      }
+      assertArrayEquals(new byte[] {1}, types(file));
+      try (AppendLog log = AppendLog.open(file, (type, in) -> { })) {
+         assertEquals(second, log.bytes());
+      }
+   }//end tornRecordEndsTheLog
+
+   private static byte[] types(File file) throws IOException {
+      List<Byte> types = new ArrayList<>();
+      try (AppendLog log = AppendLog.open(file, (type, in) -> types.add(type))) {
+         byte[] out = new byte[types.size()];
+         for (int i = 0; i < out.length; i++) out[i] = types.get(i);
+         return out;
+      }
+   }//end types
+
+}//end AppendLogTest
@@ -0,0 +1,90 @@
+package pizzastore.storage.embedded;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import pizzastore.TestDatabase;
+import pizzastore.order.OrderReceipt;
+import pizzastore.order.OrderRow;
+import pizzastore.service.PizzaService;
+import pizzastore.service.ServiceException;
+import pizzastore.session.Session;
+import pizzastore.storage.Storage;
+
+class EmbeddedStorageTest {
+
+   @TempDir
+   File dir;
+
+   private PizzaService open() throws IOException, SQLException {
+      return new PizzaService(EmbeddedStorage.open(new Storage.Config().engine("embedded").dir(dir)
+         .seed(new File(TestDatabase.root(), "data"))));
+   }//end open
+
+   @Test
+   void ordersAndStatusesSurviveReopening() throws Exception {
+      int first;
+      PizzaService service = open();
+      try {
+         Session customer = service.logIn("lbeldom3", "bconrath3");
+         Session driver = service.logIn("ckohlert1", "lvonhelmholtz1");
+         OrderReceipt placed = service.placeOrder(customer, 1, Collections.singletonMap("Cheese Pizza", 2));
+         assertTrue(placed.placed());
+         first = placed.orderID();
+         assertEquals(new BigDecimal("19.98"), placed.totalPrice());
+         service.updateOrderStatus(driver, first, "Preparing");
+      } finally {
+         service.close();
+      }
+
+      service = open();
+      try {
+         Session customer = service.logIn("lbeldom3", "bconrath3");
+         OrderRow row = service.order(customer, first);
+         assertNotNull(row);
+         assertEquals("Preparing", row.orderStatus().trim());
+         assertEquals(new BigDecimal("19.98"), row.totalPrice());
+         // the replayed log knows the last orderID, so the next one follows it
+         OrderReceipt next = service.placeOrder(customer, 1, Collections.singletonMap("Cheese Pizza", 1));
+         assertEquals(first + 1, next.orderID());
+      } finally {
+         service.close();
+      }
+   }//end ordersAndStatusesSurviveReopening
+
+   @Test
+   void directoryIsOwnedByOneOpener() throws Exception {
+      PizzaService service = open();
+      try {
+         assertThrows(IOException.class, this::open);
+      } finally {
+         service.close();
+      }
+   }//end directoryIsOwnedByOneOpener
+
+   @Test
+   void customersCannotMoveOrders() throws Exception {
+      PizzaService service = open();
+      try {
+         Session customer = service.logIn("lbeldom3", "bconrath3");
+         int orderID = service.placeOrder(customer, 1, Collections.singletonMap("Cheese Pizza", 1)).orderID();
+         ServiceException e = assertThrows(ServiceException.class,
+            () -> service.updateOrderStatuses(customer, Collections.singletonList(orderID), "Preparing"));
+         assertEquals(ServiceException.Kind.FORBIDDEN, e.kind());
+      } finally {
+         service.close();
+      }
+   }//end customersCannotMoveOrders
+
+}//end EmbeddedStorageTest
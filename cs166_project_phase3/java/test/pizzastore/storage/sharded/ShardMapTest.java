@@ -0,0 +1,65 @@
+package pizzastore.storage.sharded;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.order.OrderRow;
+
+class ShardMapTest {
+
+   private static ShardMap threeShards() {
+      return new ShardMap(new ShardMap.Config().urls(Arrays.asList("jdbc:postgresql://a/db", "jdbc:postgresql://b/db"))
+         .place(17, 0));
+   }//end threeShards
+
+   @Test
+   void storesGoByStoreIDUnlessPlaced() {
+      ShardMap map = threeShards();
+      assertEquals(3, map.count());
+      assertEquals(1, map.shardOfStore(4));
+      assertEquals(2, map.shardOfStore(5));
+      assertEquals(0, map.shardOfStore(6));
+      assertEquals(0, map.shardOfStore(17));
+      assertEquals(2, map.shardOfStore(-1));
+   }//end storesGoByStoreIDUnlessPlaced
+
+   @Test
+   void ordersGoByOrderID() {
+      ShardMap map = threeShards();
+      assertEquals(0, map.shardOfOrder(30_000));
+      assertEquals(1, map.shardOfOrder(30_001));
+      assertEquals(2, map.shardOfOrder(30_002));
+   }//end ordersGoByOrderID
+
+   @Test
+   void placingOnAMissingShardIsRefused() {
+      assertThrows(IllegalArgumentException.class,
+         () -> new ShardMap(new ShardMap.Config().urls(Collections.singletonList("jdbc:postgresql://a/db")).place(3, 2)));
+   }//end placingOnAMissingShardIsRefused
+
+   @Test
+   void mergeKeepsNewestFirstAcrossShards() {
+      List<OrderRow> shard0 = Arrays.asList(order(6, 50), order(4, 30), order(1, 10));
+      List<OrderRow> shard1 = Arrays.asList(order(5, 40), order(3, 30), order(2, 20));
+      List<Integer> merged = new ArrayList<>();
+      int delivered = ShardedOrders.merge(Arrays.asList(shard0, Collections.<OrderRow>emptyList(), shard1), 5,
+         row -> merged.add(row.orderID()));
+      assertEquals(5, delivered);
+      // the same timestamp orders by orderID, newest first
+      assertEquals(Arrays.asList(6, 5, 4, 3, 2), merged);
+   }//end mergeKeepsNewestFirstAcrossShards
+
+   private static OrderRow order(int orderID, int minute) {
+      return new OrderRow(orderID, "lbeldom3", 1, BigDecimal.ONE, new Timestamp(minute * 60_000L), "Delivered");
+   }//end order
+
+}//end ShardMapTest
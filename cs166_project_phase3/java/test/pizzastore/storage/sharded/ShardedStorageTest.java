@@ -0,0 +1,66 @@
+package pizzastore.storage.sharded;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.TestDatabase;
+import pizzastore.load.ShardSplitter;
+import pizzastore.service.PizzaService;
+import pizzastore.session.Session;
+
+/**
+ * Splits the sample database over two shards, then places and finds
+ * orders through the sharded engine.  Stores 123 and 967 are odd, so
+ * their orders (10000, 10001 and 10003) move to shard 1; store 362's order
+ * 10002 stays on shard 0.
+ */
+class ShardedStorageTest {
+
+   private static final String COUNT = "SELECT count(*) FROM FoodOrder WHERE orderID = ANY(?);";
+
+   @Test
+   void splitThenRouteByStoreAndOrderID() throws Exception {
+      try (TestDatabase shard0 = TestDatabase.create(); TestDatabase shard1 = TestDatabase.empty()) {
+         ShardMap.Config config = new ShardMap.Config().urls(Collections.singletonList(shard1.url()));
+         new ShardSplitter(new ShardMap(config), Arrays.asList(shard0.pool(), shard1.pool())).split();
+
+         assertEquals(1, shard0.db().queryLong("SELECT count(*) FROM FoodOrder;"));
+         assertEquals(3, shard1.db().queryLong(COUNT, (Object) new Integer[] {10000, 10001, 10003}));
+         assertEquals(5, shard1.db().queryLong("SELECT count(*) FROM ItemsInOrder;"));
+         assertEquals(shard0.db().queryLong("SELECT count(*) FROM Users;"),
+            shard1.db().queryLong("SELECT count(*) FROM Users;"));
+
+         PizzaService service = new PizzaService(new ShardedStorage(shard0.pool(), config));
+         try {
+            Session customer = service.logIn("lbeldom3", "bconrath3");
+            Session manager = service.logIn("mfarrears0", "dshimoni0");
+            Map<String, Integer> pizza = Collections.singletonMap("Cheese Pizza", 1);
+
+            int odd = service.placeOrder(customer, 1, pizza).orderID();
+            int even = service.placeOrder(customer, 2, pizza).orderID();
+            // each shard draws orderIDs congruent to itself, above every existing one
+            assertEquals(1, Math.floorMod(odd, 2));
+            assertEquals(0, Math.floorMod(even, 2));
+            assertEquals(1, shard1.db().queryLong(COUNT, (Object) new Integer[] {odd}));
+            assertEquals(1, shard0.db().queryLong(COUNT, (Object) new Integer[] {even}));
+            assertEquals(0, shard0.db().queryLong(COUNT, (Object) new Integer[] {odd}));
+
+            assertEquals(1, service.order(manager, odd).storeID());
+            assertEquals(2, service.order(manager, even).storeID());
+            // moved by the split: 10000 is even but lives with store 967 on shard 1
+            assertNotNull(service.order(manager, 10000));
+            assertEquals(967, service.order(manager, 10000).storeID());
+            assertEquals(362, service.order(manager, 10002).storeID());
+         } finally {
+            service.close();
+         }
+      }
+   }//end splitThenRouteByStoreAndOrderID
+
+}//end ShardedStorageTest
@@ -0,0 +1,96 @@
+package pizzastore.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.TestDatabase;
+import pizzastore.storage.StoreRepository;
+import pizzastore.storage.postgres.PostgresStores;
+
+class StoreDirectoryTest {
+
+   /**
+    * The Store table in a list, counting reads.
+    */
+   private static final class Stores implements StoreRepository {
+      final List<Store> rows = new ArrayList<>();
+      int reads = 0;
+
+      @Override
+      public List<Store> all() {
+         reads++;
+         return new ArrayList<>(rows);
+      }//end all
+   }//end Stores
+
+   private static Store store(int storeID, String city, String state, boolean open, Double score) {
+      return new Store(storeID, storeID + " Main St", city, state, open ? "yes" : "no", score);
+   }//end store
+
+   private static List<Integer> ids(List<Store> stores) {
+      List<Integer> ids = new ArrayList<>();
+      for (Store s : stores) ids.add(s.storeID());
+      return ids;
+   }//end ids
+
+   @Test
+   void searchesAreBestReviewedFirstWithUnreviewedLast() throws Exception {
+      Stores table = new Stores();
+      table.rows.addAll(Arrays.asList(
+         store(1, "Portland", "Oregon", true, null),
+         store(2, "Portland", "Oregon", true, 3.0),
+         store(3, "Portsmouth", "Virginia", true, 5.0),
+         store(4, "Portland", "Oregon", false, 4.5),
+         store(5, "Salem", "oregon ", true, 0.0)));
+      StoreDirectory directory = new StoreDirectory(table);
+      StoreDirectory.Snapshot s = directory.snapshot();
+
+      assertEquals(Arrays.asList(3, 4, 2, 5, 1), ids(s.search(null, null, false, 10)));
+      assertEquals(Arrays.asList(4, 2, 5, 1), ids(s.search("OREGON", "", false, 10)));
+      assertEquals(Arrays.asList(3, 2, 1), ids(s.search(null, "port", true, 10)));
+      assertEquals(Arrays.asList(2, 1), ids(s.search("oregon", "portland", true, 10)));
+      assertEquals(Arrays.asList(3, 4), ids(s.search(null, null, false, 2)));
+      assertEquals(Arrays.asList(1, 2, 3, 4, 5), ids(s.all()));
+   }//end searchesAreBestReviewedFirstWithUnreviewedLast
+
+   @Test
+   void anUnknownStoreReloadsAtMostOncePerInterval() throws Exception {
+      Stores table = new Stores();
+      table.rows.add(store(1, "Portland", "Oregon", true, 4.0));
+      StoreDirectory directory = new StoreDirectory(table);
+      StoreDirectory.Snapshot first = directory.snapshot();
+
+      // the snapshot was just loaded, so misses do not read the table
+      for (int i = 0; i < 100; i++) assertNull(directory.find(2));
+      assertEquals(1, table.reads);
+      assertSame(first, directory.snapshot());
+
+      // the store_changes notification is what brings a new store in
+      table.rows.add(store(2, "Salem", "Oregon", true, 4.0));
+      directory.invalidate();
+      assertEquals(2, directory.find(2).storeID());
+      assertEquals(2, table.reads);
+   }//end anUnknownStoreReloadsAtMostOncePerInterval
+
+   @Test
+   void aStoreWithoutReviewsSortsLastWhenReadFromTheDatabase() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         db.db().executeUpdate("UPDATE Store SET reviewScore = NULL WHERE storeID = 3;");
+         // rated 0 and a higher storeID: read as 0.0, store 3 would come before it
+         db.db().executeUpdate("UPDATE Store SET reviewScore = 0 WHERE storeID = 4;");
+         StoreDirectory.Snapshot s = new StoreDirectory(new PostgresStores(db.db())).snapshot();
+         List<Store> all = s.search(null, null, false, s.size());
+         assertEquals(4, all.get(all.size() - 2).storeID());
+         assertEquals(3, all.get(all.size() - 1).storeID());
+         assertNull(s.find(3).reviewScore());
+      }
+   }//end aStoreWithoutReviewsSortsLastWhenReadFromTheDatabase
+
+}//end StoreDirectoryTest
@@ -0,0 +1,28 @@
+package pizzastore.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import pizzastore.TestDatabase;
+import pizzastore.storage.postgres.PostgresStores;
+
+class StoreTest {
+
+   @Test
+   void aNullScoreIsReadAsNull() throws Exception {
+      try (TestDatabase db = TestDatabase.create()) {
+         db.db().executeUpdate("UPDATE Store SET reviewScore = NULL WHERE storeID = 3;");
+         db.db().executeUpdate("UPDATE Store SET reviewScore = 0 WHERE storeID = 4;");
+         List<Store> stores = new PostgresStores(db.db()).all();
+         assertEquals(Double.valueOf(4), stores.get(1).reviewScore());
+         assertNull(stores.get(2).reviewScore());
+         assertEquals(Double.valueOf(0), stores.get(3).reviewScore());
+         assertEquals("yes", stores.get(2).isOpen());
+      }
+   }//end aNullScoreIsReadAsNull
+
+}//end StoreTest
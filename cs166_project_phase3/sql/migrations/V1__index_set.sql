@@ -0,0 +1,25 @@
+-- migrate:no-transaction
+-- The index set, replacing java/src/create_indexes.sql.  Built CONCURRENTLY
+-- so it can run against a live database without blocking order writes.
+--
+-- The primary keys already index Users(login), Items(itemName),
+-- Store(storeID), FoodOrder(orderID) and ItemsInOrder(orderID, itemName);
+-- the old copies of those only added write cost.
+DROP INDEX CONCURRENTLY IF EXISTS idx_users_login;
+DROP INDEX CONCURRENTLY IF EXISTS idx_items_itemName;
+DROP INDEX CONCURRENTLY IF EXISTS idx_store_storeID;
+DROP INDEX CONCURRENTLY IF EXISTS idx_foodorder_orderID;
+DROP INDEX CONCURRENTLY IF EXISTS idx_itemsinorder_orderID;
+
+-- a customer's orders, newest first (order history, recent orders, paging)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_foodorder_login_orderid ON FoodOrder (login, orderID DESC);
+DROP INDEX CONCURRENTLY IF EXISTS idx_foodorder_login;
+
+-- a store's orders, newest first; also serves the Store foreign key
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_foodorder_store_orderid ON FoodOrder (storeID, orderID DESC);
+
+-- whether an item was ever ordered; also serves the Items foreign key
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_itemsinorder_itemName ON ItemsInOrder (itemName);
+
+-- menu edits and deletes match the item name ignoring case
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_items_lower_itemname ON Items (LOWER(itemName));
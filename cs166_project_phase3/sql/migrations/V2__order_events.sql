@@ -0,0 +1,27 @@
+-- Publishes every placed order and every status change on the
+-- order_events channel (see pizzastore.events.OrderEvents).  NOTIFYs are
+-- delivered when the writing transaction commits, never for a rollback.
+-- Bulk loads set pizzastore.bulk_load so millions of copied rows do not
+-- flood the notification queue.
+CREATE OR REPLACE FUNCTION notify_order_event() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   IF TG_OP = 'UPDATE' AND OLD.orderStatus IS NOT DISTINCT FROM NEW.orderStatus THEN
+      RETURN NULL;
+   END IF;
+   PERFORM pg_notify('order_events', json_build_object(
+      'orderID', NEW.orderID,
+      'login', NEW.login,
+      'storeID', NEW.storeID,
+      'status', TRIM(NEW.orderStatus),
+      'placed', TG_OP = 'INSERT')::text);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS foodorder_events ON FoodOrder;
+CREATE TRIGGER foodorder_events
+   AFTER INSERT OR UPDATE OF orderStatus ON FoodOrder
+   FOR EACH ROW EXECUTE FUNCTION notify_order_event();
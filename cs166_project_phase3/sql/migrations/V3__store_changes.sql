@@ -0,0 +1,15 @@
+-- Announces any change to Store on the store_changes channel so the
+-- in-memory store directory (pizzastore.store.StoreDirectory) reloads.
+-- One notification per statement: the directory re-reads the whole table
+-- anyway, so which rows changed does not matter.
+CREATE OR REPLACE FUNCTION notify_store_change() RETURNS trigger AS $$
+BEGIN
+   PERFORM pg_notify('store_changes', TG_OP);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS store_changes ON Store;
+CREATE TRIGGER store_changes
+   AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Store
+   FOR EACH STATEMENT EXECUTE FUNCTION notify_store_change();
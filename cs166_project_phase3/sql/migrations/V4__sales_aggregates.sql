@@ -0,0 +1,106 @@
+-- Sales summaries for the manager reports (pizzastore.report.SalesReport).
+-- Statement-level triggers fold each INSERT into FoodOrder and ItemsInOrder
+-- into the summaries, so a multi-row insert (the group-commit writer, a
+-- COPY) costs one upsert per store-hour rather than one per order.
+-- Reports read only these tables and never touch the raw orders.
+--
+-- Orders that existed before this migration are folded in by the backfill
+-- job (pizzastore.report.SalesBackfill).  sales_backfill.high_water splits
+-- the work: the triggers count orders above it, the backfill orders at or
+-- below it, so no order is counted twice.  An orderID is drawn before its
+-- row is inserted, so an order below the mark may still commit after it;
+-- the backfill waits out the transactions open when it starts before
+-- folding anything.  Bulk loads (pizzastore.bulk_load = on) are skipped
+-- like the order notifications and land below no mark; count them with
+-- SalesBackfill --rebuild after loading, not a plain backfill run.
+
+-- orders and revenue per store per hour
+CREATE TABLE IF NOT EXISTS store_sales_hourly ( storeID integer NOT NULL,
+                           hour timestamp NOT NULL,
+                           orders bigint NOT NULL,
+                           revenue decimal(14,2) NOT NULL,
+                           PRIMARY KEY(storeID, hour)
+);
+
+-- all-time orders and revenue per store, for the average ticket
+CREATE TABLE IF NOT EXISTS store_sales_totals ( storeID integer NOT NULL,
+                           orders bigint NOT NULL,
+                           revenue decimal(14,2) NOT NULL,
+                           PRIMARY KEY(storeID)
+);
+
+-- units and revenue per store per item; revenue at the price when ordered
+CREATE TABLE IF NOT EXISTS store_item_sales ( storeID integer NOT NULL,
+                           itemName varchar(50) NOT NULL,
+                           quantity bigint NOT NULL,
+                           revenue decimal(14,2) NOT NULL,
+                           PRIMARY KEY(storeID, itemName)
+);
+CREATE INDEX IF NOT EXISTS idx_store_item_sales_top ON store_item_sales (storeID, quantity DESC);
+
+-- orders at or below high_water are the backfill's; done_through is its progress
+CREATE TABLE IF NOT EXISTS sales_backfill ( id integer PRIMARY KEY CHECK (id = 1),
+                           high_water integer NOT NULL,
+                           done_through integer NOT NULL
+);
+
+CREATE OR REPLACE FUNCTION fold_order_sales() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   -- sorted so concurrent writers lock summary rows in the same order
+   INSERT INTO store_sales_hourly AS s (storeID, hour, orders, revenue)
+      SELECT n.storeID, date_trunc('hour', n.orderTimestamp), count(*), sum(n.totalPrice)
+      FROM new_orders n
+      WHERE n.orderID > (SELECT high_water FROM sales_backfill)
+      GROUP BY 1, 2 ORDER BY 1, 2
+   ON CONFLICT (storeID, hour) DO UPDATE
+      SET orders = s.orders + EXCLUDED.orders, revenue = s.revenue + EXCLUDED.revenue;
+   INSERT INTO store_sales_totals AS s (storeID, orders, revenue)
+      SELECT n.storeID, count(*), sum(n.totalPrice)
+      FROM new_orders n
+      WHERE n.orderID > (SELECT high_water FROM sales_backfill)
+      GROUP BY 1 ORDER BY 1
+   ON CONFLICT (storeID) DO UPDATE
+      SET orders = s.orders + EXCLUDED.orders, revenue = s.revenue + EXCLUDED.revenue;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION fold_item_sales() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   INSERT INTO store_item_sales AS s (storeID, itemName, quantity, revenue)
+      SELECT f.storeID, n.itemName, sum(n.quantity), sum(n.quantity * i.price)
+      FROM new_items n
+      JOIN FoodOrder f ON f.orderID = n.orderID
+      JOIN Items i ON i.itemName = n.itemName
+      WHERE n.orderID > (SELECT high_water FROM sales_backfill)
+      GROUP BY 1, 2 ORDER BY 1, 2
+   ON CONFLICT (storeID, itemName) DO UPDATE
+      SET quantity = s.quantity + EXCLUDED.quantity, revenue = s.revenue + EXCLUDED.revenue;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS foodorder_sales ON FoodOrder;
+CREATE TRIGGER foodorder_sales
+   AFTER INSERT ON FoodOrder
+   REFERENCING NEW TABLE AS new_orders
+   FOR EACH STATEMENT EXECUTE FUNCTION fold_order_sales();
+
+DROP TRIGGER IF EXISTS itemsinorder_sales ON ItemsInOrder;
+CREATE TRIGGER itemsinorder_sales
+   AFTER INSERT ON ItemsInOrder
+   REFERENCING NEW TABLE AS new_items
+   FOR EACH STATEMENT EXECUTE FUNCTION fold_item_sales();
+
+-- taken after the triggers exist: creating them waited for every open
+-- insert into FoodOrder, so every order committed before this point is
+-- at or below the mark
+INSERT INTO sales_backfill (id, high_water, done_through)
+   SELECT 1, COALESCE(max(orderID), 0), 0 FROM FoodOrder
+   ON CONFLICT (id) DO NOTHING;
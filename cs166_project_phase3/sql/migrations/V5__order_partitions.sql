@@ -0,0 +1,308 @@
+-- Splits FoodOrder and ItemsInOrder by time so order queries only read the
+-- months they ask for, and old months can be taken out of the live tables.
+--
+--   FoodOrder                      LIST (orderStatus)
+--     foodorder_active             'Order Received', 'Preparing', 'Out for Delivery'
+--     foodorder_history            every other status, RANGE (orderTimestamp)
+--       foodorder_YYYY_MM          one per month
+--   ItemsInOrder                   RANGE (orderTimestamp)
+--     itemsinorder_YYYY_MM         one per month
+--     itemsinorder_default         months that have no partition yet
+--
+-- Orders in progress stay in the small foodorder_active table.  A status
+-- change to Delivered (or any other final status) moves the row into its
+-- month.  ItemsInOrder gets a copy of its order's orderTimestamp, so item
+-- lookups prune to one month as well.
+--
+-- foodorder_history has no default partition: one would keep the planner
+-- from reading the months in order and stopping once a LIMIT is met.
+-- Writing a finished order for a month without a partition therefore
+-- fails.  The maintenance below creates months ahead of time and every
+-- month that still has an order in progress; the bulk loader creates the
+-- months of the data it loads.
+--
+-- A unique or primary key of a partitioned table has to include the
+-- partition key, so FoodOrder can no longer have a primary key on orderID
+-- alone, and ItemsInOrder can no longer have a foreign key to it.  orderIDs
+-- stay unique because every writer takes them from foodorder_orderid_seq.
+-- Deleting an order deletes its items from a trigger instead of a cascade.
+--
+-- maintain_order_partitions() creates the coming months, moves rows out of
+-- the default items partition, and detaches months past the retention period
+-- into the order_archive schema.  pizzastore.schema.PartitionMaintainer
+-- runs it (scripts/migrate.sh partitions), and the service can run it on a
+-- timer.
+--
+-- The conversion rewrites both tables under an exclusive lock.  Apply it in
+-- a maintenance window.
+
+CREATE SCHEMA IF NOT EXISTS order_archive;
+
+-- the month bounds of the orderIDs in each history partition, used to
+-- bound lookups by orderID to a few months (pizzastore.order.OrderLookup)
+CREATE TABLE order_months ( month timestamp NOT NULL,
+                           min_order integer,
+                           max_order integer,
+                           archived boolean NOT NULL DEFAULT false,
+                           PRIMARY KEY(month)
+);
+
+ALTER TABLE FoodOrder RENAME TO foodorder_unpartitioned;
+ALTER TABLE ItemsInOrder RENAME TO itemsinorder_unpartitioned;
+ALTER TABLE foodorder_unpartitioned RENAME CONSTRAINT foodorder_pkey TO foodorder_unpartitioned_pkey;
+ALTER TABLE itemsinorder_unpartitioned RENAME CONSTRAINT itemsinorder_pkey TO itemsinorder_unpartitioned_pkey;
+
+CREATE TABLE FoodOrder ( orderID integer NOT NULL,
+                           login varchar(50) NOT NULL,
+                           storeID integer NOT NULL,
+                           totalPrice decimal(10,2) NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           orderStatus char(50),
+                           FOREIGN KEY(login) REFERENCES Users(login)
+                           ON DELETE CASCADE,
+                           FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                           ON DELETE CASCADE
+) PARTITION BY LIST (orderStatus);
+
+CREATE TABLE foodorder_active PARTITION OF FoodOrder
+   FOR VALUES IN ('Order Received', 'Preparing', 'Out for Delivery');
+
+CREATE TABLE foodorder_history PARTITION OF FoodOrder DEFAULT
+   PARTITION BY RANGE (orderTimestamp);
+
+CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
+                           itemName varchar(50) NOT NULL,
+                           quantity integer NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           PRIMARY KEY(orderID, itemName, orderTimestamp),
+                           FOREIGN KEY(itemName) REFERENCES Items(itemName)
+                           ON DELETE CASCADE
+) PARTITION BY RANGE (orderTimestamp);
+
+CREATE TABLE itemsinorder_default PARTITION OF ItemsInOrder DEFAULT;
+
+-- Creates the FoodOrder and ItemsInOrder partitions of every month from
+-- first to last that does not have one yet.  Items of such a month that
+-- sit in the default partition are moved into the new partition.
+CREATE OR REPLACE FUNCTION create_order_partitions(first timestamp, last timestamp) RETURNS integer AS $$
+DECLARE
+   starts timestamp;
+   ends timestamp;
+   created integer := 0;
+BEGIN
+   IF first IS NULL OR last IS NULL THEN
+      RETURN 0;
+   END IF;
+   -- concurrent loaders may ask for the same months
+   PERFORM pg_advisory_xact_lock(hashtext('create_order_partitions'));
+   -- keeps new items out of the default partition while their months move out
+   LOCK TABLE itemsinorder_default IN SHARE MODE;
+   starts := date_trunc('month', first);
+   WHILE starts <= last LOOP
+      ends := starts + interval '1 month';
+      IF to_regclass(format('public.foodorder_%s', to_char(starts, 'YYYY_MM'))) IS NULL THEN
+         EXECUTE format('CREATE TABLE public.foodorder_%s PARTITION OF foodorder_history '
+            'FOR VALUES FROM (%L) TO (%L)', to_char(starts, 'YYYY_MM'), starts, ends);
+         created := created + 1;
+      END IF;
+      IF to_regclass(format('public.itemsinorder_%s', to_char(starts, 'YYYY_MM'))) IS NULL THEN
+         EXECUTE format('CREATE TABLE public.itemsinorder_%s (LIKE ItemsInOrder INCLUDING DEFAULTS)',
+            to_char(starts, 'YYYY_MM'));
+         EXECUTE format('WITH moved AS (DELETE FROM itemsinorder_default '
+            'WHERE orderTimestamp >= %L AND orderTimestamp < %L RETURNING *) '
+            'INSERT INTO public.itemsinorder_%s SELECT * FROM moved', starts, ends, to_char(starts, 'YYYY_MM'));
+         EXECUTE format('ALTER TABLE ItemsInOrder ATTACH PARTITION public.itemsinorder_%s '
+            'FOR VALUES FROM (%L) TO (%L)', to_char(starts, 'YYYY_MM'), starts, ends);
+      END IF;
+      INSERT INTO order_months (month) VALUES (starts) ON CONFLICT (month) DO UPDATE SET archived = false;
+      starts := ends;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the partitions of the current month, the next months_ahead
+-- months and every month with an order in progress, moves items out of
+-- the default partition, refreshes order_months and detaches the months
+-- that ended more than keep_months ago (none when keep_months is null).
+-- A month with an order still in progress is kept.  Returns one line per
+-- change.
+CREATE OR REPLACE FUNCTION maintain_order_partitions(months_ahead integer, keep_months integer)
+      RETURNS SETOF text AS $$
+DECLARE
+   stray record;
+   m record;
+   n integer;
+BEGIN
+   n := create_order_partitions(date_trunc('month', LOCALTIMESTAMP),
+      date_trunc('month', LOCALTIMESTAMP) + make_interval(months => months_ahead));
+   -- an order in progress moves to the month it was placed in when it is finished
+   n := n + (SELECT COALESCE(sum(create_order_partitions(a.month, a.month)), 0)
+             FROM (SELECT DISTINCT date_trunc('month', orderTimestamp) AS month FROM foodorder_active) a);
+   IF n > 0 THEN
+      RETURN NEXT format('created %s month(s)', n);
+   END IF;
+
+   FOR stray IN
+      SELECT DISTINCT date_trunc('month', orderTimestamp) AS month FROM itemsinorder_default ORDER BY 1
+   LOOP
+      PERFORM create_order_partitions(stray.month, stray.month);
+      RETURN NEXT format('moved the items of %s out of the default partition', to_char(stray.month, 'YYYY-MM'));
+   END LOOP;
+
+   IF keep_months IS NOT NULL THEN
+      FOR m IN
+         SELECT o.month FROM order_months o
+         WHERE NOT o.archived
+           AND o.month + interval '1 month' <= date_trunc('month', LOCALTIMESTAMP) - make_interval(months => keep_months)
+           AND NOT EXISTS (SELECT 1 FROM foodorder_active a WHERE a.orderTimestamp < o.month + interval '1 month')
+         ORDER BY o.month
+      LOOP
+         IF to_regclass(format('public.foodorder_%s', to_char(m.month, 'YYYY_MM'))) IS NOT NULL THEN
+            EXECUTE format('ALTER TABLE foodorder_history DETACH PARTITION public.foodorder_%s',
+               to_char(m.month, 'YYYY_MM'));
+            EXECUTE format('ALTER TABLE public.foodorder_%s SET SCHEMA order_archive', to_char(m.month, 'YYYY_MM'));
+         END IF;
+         IF to_regclass(format('public.itemsinorder_%s', to_char(m.month, 'YYYY_MM'))) IS NOT NULL THEN
+            EXECUTE format('ALTER TABLE ItemsInOrder DETACH PARTITION public.itemsinorder_%s',
+               to_char(m.month, 'YYYY_MM'));
+            EXECUTE format('ALTER TABLE public.itemsinorder_%s SET SCHEMA order_archive', to_char(m.month, 'YYYY_MM'));
+         END IF;
+         UPDATE order_months SET archived = true WHERE month = m.month;
+         RETURN NEXT format('archived %s', to_char(m.month, 'YYYY-MM'));
+      END LOOP;
+   END IF;
+
+   -- each bound is one probe of the orderID index of a single partition
+   UPDATE order_months o
+      SET min_order = (SELECT min(f.orderID) FROM foodorder_history f
+                       WHERE f.orderTimestamp >= o.month AND f.orderTimestamp < o.month + interval '1 month'),
+          max_order = (SELECT max(f.orderID) FROM foodorder_history f
+                       WHERE f.orderTimestamp >= o.month AND f.orderTimestamp < o.month + interval '1 month')
+      WHERE NOT o.archived;
+   RETURN;
+END;
+$$ LANGUAGE plpgsql;
+
+-- only the months that have orders; old data is often sparse
+SELECT create_order_partitions(o.month, o.month)
+   FROM (SELECT DISTINCT date_trunc('month', orderTimestamp) AS month FROM foodorder_unpartitioned) o;
+
+-- the triggers on the new tables do not exist yet, so nothing is notified or counted twice
+INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus)
+   SELECT orderID, login, storeID, totalPrice, orderTimestamp, orderStatus FROM foodorder_unpartitioned;
+INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp)
+   SELECT i.orderID, i.itemName, i.quantity, f.orderTimestamp
+   FROM itemsinorder_unpartitioned i JOIN foodorder_unpartitioned f ON f.orderID = i.orderID;
+
+DROP TABLE itemsinorder_unpartitioned;
+DROP TABLE foodorder_unpartitioned;
+
+-- Every index is created on the parent and exists on each partition.
+-- Listings read newest first by (orderTimestamp, orderID), so a LIMIT
+-- stops in the newest partitions; lookups by orderID probe one partition
+-- once the month is known.
+CREATE INDEX idx_foodorder_orderid ON FoodOrder (orderID);
+CREATE INDEX idx_foodorder_time ON FoodOrder (orderTimestamp DESC, orderID DESC);
+CREATE INDEX idx_foodorder_login_time ON FoodOrder (login, orderTimestamp DESC, orderID DESC);
+CREATE INDEX idx_foodorder_store_time ON FoodOrder (storeID, orderTimestamp DESC, orderID DESC);
+CREATE INDEX idx_itemsinorder_itemName ON ItemsInOrder (itemName);
+
+-- The row-level notification trigger of V2 cannot stay: a status change
+-- that moves an order into history is a delete plus an insert, and would
+-- fire as a newly placed order.  Statement-level triggers are not fired
+-- for that insert, and their transition tables hold the moved rows.
+CREATE OR REPLACE FUNCTION notify_orders_placed() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   PERFORM pg_notify('order_events', json_build_object(
+      'orderID', n.orderID,
+      'login', n.login,
+      'storeID', n.storeID,
+      'status', TRIM(n.orderStatus),
+      'placed', true)::text)
+   FROM new_orders n ORDER BY n.orderID;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_order_status() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   PERFORM pg_notify('order_events', json_build_object(
+      'orderID', n.orderID,
+      'login', n.login,
+      'storeID', n.storeID,
+      'status', TRIM(n.orderStatus),
+      'placed', false)::text)
+   FROM old_orders o JOIN new_orders n ON n.orderID = o.orderID
+   WHERE o.orderStatus IS DISTINCT FROM n.orderStatus
+   ORDER BY n.orderID;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP FUNCTION IF EXISTS notify_order_event();
+
+CREATE TRIGGER foodorder_placed_events
+   AFTER INSERT ON FoodOrder
+   REFERENCING NEW TABLE AS new_orders
+   FOR EACH STATEMENT EXECUTE FUNCTION notify_orders_placed();
+
+CREATE TRIGGER foodorder_status_events
+   AFTER UPDATE ON FoodOrder
+   REFERENCING OLD TABLE AS old_orders NEW TABLE AS new_orders
+   FOR EACH STATEMENT EXECUTE FUNCTION notify_order_status();
+
+-- replaces the ON DELETE CASCADE of the old foreign key; statement-level so
+-- an order moving between partitions keeps its items
+CREATE OR REPLACE FUNCTION delete_order_items() RETURNS trigger AS $$
+BEGIN
+   DELETE FROM ItemsInOrder i USING old_orders o
+   WHERE i.orderID = o.orderID AND i.orderTimestamp = o.orderTimestamp;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER foodorder_delete_items
+   AFTER DELETE ON FoodOrder
+   REFERENCING OLD TABLE AS old_orders
+   FOR EACH STATEMENT EXECUTE FUNCTION delete_order_items();
+
+-- the sales triggers of V4, on the new tables; items now carry the order
+-- time, so finding the store of each line probes a single month
+CREATE OR REPLACE FUNCTION fold_item_sales() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   INSERT INTO store_item_sales AS s (storeID, itemName, quantity, revenue)
+      SELECT f.storeID, n.itemName, sum(n.quantity), sum(n.quantity * i.price)
+      FROM new_items n
+      JOIN FoodOrder f ON f.orderID = n.orderID AND f.orderTimestamp = n.orderTimestamp
+      JOIN Items i ON i.itemName = n.itemName
+      WHERE n.orderID > (SELECT high_water FROM sales_backfill)
+      GROUP BY 1, 2 ORDER BY 1, 2
+   ON CONFLICT (storeID, itemName) DO UPDATE
+      SET quantity = s.quantity + EXCLUDED.quantity, revenue = s.revenue + EXCLUDED.revenue;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER foodorder_sales
+   AFTER INSERT ON FoodOrder
+   REFERENCING NEW TABLE AS new_orders
+   FOR EACH STATEMENT EXECUTE FUNCTION fold_order_sales();
+
+CREATE TRIGGER itemsinorder_sales
+   AFTER INSERT ON ItemsInOrder
+   REFERENCING NEW TABLE AS new_items
+   FOR EACH STATEMENT EXECUTE FUNCTION fold_item_sales();
+
+SELECT count(*) FROM maintain_order_partitions(3, NULL);
+
+ANALYZE FoodOrder, ItemsInOrder;
@@ -0,0 +1,21 @@
+-- Adds the price and time of a placed order to its notification, so the
+-- recent-orders cache (pizzastore.order.RecentOrders) of every process can
+-- put the new row in place instead of dropping the lists it belongs to.
+-- Status changes are unchanged.
+CREATE OR REPLACE FUNCTION notify_orders_placed() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.bulk_load', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   PERFORM pg_notify('order_events', json_build_object(
+      'orderID', n.orderID,
+      'login', n.login,
+      'storeID', n.storeID,
+      'status', TRIM(n.orderStatus),
+      'placed', true,
+      'totalPrice', n.totalPrice,
+      'orderTimestamp', n.orderTimestamp)::text)
+   FROM new_orders n ORDER BY n.orderID;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
@@ -3,6 +3,7 @@ DROP TABLE IF EXISTS Items CASCADE;
 DROP TABLE IF EXISTS FoodOrder CASCADE;
 DROP TABLE IF EXISTS Store CASCADE;
 DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP SEQUENCE IF EXISTS foodorder_orderid_seq;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -43,6 +44,9 @@ CREATE TABLE FoodOrder ( orderID integer NOT NULL,
 );
 
 
+-- orderIDs for new orders (placeOrder uses NEXTVAL), advanced past the
+-- loaded data at the end of load_data.sql
+CREATE SEQUENCE foodorder_orderid_seq;
 
 CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
                            itemName varchar(50) NOT NULL,
@@ -18,3 +18,5 @@ WITH DELIMITER ',' CSV HEADER;
 COPY ItemsInOrder
 FROM '/home/csmajs/bsaav006/cs166_project_phase3/data/itemsinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+SELECT setval('foodorder_orderid_seq', (SELECT MAX(orderID) FROM FoodOrder));